@@ -0,0 +1,72 @@
+package cc.commandmanager.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.commandmanager.core.CommandGraph;
+import cc.commandmanager.core.Try;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Loading catalogs with {@linkplain CommandGraph#fromXml(File)}. Catalogs cannot declare dependencies, as they are
+ * obtained from the command classes, so the catalog consists of independent {@linkplain NoOpCommand}s.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CatalogBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int size;
+
+	private File catalog;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		catalog = File.createTempFile("catalog", ".xml");
+		Writer writer = Files.newWriter(catalog, Charsets.UTF_8);
+		try {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<catalog>\n");
+			for (int i = 0; i < size; i++) {
+				writer.write("\t<command name=\"c" + i + "\" className=\"" + NoOpCommand.class.getName() + "\" />\n");
+			}
+			writer.write("</catalog>\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (!catalog.delete()) {
+			catalog.deleteOnExit();
+		}
+	}
+
+	@Benchmark
+	public Try<CommandGraph> fromXml() {
+		return CommandGraph.fromXml(catalog);
+	}
+
+}
@@ -0,0 +1,95 @@
+package cc.commandmanager.benchmarks;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.commandmanager.core.CommandClass;
+import cc.commandmanager.core.CommandGraph;
+import cc.commandmanager.core.ExecutionProgram;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Building {@linkplain CommandGraph}s and querying them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandGraphBenchmark {
+
+	@Param({ "CHAIN", "FAN_OUT", "LAYERED", "DIAMONDS", "RANDOM", "COMPONENTS" })
+	public GraphShape shape;
+
+	@Param({ "100", "1000", "10000" })
+	public int size;
+
+	private CommandGraph graph;
+	private List<CommandClass> subset;
+
+	/**
+	 * Graph whose connected components and execution program have not been computed yet, as they are cached.
+	 */
+	private CommandGraph uncachedGraph;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		graph = shape.build(size);
+		subset = Lists.newArrayList();
+		List<CommandClass> commands = GraphShape.commands(size);
+		// every tenth command in reverse order
+		for (int i = size - 1; i >= 0; i -= 10) {
+			subset.add(commands.get(i));
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpInvocation() {
+		uncachedGraph = shape.build(size);
+	}
+
+	/**
+	 * Adds all commands and dependencies to a builder and builds the graph.
+	 */
+	@Benchmark
+	public CommandGraph build() {
+		return shape.build(size);
+	}
+
+	@Benchmark
+	public List<CommandClass> topologicalOrderOfSubset() {
+		return graph.topologicalOrderOf(subset);
+	}
+
+	@Benchmark
+	public List<CommandClass> topologicalOrderOfAllCommands() {
+		return graph.topologicalOrderOfAllCommands();
+	}
+
+	@Benchmark
+	public Set<CommandGraph> getConnectedComponents() {
+		return uncachedGraph.getConnectedComponents();
+	}
+
+	@Benchmark
+	public ExecutionProgram getExecutionProgram() {
+		return uncachedGraph.getExecutionProgram();
+	}
+
+}
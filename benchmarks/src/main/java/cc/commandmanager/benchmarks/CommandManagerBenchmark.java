@@ -0,0 +1,69 @@
+package cc.commandmanager.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.commandmanager.core.CommandManager;
+import cc.commandmanager.core.ComposedResultState;
+import cc.commandmanager.core.ExecutionListener;
+
+/**
+ * Executing graphs of {@linkplain NoOpCommand}s, so the measured time is the overhead of the framework. Divide it by
+ * the size to obtain the overhead per command. No listeners are registered, so logging is not measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandManagerBenchmark {
+
+	@Param({ "CHAIN", "FAN_OUT", "LAYERED", "DIAMONDS", "RANDOM", "COMPONENTS" })
+	public GraphShape shape;
+
+	@Param({ "100", "1000" })
+	public int size;
+
+	@Param({ "1", "4" })
+	public int parallelism;
+
+	private CommandManager manager;
+	private String lastCommand;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		manager = new CommandManager(shape.build(size));
+		manager.setParallelism(parallelism);
+		for (ExecutionListener listener : manager.getExecutionListeners()) {
+			manager.removeExecutionListener(listener);
+		}
+		lastCommand = "c" + (size - 1);
+	}
+
+	@Benchmark
+	public ComposedResultState executeAllCommands() {
+		return manager.executeAllCommands();
+	}
+
+	/**
+	 * Computes the closure of the dependencies of the last command and executes it.
+	 */
+	@Benchmark
+	public ComposedResultState executeCommandsGracefully() {
+		return manager.executeCommandsGracefully(lastCommand);
+	}
+
+}
@@ -0,0 +1,72 @@
+package cc.commandmanager.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.commandmanager.core.Context;
+import cc.commandmanager.core.ContextKey;
+
+/**
+ * Binding values to and getting them from a {@linkplain Context} of 100 bindings by plain and typed keys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContextBenchmark {
+
+	private static final int BINDINGS = 100;
+
+	private static final ContextKey<String> TYPED_KEY = ContextKey.of("typed", String.class);
+	private static final ContextKey.IntKey INT_KEY = ContextKey.ofInt("int");
+
+	private Context context;
+	private String value = "value";
+
+	@Setup
+	public void setUp() {
+		context = new Context();
+		for (int i = 0; i < BINDINGS; i++) {
+			context.bind("key" + i, value);
+		}
+		context.bind(TYPED_KEY, value);
+		context.bind(INT_KEY, 42);
+	}
+
+	/**
+	 * Binds and unbinds a value, as a key cannot be bound twice.
+	 */
+	@Benchmark
+	public void bindAndUnbind() {
+		context.bind("new", value);
+		context.unbind("new");
+	}
+
+	@Benchmark
+	public Object get() {
+		return context.get("key50");
+	}
+
+	@Benchmark
+	public String getTyped() {
+		return context.get(TYPED_KEY);
+	}
+
+	@Benchmark
+	public int getInt() {
+		return context.getInt(INT_KEY);
+	}
+
+}
@@ -0,0 +1,52 @@
+package cc.commandmanager.benchmarks;
+
+import cc.commandmanager.core.CommandClass;
+import cc.commandmanager.core.ComposedResultState;
+import cc.commandmanager.core.ExecutionListenerAdapter;
+
+/**
+ * Records the end of planning and the end of one execution. Executors notifying listeners are observed, others report
+ * the times themselves.
+ */
+final class ExecutionTiming extends ExecutionListenerAdapter {
+
+	private volatile long planned;
+	private volatile long finished;
+
+	@Override
+	public synchronized void commandStarted(CommandClass command, int attempt, long queuedNanoTime, long nanoTime) {
+		if (planned == 0) {
+			planned = nanoTime;
+		}
+	}
+
+	@Override
+	public void executionFinished(ComposedResultState result, long nanoTime) {
+		finished = nanoTime;
+	}
+
+	/**
+	 * @param nanoTime
+	 *            at which the first command can be started
+	 */
+	void planned(long nanoTime) {
+		planned = nanoTime;
+	}
+
+	/**
+	 * @param nanoTime
+	 *            at which the last command has completed
+	 */
+	void finished(long nanoTime) {
+		finished = nanoTime;
+	}
+
+	long getPlanned() {
+		return planned;
+	}
+
+	long getFinished() {
+		return finished;
+	}
+
+}
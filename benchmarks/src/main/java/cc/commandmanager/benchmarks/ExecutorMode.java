@@ -0,0 +1,78 @@
+package cc.commandmanager.benchmarks;
+
+import cc.commandmanager.core.CommandGraph;
+import cc.commandmanager.core.CommandManager;
+import cc.commandmanager.core.ComposedResultState;
+import cc.commandmanager.core.Context;
+import cc.commandmanager.core.ExecutionListener;
+import cc.commandmanager.core.FastPathPlan;
+
+/**
+ * Ways of executing all commands of a graph compared by the {@linkplain ScalingBenchmark}.
+ */
+public enum ExecutorMode {
+
+	/**
+	 * {@linkplain CommandManager} executing one command after another.
+	 */
+	SEQUENTIAL {
+
+		@Override
+		ComposedResultState execute(CommandGraph graph, Context context, ExecutionTiming timing) {
+			return newManager(graph, 1, timing).executeAllCommands(context);
+		}
+
+	},
+
+	/**
+	 * {@linkplain CommandManager} executing independent commands on one thread per available processor.
+	 */
+	PARALLEL {
+
+		@Override
+		ComposedResultState execute(CommandGraph graph, Context context, ExecutionTiming timing) {
+			return newManager(graph, Runtime.getRuntime().availableProcessors(), timing).executeAllCommands(context);
+		}
+
+	},
+
+	/**
+	 * {@linkplain FastPathPlan} compiled from a sequential {@linkplain CommandManager} for every execution, so
+	 * instantiating the commands is part of the plan time. The execution program of the graph is compiled by the
+	 * warm-up run only, as it is cached.
+	 */
+	FAST_PATH {
+
+		@Override
+		ComposedResultState execute(CommandGraph graph, Context context, ExecutionTiming timing) {
+			FastPathPlan plan = newManager(graph, 1, timing).compileFastPath();
+			timing.planned(System.nanoTime());
+			plan.execute(context);
+			timing.finished(System.nanoTime());
+			return plan.getResult();
+		}
+
+	};
+
+	/**
+	 * Executes all commands of the given graph.
+	 *
+	 * @param timing
+	 *            recording the end of planning and of the execution
+	 */
+	abstract ComposedResultState execute(CommandGraph graph, Context context, ExecutionTiming timing);
+
+	/**
+	 * @return a manager having only the given listener registered
+	 */
+	static CommandManager newManager(CommandGraph graph, int parallelism, ExecutionListener listener) {
+		CommandManager manager = new CommandManager(graph);
+		manager.setParallelism(parallelism);
+		for (ExecutionListener registered : manager.getExecutionListeners()) {
+			manager.removeExecutionListener(registered);
+		}
+		manager.addExecutionListener(listener);
+		return manager;
+	}
+
+}
@@ -0,0 +1,66 @@
+package cc.commandmanager.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cc.commandmanager.core.CommandManager;
+import cc.commandmanager.core.ComposedResultState;
+import cc.commandmanager.core.Context;
+import cc.commandmanager.core.ExecutionListener;
+import cc.commandmanager.core.FastPathPlan;
+
+/**
+ * Executing graphs of {@linkplain NoOpCommand}s sequentially by a {@linkplain CommandManager} and by a
+ * {@linkplain FastPathPlan} compiled once. Divide the time by the size to obtain the overhead per command.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FastPathBenchmark {
+
+	@Param({ "CHAIN", "LAYERED", "RANDOM" })
+	public GraphShape shape;
+
+	@Param({ "1000", "100000" })
+	public int size;
+
+	private CommandManager manager;
+	private FastPathPlan plan;
+	private Context context;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		manager = new CommandManager(shape.build(size));
+		for (ExecutionListener listener : manager.getExecutionListeners()) {
+			manager.removeExecutionListener(listener);
+		}
+		plan = manager.compileFastPath();
+		context = new Context();
+	}
+
+	@Benchmark
+	public ComposedResultState executeAllCommands() {
+		return manager.executeAllCommands(context);
+	}
+
+	@Benchmark
+	public boolean executeFastPath() {
+		return plan.execute(context);
+	}
+
+}
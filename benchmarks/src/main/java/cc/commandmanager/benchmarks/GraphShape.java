@@ -0,0 +1,149 @@
+package cc.commandmanager.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+
+import cc.commandmanager.core.CommandClass;
+import cc.commandmanager.core.CommandGraph;
+import cc.commandmanager.core.CommandGraph.CommandGraphBuilder;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Shapes of the graphs benchmarks are run on. Commands are named {@code c0} to {@code c<size - 1>} in a topological
+ * order, i.e. every command only depends on commands with lower numbers. Use {@linkplain SyntheticGraph} to generate
+ * graphs of a shape.
+ */
+public enum GraphShape {
+
+	/**
+	 * Every command depends on its predecessor.
+	 */
+	CHAIN {
+
+		@Override
+		void addDependencies(CommandGraphBuilder builder, List<CommandClass> commands, double density, Random random) {
+			for (int i = 1; i < commands.size(); i++) {
+				builder.addMandatoryDependency(commands.get(i), commands.get(i - 1));
+			}
+		}
+
+	},
+
+	/**
+	 * Every command depends on the first command.
+	 */
+	FAN_OUT {
+
+		@Override
+		void addDependencies(CommandGraphBuilder builder, List<CommandClass> commands, double density, Random random) {
+			for (int i = 1; i < commands.size(); i++) {
+				builder.addMandatoryDependency(commands.get(i), commands.get(0));
+			}
+		}
+
+	},
+
+	/**
+	 * Layers of {@value #LAYER_WIDTH} commands, every command depends on two commands of the previous layer.
+	 */
+	LAYERED {
+
+		@Override
+		void addDependencies(CommandGraphBuilder builder, List<CommandClass> commands, double density, Random random) {
+			for (int i = LAYER_WIDTH; i < commands.size(); i++) {
+				int previousLayer = (i / LAYER_WIDTH - 1) * LAYER_WIDTH;
+				builder.addMandatoryDependency(commands.get(i), commands.get(previousLayer + i % LAYER_WIDTH));
+				builder.addMandatoryDependency(commands.get(i), commands.get(previousLayer + (i + 1) % LAYER_WIDTH));
+			}
+		}
+
+	},
+
+	/**
+	 * Chained diamonds: every diamond consists of a top command, two commands depending on it and a bottom command
+	 * depending on both, which is the top command of the next diamond.
+	 */
+	DIAMONDS {
+
+		@Override
+		void addDependencies(CommandGraphBuilder builder, List<CommandClass> commands, double density, Random random) {
+			for (int i = 1; i < commands.size(); i++) {
+				int top = (i - 1) / 3 * 3;
+				if (i % 3 == 0) {
+					builder.addMandatoryDependency(commands.get(i), commands.get(i - 1));
+					builder.addMandatoryDependency(commands.get(i), commands.get(i - 2));
+				} else {
+					builder.addMandatoryDependency(commands.get(i), commands.get(top));
+				}
+			}
+		}
+
+	},
+
+	/**
+	 * Every command depends on randomly chosen preceding commands. The density is the average number of dependencies
+	 * per command, its fraction is the probability of an additional dependency.
+	 */
+	RANDOM {
+
+		@Override
+		void addDependencies(CommandGraphBuilder builder, List<CommandClass> commands, double density, Random random) {
+			for (int i = 1; i < commands.size(); i++) {
+				int dependencies = (int) density + (random.nextDouble() < density - (int) density ? 1 : 0);
+				for (int j = 0; j < dependencies; j++) {
+					builder.addMandatoryDependency(commands.get(i), commands.get(random.nextInt(i)));
+				}
+			}
+		}
+
+	},
+
+	/**
+	 * Independent chains of {@value #COMPONENT_SIZE} commands.
+	 */
+	COMPONENTS {
+
+		@Override
+		void addDependencies(CommandGraphBuilder builder, List<CommandClass> commands, double density, Random random) {
+			for (int i = 1; i < commands.size(); i++) {
+				if (i % COMPONENT_SIZE != 0) {
+					builder.addMandatoryDependency(commands.get(i), commands.get(i - 1));
+				}
+			}
+		}
+
+	};
+
+	static final int LAYER_WIDTH = 10;
+	static final int COMPONENT_SIZE = 10;
+
+	/**
+	 * @return {@code size} {@linkplain NoOpCommand}s named in a topological order of every shape
+	 */
+	public static List<CommandClass> commands(int size) {
+		return commands(size, NoOpCommand.class.getName());
+	}
+
+	static List<CommandClass> commands(int size, String className) {
+		List<CommandClass> commands = Lists.newArrayListWithCapacity(size);
+		for (int i = 0; i < size; i++) {
+			commands.add(new CommandClass("c" + i, className));
+		}
+		return commands;
+	}
+
+	/**
+	 * @return a new graph of this shape having {@code size} {@linkplain NoOpCommand}s and a density of {@code 2}
+	 */
+	public CommandGraph build(int size) {
+		return SyntheticGraph.builder(this).size(size).build().getGraph();
+	}
+
+	/**
+	 * Adds the dependencies between the given commands, which are named in a topological order.
+	 */
+	abstract void addDependencies(CommandGraphBuilder builder, List<CommandClass> commands, double density,
+			Random random);
+
+}
@@ -0,0 +1,19 @@
+package cc.commandmanager.benchmarks;
+
+import cc.commandmanager.core.Context;
+import cc.commandmanager.core.ResultState;
+import cc.commandmanager.core.SimpleCommand;
+
+/**
+ * Command doing nothing, so benchmarks executing it measure the overhead of the framework.
+ */
+public class NoOpCommand extends SimpleCommand {
+
+	private static final ResultState SUCCESS = ResultState.success();
+
+	@Override
+	public ResultState execute(Context context) {
+		return SUCCESS;
+	}
+
+}
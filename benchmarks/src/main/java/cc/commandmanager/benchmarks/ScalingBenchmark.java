@@ -0,0 +1,122 @@
+package cc.commandmanager.benchmarks;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import cc.commandmanager.core.ComposedResultState;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+
+/**
+ * Macro benchmark showing how the command manager scales with the number of commands. For every shape and size, a
+ * {@linkplain SyntheticGraph} is generated and executed by every {@linkplain ExecutorMode}. One line of comma
+ * separated values is printed per shape, size and mode:
+ * <ul>
+ * <li>the number of dependencies,
+ * <li>the time to build the graph,
+ * <li>the heap footprint of the graph,
+ * <li>the plan time, i.e. the time from calling the executor to the start of the first command, and
+ * <li>the makespan, i.e. the time from calling the executor to the end of the execution.
+ * </ul>
+ * Times are the medians of several runs after a warm-up run. Options are given as {@code --name=value}:
+ * {@code sizes}, {@code shapes} and {@code modes} as comma separated lists, {@code density}, {@code seed},
+ * {@code workload}, {@code amount} and {@code runs}. Large graphs need a large heap, e.g. {@code -Xmx8g} for a million
+ * commands:
+ *
+ * <pre>
+ * java -Xmx8g -cp benchmarks.jar cc.commandmanager.benchmarks.ScalingBenchmark --sizes=1000000 --shapes=RANDOM
+ * </pre>
+ */
+public final class ScalingBenchmark {
+
+	private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private ScalingBenchmark() {
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		Map<String, String> options = Maps.newHashMap();
+		options.put("sizes", "10000,100000,1000000");
+		options.put("shapes", Joiner.on(',').join(GraphShape.values()));
+		options.put("modes", Joiner.on(',').join(ExecutorMode.values()));
+		options.put("density", "2");
+		options.put("seed", "0");
+		options.put("workload", Workload.NONE.name());
+		options.put("amount", "0");
+		options.put("runs", "3");
+		for (String arg : args) {
+			if (!arg.startsWith("--") || !arg.contains("=")
+					|| !options.containsKey(arg.substring(2, arg.indexOf('=')))) {
+				throw new IllegalArgumentException("Unknown option " + arg + ", options are "
+						+ options.keySet());
+			}
+			options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+		}
+
+		PrintStream out = System.out;
+		out.println("shape,size,dependencies,buildMillis,heapBytes,mode,planMillis,makespanMillis");
+		for (String shape : Splitter.on(',').split(options.get("shapes"))) {
+			for (String size : Splitter.on(',').split(options.get("sizes"))) {
+				SyntheticGraph.SyntheticGraphBuilder builder = SyntheticGraph.builder(GraphShape.valueOf(shape))
+						.size(Integer.parseInt(size)).density(Double.parseDouble(options.get("density")))
+						.seed(Long.parseLong(options.get("seed")))
+						.workload(Workload.valueOf(options.get("workload")), Long.parseLong(options.get("amount")));
+
+				long heapBefore = usedHeap();
+				long start = System.nanoTime();
+				SyntheticGraph graph = builder.build();
+				long buildNanos = System.nanoTime() - start;
+				long heapBytes = usedHeap() - heapBefore;
+
+				for (String mode : Splitter.on(',').split(options.get("modes"))) {
+					long[] times = measure(graph, ExecutorMode.valueOf(mode), Integer.parseInt(options.get("runs")));
+					out.println(Joiner.on(',').join(shape, size, graph.getDependencies(), buildNanos / MILLI,
+							heapBytes, mode, millis(times[0]), millis(times[1])));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return median plan time and makespan in nanoseconds
+	 */
+	private static long[] measure(SyntheticGraph graph, ExecutorMode mode, int runs) {
+		long[] planTimes = new long[runs];
+		long[] makespans = new long[runs];
+		for (int run = -1; run < runs; run++) {
+			ExecutionTiming timing = new ExecutionTiming();
+			long start = System.nanoTime();
+			ComposedResultState result = mode.execute(graph.getGraph(), graph.newContext(), timing);
+			if (!result.isSuccess()) {
+				throw new IllegalStateException(mode + " failed: " + result);
+			}
+			if (run >= 0) {
+				planTimes[run] = timing.getPlanned() - start;
+				makespans[run] = timing.getFinished() - start;
+			}
+		}
+		Arrays.sort(planTimes);
+		Arrays.sort(makespans);
+		return new long[] { planTimes[runs / 2], makespans[runs / 2] };
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.3f", (double) nanos / MILLI);
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+}
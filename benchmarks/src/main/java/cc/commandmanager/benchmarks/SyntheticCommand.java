@@ -0,0 +1,24 @@
+package cc.commandmanager.benchmarks;
+
+import cc.commandmanager.core.Context;
+import cc.commandmanager.core.ContextKey;
+import cc.commandmanager.core.ResultState;
+import cc.commandmanager.core.SimpleCommand;
+
+/**
+ * Command performing the {@linkplain Workload} bound to its context, see {@linkplain SyntheticGraph#newContext()}.
+ */
+public class SyntheticCommand extends SimpleCommand {
+
+	public static final ContextKey<Workload> WORKLOAD = ContextKey.of("synthetic.workload", Workload.class);
+	public static final ContextKey.LongKey AMOUNT = ContextKey.ofLong("synthetic.amount");
+
+	private static final ResultState SUCCESS = ResultState.success();
+
+	@Override
+	public ResultState execute(Context context) {
+		context.get(WORKLOAD).perform(context.getLong(AMOUNT));
+		return SUCCESS;
+	}
+
+}
@@ -0,0 +1,142 @@
+package cc.commandmanager.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+
+import net.sf.qualitycheck.Check;
+import cc.commandmanager.core.CommandClass;
+import cc.commandmanager.core.CommandGraph;
+import cc.commandmanager.core.CommandGraph.CommandGraphBuilder;
+import cc.commandmanager.core.Context;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Generated {@linkplain CommandGraph} of a {@linkplain GraphShape} whose commands perform a {@linkplain Workload}.
+ * Graphs are generated deterministically from a seed, so runs on different versions can be compared.
+ * <p>
+ * Commands are added to the builder in reverse order, i.e. dependents before their dependencies, which is the order
+ * the underlying graph keeps its vertices in. Otherwise, every added dependency reorders the vertices it reaches by a
+ * recursive search, which takes quadratic time and overflows the stack for long chains.
+ */
+public final class SyntheticGraph {
+
+	private final CommandGraph graph;
+	private final int dependencies;
+	private final Workload workload;
+	private final long amount;
+
+	private SyntheticGraph(SyntheticGraphBuilder builder) {
+		String className = builder.workload == Workload.NONE ? NoOpCommand.class.getName() : SyntheticCommand.class
+				.getName();
+		List<CommandClass> commands = GraphShape.commands(builder.size, className);
+		CommandGraphBuilder graphBuilder = new CommandGraphBuilder(Lists.reverse(commands));
+		builder.shape.addDependencies(graphBuilder, commands, builder.density, new Random(builder.seed));
+		graph = graphBuilder.build();
+		int count = 0;
+		for (CommandClass command : commands) {
+			count += graph.getDependencies(command.getName()).size();
+		}
+		dependencies = count;
+		workload = builder.workload;
+		amount = builder.amount;
+	}
+
+	/**
+	 * @return a new {@linkplain SyntheticGraphBuilder} generating 1000 commands without work and a density of
+	 *         {@code 2}
+	 */
+	public static SyntheticGraphBuilder builder(GraphShape shape) {
+		return new SyntheticGraphBuilder(shape);
+	}
+
+	public CommandGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return number of dependencies between the commands
+	 */
+	public int getDependencies() {
+		return dependencies;
+	}
+
+	/**
+	 * @return a new context the commands of this graph have to be executed with
+	 */
+	public Context newContext() {
+		Context context = new Context();
+		context.bind(SyntheticCommand.WORKLOAD, workload);
+		context.bind(SyntheticCommand.AMOUNT, amount);
+		return context;
+	}
+
+	/**
+	 * Builder for {@linkplain SyntheticGraph}s.
+	 */
+	public static class SyntheticGraphBuilder {
+
+		private final GraphShape shape;
+		private int size = 1000;
+		private double density = 2;
+		private long seed = 0;
+		private Workload workload = Workload.NONE;
+		private long amount = 0;
+
+		private SyntheticGraphBuilder(GraphShape shape) {
+			this.shape = Check.notNull(shape, "shape");
+		}
+
+		/**
+		 * @param size
+		 *            number of commands. Must be at least {@code 1}.
+		 */
+		public SyntheticGraphBuilder size(int size) {
+			Check.stateIsTrue(size >= 1, "size must be at least 1");
+			this.size = size;
+			return this;
+		}
+
+		/**
+		 * @param density
+		 *            average number of dependencies per command of {@linkplain GraphShape#RANDOM} graphs. Must not be
+		 *            negative.
+		 */
+		public SyntheticGraphBuilder density(double density) {
+			Check.stateIsTrue(density >= 0, "density must not be negative");
+			this.density = density;
+			return this;
+		}
+
+		/**
+		 * @param seed
+		 *            of the random generator choosing dependencies
+		 */
+		public SyntheticGraphBuilder seed(long seed) {
+			this.seed = seed;
+			return this;
+		}
+
+		/**
+		 * @param workload
+		 *            performed by every command
+		 * @param amount
+		 *            of work in microseconds or bytes, see {@linkplain Workload}
+		 */
+		public SyntheticGraphBuilder workload(Workload workload, long amount) {
+			this.workload = Check.notNull(workload, "workload");
+			Check.stateIsTrue(amount >= 0, "amount must not be negative");
+			this.amount = amount;
+			return this;
+		}
+
+		/**
+		 * @return a newly generated {@linkplain SyntheticGraph}
+		 */
+		public SyntheticGraph build() {
+			return new SyntheticGraph(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,70 @@
+package cc.commandmanager.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Work done by every {@linkplain SyntheticCommand}. The amount of work is given in microseconds for sleeping and
+ * spinning and in bytes for allocating.
+ */
+public enum Workload {
+
+	/**
+	 * No work at all, so only the overhead of the framework is measured.
+	 */
+	NONE {
+
+		@Override
+		void perform(long amount) {
+			// no work
+		}
+
+	},
+
+	/**
+	 * Parks the thread for the given number of microseconds, like a command waiting for I/O.
+	 */
+	SLEEP {
+
+		@Override
+		void perform(long amount) {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(amount));
+		}
+
+	},
+
+	/**
+	 * Keeps the CPU busy for the given number of microseconds.
+	 */
+	SPIN {
+
+		@Override
+		void perform(long amount) {
+			long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(amount);
+			while (System.nanoTime() < end) {
+				// busy waiting
+			}
+		}
+
+	},
+
+	/**
+	 * Allocates an array of the given number of bytes.
+	 */
+	ALLOCATE {
+
+		@Override
+		void perform(long amount) {
+			sink = new byte[(int) amount];
+		}
+
+	};
+
+	/**
+	 * Keeps allocated arrays from being eliminated.
+	 */
+	static volatile Object sink;
+
+	abstract void perform(long amount);
+
+}
@@ -0,0 +1,207 @@
+package cc.commandmanager.core;
+
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * View of a {@linkplain Context} passed to an {@linkplain AccessDeclaringCommand} that throws an
+ * {@linkplain UndeclaredAccessException} whenever the command accesses a key it did not declare. Reading a written
+ * key is allowed, as is reading the {@linkplain OffHeapStore#KEY}. All bindings are read from and written to the
+ * underlying context. Forks and copies of this context, its map view, its equality and written snapshots only see the
+ * readable keys.
+ */
+final class AccessCheckingContext extends Context {
+
+	private final Context context;
+	private final AccessDeclaringCommand command;
+	private final Set<Object> readableKeys;
+	private final Set<Object> writableKeys;
+
+	AccessCheckingContext(Context context, AccessDeclaringCommand command) {
+		super(context.snapshot());
+		this.context = context;
+		this.command = command;
+		writableKeys = ImmutableSet.copyOf(command.getWrittenKeys());
+		readableKeys = ImmutableSet.<Object> builder().addAll(command.getReadKeys()).addAll(writableKeys)
+				.add(OffHeapStore.KEY).build();
+	}
+
+	/**
+	 * @return the given context, or a checking view of it if the given command declares its accesses
+	 */
+	static Context of(Context context, Command command) {
+		return command instanceof AccessDeclaringCommand ? new AccessCheckingContext(context,
+				(AccessDeclaringCommand) command) : context;
+	}
+
+	private void checkRead(@Nullable Object key) {
+		if (key != null && !readableKeys.contains(key)) {
+			throw new UndeclaredAccessException(command, key, false);
+		}
+	}
+
+	private void checkWrite(@Nullable Object key) {
+		if (key != null && !writableKeys.contains(key)) {
+			throw new UndeclaredAccessException(command, key, true);
+		}
+	}
+
+	@Override
+	Bindings snapshot() {
+		return context.snapshot();
+	}
+
+	@Override
+	Bindings readableSnapshot() {
+		return readable(context.snapshot());
+	}
+
+	@Override
+	Bindings getForkBase() {
+		return readable(super.getForkBase());
+	}
+
+	/**
+	 * @return the given bindings restricted to the readable keys
+	 */
+	private Bindings readable(Bindings bindings) {
+		Bindings result = Bindings.empty();
+		for (Object key : readableKeys) {
+			if (!bindings.containsKey(key)) {
+				continue;
+			}
+			if (key instanceof ContextKey && ((ContextKey<?>) key).isPrimitive()) {
+				result = result.plusBits((ContextKey<?>) key, bindings.bits((ContextKey<?>) key));
+			} else {
+				result = result.plus(key, bindings.get(key, null));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	boolean compareAndSet(Bindings expected, Bindings update) {
+		return context.compareAndSet(expected, update);
+	}
+
+	@Override
+	@Nullable
+	Object wrap(Object key, @Nullable Object value) {
+		return context.wrap(key, value);
+	}
+
+	@Override
+	public void bind(Object key, @Nullable Object value) {
+		checkWrite(key);
+		super.bind(key, value);
+	}
+
+	@Override
+	public void bind(ContextKey.IntKey key, int value) {
+		checkWrite(key);
+		super.bind(key, value);
+	}
+
+	@Override
+	public void bind(ContextKey.LongKey key, long value) {
+		checkWrite(key);
+		super.bind(key, value);
+	}
+
+	@Override
+	public void bind(ContextKey.DoubleKey key, double value) {
+		checkWrite(key);
+		super.bind(key, value);
+	}
+
+	@Override
+	public void rebind(Object key, @Nullable Object value) {
+		checkWrite(key);
+		super.rebind(key, value);
+	}
+
+	@Override
+	public void rebind(ContextKey.IntKey key, int value) {
+		checkWrite(key);
+		super.rebind(key, value);
+	}
+
+	@Override
+	public void rebind(ContextKey.LongKey key, long value) {
+		checkWrite(key);
+		super.rebind(key, value);
+	}
+
+	@Override
+	public void rebind(ContextKey.DoubleKey key, double value) {
+		checkWrite(key);
+		super.rebind(key, value);
+	}
+
+	@Override
+	public void unbind(Object key) {
+		checkWrite(key);
+		super.unbind(key);
+	}
+
+	@Override
+	public void bindAll(Map<? extends Object, ? extends Object> map) {
+		if (map != null) {
+			for (Object key : map.keySet()) {
+				checkWrite(key);
+			}
+		}
+		super.bindAll(map);
+	}
+
+	@Override
+	public Set<Object> merge(Context fork) {
+		if (fork != null) {
+			for (Object key : fork.getForkBase().changedKeys(fork.readableSnapshot())) {
+				checkWrite(key);
+			}
+		}
+		return super.merge(fork);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		checkRead(key);
+		return super.containsKey(key);
+	}
+
+	@Override
+	public Object get(Object key) {
+		checkRead(key);
+		return super.get(key);
+	}
+
+	@Override
+	public <T> T get(ContextKey<T> key) {
+		checkRead(key);
+		return super.get(key);
+	}
+
+	@Override
+	public int getInt(ContextKey.IntKey key) {
+		checkRead(key);
+		return super.getInt(key);
+	}
+
+	@Override
+	public long getLong(ContextKey.LongKey key) {
+		checkRead(key);
+		return super.getLong(key);
+	}
+
+	@Override
+	public double getDouble(ContextKey.DoubleKey key) {
+		checkRead(key);
+		return super.getDouble(key);
+	}
+
+}
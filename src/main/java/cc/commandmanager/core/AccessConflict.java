@@ -0,0 +1,65 @@
+package cc.commandmanager.core;
+
+import javax.annotation.concurrent.Immutable;
+
+import net.sf.qualitycheck.Check;
+
+import com.google.common.base.Objects;
+
+/**
+ * Two {@linkplain AccessDeclaringCommand}s without a dependency between them that both access the same key of a
+ * {@linkplain Context}, at least one of them writing it.
+ */
+@Immutable
+public final class AccessConflict {
+
+	private final CommandClass first;
+	private final CommandClass second;
+	private final Object key;
+
+	/**
+	 * @param first
+	 *            command accessing the key
+	 * @param second
+	 *            command accessing the key
+	 * @param key
+	 *            written by at least one of the commands
+	 */
+	public AccessConflict(CommandClass first, CommandClass second, Object key) {
+		this.first = Check.notNull(first, "first");
+		this.second = Check.notNull(second, "second");
+		this.key = Check.notNull(key, "key");
+	}
+
+	public CommandClass getFirst() {
+		return first;
+	}
+
+	public CommandClass getSecond() {
+		return second;
+	}
+
+	public Object getKey() {
+		return key;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(first, second, key);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof AccessConflict)) {
+			return false;
+		}
+		AccessConflict other = (AccessConflict) obj;
+		return first.equals(other.first) && second.equals(other.second) && key.equals(other.key);
+	}
+
+	@Override
+	public String toString() {
+		return first.getName() + " and " + second.getName() + " access " + key;
+	}
+
+}
@@ -0,0 +1,35 @@
+package cc.commandmanager.core;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * {@linkplain RuntimeException} indicating that a {@linkplain CommandGraph} contains commands that may access the same
+ * {@linkplain Context} key concurrently, see {@linkplain AccessConflictPolicy#REJECT}.
+ */
+public class AccessConflictException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ImmutableList<AccessConflict> conflicts;
+
+	/**
+	 * Creates a new {@linkplain AccessConflictException} having a custom message that lists all given conflicts.
+	 * 
+	 * @param conflicts
+	 *            found in the graph
+	 */
+	public AccessConflictException(Iterable<AccessConflict> conflicts) {
+		super("Commands without dependency between them access the same keys: " + conflicts);
+		this.conflicts = ImmutableList.copyOf(conflicts);
+	}
+
+	/**
+	 * @return all conflicts found in the graph
+	 */
+	public List<AccessConflict> getConflicts() {
+		return conflicts;
+	}
+
+}
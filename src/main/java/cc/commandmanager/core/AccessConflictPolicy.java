@@ -0,0 +1,28 @@
+package cc.commandmanager.core;
+
+/**
+ * Specifies how a {@linkplain CommandGraph.CommandGraphBuilder} treats two {@linkplain AccessDeclaringCommand}s that
+ * access the same {@linkplain Context} key, at least one of them writing it, while neither depends on the other
+ * directly or transitively. Such commands may run concurrently in parallel execution.
+ */
+public enum AccessConflictPolicy {
+
+	/**
+	 * Do not check declarations. This is the default.
+	 */
+	IGNORE,
+
+	/**
+	 * Fail building the graph with an {@linkplain AccessConflictException} listing all conflicts.
+	 */
+	REJECT,
+
+	/**
+	 * Add an optional dependency for every conflict, so that the writing command will be executed before the reading
+	 * one. If both write the key, the command coming first in a topological order of the dependencies will be executed
+	 * first, or the command that has been added to the builder first if they are unordered. Pairs are resolved in the
+	 * same order, and no dependency is added for pairs that are ordered transitively by dependencies added before.
+	 */
+	ADD_DEPENDENCIES
+
+}
@@ -0,0 +1,25 @@
+package cc.commandmanager.core;
+
+import java.util.Set;
+
+/**
+ * A {@linkplain Command} that declares which keys of the {@linkplain Context} it reads and writes. Keys can be arbitrary
+ * objects as well as {@linkplain ContextKey}s. The declarations must not change between instances of the same command
+ * class.
+ * <p>
+ * The {@linkplain CommandManager} uses these declarations to release values as soon as the last command reading them
+ * has completed, see {@linkplain CommandManager#setReleaseConsumedValues(boolean)}.
+ */
+public interface AccessDeclaringCommand extends Command {
+
+	/**
+	 * @return keys whose values are read by this command
+	 */
+	Set<Object> getReadKeys();
+
+	/**
+	 * @return keys to which this command binds, rebinds or unbinds values
+	 */
+	Set<Object> getWrittenKeys();
+
+}
@@ -0,0 +1,454 @@
+package cc.commandmanager.core;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.sf.qualitycheck.Check;
+
+import org.apache.log4j.Logger;
+
+/**
+ * {@linkplain ExecutionListener} that decouples threads executing commands from a slow listener, e.g. one writing
+ * to files or exporting metrics. Events are written to a bounded ring buffer and delivered to the wrapped listener by
+ * a dedicated thread, in the order they have been buffered.
+ * <p>
+ * The buffer is preallocated, so emitting an event neither allocates nor locks: producers claim a slot by a
+ * compare-and-set on a shared sequence, fill it and publish it by a volatile write. The consumer thread delivers all
+ * published events in batches. If the wrapped listener implements {@linkplain Flushable}, it will be flushed after
+ * every batch. If the buffer is full, events are handled according to the {@linkplain OverflowPolicy}.
+ * <p>
+ * Exceptions thrown by the wrapped listener are logged and do not affect the execution. Instances have to be
+ * {@linkplain #close() closed} to stop the consumer thread.
+ */
+@ThreadSafe
+public final class AsyncExecutionListener implements ExecutionListener, Closeable {
+
+	private static final Logger logger = Logger.getLogger(AsyncExecutionListener.class);
+
+	private static final int EXECUTION_STARTED = 0;
+	private static final int COMMAND_STARTED = 1;
+	private static final int COMMAND_RETRIED = 2;
+	private static final int COMMAND_COMPLETED = 3;
+	private static final int COMMAND_CANCELLED = 4;
+	private static final int EXECUTION_FINISHED = 5;
+	private static final int COMMAND_OVERDUE = 6;
+
+	private static final long IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	/**
+	 * Added to the claimed sequence on close. Producers cannot claim slots afterwards, and the sequence below marks
+	 * the end of the events to be delivered.
+	 */
+	private static final long CLOSED = 1L << 62;
+
+	private final ExecutionListener listener;
+	private final OverflowPolicy overflowPolicy;
+	private final int sampleInterval;
+	private final int batchSize;
+
+	private final Event[] buffer;
+	private final int mask;
+
+	/**
+	 * Sequence of the next event to be claimed by a producer, plus {@linkplain #CLOSED} once this listener has been
+	 * closed.
+	 */
+	private final AtomicLong claimed = new AtomicLong();
+
+	/**
+	 * Sequence of the next event to be delivered by the consumer. All slots of lower sequences are free.
+	 */
+	private final AtomicLong consumed = new AtomicLong();
+
+	private final AtomicLong sampled = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+
+	private final Thread consumer;
+
+	private AsyncExecutionListener(AsyncExecutionListenerBuilder builder) {
+		listener = builder.listener;
+		overflowPolicy = builder.overflowPolicy;
+		sampleInterval = builder.sampleInterval;
+		batchSize = builder.batchSize;
+		buffer = new Event[builder.capacity];
+		for (int i = 0; i < buffer.length; i++) {
+			buffer[i] = new Event(i - buffer.length);
+		}
+		mask = buffer.length - 1;
+		consumer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				consume();
+			}
+
+		}, "execution-listener-" + listener.getClass().getSimpleName());
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	/**
+	 * @param listener
+	 *            to which events will be delivered
+	 * @return a new {@linkplain AsyncExecutionListenerBuilder} having a capacity of 1024 events and the
+	 *         {@linkplain OverflowPolicy#DROP} policy
+	 */
+	public static AsyncExecutionListenerBuilder builder(ExecutionListener listener) {
+		return new AsyncExecutionListenerBuilder(listener);
+	}
+
+	/**
+	 * @return number of events that have not been delivered because of the {@linkplain OverflowPolicy} or because they
+	 *         were emitted after this listener has been closed
+	 */
+	public long getDroppedEvents() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return number of events delivered to the wrapped listener
+	 */
+	public long getDeliveredEvents() {
+		return delivered.get();
+	}
+
+	@Override
+	public void executionStarted(List<CommandClass> commands, long nanoTime) {
+		long sequence = claim();
+		if (sequence >= 0) {
+			Event event = buffer[(int) sequence & mask];
+			event.type = EXECUTION_STARTED;
+			event.commands = commands;
+			event.nanoTime = nanoTime;
+			event.publish(sequence);
+		}
+	}
+
+	@Override
+	public void commandStarted(CommandClass command, int attempt, long queuedNanoTime, long nanoTime) {
+		long sequence = claim();
+		if (sequence >= 0) {
+			Event event = buffer[(int) sequence & mask];
+			event.type = COMMAND_STARTED;
+			event.command = command;
+			event.attempt = attempt;
+			event.startNanoTime = queuedNanoTime;
+			event.nanoTime = nanoTime;
+			event.publish(sequence);
+		}
+	}
+
+	@Override
+	public void commandRetried(CommandClass command, int attempt, ResultState resultState, long backoffMillis,
+			long startNanoTime, long nanoTime) {
+		long sequence = claim();
+		if (sequence >= 0) {
+			Event event = buffer[(int) sequence & mask];
+			event.type = COMMAND_RETRIED;
+			event.command = command;
+			event.attempt = attempt;
+			event.resultState = resultState;
+			event.backoffMillis = backoffMillis;
+			event.startNanoTime = startNanoTime;
+			event.nanoTime = nanoTime;
+			event.publish(sequence);
+		}
+	}
+
+	@Override
+	public void commandCompleted(CommandClass command, int attempt, ResultState resultState, long startNanoTime,
+			long nanoTime) {
+		long sequence = claim();
+		if (sequence >= 0) {
+			Event event = buffer[(int) sequence & mask];
+			event.type = COMMAND_COMPLETED;
+			event.command = command;
+			event.attempt = attempt;
+			event.resultState = resultState;
+			event.startNanoTime = startNanoTime;
+			event.nanoTime = nanoTime;
+			event.publish(sequence);
+		}
+	}
+
+	@Override
+	public void commandOverdue(CommandClass command, int attempt, long thresholdNanos, StackTraceElement[] stackTrace,
+			long startNanoTime, long nanoTime) {
+		long sequence = claim();
+		if (sequence >= 0) {
+			Event event = buffer[(int) sequence & mask];
+			event.type = COMMAND_OVERDUE;
+			event.command = command;
+			event.attempt = attempt;
+			event.thresholdNanos = thresholdNanos;
+			event.stackTrace = stackTrace;
+			event.startNanoTime = startNanoTime;
+			event.nanoTime = nanoTime;
+			event.publish(sequence);
+		}
+	}
+
+	@Override
+	public void commandCancelled(CommandClass command, long nanoTime) {
+		long sequence = claim();
+		if (sequence >= 0) {
+			Event event = buffer[(int) sequence & mask];
+			event.type = COMMAND_CANCELLED;
+			event.command = command;
+			event.nanoTime = nanoTime;
+			event.publish(sequence);
+		}
+	}
+
+	@Override
+	public void executionFinished(ComposedResultState result, long nanoTime) {
+		long sequence = claim();
+		if (sequence >= 0) {
+			Event event = buffer[(int) sequence & mask];
+			event.type = EXECUTION_FINISHED;
+			event.result = result;
+			event.nanoTime = nanoTime;
+			event.publish(sequence);
+		}
+	}
+
+	/**
+	 * @return sequence of the claimed slot or {@code -1} if the event has to be dropped
+	 */
+	private long claim() {
+		while (true) {
+			long sequence = claimed.get();
+			if (sequence >= CLOSED) {
+				break;
+			}
+			long used = sequence - consumed.get();
+			if (used >= buffer.length) {
+				if (overflowPolicy != OverflowPolicy.BLOCK) {
+					break;
+				}
+				LockSupport.parkNanos(IDLE_NANOS);
+				continue;
+			}
+			if (overflowPolicy == OverflowPolicy.SAMPLE && used >= buffer.length / 2
+					&& sampled.incrementAndGet() % sampleInterval != 0) {
+				break;
+			}
+			if (claimed.compareAndSet(sequence, sequence + 1)) {
+				return sequence;
+			}
+		}
+		dropped.incrementAndGet();
+		return -1;
+	}
+
+	private void consume() {
+		long sequence = consumed.get();
+		while (true) {
+			long claimedSequence = claimed.get();
+			int count = 0;
+			while (count < batchSize) {
+				Event event = buffer[(int) sequence & mask];
+				if (event.sequence != sequence) {
+					break;
+				}
+				deliver(event);
+				event.clear();
+				sequence++;
+				count++;
+			}
+			if (count > 0) {
+				consumed.lazySet(sequence);
+				delivered.addAndGet(count);
+				flush();
+			} else if (claimedSequence >= CLOSED && sequence == claimedSequence - CLOSED) {
+				return;
+			} else {
+				LockSupport.parkNanos(IDLE_NANOS);
+			}
+		}
+	}
+
+	private void deliver(Event event) {
+		try {
+			switch (event.type) {
+			case EXECUTION_STARTED:
+				listener.executionStarted(event.commands, event.nanoTime);
+				break;
+			case COMMAND_STARTED:
+				listener.commandStarted(event.command, event.attempt, event.startNanoTime, event.nanoTime);
+				break;
+			case COMMAND_RETRIED:
+				listener.commandRetried(event.command, event.attempt, event.resultState, event.backoffMillis,
+						event.startNanoTime, event.nanoTime);
+				break;
+			case COMMAND_COMPLETED:
+				listener.commandCompleted(event.command, event.attempt, event.resultState, event.startNanoTime,
+						event.nanoTime);
+				break;
+			case COMMAND_CANCELLED:
+				listener.commandCancelled(event.command, event.nanoTime);
+				break;
+			case COMMAND_OVERDUE:
+				listener.commandOverdue(event.command, event.attempt, event.thresholdNanos, event.stackTrace,
+						event.startNanoTime, event.nanoTime);
+				break;
+			default:
+				listener.executionFinished(event.result, event.nanoTime);
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Listener " + listener + " failed to handle an event", e);
+		}
+	}
+
+	private void flush() {
+		if (listener instanceof Flushable) {
+			try {
+				((Flushable) listener).flush();
+			} catch (Exception e) {
+				logger.warn("Listener " + listener + " failed to flush", e);
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting events, waits until all buffered events have been delivered and stops the consumer thread.
+	 * Events claimed before are delivered, all others are dropped. Closing a listener that has been closed already
+	 * does nothing.
+	 */
+	@Override
+	public void close() {
+		long sequence;
+		do {
+			sequence = claimed.get();
+		} while (sequence < CLOSED && !claimed.compareAndSet(sequence, sequence + CLOSED));
+		boolean interrupted = false;
+		while (consumer.isAlive()) {
+			try {
+				consumer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Preallocated slot of the ring buffer. The fields are written by the producer that claimed the slot before the
+	 * sequence is published, and read by the consumer afterwards.
+	 */
+	private static final class Event {
+
+		private volatile long sequence;
+		private int type;
+		@Nullable
+		private CommandClass command;
+		private int attempt;
+		@Nullable
+		private ResultState resultState;
+		private long backoffMillis;
+		private long thresholdNanos;
+		@Nullable
+		private StackTraceElement[] stackTrace;
+		private long startNanoTime;
+		private long nanoTime;
+		@Nullable
+		private List<CommandClass> commands;
+		@Nullable
+		private ComposedResultState result;
+
+		private Event(long sequence) {
+			this.sequence = sequence;
+		}
+
+		private void publish(long sequence) {
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Drops references, so that delivered events do not keep their data alive.
+		 */
+		private void clear() {
+			command = null;
+			resultState = null;
+			stackTrace = null;
+			commands = null;
+			result = null;
+		}
+
+	}
+
+	/**
+	 * Builder for {@linkplain AsyncExecutionListener}s.
+	 */
+	public static class AsyncExecutionListenerBuilder {
+
+		private final ExecutionListener listener;
+		private int capacity = 1024;
+		private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+		private int sampleInterval = 10;
+		private int batchSize = 256;
+
+		private AsyncExecutionListenerBuilder(ExecutionListener listener) {
+			this.listener = Check.notNull(listener, "listener");
+		}
+
+		/**
+		 * @param capacity
+		 *            number of events that can be buffered. Must be a power of two.
+		 */
+		public AsyncExecutionListenerBuilder capacity(int capacity) {
+			Check.stateIsTrue(capacity > 0 && Integer.bitCount(capacity) == 1, "capacity must be a power of two");
+			this.capacity = capacity;
+			return this;
+		}
+
+		/**
+		 * @param overflowPolicy
+		 *            applied if the buffer is full
+		 */
+		public AsyncExecutionListenerBuilder overflowPolicy(OverflowPolicy overflowPolicy) {
+			this.overflowPolicy = Check.notNull(overflowPolicy, "overflowPolicy");
+			return this;
+		}
+
+		/**
+		 * @param sampleInterval
+		 *            every how many events one will be buffered if the buffer is half full and the policy is
+		 *            {@linkplain OverflowPolicy#SAMPLE}. Must be at least {@code 1}.
+		 */
+		public AsyncExecutionListenerBuilder sampleInterval(int sampleInterval) {
+			Check.stateIsTrue(sampleInterval >= 1, "sampleInterval must be at least 1");
+			this.sampleInterval = sampleInterval;
+			return this;
+		}
+
+		/**
+		 * @param batchSize
+		 *            maximum number of events delivered before the listener is flushed. Must be at least {@code 1}.
+		 */
+		public AsyncExecutionListenerBuilder batchSize(int batchSize) {
+			Check.stateIsTrue(batchSize >= 1, "batchSize must be at least 1");
+			this.batchSize = batchSize;
+			return this;
+		}
+
+		/**
+		 * @return a new {@linkplain AsyncExecutionListener} whose consumer thread has been started
+		 */
+		public AsyncExecutionListener build() {
+			return new AsyncExecutionListener(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,263 @@
+package cc.commandmanager.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Immutable bindings of a {@linkplain Context}. Values of arbitrary keys are held by a {@linkplain PersistentHashMap},
+ * values of {@linkplain ContextKey}s are held by arrays indexed by the slot of the key. Primitive values are stored as
+ * {@code long} bits, so they are never boxed.
+ * <p>
+ * The arrays are split into chunks of {@value #CHUNK_SLOTS} slots, which are shared between bindings and copied on
+ * modification. Hence a modification copies one chunk and the array referencing the chunks, no matter how many keys
+ * have been created in the JVM. Chunks without bound slots are not allocated.
+ */
+@Immutable
+final class Bindings {
+
+	/**
+	 * Number of slots held by a chunk.
+	 */
+	static final int CHUNK_SLOTS = 32;
+
+	private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_SLOTS);
+
+	private static final Object[][] NO_OBJECTS = new Object[0][];
+	private static final long[][] NO_BITS = new long[0][];
+	private static final ContextKey<?>[][] NO_KEYS = new ContextKey<?>[0][];
+
+	private static final Bindings EMPTY = new Bindings(PersistentHashMap.empty(), NO_KEYS, NO_OBJECTS, NO_BITS, 0);
+
+	private final PersistentHashMap items;
+
+	/**
+	 * Chunks holding the key of every bound slot, {@code null} for unbound slots.
+	 */
+	private final ContextKey<?>[][] keys;
+	private final Object[][] values;
+	private final long[][] bits;
+	private final int boundSlots;
+
+	static Bindings empty() {
+		return EMPTY;
+	}
+
+	private Bindings(PersistentHashMap items, ContextKey<?>[][] keys, Object[][] values, long[][] bits,
+			int boundSlots) {
+		this.items = items;
+		this.keys = keys;
+		this.values = values;
+		this.bits = bits;
+		this.boundSlots = boundSlots;
+	}
+
+	private static int chunkOf(int slot) {
+		return slot >>> CHUNK_SHIFT;
+	}
+
+	private static int offsetOf(int slot) {
+		return slot & (CHUNK_SLOTS - 1);
+	}
+
+	int size() {
+		return items.size() + boundSlots;
+	}
+
+	boolean isBound(ContextKey<?> key) {
+		int chunk = chunkOf(key.getSlot());
+		return chunk < keys.length && keys[chunk] != null && keys[chunk][offsetOf(key.getSlot())] != null;
+	}
+
+	/**
+	 * @return the value of a bound key of a reference type
+	 */
+	@Nullable
+	Object value(ContextKey<?> key) {
+		int chunk = chunkOf(key.getSlot());
+		return chunk < values.length && values[chunk] != null ? values[chunk][offsetOf(key.getSlot())] : null;
+	}
+
+	/**
+	 * @return the value of a bound key of a primitive type
+	 */
+	long bits(ContextKey<?> key) {
+		return bits[chunkOf(key.getSlot())][offsetOf(key.getSlot())];
+	}
+
+	boolean containsKey(Object key) {
+		return key instanceof ContextKey ? isBound((ContextKey<?>) key) : items.containsKey(key);
+	}
+
+	/**
+	 * @return the value bound to the given key or {@code notFound} if there is no such key. Primitive values will be
+	 *         boxed.
+	 */
+	@Nullable
+	Object get(Object key, @Nullable Object notFound) {
+		if (!(key instanceof ContextKey)) {
+			return items.get(key, notFound);
+		}
+		ContextKey<?> contextKey = (ContextKey<?>) key;
+		if (!isBound(contextKey)) {
+			return notFound;
+		}
+		return contextKey.isPrimitive() ? ((ContextKey.PrimitiveKey<?>) contextKey).fromBits(bits(contextKey))
+				: value(contextKey);
+	}
+
+	/**
+	 * @return bindings binding the given value to the given key. If the key was bound already, the returned bindings
+	 *         will have the same size as these.
+	 * @throws ResultTypeMismatchException
+	 *             if the given key is a {@linkplain ContextKey} of a different type
+	 */
+	Bindings plus(Object key, @Nullable Object value) {
+		if (!(key instanceof ContextKey)) {
+			PersistentHashMap updated = items.plus(key, value);
+			return updated == items ? this : new Bindings(updated, keys, values, bits, boundSlots);
+		}
+		ContextKey<?> contextKey = (ContextKey<?>) key;
+		if (contextKey.isPrimitive()) {
+			return plusBits(contextKey, ((ContextKey.PrimitiveKey<?>) contextKey).toBits(value));
+		}
+		Object checked = value instanceof DeferredValue ? value : contextKey.checkType(value);
+		return new Bindings(items, withKey(contextKey), withValue(values, contextKey.getSlot(), checked), bits,
+				isBound(contextKey) ? boundSlots : boundSlots + 1);
+	}
+
+	/**
+	 * @return bindings binding the given primitive value to the given key
+	 */
+	Bindings plusBits(ContextKey<?> key, long value) {
+		int slot = key.getSlot();
+		int chunk = chunkOf(slot);
+		long[][] newBits = Arrays.copyOf(bits, Math.max(bits.length, chunk + 1));
+		newBits[chunk] = chunk < bits.length && bits[chunk] != null ? bits[chunk].clone() : new long[CHUNK_SLOTS];
+		newBits[chunk][offsetOf(slot)] = value;
+		return new Bindings(items, withKey(key), values, newBits, isBound(key) ? boundSlots : boundSlots + 1);
+	}
+
+	/**
+	 * @return bindings without the given key, or these bindings if the key is not bound.
+	 */
+	Bindings minus(Object key) {
+		if (!(key instanceof ContextKey)) {
+			PersistentHashMap updated = items.minus(key);
+			return updated == items ? this : new Bindings(updated, keys, values, bits, boundSlots);
+		}
+		ContextKey<?> contextKey = (ContextKey<?>) key;
+		if (!isBound(contextKey)) {
+			return this;
+		}
+		int slot = contextKey.getSlot();
+		ContextKey<?>[][] newKeys = keys.clone();
+		newKeys[chunkOf(slot)] = keys[chunkOf(slot)].clone();
+		newKeys[chunkOf(slot)][offsetOf(slot)] = null;
+		Object[][] newValues = value(contextKey) == null ? values : withValue(values, slot, null);
+		return new Bindings(items, newKeys, newValues, bits, boundSlots - 1);
+	}
+
+	/**
+	 * Computes all keys that are bound in only one of both bindings or that are bound to values which are not equal.
+	 */
+	Set<Object> changedKeys(Bindings other) {
+		Set<Object> result = items.changedKeys(other.items);
+		int length = Math.max(keys.length, other.keys.length);
+		for (int chunk = 0; chunk < length; chunk++) {
+			ContextKey<?>[] chunkKeys = chunk < keys.length ? keys[chunk] : null;
+			ContextKey<?>[] otherChunkKeys = chunk < other.keys.length ? other.keys[chunk] : null;
+			if (chunkKeys == otherChunkKeys && chunk(values, chunk) == chunk(other.values, chunk)
+					&& chunk(bits, chunk) == chunk(other.bits, chunk)) {
+				// shared chunks are unchanged
+				continue;
+			}
+			for (int offset = 0; offset < CHUNK_SLOTS; offset++) {
+				ContextKey<?> key = chunkKeys != null ? chunkKeys[offset] : null;
+				ContextKey<?> otherKey = otherChunkKeys != null ? otherChunkKeys[offset] : null;
+				if (key == null && otherKey == null) {
+					continue;
+				}
+				if (key == null || otherKey == null || !Objects.equal(get(key, null), other.get(key, null))) {
+					result.add(key == null ? otherKey : key);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return values bound to keys that are no {@linkplain ContextKey}s
+	 */
+	Map<Object, Object> objectItems() {
+		return items.asMap();
+	}
+
+	/**
+	 * @return all bound {@linkplain ContextKey}s, those held by arrays ordered by their slots
+	 */
+	List<ContextKey<?>> contextKeys() {
+		List<ContextKey<?>> result = Lists.newArrayListWithCapacity(boundSlots);
+		for (ContextKey<?>[] chunkKeys : keys) {
+			if (chunkKeys != null) {
+				for (ContextKey<?> key : chunkKeys) {
+					if (key != null) {
+						result.add(key);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return an unmodifiable {@linkplain Map} of these bindings. Primitive values will be boxed.
+	 */
+	Map<Object, Object> asMap() {
+		if (boundSlots == 0) {
+			return items.asMap();
+		}
+		Map<Object, Object> result = Maps.newHashMap(items.asMap());
+		for (ContextKey<?> key : contextKeys()) {
+			result.put(key, get(key, null));
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	private ContextKey<?>[][] withKey(ContextKey<?> key) {
+		int chunk = chunkOf(key.getSlot());
+		int offset = offsetOf(key.getSlot());
+		if (chunk < keys.length && keys[chunk] != null && keys[chunk][offset] == key) {
+			return keys;
+		}
+		ContextKey<?>[][] newKeys = Arrays.copyOf(keys, Math.max(keys.length, chunk + 1));
+		newKeys[chunk] = chunk < keys.length && keys[chunk] != null ? keys[chunk].clone()
+				: new ContextKey<?>[CHUNK_SLOTS];
+		newKeys[chunk][offset] = key;
+		return newKeys;
+	}
+
+	@Nullable
+	private static Object chunk(Object[] chunks, int chunk) {
+		return chunk < chunks.length ? chunks[chunk] : null;
+	}
+
+	private static Object[][] withValue(Object[][] chunks, int slot, @Nullable Object value) {
+		int chunk = chunkOf(slot);
+		Object[][] newChunks = Arrays.copyOf(chunks, Math.max(chunks.length, chunk + 1));
+		newChunks[chunk] = chunk < chunks.length && chunks[chunk] != null ? chunks[chunk].clone()
+				: new Object[CHUNK_SLOTS];
+		newChunks[chunk][offsetOf(slot)] = value;
+		return newChunks;
+	}
+
+}
@@ -4,10 +4,14 @@ import static com.google.common.base.Predicates.in;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.SortedSet;
 
 import javax.annotation.Nullable;
 import javax.xml.parsers.DocumentBuilder;
@@ -25,12 +29,15 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * A {@linkplain CommandGraph} is a graph of {@linkplain CommandClasse}s. Edges represent dependencies. Each dependency
@@ -60,6 +67,11 @@ public class CommandGraph {
 	 */
 	private Set<CommandGraph> connectedComponents;
 
+	/**
+	 * Lazily compiled program of all commands.
+	 */
+	private ExecutionProgram executionProgram;
+
 	/**
 	 * @return a builder to build a {@linkplain CommandGraph}
 	 */
@@ -91,6 +103,16 @@ public class CommandGraph {
 	public static Try<CommandGraph> fromXml(File catalogFile) {
 		Check.notNull(catalogFile, "catalogFile");
 
+		Object event = FlightRecorderEvents.CATALOG_LOAD.begin();
+		Try<CommandGraph> graph = parse(catalogFile);
+		if (event != null) {
+			FlightRecorderEvents.CATALOG_LOAD.commit(event, catalogFile.getPath(),
+					graph.isPresent() ? graph.get().vertices.size() : -1);
+		}
+		return graph;
+	}
+
+	private static Try<CommandGraph> parse(File catalogFile) {
 		Document document;
 		try {
 			DocumentBuilder documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
@@ -397,6 +419,19 @@ public class CommandGraph {
 		return command;
 	}
 
+	/**
+	 * @return {@linkplain ExecutionProgram} of all commands of this graph in the order of
+	 *         {@linkplain #topologicalOrderOfAllCommands()}. It is compiled once and shared by all executions.
+	 * @throws IllegalStateOfArgumentException
+	 *             if this graph is empty.
+	 */
+	public ExecutionProgram getExecutionProgram() {
+		if (executionProgram == null) {
+			executionProgram = ExecutionProgram.compile(this, topologicalOrdering);
+		}
+		return executionProgram;
+	}
+
 	/**
 	 * @return An immutable set of all maximally connected components in form of {@linkplain CommandGraph}s.
 	 */
@@ -413,13 +448,25 @@ public class CommandGraph {
 				graph);
 		ImmutableSet.Builder<CommandGraph> result = ImmutableSet.builder();
 
-		for (Set<CommandClass> connectedSet : inspector.connectedSets()) {
+		// adding the commands in the order of the graph avoids reordering them when adding the dependencies
+		List<Set<CommandClass>> connectedSets = inspector.connectedSets();
+		Map<Set<CommandClass>, List<CommandClass>> orderedSets = Maps.newIdentityHashMap();
+		for (Set<CommandClass> connectedSet : connectedSets) {
+			orderedSets.put(connectedSet, Lists.<CommandClass> newArrayListWithCapacity(connectedSet.size()));
+		}
+		for (Iterator<CommandClass> commandClasses = graph.iterator(); commandClasses.hasNext();) {
+			CommandClass commandClass = commandClasses.next();
+			orderedSets.get(inspector.connectedSetOf(commandClass)).add(commandClass);
+		}
+
+		for (Set<CommandClass> connectedSet : connectedSets) {
+			List<CommandClass> commands = orderedSets.get(connectedSet);
 			CommandGraphBuilder component = CommandGraph.builder();
-			for (CommandClass commandClass : connectedSet) {
+			for (CommandClass commandClass : commands) {
 				component.addCommand(commandClass);
 			}
-			for (DependencyEdge dependency : graph.edgeSet()) {
-				if (connectedSet.contains(dependency.getSource())) {
+			for (CommandClass commandClass : commands) {
+				for (DependencyEdge dependency : graph.outgoingEdgesOf(commandClass)) {
 					if (dependency.isMandatory()) {
 						component.addMandatoryDependency((CommandClass) dependency.getSource(),
 								(CommandClass) dependency.getTarget());
@@ -534,12 +581,13 @@ public class CommandGraph {
 
 		private final Map<String, CommandClass> commandClasses;
 		private final DirectedAcyclicGraph<CommandClass, DependencyEdge> graph;
+		private AccessConflictPolicy accessConflictPolicy = AccessConflictPolicy.IGNORE;
 
 		/**
 		 * Creates a new empty {@linkplain CommandGraphBuilder}.
 		 */
 		public CommandGraphBuilder() {
-			commandClasses = Maps.newHashMap();
+			commandClasses = Maps.newLinkedHashMap();
 			graph = new DirectedAcyclicGraph<CommandClass, CommandGraph.DependencyEdge>(DependencyEdge.class);
 		}
 
@@ -558,12 +606,183 @@ public class CommandGraph {
 			}
 		}
 
+		/**
+		 * Sets how commands will be treated that access the same {@linkplain Context} key without a dependency between
+		 * them. Declarations are obtained from {@linkplain AccessDeclaringCommand}s, which will be instantiated by
+		 * {@linkplain #build()}. Default is {@linkplain AccessConflictPolicy#IGNORE}.
+		 *
+		 * @param accessConflictPolicy
+		 *            to be applied when building the graph
+		 */
+		public void setAccessConflictPolicy(AccessConflictPolicy accessConflictPolicy) {
+			this.accessConflictPolicy = Check.notNull(accessConflictPolicy, "accessConflictPolicy");
+		}
+
 		/**
 		 * @return A new and immutable {@linkplain CommandGraph} containing all commands and dependencies that have been
 		 *         added to the builder.
+		 * @throws AccessConflictException
+		 *             if commands access the same key without a dependency between them and the
+		 *             {@linkplain AccessConflictPolicy} is {@linkplain AccessConflictPolicy#REJECT}
 		 */
 		public CommandGraph build() {
-			return new CommandGraph(this);
+			Object event = FlightRecorderEvents.GRAPH_BUILD.begin();
+			if (accessConflictPolicy != AccessConflictPolicy.IGNORE) {
+				resolveAccessConflicts();
+			}
+			CommandGraph commandGraph = new CommandGraph(this);
+			if (event != null) {
+				int dependencies = commandGraph.commandGraph.edgeSet().size();
+				FlightRecorderEvents.GRAPH_BUILD.commit(event, commandGraph.vertices.size(), dependencies);
+			}
+			return commandGraph;
+		}
+
+		/**
+		 * Compares every two declaring commands accessing the same key, in a topological order of the dependencies
+		 * added so far, ties broken by the order the commands have been added. So the dependencies added for
+		 * conflicts only depend on the commands and dependencies, not on the order of the builder's collections. The
+		 * transitive dependencies of every command are computed once as bit sets and updated whenever a dependency is
+		 * added, so checking whether a pair is ordered already takes constant time.
+		 */
+		private void resolveAccessConflicts() {
+			List<CommandClass> commands = topologicalOrder();
+			int size = commands.size();
+			Map<CommandClass, Integer> indices = Maps.newHashMap();
+			for (int i = 0; i < size; i++) {
+				indices.put(commands.get(i), i);
+			}
+			BitSet[] transitiveDependencies = new BitSet[size];
+			AccessDeclaringCommand[] declarations = new AccessDeclaringCommand[size];
+			ListMultimap<Object, Integer> writers = ArrayListMultimap.create();
+			ListMultimap<Object, Integer> readers = ArrayListMultimap.create();
+			for (int i = 0; i < size; i++) {
+				transitiveDependencies[i] = new BitSet(size);
+				for (DependencyEdge edge : graph.outgoingEdgesOf(commands.get(i))) {
+					int dependency = indices.get(graph.getEdgeTarget(edge));
+					transitiveDependencies[i].set(dependency);
+					transitiveDependencies[i].or(transitiveDependencies[dependency]);
+				}
+				Command instance = commands.get(i).newInstance();
+				if (instance instanceof AccessDeclaringCommand) {
+					declarations[i] = (AccessDeclaringCommand) instance;
+					for (Object key : declarations[i].getWrittenKeys()) {
+						writers.put(key, i);
+					}
+					for (Object key : declarations[i].getReadKeys()) {
+						readers.put(key, i);
+					}
+				}
+			}
+
+			SortedSet<Long> pairs = Sets.newTreeSet();
+			for (Object key : writers.keySet()) {
+				for (int writer : writers.get(key)) {
+					for (int other : Iterables.concat(writers.get(key), readers.get(key))) {
+						if (writer != other) {
+							pairs.add((long) Math.min(writer, other) * size + Math.max(writer, other));
+						}
+					}
+				}
+			}
+			List<AccessConflict> conflicts = Lists.newArrayList();
+			for (long pair : pairs) {
+				int first = (int) (pair / size);
+				int second = (int) (pair % size);
+				if (transitiveDependencies[first].get(second) || transitiveDependencies[second].get(first)) {
+					continue;
+				}
+				Object key = conflictingKey(declarations[first], declarations[second]);
+				if (accessConflictPolicy == AccessConflictPolicy.REJECT) {
+					conflicts.add(new AccessConflict(commands.get(first), commands.get(second), key));
+				} else if (declarations[first].getWrittenKeys().contains(key)) {
+					addOptionalDependency(commands.get(second), commands.get(first));
+					addTransitiveDependencies(transitiveDependencies, second, first);
+				} else {
+					addOptionalDependency(commands.get(first), commands.get(second));
+					addTransitiveDependencies(transitiveDependencies, first, second);
+				}
+			}
+			if (!conflicts.isEmpty()) {
+				throw new AccessConflictException(conflicts);
+			}
+		}
+
+		/**
+		 * @return all commands in a topological order, dependencies first, ties broken by the order the commands have
+		 *         been added
+		 */
+		private List<CommandClass> topologicalOrder() {
+			final Map<CommandClass, Integer> insertionOrder = Maps.newHashMap();
+			for (CommandClass command : commandClasses.values()) {
+				insertionOrder.put(command, insertionOrder.size());
+			}
+			Map<CommandClass, Integer> pendingDependencies = Maps.newHashMap();
+			PriorityQueue<CommandClass> ready = new PriorityQueue<CommandClass>(Math.max(1, insertionOrder.size()),
+					new Comparator<CommandClass>() {
+
+						@Override
+						public int compare(CommandClass first, CommandClass second) {
+							return insertionOrder.get(first).compareTo(insertionOrder.get(second));
+						}
+
+					});
+			for (CommandClass command : commandClasses.values()) {
+				int dependencies = graph.outDegreeOf(command);
+				if (dependencies == 0) {
+					ready.add(command);
+				} else {
+					pendingDependencies.put(command, dependencies);
+				}
+			}
+			List<CommandClass> order = Lists.newArrayListWithCapacity(insertionOrder.size());
+			while (!ready.isEmpty()) {
+				CommandClass command = ready.poll();
+				order.add(command);
+				for (DependencyEdge edge : graph.incomingEdgesOf(command)) {
+					CommandClass dependent = graph.getEdgeSource(edge);
+					int pending = pendingDependencies.get(dependent) - 1;
+					if (pending == 0) {
+						pendingDependencies.remove(dependent);
+						ready.add(dependent);
+					} else {
+						pendingDependencies.put(dependent, pending);
+					}
+				}
+			}
+			return order;
+		}
+
+		/**
+		 * Updates the transitive dependencies after a dependency of {@code dependent} on {@code dependency} has been
+		 * added: every command depending on {@code dependent} now depends on {@code dependency} and its dependencies.
+		 */
+		private static void addTransitiveDependencies(BitSet[] transitiveDependencies, int dependent, int dependency) {
+			for (BitSet dependencies : transitiveDependencies) {
+				if (dependencies == transitiveDependencies[dependent] || dependencies.get(dependent)) {
+					dependencies.set(dependency);
+					dependencies.or(transitiveDependencies[dependency]);
+				}
+			}
+		}
+
+		/**
+		 * @return a key written by one of the given commands and accessed by the other one, {@code null} if there is no
+		 *         such key
+		 */
+		@Nullable
+		private static Object conflictingKey(AccessDeclaringCommand first, AccessDeclaringCommand second) {
+			for (Object key : first.getWrittenKeys()) {
+				if (second.getWrittenKeys().contains(key) || second.getReadKeys().contains(key)) {
+					return key;
+				}
+			}
+			for (Object key : second.getWrittenKeys()) {
+				if (first.getReadKeys().contains(key)) {
+					return key;
+				}
+			}
+			return null;
 		}
 
 		/**
@@ -1,16 +1,18 @@
 package cc.commandmanager.core;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Deque;
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import net.sf.qualitycheck.Check;
 import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
 
 import org.apache.log4j.Logger;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -19,13 +21,29 @@ import com.google.common.collect.Sets;
 /**
  * Manages execution of {@linkplain Command}s which are represented by a {@linkplain CommandGraph}. Execution success is
  * reflected by a {@linkplain ComposedResultState}.
+ * <p>
+ * By default commands are executed one after another on the calling thread and the execution is aborted with the first
+ * {@linkplain ResultState.Failure}. Use {@linkplain #setParallelism(int)} to execute independent commands concurrently
+ * and {@linkplain #setFailurePolicy(FailurePolicy)} to keep executing commands that do not depend on a failed one.
  */
 public class CommandManager {
 
 	private static final Logger logger = Logger.getLogger(CommandManager.class);
 
-	private final Context context;
+	private Context context;
 	private final CommandGraph commandGraph;
+	private int parallelism = 1;
+	private FailurePolicy failurePolicy = FailurePolicy.FAIL_FAST;
+	private boolean releaseConsumedValues = false;
+	private boolean accessChecking = false;
+	private boolean transactional = false;
+	private boolean resourceAccounting = false;
+	private boolean gcAccounting = false;
+	private boolean offHeapStorage = false;
+	@Nullable
+	private CommandWatchdog watchdog;
+	private CompositeExecutionListener listeners = CompositeExecutionListener.empty().plus(
+			new LoggingExecutionListener());
 
 	/**
 	 * @param commandGraph
@@ -53,6 +71,246 @@ public class CommandManager {
 		return commandGraph;
 	}
 
+	/**
+	 * @return number of threads used to execute commands concurrently. {@code 1} means sequential execution on the
+	 *         calling thread.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the number of worker threads that execute commands. With a parallelism greater than {@code 1}, every
+	 * command will be executed as soon as all of its dependencies that are part of the same execution have completed.
+	 * The calling thread waits until all commands completed or have been cancelled. Results of the returned
+	 * {@linkplain ComposedResultState} are ordered by their completion then.
+	 * <p>
+	 * The {@linkplain Context} will be accessed by several commands concurrently, so it should be a
+	 * {@linkplain ConcurrentContext}. The context this manager uses if none is given will be replaced by a
+	 * {@linkplain ConcurrentContext} having the same bindings.
+	 *
+	 * @param parallelism
+	 *            number of worker threads. Must be at least {@code 1}.
+	 * @throws IllegalStateOfArgumentException
+	 *             if parallelism is lower than {@code 1}.
+	 */
+	public void setParallelism(int parallelism) {
+		Check.stateIsTrue(parallelism >= 1, "parallelism must be at least 1");
+		this.parallelism = parallelism;
+		if (parallelism > 1 && !(context instanceof ConcurrentContext)) {
+			context = new ConcurrentContext(context);
+		}
+	}
+
+	/**
+	 * @return {@linkplain FailurePolicy} applied if a command fails. Default is {@linkplain FailurePolicy#FAIL_FAST}.
+	 */
+	public FailurePolicy getFailurePolicy() {
+		return failurePolicy;
+	}
+
+	/**
+	 * @param failurePolicy
+	 *            to be applied if a command fails
+	 */
+	public void setFailurePolicy(FailurePolicy failurePolicy) {
+		this.failurePolicy = Check.notNull(failurePolicy, "failurePolicy");
+	}
+
+	/**
+	 * @return whether values are unbound as soon as all commands reading them have completed. Default is
+	 *         {@code false}.
+	 */
+	public boolean isReleaseConsumedValues() {
+		return releaseConsumedValues;
+	}
+
+	/**
+	 * Enables releasing values of the {@linkplain Context} during an execution, which lowers the peak memory of long
+	 * pipelines. A value will be unbound as soon as all commands of the execution that declare to read or write its
+	 * key have completed or have been cancelled. Only values of keys that are declared to be written by a command of
+	 * the same execution will be released. Declarations are obtained from {@linkplain AccessDeclaringCommand}s. If any
+	 * command of an execution does not declare its accesses, no value is released in that execution, as the command
+	 * might read any key.
+	 * <p>
+	 * Released values will not be bound after the execution anymore, so results that are needed afterwards must not be
+	 * read by any command or must not be declared.
+	 *
+	 * @param releaseConsumedValues
+	 *            whether values will be released
+	 */
+	public void setReleaseConsumedValues(boolean releaseConsumedValues) {
+		this.releaseConsumedValues = releaseConsumedValues;
+	}
+
+	/**
+	 * @return whether executions provide an {@linkplain OffHeapStore} to their commands. Default is {@code false}.
+	 */
+	public boolean isOffHeapStorage() {
+		return offHeapStorage;
+	}
+
+	/**
+	 * Enables off-heap storage. Every execution binds an {@linkplain OffHeapStore} lazily to
+	 * {@linkplain OffHeapStore#KEY}, so the store is only created if a command calls
+	 * {@linkplain OffHeapStore#of(Context)}. After the execution, the store is unbound and closed, which releases all
+	 * of its regions. If the context already contains a store, it will be used instead.
+	 *
+	 * @param offHeapStorage
+	 *            whether executions will provide a store
+	 */
+	public void setOffHeapStorage(boolean offHeapStorage) {
+		this.offHeapStorage = offHeapStorage;
+	}
+
+	/**
+	 * @return whether {@linkplain AccessDeclaringCommand}s are checked to access declared keys only. Default is
+	 *         {@code false}.
+	 */
+	public boolean isAccessChecking() {
+		return accessChecking;
+	}
+
+	/**
+	 * Enables checking the accesses of {@linkplain AccessDeclaringCommand}s. Each of them will get a view of the
+	 * {@linkplain Context} that throws an {@linkplain UndeclaredAccessException} if the command reads or writes a key
+	 * it did not declare. Like any exception thrown by a command, it aborts the execution. Other commands are not
+	 * checked.
+	 * <p>
+	 * Together with {@linkplain AccessConflictPolicy} this ensures that commands running concurrently do not access
+	 * the same keys. Checking adds a lookup to every access, so it is meant for tests rather than for production.
+	 *
+	 * @param accessChecking
+	 *            whether accesses will be checked
+	 */
+	public void setAccessChecking(boolean accessChecking) {
+		this.accessChecking = accessChecking;
+	}
+
+	/**
+	 * @return whether every command writes to a private staging context that is committed after it succeeded. Default
+	 *         is {@code false}.
+	 */
+	public boolean isTransactional() {
+		return transactional;
+	}
+
+	/**
+	 * Enables transactional execution. Every attempt of a command gets a {@linkplain Context#fork() fork} of the
+	 * {@linkplain Context} as staging context, so its modifications are not visible to any other command while it is
+	 * executed. If the command succeeds or completes with a warning, its modifications are committed to the context
+	 * atomically. If it fails, throws an exception or is retried, they are discarded, so a failed command never leaves
+	 * partial bindings behind. Forking and committing only touch modified keys, unchanged bindings are shared.
+	 * <p>
+	 * As a command is forked when it starts, it sees everything its dependencies committed and nothing committed by
+	 * commands running concurrently. If a concurrent command committed a different value for a key the command
+	 * modified as well, the command fails and none of its modifications are committed.
+	 *
+	 * @param transactional
+	 *            whether commands will be executed in transactions
+	 */
+	public void setTransactional(boolean transactional) {
+		this.transactional = transactional;
+	}
+
+	/**
+	 * @return whether the resources consumed by every command are measured. Default is {@code false}.
+	 */
+	public boolean isResourceAccounting() {
+		return resourceAccounting;
+	}
+
+	/**
+	 * Sets whether the CPU time, the allocated bytes and the times the executing thread blocked or waited are measured
+	 * around the execution of every command and reported by {@linkplain ComposedResultState#getResourceUsage}.
+	 * Enabling resource accounting enables thread contention monitoring of the JVM, which is not disabled again.
+	 * Measuring costs a few microseconds per command.
+	 *
+	 * @param resourceAccounting
+	 *            whether resources will be measured
+	 */
+	public void setResourceAccounting(boolean resourceAccounting) {
+		if (resourceAccounting) {
+			ResourceUsage.enableContentionMonitoring();
+		}
+		this.resourceAccounting = resourceAccounting;
+	}
+
+	/**
+	 * @return whether garbage collection pauses are attributed to the commands. Default is {@code false}.
+	 */
+	public boolean isGcAccounting() {
+		return gcAccounting;
+	}
+
+	/**
+	 * Sets whether the notifications of the garbage collectors are received during executions, so that every
+	 * garbage collection pause is attributed to the commands executing at the time. Pause times are reported by
+	 * {@linkplain ComposedResultState#getGcPauseNanos()} per execution and by
+	 * {@linkplain ComposedResultState#getGcPauseNanos(CommandClass)} per command. Waiting for the notifications of
+	 * the last collections may delay the end of an execution by up to 200 milliseconds.
+	 *
+	 * @param gcAccounting
+	 *            whether garbage collection pauses will be attributed
+	 */
+	public void setGcAccounting(boolean gcAccounting) {
+		this.gcAccounting = gcAccounting;
+	}
+
+	/**
+	 * @return the watchdog checking the duration of running commands or {@code null} if none is set. Default is
+	 *         {@code null}.
+	 */
+	@Nullable
+	public CommandWatchdog getWatchdog() {
+		return watchdog;
+	}
+
+	/**
+	 * Sets a watchdog that reports attempts running considerably longer than expected to the registered listeners
+	 * while the execution is still running.
+	 *
+	 * @param watchdog
+	 *            checking the duration of running commands or {@code null} to not check them
+	 */
+	public void setWatchdog(@Nullable CommandWatchdog watchdog) {
+		this.watchdog = watchdog;
+	}
+
+	/**
+	 * @return all registered listeners in the order they are notified. Initially this is a
+	 *         {@linkplain LoggingExecutionListener}.
+	 */
+	public List<ExecutionListener> getExecutionListeners() {
+		return listeners.getListeners();
+	}
+
+	/**
+	 * Registers a listener that will be notified about all events of subsequent executions.
+	 *
+	 * @param listener
+	 *            to be registered
+	 */
+	public void addExecutionListener(ExecutionListener listener) {
+		listeners = listeners.plus(Check.notNull(listener, "listener"));
+	}
+
+	/**
+	 * Unregisters the given listener. Executions without any listener do not build log messages or allocate event
+	 * data, so removing the default {@linkplain LoggingExecutionListener} lowers the overhead of executing many short
+	 * commands.
+	 *
+	 * @param listener
+	 *            to be unregistered
+	 * @return {@code false} if the listener has not been registered
+	 */
+	public boolean removeExecutionListener(ExecutionListener listener) {
+		CompositeExecutionListener remaining = listeners.minus(Check.notNull(listener, "listener"));
+		boolean removed = remaining != listeners;
+		listeners = remaining;
+		return removed;
+	}
+
 	/**
 	 * Execute all commands that are in the {@linkplain CommandGraph} of this {@linkplain CommandManager}. Respect the
 	 * internal order of the graph. Execution will be aborted with the first {@linkplain Command} that returns a
@@ -78,7 +336,7 @@ public class CommandManager {
 	 *         {@linkplain Command}s.
 	 */
 	public ComposedResultState executeAllCommands(Context context) {
-		return executeOrderedCommands(commandGraph.topologicalOrderOfAllCommands(), context);
+		return executeOrderedCommands(commandGraph.topologicalOrderOfAllCommands(), true, context);
 	}
 
 	/**
@@ -132,7 +390,7 @@ public class CommandManager {
 				.getConnectedComponents())) {
 			commands.addAll(graph.topologicalOrderOfAllCommands());
 		}
-		return executeOrderedCommands(commands, context);
+		return executeOrderedCommands(commands, false, context);
 	}
 
 	private static Set<CommandGraph> filterConnectedComponentsContaining(Set<String> startCommands,
@@ -249,19 +507,23 @@ public class CommandManager {
 			commands.add(commandGraph.getCommandClass(commandName));
 		}
 
-		Set<CommandClass> commandsAndTheirDependencies = Sets.newHashSet(commands);
-		for (CommandClass command : commands) {
-			commandsAndTheirDependencies.addAll(successiveBeforeDependencies(command, new HashSet<CommandClass>()));
-		}
-		return executeOrderedCommands(commandGraph.topologicalOrderOf(commandsAndTheirDependencies), context);
+		return executeOrderedCommands(commandGraph.topologicalOrderOf(successiveBeforeDependencies(commands)), false,
+				context);
 	}
 
-	private Set<CommandClass> successiveBeforeDependencies(CommandClass command, Set<CommandClass> accumulator) {
-		Set<CommandClass> result = Sets.newHashSet(accumulator);
-		Set<CommandClass> dependencies = commandGraph.getDependencies(command.getName());
-		result.addAll(dependencies);
-		for (CommandClass dependency : dependencies) {
-			result.addAll(successiveBeforeDependencies(dependency, result));
+	/**
+	 * @return the given commands and all commands they depend on directly or indirectly. Every command is visited
+	 *         once, so the time is linear in the size of the result and its dependencies.
+	 */
+	private Set<CommandClass> successiveBeforeDependencies(List<CommandClass> commands) {
+		Set<CommandClass> result = Sets.newHashSet(commands);
+		Deque<CommandClass> unvisited = new ArrayDeque<CommandClass>(result);
+		while (!unvisited.isEmpty()) {
+			for (CommandClass dependency : commandGraph.getDependencies(unvisited.pop().getName())) {
+				if (result.add(dependency)) {
+					unvisited.push(dependency);
+				}
+			}
 		}
 		return result;
 	}
@@ -362,7 +624,37 @@ public class CommandManager {
 	 */
 	public ComposedResultState executeCommands(Iterable<String> commandNames, Context context) {
 		Check.noNullElements(commandNames, "commandNames");
-		return executeOrderedCommands(commandGraph.topologicalOrderOfNames(commandNames), context);
+		return executeOrderedCommands(commandGraph.topologicalOrderOfNames(commandNames), false, context);
+	}
+
+	/**
+	 * Compiles all commands that are in the {@linkplain CommandGraph} of this {@linkplain CommandManager} into a
+	 * {@linkplain FastPathPlan}, applying the current {@linkplain FailurePolicy}. Use it for graphs of many commands
+	 * that take only microseconds each and are executed repeatedly.
+	 *
+	 * @return a new {@linkplain FastPathPlan} executing the commands in the internal order of the graph
+	 */
+	public FastPathPlan compileFastPath() {
+		return new FastPathPlan(commandGraph.getExecutionProgram(), failurePolicy);
+	}
+
+	/**
+	 * Compiles the given commands into a {@linkplain FastPathPlan}, applying the current {@linkplain FailurePolicy}.
+	 * Like {@linkplain #executeCommands(Iterable, Context)}, dependencies that are not given are not executed.
+	 *
+	 * @param commandNames
+	 *            names of the {@linkplain Command}s as specified in the {@linkplain CommandClass}es in the underlying
+	 *            graph
+	 *
+	 * @throws CommandNotFoundException
+	 *             if a command name is not contained in the graph.
+	 *
+	 * @return a new {@linkplain FastPathPlan} executing the commands in the internal order of the graph
+	 */
+	public FastPathPlan compileFastPath(Iterable<String> commandNames) {
+		Check.noNullElements(commandNames, "commandNames");
+		List<CommandClass> commands = commandGraph.topologicalOrderOfNames(commandNames);
+		return new FastPathPlan(ExecutionProgram.compile(commandGraph, commands), failurePolicy);
 	}
 
 	/**
@@ -402,47 +694,230 @@ public class CommandManager {
 	 */
 	public static ComposedResultState executeCommands(CommandGraph graph, Context context) {
 		Check.notNull(graph, "graph");
-		Check.stateIsTrue(!graph.isEmpty(), "graph must have at least one command in it");
-		return executeOrderedCommands(graph.topologicalOrderOfAllCommands(), context);
+		return new CommandManager(graph).executeAllCommands(context);
 	}
 
 	/**
-	 * Executes the given ordered commands using the specified context.
+	 * Executes the given ordered commands using the specified context. If off-heap storage is enabled and the context
+	 * does not contain an {@linkplain OffHeapStore} already, a store will be bound lazily for the duration of the
+	 * execution and closed afterwards.
 	 *
 	 * @param commands
+	 * @param allCommands
+	 *            whether the commands are all commands of the graph, so the {@linkplain ExecutionProgram} of the
+	 *            graph can be used
 	 * @param context
 	 * @return whether the execution was successful
 	 */
-	private static ComposedResultState executeOrderedCommands(Iterable<CommandClass> commands, Context context) {
+	private ComposedResultState executeOrderedCommands(List<CommandClass> commands, boolean allCommands,
+			Context context) {
 		Check.noNullElements(commands, "commands");
 		Check.stateIsTrue(!Iterables.isEmpty(commands), "commands must contain at least one command");
 		Check.notNull(context, "context");
 
-		ImmutableList.Builder<ResultState> resultStates = ImmutableList.builder();
-		ImmutableList.Builder<CommandClass> executedCommands = ImmutableList.builder();
+		if (!offHeapStorage || context.containsKey(OffHeapStore.KEY)) {
+			return execute(commands, allCommands, context);
+		}
+		OffHeapStore.LazyStore offHeapStore = new OffHeapStore.LazyStore();
+		LazyValue boundStore = new LazyValue(offHeapStore);
+		context.bind(OffHeapStore.KEY, boundStore);
+		try {
+			return execute(commands, allCommands, context);
+		} finally {
+			try {
+				// a command may have unbound or replaced the store already
+				if (context.snapshot().get(OffHeapStore.KEY, null) == boundStore) {
+					context.unbind(OffHeapStore.KEY);
+				}
+			} finally {
+				offHeapStore.close();
+			}
+		}
+	}
+
+	private ComposedResultState execute(List<CommandClass> commands, boolean allCommands, Context context) {
+		ValueReleaser valueReleaser = releaseConsumedValues ? ValueReleaser.forCommands(commands) : null;
+		GcMonitor gcMonitor = gcAccounting ? GcMonitor.start() : null;
+		CompositeExecutionListener listener = gcMonitor == null ? listeners : listeners.plus(gcMonitor);
+		CommandWatchdog.Watch watch = watchdog == null ? null : watchdog.watch(listener);
+		if (watch != null) {
+			listener = listener.plus(watch);
+		}
+		listener.executionStarted(commands, System.nanoTime());
+		ComposedResultState result;
+		long endTime;
+		try {
+			if (parallelism > 1) {
+				ExecutionProgram program = allCommands ? commandGraph.getExecutionProgram() : ExecutionProgram.compile(
+						commandGraph, commands);
+				result = new ParallelExecution(program, context, parallelism, failurePolicy, valueReleaser,
+						accessChecking, transactional, resourceAccounting, listener).execute();
+			} else {
+				result = executeSequentially(commands, context, valueReleaser, listener);
+			}
+			endTime = System.nanoTime();
+		} finally {
+			if (watch != null) {
+				watch.close();
+			}
+			if (gcMonitor != null) {
+				gcMonitor.close();
+			}
+		}
+		if (gcMonitor != null) {
+			result = gcMonitor.attribute(result, endTime);
+		}
+		listener.executionFinished(result, endTime);
+		return result;
+	}
+
+	private ComposedResultState executeSequentially(List<CommandClass> commands, Context context,
+			@Nullable ValueReleaser valueReleaser, ExecutionListener listener) {
+		ComposedResultState.ComposedResultStateBuilder result = ComposedResultState.builder();
+		Set<CommandClass> unsatisfiedCommands = Sets.newHashSet();
+		boolean aborted = false;
 		for (CommandClass command : commands) {
+			if (aborted || hasUnsatisfiedDependency(command, unsatisfiedCommands)) {
+				result.addCancelled(command);
+				unsatisfiedCommands.add(command);
+				listener.commandCancelled(command, System.nanoTime());
+				if (valueReleaser != null) {
+					valueReleaser.completed(command, context);
+				}
+				continue;
+			}
 			Command commandInstance = command.newInstance();
-			logger.info("Execute current command: " + commandInstance.getClass());
-			long startTime = System.currentTimeMillis();
-			ResultState resultState = commandInstance.execute(context);
-			resultStates.add(resultState);
-			executedCommands.add(command);
-			if (resultState.isSuccess()) {
-				logger.info("Command " + commandInstance.getClass() + " successfully executed in "
-						+ (System.currentTimeMillis() - startTime) + " ms");
-			} else if (resultState.isWarning()) {
-				logger.warn("Command " + commandInstance.getClass() + " executed with warning in "
-						+ (System.currentTimeMillis() - startTime) + " ms: " + resultState.getMessage() + " "
-						+ resultState.getCause());
-			} else {
-				logger.error("Command " + commandInstance.getClass() + " failed to execute (took "
-						+ (System.currentTimeMillis() - startTime) + " ms): " + resultState.getMessage() + " "
-						+ resultState.getCause());
-				logger.error("Aborting execution of all commands.");
-				break;
+			ResultState resultState = executeWithRetries(command, commandInstance, context, result, listener);
+			result.addResult(command, resultState);
+			if (valueReleaser != null) {
+				valueReleaser.completed(command, context);
+			}
+			if (resultState.isFailure()) {
+				unsatisfiedCommands.add(command);
+				if (failurePolicy == FailurePolicy.FAIL_FAST) {
+					logger.error("Aborting execution of all commands.");
+					aborted = true;
+				}
+			}
+		}
+		return result.build();
+	}
+
+	private boolean hasUnsatisfiedDependency(CommandClass command, Set<CommandClass> unsatisfiedCommands) {
+		if (unsatisfiedCommands.isEmpty()) {
+			return false;
+		}
+		for (CommandClass dependency : commandGraph.getMandatoryDependencies(command.getName())) {
+			if (unsatisfiedCommands.contains(dependency)) {
+				logger.warn("Cancel command " + command + " because a mandatory dependency failed.");
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Executes the given command instance until it either returns a result state that must not be retried according
+	 * to its {@linkplain RetryPolicy} or the maximum number of attempts is reached. The calling thread waits for the
+	 * backoff between two attempts. Every attempt but the last one will be recorded as retried attempt.
+	 *
+	 * @return result state of the last attempt
+	 * @throws ExecutionInterruptedException
+	 *             if the calling thread has been interrupted while waiting for the backoff. Its interrupt flag is set
+	 *             again.
+	 */
+	private ResultState executeWithRetries(CommandClass command, Command commandInstance, Context context,
+			ComposedResultState.ComposedResultStateBuilder result, ExecutionListener listener) {
+		RetryPolicy retryPolicy = retryPolicyOf(commandInstance);
+		for (int attempt = 1;; attempt++) {
+			Context staging = transactional ? context.fork() : context;
+			long startTime = System.nanoTime();
+			listener.commandStarted(command, attempt, startTime, startTime);
+			ResourceUsage usage = resourceAccounting ? ResourceUsage.ofCurrentThread() : null;
+			ResultState resultState = execute(command, commandInstance, attempt, staging, accessChecking);
+			if (usage != null) {
+				result.addResourceUsage(command, ResourceUsage.ofCurrentThread().since(usage));
+			}
+			long endTime = System.nanoTime();
+			if (!retryPolicy.shouldRetry(resultState, attempt)) {
+				resultState = commit(context, staging, commandInstance, resultState);
+				listener.commandCompleted(command, attempt, resultState, startTime, endTime);
+				return resultState;
+			}
+			long backoff = retryPolicy.getBackoffMillis(attempt);
+			listener.commandRetried(command, attempt, resultState, backoff, startTime, endTime);
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.error("Interrupted while waiting to retry command " + commandInstance.getClass());
+				if (transactional) {
+					staging.discard();
+				}
+				throw new ExecutionInterruptedException(e);
+			}
+			result.addRetriedAttempt(command, resultState);
+			if (transactional) {
+				staging.discard();
 			}
 		}
-		return new ComposedResultState(resultStates.build(), executedCommands.build());
+	}
+
+	/**
+	 * Executes an attempt of the given command, emitting a Flight Recorder event if enabled.
+	 */
+	static ResultState execute(CommandClass command, Command commandInstance, int attempt, Context context,
+			boolean accessChecking) {
+		Object event = FlightRecorderEvents.COMMAND_EXECUTION.begin();
+		ResultState resultState = commandInstance.execute(contextOf(commandInstance, context, accessChecking));
+		if (event != null) {
+			FlightRecorderEvents.COMMAND_EXECUTION.commit(event, command.getName(), command.getClassName(), attempt,
+					FlightRecorderEvents.nameOf(resultState), context.snapshot().size());
+		}
+		return resultState;
+	}
+
+	/**
+	 * @return the context to be passed to the given command
+	 */
+	private static Context contextOf(Command commandInstance, Context context, boolean accessChecking) {
+		return accessChecking ? AccessCheckingContext.of(context, commandInstance) : context;
+	}
+
+	/**
+	 * Commits the modifications of a transactional command if it succeeded or completed with a warning and discards
+	 * them otherwise. Does nothing if the command has not been executed in a transaction.
+	 *
+	 * @param context
+	 *            shared by all commands of the execution
+	 * @param staging
+	 *            the command has been executed with
+	 * @return the given result state or a {@linkplain ResultState.Failure} if the modifications are in conflict with
+	 *         modifications committed concurrently
+	 */
+	static ResultState commit(Context context, Context staging, Command commandInstance, ResultState resultState) {
+		if (staging == context) {
+			return resultState;
+		}
+		if (resultState.isFailure()) {
+			staging.discard();
+			logger.debug("Discarded modifications of failed command " + commandInstance.getClass());
+			return resultState;
+		}
+		Set<Object> conflicts = context.commit(staging);
+		if (conflicts.isEmpty()) {
+			return resultState;
+		}
+		staging.discard();
+		return ResultState.failure("Cannot commit modifications of command " + commandInstance.getClass()
+				+ ", the keys " + conflicts + " have been modified concurrently");
+	}
+
+	static RetryPolicy retryPolicyOf(Command commandInstance) {
+		if (commandInstance instanceof RetryableCommand) {
+			return Check.notNull(((RetryableCommand) commandInstance).getRetryPolicy(), "retryPolicy");
+		}
+		return RetryPolicy.noRetry();
 	}
 
 }
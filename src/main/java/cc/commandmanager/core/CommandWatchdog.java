@@ -0,0 +1,286 @@
+package cc.commandmanager.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.sf.qualitycheck.Check;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Detects attempts of commands running considerably longer than they took before, while the execution is still
+ * running. The expected duration of a command is a percentile of the attempt durations recorded by
+ * {@linkplain ExecutionMetrics}, multiplied by a factor. Commands with too few recorded attempts are not watched.
+ * <p>
+ * During an execution of a {@linkplain CommandManager} the watchdog is set to, a dedicated thread checks the running
+ * attempts periodically. Once an attempt exceeds its expected duration, the stack trace of the thread executing it is
+ * captured and {@linkplain ExecutionListener#commandOverdue} is emitted to the listeners of the manager. Optionally,
+ * the thread is interrupted afterwards, so commands responding to interrupts stop and fail like aborted ones. The
+ * interrupt may reach the thread shortly after the attempt has completed, so only enable it for commands and
+ * executions that tolerate this.
+ */
+@Immutable
+public final class CommandWatchdog {
+
+	private final ExecutionMetrics metrics;
+	private final double percentile;
+	private final double factor;
+	private final long minimumAttempts;
+	private final long intervalMillis;
+	private final boolean interrupting;
+
+	private CommandWatchdog(CommandWatchdogBuilder builder) {
+		metrics = builder.metrics;
+		percentile = builder.percentile;
+		factor = builder.factor;
+		minimumAttempts = builder.minimumAttempts;
+		intervalMillis = builder.intervalMillis;
+		interrupting = builder.interrupting;
+	}
+
+	/**
+	 * @param metrics
+	 *            recording the durations of previous attempts. They have to be registered as listener, so that they
+	 *            are updated by the watched executions.
+	 * @return a new {@linkplain CommandWatchdogBuilder} expecting attempts to take at most twice the 99th percentile of
+	 *         at least 20 recorded attempts, checking every 100 milliseconds and not interrupting overdue attempts
+	 */
+	public static CommandWatchdogBuilder builder(ExecutionMetrics metrics) {
+		return new CommandWatchdogBuilder(metrics);
+	}
+
+	/**
+	 * @return duration in nanoseconds an attempt of the given command is expected to take at most or {@code -1} if
+	 *         not enough attempts have been recorded
+	 */
+	long getThresholdNanos(String commandName) {
+		ExecutionMetrics.CommandMetrics commandMetrics = metrics.getCommandMetrics(commandName);
+		if (commandMetrics.getLatency().getCount() < minimumAttempts) {
+			return -1;
+		}
+		return (long) (commandMetrics.getLatency().getValueAtPercentile(percentile) * factor);
+	}
+
+	/**
+	 * @param listener
+	 *            to which overdue attempts are reported
+	 * @return a new watch checking the attempts it observes until {@linkplain Watch#close()} is called
+	 */
+	Watch watch(ExecutionListener listener) {
+		return new Watch(this, listener);
+	}
+
+	/**
+	 * Watches the attempts of one execution, observed as {@linkplain ExecutionListener}.
+	 */
+	@ThreadSafe
+	static final class Watch extends ExecutionListenerAdapter {
+
+		private final CommandWatchdog watchdog;
+		private final ExecutionListener listener;
+		private final ScheduledExecutorService checker;
+
+		@GuardedBy("this")
+		private final Map<String, RunningAttempt> runningAttempts = Maps.newHashMap();
+
+		private Watch(CommandWatchdog watchdog, ExecutionListener listener) {
+			this.watchdog = watchdog;
+			this.listener = listener;
+			checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+					.setNameFormat("command-watchdog-%d").setDaemon(true).build());
+			checker.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					check();
+				}
+
+			}, watchdog.intervalMillis, watchdog.intervalMillis, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public synchronized void commandStarted(CommandClass command, int attempt, long queuedNanoTime,
+				long nanoTime) {
+			runningAttempts.put(command.getName(), new RunningAttempt(command, attempt, Thread.currentThread(),
+					nanoTime));
+		}
+
+		@Override
+		public synchronized void commandRetried(CommandClass command, int attempt, ResultState resultState,
+				long backoffMillis, long startNanoTime, long nanoTime) {
+			runningAttempts.remove(command.getName());
+		}
+
+		@Override
+		public synchronized void commandCompleted(CommandClass command, int attempt, ResultState resultState,
+				long startNanoTime, long nanoTime) {
+			runningAttempts.remove(command.getName());
+		}
+
+		@Override
+		public synchronized void commandCancelled(CommandClass command, long nanoTime) {
+			runningAttempts.remove(command.getName());
+		}
+
+		private void check() {
+			List<RunningAttempt> overdueAttempts;
+			synchronized (this) {
+				overdueAttempts = null;
+				long now = System.nanoTime();
+				for (RunningAttempt running : runningAttempts.values()) {
+					if (running.thresholdNanos == 0) {
+						running.thresholdNanos = watchdog.getThresholdNanos(running.command.getName());
+					}
+					if (!running.reported && running.thresholdNanos >= 0
+							&& now - running.startNanoTime > running.thresholdNanos) {
+						running.reported = true;
+						if (overdueAttempts == null) {
+							overdueAttempts = Lists.newArrayList();
+						}
+						overdueAttempts.add(running);
+					}
+				}
+			}
+			if (overdueAttempts == null) {
+				return;
+			}
+			for (RunningAttempt overdue : overdueAttempts) {
+				StackTraceElement[] stackTrace = overdue.thread.getStackTrace();
+				listener.commandOverdue(overdue.command, overdue.attempt, overdue.thresholdNanos, stackTrace,
+						overdue.startNanoTime, System.nanoTime());
+				if (watchdog.interrupting) {
+					interrupt(overdue);
+				}
+			}
+		}
+
+		private synchronized void interrupt(RunningAttempt overdue) {
+			if (runningAttempts.get(overdue.command.getName()) == overdue) {
+				overdue.thread.interrupt();
+			}
+		}
+
+		/**
+		 * Stops checking the attempts.
+		 */
+		void close() {
+			checker.shutdownNow();
+			try {
+				checker.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+	}
+
+	private static final class RunningAttempt {
+
+		private final CommandClass command;
+		private final int attempt;
+		private final Thread thread;
+		private final long startNanoTime;
+
+		/**
+		 * Expected duration, {@code 0} if not computed yet and {@code -1} if unknown.
+		 */
+		private long thresholdNanos;
+		private boolean reported;
+
+		private RunningAttempt(CommandClass command, int attempt, Thread thread, long startNanoTime) {
+			this.command = command;
+			this.attempt = attempt;
+			this.thread = thread;
+			this.startNanoTime = startNanoTime;
+		}
+
+	}
+
+	/**
+	 * Builder for {@linkplain CommandWatchdog}s.
+	 */
+	public static class CommandWatchdogBuilder {
+
+		private final ExecutionMetrics metrics;
+		private double percentile = 99;
+		private double factor = 2;
+		private long minimumAttempts = 20;
+		private long intervalMillis = 100;
+		private boolean interrupting = false;
+
+		private CommandWatchdogBuilder(ExecutionMetrics metrics) {
+			this.metrics = Check.notNull(metrics, "metrics");
+		}
+
+		/**
+		 * @param percentile
+		 *            of the recorded attempt durations a command is expected to stay below, between {@code 0} and
+		 *            {@code 100}. Default is {@code 99}.
+		 */
+		public CommandWatchdogBuilder percentile(double percentile) {
+			Check.stateIsTrue(percentile >= 0 && percentile <= 100, "percentile must be between 0 and 100");
+			this.percentile = percentile;
+			return this;
+		}
+
+		/**
+		 * @param factor
+		 *            by which the percentile is multiplied to obtain the expected duration. Must be at least
+		 *            {@code 1}. Default is {@code 2}.
+		 */
+		public CommandWatchdogBuilder factor(double factor) {
+			Check.stateIsTrue(factor >= 1, "factor must be at least 1");
+			this.factor = factor;
+			return this;
+		}
+
+		/**
+		 * @param minimumAttempts
+		 *            number of attempts of a command that have to be recorded before it is watched. Must be at least
+		 *            {@code 1}. Default is {@code 20}.
+		 */
+		public CommandWatchdogBuilder minimumAttempts(long minimumAttempts) {
+			Check.stateIsTrue(minimumAttempts >= 1, "minimumAttempts must be at least 1");
+			this.minimumAttempts = minimumAttempts;
+			return this;
+		}
+
+		/**
+		 * @param intervalMillis
+		 *            between two checks of the running attempts. Default is 100 milliseconds.
+		 */
+		public CommandWatchdogBuilder intervalMillis(long intervalMillis) {
+			Check.stateIsTrue(intervalMillis > 0, "intervalMillis must be positive");
+			this.intervalMillis = intervalMillis;
+			return this;
+		}
+
+		/**
+		 * @param interrupting
+		 *            whether the thread executing an overdue attempt is interrupted after it has been reported.
+		 *            Default is {@code false}.
+		 */
+		public CommandWatchdogBuilder interrupting(boolean interrupting) {
+			this.interrupting = interrupting;
+			return this;
+		}
+
+		/**
+		 * @return a new {@linkplain CommandWatchdog}
+		 */
+		public CommandWatchdog build() {
+			return new CommandWatchdog(this);
+		}
+
+	}
+
+}
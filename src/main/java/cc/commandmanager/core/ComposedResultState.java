@@ -2,6 +2,7 @@ package cc.commandmanager.core;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -9,7 +10,11 @@ import net.sf.qualitycheck.Check;
 import net.sf.qualitycheck.exception.IllegalEmptyArgumentException;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
 
 /**
  * Represents a composite result state that is composed of {@linkplain ResultState}s from {@linkplain Command}
@@ -18,12 +23,28 @@ import com.google.common.collect.Iterables;
  * <p>
  * So if there is at least one warning in the given result states, the overall state will be warning. Same applies to
  * failure results.
+ * <p>
+ * Two composed result states are equal if they have the same executed commands, result states, retried attempts and
+ * cancelled commands. Resource usages and garbage collection pauses are measurements that differ from one execution
+ * to the next, so they are excluded on purpose.
  */
 public final class ComposedResultState extends ResultState {
 
 	private final ResultState overallState;
 	private final ImmutableList<CommandClass> executedCommands;
 	private final ImmutableList<ResultState> resultStates;
+	private final ImmutableListMultimap<CommandClass, ResultState> retriedAttempts;
+	private final ImmutableList<CommandClass> cancelledCommands;
+	private final ImmutableMap<CommandClass, ResourceUsage> resourceUsages;
+	private final long gcPauseNanos;
+	private final ImmutableMap<CommandClass, Long> commandGcPauseNanos;
+
+	/**
+	 * @return a builder to build a {@linkplain ComposedResultState} step by step while executing {@linkplain Command}s.
+	 */
+	public static ComposedResultStateBuilder builder() {
+		return new ComposedResultStateBuilder();
+	}
 
 	/**
 	 * Create a new {@linkplain ComposedResultState} from the given result states and command classes. The elements from
@@ -34,6 +55,15 @@ public final class ComposedResultState extends ResultState {
 	 * @param executedCommands
 	 */
 	public ComposedResultState(Iterable<ResultState> resultStates, Iterable<CommandClass> executedCommands) {
+		this(resultStates, executedCommands, ImmutableListMultimap.<CommandClass, ResultState> of(), ImmutableList
+				.<CommandClass> of(), ImmutableMap.<CommandClass, ResourceUsage> of(), -1, ImmutableMap
+				.<CommandClass, Long> of());
+	}
+
+	private ComposedResultState(Iterable<ResultState> resultStates, Iterable<CommandClass> executedCommands,
+			ListMultimap<CommandClass, ResultState> retriedAttempts, Iterable<CommandClass> cancelledCommands,
+			Map<CommandClass, ResourceUsage> resourceUsages, long gcPauseNanos,
+			Map<CommandClass, Long> commandGcPauseNanos) {
 		if (!resultStates.iterator().hasNext()) {
 			// TODO wait for https://github.com/before/quality-check/pull/19#event-142137188 to be in release
 			throw new IllegalEmptyArgumentException("resultStates");
@@ -47,6 +77,11 @@ public final class ComposedResultState extends ResultState {
 
 		this.executedCommands = ImmutableList.copyOf(executedCommands);
 		this.resultStates = ImmutableList.copyOf(resultStates);
+		this.retriedAttempts = ImmutableListMultimap.copyOf(retriedAttempts);
+		this.cancelledCommands = ImmutableList.copyOf(cancelledCommands);
+		this.resourceUsages = ImmutableMap.copyOf(resourceUsages);
+		this.gcPauseNanos = gcPauseNanos;
+		this.commandGcPauseNanos = ImmutableMap.copyOf(commandGcPauseNanos);
 
 		ResultState overallState = null;
 		for (ResultState resultState : resultStates) {
@@ -88,6 +123,87 @@ public final class ComposedResultState extends ResultState {
 		return executedCommands;
 	}
 
+	/**
+	 * 
+	 * @return all {@link Command}s that were meant to be executed but have been cancelled due to the
+	 *         {@linkplain FailurePolicy} after another command failed. This includes commands that were interrupted
+	 *         while running concurrently to the failed command. Result will be immutable.
+	 */
+	public List<CommandClass> getCancelledCommands() {
+		return cancelledCommands;
+	}
+
+	/**
+	 * Returns every {@linkplain ResultState} the given command returned during this execution. If the command was
+	 * retried according to its {@linkplain RetryPolicy}, the result states of all retried attempts will precede the
+	 * result state that is part of {@linkplain #getResultStates()}.
+	 *
+	 * @param command
+	 *            to retrieve the attempts of
+	 * @return result states of all attempts in the order of their execution. Result will be empty if the command has
+	 *         not been executed.
+	 */
+	public List<ResultState> getAttempts(CommandClass command) {
+		Check.notNull(command, "command");
+		ImmutableList.Builder<ResultState> result = ImmutableList.builder();
+		result.addAll(retriedAttempts.get(command));
+		for (int i = 0; i < executedCommands.size(); i++) {
+			if (executedCommands.get(i).equals(command)) {
+				result.add(resultStates.get(i));
+			}
+		}
+		return result.build();
+	}
+
+	/**
+	 * Returns the resources the given command consumed during this execution, summed up over all of its attempts.
+	 * Resources are only measured if {@linkplain CommandManager#setResourceAccounting(boolean)} is enabled. They are
+	 * not considered by {@linkplain #equals(Object)}.
+	 *
+	 * @param command
+	 *            to retrieve the resource usage of
+	 * @return resources consumed by the command or {@code null} if the command has not been executed or resources
+	 *         have not been measured
+	 */
+	@Nullable
+	public ResourceUsage getResourceUsage(CommandClass command) {
+		return resourceUsages.get(Check.notNull(command, "command"));
+	}
+
+	/**
+	 * @return a copy of this result state having the given garbage collection pauses
+	 */
+	ComposedResultState withGcPauses(long gcPauseNanos, Map<CommandClass, Long> commandGcPauseNanos) {
+		return new ComposedResultState(resultStates, executedCommands, retriedAttempts, cancelledCommands,
+				resourceUsages, gcPauseNanos, commandGcPauseNanos);
+	}
+
+	/**
+	 * Returns the total time of all garbage collection pauses during this execution. Pauses are only measured if
+	 * {@linkplain CommandManager#setGcAccounting(boolean)} is enabled. They are not considered by
+	 * {@linkplain #equals(Object)}.
+	 *
+	 * @return nanoseconds the execution has been paused by garbage collections or {@code -1} if pauses have not been
+	 *         measured
+	 */
+	public long getGcPauseNanos() {
+		return gcPauseNanos;
+	}
+
+	/**
+	 * Returns the time of the garbage collection pauses overlapping the attempts of the given command. A pause
+	 * overlapping several commands running in parallel counts for each of them.
+	 *
+	 * @param command
+	 *            to retrieve the pauses of
+	 * @return nanoseconds the command has been paused by garbage collections or {@code -1} if pauses have not been
+	 *         measured or the command has not been executed
+	 */
+	public long getGcPauseNanos(CommandClass command) {
+		Long pauseNanos = commandGcPauseNanos.get(Check.notNull(command, "command"));
+		return pauseNanos == null ? -1 : pauseNanos;
+	}
+
 	@Override
 	public boolean isSuccess() {
 		return overallState.isSuccess();
@@ -120,9 +236,12 @@ public final class ComposedResultState extends ResultState {
 		Iterator<ResultState> result = resultStates.iterator();
 		for (CommandClass command : executedCommands) {
 			message += command + ": " + result.next();
-			message += result.hasNext() ? ", " : "]";
+			message += result.hasNext() ? ", " : "";
+		}
+		if (!cancelledCommands.isEmpty()) {
+			message += "; Cancelled commands: " + cancelledCommands;
 		}
-		return message;
+		return message + "]";
 	}
 
 	@Override
@@ -131,6 +250,8 @@ public final class ComposedResultState extends ResultState {
 		int result = 1;
 		result = prime * result + ((executedCommands == null) ? 0 : executedCommands.hashCode());
 		result = prime * result + ((resultStates == null) ? 0 : resultStates.hashCode());
+		result = prime * result + retriedAttempts.hashCode();
+		result = prime * result + cancelledCommands.hashCode();
 		return result;
 	}
 
@@ -157,7 +278,84 @@ public final class ComposedResultState extends ResultState {
 		} else if (!resultStates.equals(other.resultStates)) {
 			return false;
 		}
-		return true;
+		return retriedAttempts.equals(other.retriedAttempts) && cancelledCommands.equals(other.cancelledCommands);
+	}
+
+	/**
+	 * A builder for a {@linkplain ComposedResultState}. Results have to be added in the order of their execution.
+	 */
+	public static class ComposedResultStateBuilder {
+
+		private final ImmutableList.Builder<ResultState> resultStates = ImmutableList.builder();
+		private final ImmutableList.Builder<CommandClass> executedCommands = ImmutableList.builder();
+		private final ImmutableListMultimap.Builder<CommandClass, ResultState> retriedAttempts = ImmutableListMultimap
+				.builder();
+		private final ImmutableList.Builder<CommandClass> cancelledCommands = ImmutableList.builder();
+		private final Map<CommandClass, ResourceUsage> resourceUsages = Maps.newLinkedHashMap();
+
+		/**
+		 * Adds the final result of an executed command.
+		 *
+		 * @param command
+		 *            that has been executed
+		 * @param resultState
+		 *            returned by the last attempt of the command
+		 */
+		public ComposedResultStateBuilder addResult(CommandClass command, ResultState resultState) {
+			executedCommands.add(Check.notNull(command, "command"));
+			resultStates.add(Check.notNull(resultState, "resultState"));
+			return this;
+		}
+
+		/**
+		 * Adds the result of an attempt that was followed by another attempt of the same command.
+		 *
+		 * @param command
+		 *            that has been executed
+		 * @param resultState
+		 *            returned by the retried attempt
+		 */
+		public ComposedResultStateBuilder addRetriedAttempt(CommandClass command, ResultState resultState) {
+			retriedAttempts.put(Check.notNull(command, "command"), Check.notNull(resultState, "resultState"));
+			return this;
+		}
+
+		/**
+		 * Adds a command that will not be executed or whose execution has been interrupted.
+		 *
+		 * @param command
+		 *            that has been cancelled
+		 */
+		public ComposedResultStateBuilder addCancelled(CommandClass command) {
+			cancelledCommands.add(Check.notNull(command, "command"));
+			return this;
+		}
+
+		/**
+		 * Adds resources consumed by an attempt of a command. Resources of several attempts are summed up.
+		 *
+		 * @param command
+		 *            that has been executed
+		 * @param resourceUsage
+		 *            of the attempt
+		 */
+		public ComposedResultStateBuilder addResourceUsage(CommandClass command, ResourceUsage resourceUsage) {
+			Check.notNull(resourceUsage, "resourceUsage");
+			ResourceUsage previous = resourceUsages.get(Check.notNull(command, "command"));
+			resourceUsages.put(command, previous == null ? resourceUsage : previous.plus(resourceUsage));
+			return this;
+		}
+
+		/**
+		 * @return A new and immutable {@linkplain ComposedResultState} containing all added results.
+		 * @throws IllegalEmptyArgumentException
+		 *             if no result has been added.
+		 */
+		public ComposedResultState build() {
+			return new ComposedResultState(resultStates.build(), executedCommands.build(), retriedAttempts.build(),
+					cancelledCommands.build(), resourceUsages, -1, ImmutableMap.<CommandClass, Long> of());
+		}
+
 	}
 
 }
@@ -0,0 +1,110 @@
+package cc.commandmanager.core;
+
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Emits every event to a fixed list of {@linkplain ExecutionListener}s in the order they have been registered.
+ * Listeners are held in an array, so emitting an event to no listeners at all does not allocate anything.
+ */
+@Immutable
+final class CompositeExecutionListener implements ExecutionListener {
+
+	private static final CompositeExecutionListener EMPTY = new CompositeExecutionListener(new ExecutionListener[0]);
+
+	private final ExecutionListener[] listeners;
+
+	private CompositeExecutionListener(ExecutionListener[] listeners) {
+		this.listeners = listeners;
+	}
+
+	static CompositeExecutionListener empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * @return a composite having the given listener registered in addition to the listeners of this one
+	 */
+	CompositeExecutionListener plus(ExecutionListener listener) {
+		ExecutionListener[] newListeners = new ExecutionListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+		newListeners[listeners.length] = listener;
+		return new CompositeExecutionListener(newListeners);
+	}
+
+	/**
+	 * @return a composite without the first registration of the given listener, or this composite if it is not
+	 *         registered
+	 */
+	CompositeExecutionListener minus(ExecutionListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i].equals(listener)) {
+				ExecutionListener[] newListeners = new ExecutionListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, newListeners, 0, i);
+				System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+				return new CompositeExecutionListener(newListeners);
+			}
+		}
+		return this;
+	}
+
+	List<ExecutionListener> getListeners() {
+		return ImmutableList.copyOf(listeners);
+	}
+
+	@Override
+	public void executionStarted(List<CommandClass> commands, long nanoTime) {
+		for (ExecutionListener listener : listeners) {
+			listener.executionStarted(commands, nanoTime);
+		}
+	}
+
+	@Override
+	public void commandStarted(CommandClass command, int attempt, long queuedNanoTime, long nanoTime) {
+		for (ExecutionListener listener : listeners) {
+			listener.commandStarted(command, attempt, queuedNanoTime, nanoTime);
+		}
+	}
+
+	@Override
+	public void commandRetried(CommandClass command, int attempt, ResultState resultState, long backoffMillis,
+			long startNanoTime, long nanoTime) {
+		for (ExecutionListener listener : listeners) {
+			listener.commandRetried(command, attempt, resultState, backoffMillis, startNanoTime, nanoTime);
+		}
+	}
+
+	@Override
+	public void commandCompleted(CommandClass command, int attempt, ResultState resultState, long startNanoTime,
+			long nanoTime) {
+		for (ExecutionListener listener : listeners) {
+			listener.commandCompleted(command, attempt, resultState, startNanoTime, nanoTime);
+		}
+	}
+
+	@Override
+	public void commandOverdue(CommandClass command, int attempt, long thresholdNanos, StackTraceElement[] stackTrace,
+			long startNanoTime, long nanoTime) {
+		for (ExecutionListener listener : listeners) {
+			listener.commandOverdue(command, attempt, thresholdNanos, stackTrace, startNanoTime, nanoTime);
+		}
+	}
+
+	@Override
+	public void commandCancelled(CommandClass command, long nanoTime) {
+		for (ExecutionListener listener : listeners) {
+			listener.commandCancelled(command, nanoTime);
+		}
+	}
+
+	@Override
+	public void executionFinished(ComposedResultState result, long nanoTime) {
+		for (ExecutionListener listener : listeners) {
+			listener.executionFinished(result, nanoTime);
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package cc.commandmanager.core;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.sf.qualitycheck.Check;
+
+/**
+ * {@linkplain Context} that can be accessed by several {@linkplain Command}s concurrently, e.g. during parallel
+ * execution by the {@linkplain CommandManager}. The immutable bindings are held by an {@linkplain AtomicReference} and
+ * replaced by compare-and-set, so neither reading nor writing values blocks.
+ * <p>
+ * {@linkplain #bind(Object, Object)}, {@linkplain #unbind(Object)}, {@linkplain #rebind(Object, Object)},
+ * {@linkplain #bindAll(Map)} and {@linkplain #merge(Context)} are atomic: if several threads bind a value to the same
+ * key, exactly one of them succeeds while all others get a {@linkplain KeyAlreadyBoundException}.
+ */
+@ThreadSafe
+public class ConcurrentContext extends Context {
+
+	private final AtomicReference<Bindings> items;
+
+	/**
+	 * Creates a new empty {@linkplain ConcurrentContext}.
+	 */
+	public ConcurrentContext() {
+		this(Bindings.empty());
+	}
+
+	/**
+	 * Creates a new concurrent context and immediately binds all values bound to the given context. This takes
+	 * constant time.
+	 * 
+	 * @param context
+	 *            whose bound values will also be bound in the new context
+	 */
+	public ConcurrentContext(Context context) {
+		this(Check.notNull(context, "context").readableSnapshot());
+	}
+
+	ConcurrentContext(Bindings items) {
+		super(items);
+		this.items = new AtomicReference<Bindings>(items);
+	}
+
+	@Override
+	Bindings snapshot() {
+		return items.get();
+	}
+
+	@Override
+	boolean compareAndSet(Bindings expected, Bindings update) {
+		return items.compareAndSet(expected, update);
+	}
+
+	@Override
+	public ConcurrentContext fork() {
+		return new ConcurrentContext(this);
+	}
+
+}
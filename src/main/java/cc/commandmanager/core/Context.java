@@ -1,38 +1,195 @@
 package cc.commandmanager.core;
 
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
 import net.sf.qualitycheck.Check;
+import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
 
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 
 /**
  * Execution context of the {@linkplain CommandManager}. {@linkplain Command}s can use this context to store or read
  * values during their execution. The context will be passed along the execution graph. Values bound to keys of the
  * context must be unique, i.e. a {@linkplain Command} cannot accidently overwrite an existing key value binding.
+ * <p>
+ * Bindings are stored in an immutable hash array mapped trie which is replaced on every modification. Hence
+ * {@linkplain #fork() forking} a context takes constant time and binding a value takes logarithmic time.
+ * <p>
+ * Values bound to {@linkplain ContextKey}s are stored in arrays indexed by the slot of the key instead, so they are
+ * read without hashing. Values of {@linkplain ContextKey.IntKey}s, {@linkplain ContextKey.LongKey}s and
+ * {@linkplain ContextKey.DoubleKey}s are never boxed. Typed keys can be used with the untyped methods as well.
  */
 public class Context {
 
-	private final Map<Object, Object> items;
+	/**
+	 * Returned by lookups of keys that are not bound.
+	 */
+	private static final Object NOT_BOUND = new Object();
+
+	/**
+	 * Marks values that have not been passed to {@linkplain #wrap(Object, Object)} yet.
+	 */
+	private static final Object UNWRAPPED = new Object();
+
+	private static final Function<Object, Object> UNWRAP = new Function<Object, Object>() {
+
+		@Override
+		public Object apply(@Nullable Object value) {
+			return DeferredValue.unwrap(value);
+		}
+
+	};
+
+	private Bindings items;
+
+	/**
+	 * Bindings at the time this context has been created. Changes made since then will be applied by
+	 * {@linkplain #merge(Context)}.
+	 */
+	private final Bindings forkBase;
 
 	/**
 	 * Creates a new empty {@linkplain Context}.
 	 */
 	public Context() {
-		items = Maps.newHashMap();
+		this(Bindings.empty());
 	}
 
 	/**
-	 * Creates a new context and immediately binds all values bound to the given context.
+	 * Creates a new context and immediately binds all values bound to the given context. This takes constant time, as
+	 * both contexts share their bindings until one of them is modified. This is the same as {@linkplain #fork()}.
 	 * 
 	 * @param context
 	 *            whose bound values will also be bound in the new context
 	 */
 	public Context(Context context) {
-		this();
-		items.putAll(Check.notNull(context).items);
+		this(Check.notNull(context).readableSnapshot());
+	}
+
+	Context(Bindings items) {
+		this.items = items;
+		forkBase = items;
+	}
+
+	/**
+	 * @return current bindings of this context
+	 */
+	Bindings snapshot() {
+		return items;
+	}
+
+	/**
+	 * @return current bindings that may be copied to other contexts or written elsewhere. These are all bindings,
+	 *         unless this context restricts which keys can be read.
+	 */
+	Bindings readableSnapshot() {
+		return snapshot();
+	}
+
+	/**
+	 * @return bindings at the time this context has been created
+	 */
+	Bindings getForkBase() {
+		return forkBase;
+	}
+
+	/**
+	 * Replaces the bindings of this context if they are still the expected ones. Contexts that are not accessed
+	 * concurrently can always replace their bindings.
+	 * 
+	 * @return whether the bindings have been replaced
+	 */
+	boolean compareAndSet(Bindings expected, Bindings update) {
+		items = update;
+		return true;
+	}
+
+	/**
+	 * Converts a value before it is bound. Values can be replaced by a {@linkplain DeferredValue} here, which will be
+	 * unwrapped whenever the value is read.
+	 * 
+	 * @return the value to be stored
+	 */
+	@Nullable
+	Object wrap(Object key, @Nullable Object value) {
+		return value;
+	}
+
+	/**
+	 * Creates a new context that has all values bound which are bound to this context. This takes constant time, as
+	 * both contexts share their bindings. Modifications of one context are not visible in the other one, but
+	 * modifications of the fork can be applied to this context using {@linkplain #merge(Context)}.
+	 * 
+	 * @return a new context of the same type as this one
+	 */
+	public Context fork() {
+		return new Context(this);
+	}
+
+	/**
+	 * Applies all modifications that have been made to the given context since it was forked or created. A key that
+	 * has been modified by both contexts since then is a conflict, unless both contexts bound equal values to it. The
+	 * value of a conflicting key will remain unchanged in this context.
+	 * 
+	 * @param fork
+	 *            context whose modifications will be applied. Usually it was created by {@linkplain #fork()}.
+	 * @return keys that could not be merged because of conflicts. Empty if all modifications have been applied.
+	 */
+	public Set<Object> merge(Context fork) {
+		return merge(Check.notNull(fork, "fork"), false);
+	}
+
+	/**
+	 * Applies all modifications that have been made to the given context since it was forked, unless there is a
+	 * conflict. Unlike {@linkplain #merge(Context)}, either all modifications are applied or none of them, and
+	 * concurrent readers of this context never see only some of them.
+	 * 
+	 * @return keys that are in conflict. Empty if all modifications have been applied.
+	 */
+	Set<Object> commit(Context fork) {
+		return merge(fork, true);
+	}
+
+	/**
+	 * Called if the modifications of this fork will not be applied to the context it has been forked from, so that
+	 * resources held by modified values can be released early.
+	 */
+	void discard() {
+		// nothing to release
+	}
+
+	private Set<Object> merge(Context fork, boolean atomic) {
+		Bindings base = fork.getForkBase();
+		Bindings modified = fork.readableSnapshot();
+		Set<Object> modifiedKeys = base.changedKeys(modified);
+		while (true) {
+			Bindings current = snapshot();
+			Bindings merged = current;
+			ImmutableSet.Builder<Object> conflicts = ImmutableSet.builder();
+			for (Object key : modifiedKeys) {
+				Object currentValue = current.get(key, NOT_BOUND);
+				Object modifiedValue = modified.get(key, NOT_BOUND);
+				if (Objects.equal(currentValue, base.get(key, NOT_BOUND))) {
+					merged = modifiedValue == NOT_BOUND ? merged.minus(key) : merged.plus(key, modifiedValue);
+				} else if (!Objects.equal(DeferredValue.unwrap(currentValue), DeferredValue.unwrap(modifiedValue))) {
+					conflicts.add(key);
+				}
+			}
+			Set<Object> conflictingKeys = conflicts.build();
+			if (atomic && !conflictingKeys.isEmpty()) {
+				return conflictingKeys;
+			}
+			if (compareAndSet(current, merged)) {
+				return conflictingKeys;
+			}
+		}
 	}
 
 	/**
@@ -45,10 +202,19 @@ public class Context {
 	 */
 	public void bind(Object key, @Nullable Object value) {
 		Check.notNull(key);
-		if (items.containsKey(key)) {
-			throw new KeyAlreadyBoundException(key);
-		}
-		items.put(key, value);
+		Object wrapped = UNWRAPPED;
+		Bindings current;
+		Bindings updated;
+		do {
+			current = snapshot();
+			if (current.containsKey(key)) {
+				throw new KeyAlreadyBoundException(key);
+			}
+			if (wrapped == UNWRAPPED) {
+				wrapped = wrap(key, value);
+			}
+			updated = current.plus(key, wrapped);
+		} while (!compareAndSet(current, updated));
 	}
 
 	/**
@@ -60,8 +226,15 @@ public class Context {
 	 */
 	public void unbind(Object key) {
 		Check.notNull(key);
-		checkMapContainsKey(items, key);
-		items.remove(key);
+		Bindings current;
+		Bindings updated;
+		do {
+			current = snapshot();
+			updated = current.minus(key);
+			if (updated == current) {
+				throw new KeyNotBoundException(key);
+			}
+		} while (!compareAndSet(current, updated));
 	}
 
 	/**
@@ -74,12 +247,22 @@ public class Context {
 	 *             if there is no value bound to the key
 	 */
 	public void rebind(Object key, @Nullable Object value) {
-		unbind(key);
-		bind(key, value);
+		Check.notNull(key);
+		Object wrapped = UNWRAPPED;
+		Bindings current;
+		do {
+			current = snapshot();
+			if (!current.containsKey(key)) {
+				throw new KeyNotBoundException(key);
+			}
+			if (wrapped == UNWRAPPED) {
+				wrapped = wrap(key, value);
+			}
+		} while (!compareAndSet(current, current.plus(key, wrapped)));
 	}
 
 	/**
-	 * Binds all values of the given map to their given key.
+	 * Binds all values of the given map to their given key. Either all or none of the values will be bound.
 	 * 
 	 * @param map
 	 * @throws KeyAlreadyBoundException
@@ -87,9 +270,204 @@ public class Context {
 	 */
 	public void bindAll(Map<? extends Object, ? extends Object> map) {
 		Check.notNull(map);
-		for (Object key : map.keySet()) {
-			bind(key, map.get(key));
-		}
+		Map<Object, Object> wrapped = Maps.newLinkedHashMap();
+		Bindings current;
+		Bindings updated;
+		do {
+			current = snapshot();
+			updated = current;
+			for (Map.Entry<? extends Object, ? extends Object> entry : map.entrySet()) {
+				Object key = Check.notNull(entry.getKey());
+				if (updated.containsKey(key)) {
+					throw new KeyAlreadyBoundException(key);
+				}
+				if (!wrapped.containsKey(key)) {
+					wrapped.put(key, wrap(key, entry.getValue()));
+				}
+				updated = updated.plus(key, wrapped.get(key));
+			}
+		} while (!compareAndSet(current, updated));
+	}
+
+	/**
+	 * Binds all of the given bindings, either all or none of them. Primitive values will not be boxed.
+	 * 
+	 * @throws KeyAlreadyBoundException
+	 *             if at least one of the given keys has already bound values
+	 */
+	void bindAllOf(Bindings bindings) {
+		Map<Object, Object> wrapped = Maps.newHashMap();
+		Bindings current;
+		Bindings updated;
+		do {
+			current = snapshot();
+			updated = current;
+			for (Map.Entry<Object, Object> entry : bindings.objectItems().entrySet()) {
+				Object key = entry.getKey();
+				if (updated.containsKey(key)) {
+					throw new KeyAlreadyBoundException(key);
+				}
+				if (!wrapped.containsKey(key)) {
+					wrapped.put(key, wrap(key, entry.getValue()));
+				}
+				updated = updated.plus(key, wrapped.get(key));
+			}
+			for (ContextKey<?> key : bindings.contextKeys()) {
+				if (updated.isBound(key)) {
+					throw new KeyAlreadyBoundException(key);
+				}
+				if (key.isPrimitive()) {
+					updated = updated.plusBits(key, bindings.bits(key));
+				} else {
+					if (!wrapped.containsKey(key)) {
+						wrapped.put(key, wrap(key, bindings.value(key)));
+					}
+					updated = updated.plus(key, wrapped.get(key));
+				}
+			}
+		} while (!compareAndSet(current, updated));
+	}
+
+	/**
+	 * Binds a value to the given key that will be computed by the given supplier when it is read for the first time.
+	 * The supplier will not be called if the value is never read. If several threads read the value concurrently for
+	 * the first time, the supplier will be called by one of them while the others wait for its result. If the
+	 * supplier throws an exception, the next read will call it again.
+	 * 
+	 * @param key
+	 * @param supplier
+	 *            computing the value
+	 * @throws KeyAlreadyBoundException
+	 *             if there is already a value bound to the key
+	 * @throws IllegalStateOfArgumentException
+	 *             if the key is a primitive {@linkplain ContextKey}
+	 */
+	public void bindLazy(Object key, Supplier<?> supplier) {
+		Check.notNull(supplier, "supplier");
+		Check.stateIsTrue(!(key instanceof ContextKey) || !((ContextKey<?>) key).isPrimitive(),
+				"values of primitive keys cannot be bound lazily");
+		bind(key, new LazyValue(supplier));
+	}
+
+	/**
+	 * Binds a value to the given typed key that will be computed by the given supplier when it is read for the first
+	 * time. See {@linkplain #bindLazy(Object, Supplier)}.
+	 * 
+	 * @param key
+	 * @param supplier
+	 *            computing the value
+	 * @throws KeyAlreadyBoundException
+	 *             if there is already a value bound to the key
+	 */
+	public <T> void bindLazy(ContextKey<T> key, Supplier<? extends T> supplier) {
+		bindLazy((Object) key, supplier);
+	}
+
+	/**
+	 * Binds the given value to the given typed key.
+	 * 
+	 * @param key
+	 * @param value
+	 * @throws KeyAlreadyBoundException
+	 *             if there is already a value bound to the key
+	 */
+	public <T> void bind(ContextKey<T> key, @Nullable T value) {
+		bind((Object) key, value);
+	}
+
+	/**
+	 * Binds the given {@code int} value to the given key without boxing it.
+	 * 
+	 * @param key
+	 * @param value
+	 * @throws KeyAlreadyBoundException
+	 *             if there is already a value bound to the key
+	 */
+	public void bind(ContextKey.IntKey key, int value) {
+		bindBits(key, value, false);
+	}
+
+	/**
+	 * Binds the given {@code long} value to the given key without boxing it.
+	 * 
+	 * @param key
+	 * @param value
+	 * @throws KeyAlreadyBoundException
+	 *             if there is already a value bound to the key
+	 */
+	public void bind(ContextKey.LongKey key, long value) {
+		bindBits(key, value, false);
+	}
+
+	/**
+	 * Binds the given {@code double} value to the given key without boxing it.
+	 * 
+	 * @param key
+	 * @param value
+	 * @throws KeyAlreadyBoundException
+	 *             if there is already a value bound to the key
+	 */
+	public void bind(ContextKey.DoubleKey key, double value) {
+		bindBits(key, Double.doubleToRawLongBits(value), false);
+	}
+
+	/**
+	 * Rebinds a different value to a typed key with an already bound value.
+	 * 
+	 * @param key
+	 * @param value
+	 * @throws KeyNotBoundException
+	 *             if there is no value bound to the key
+	 */
+	public <T> void rebind(ContextKey<T> key, @Nullable T value) {
+		rebind((Object) key, value);
+	}
+
+	/**
+	 * Rebinds a different {@code int} value to a key with an already bound value without boxing it.
+	 * 
+	 * @param key
+	 * @param value
+	 * @throws KeyNotBoundException
+	 *             if there is no value bound to the key
+	 */
+	public void rebind(ContextKey.IntKey key, int value) {
+		bindBits(key, value, true);
+	}
+
+	/**
+	 * Rebinds a different {@code long} value to a key with an already bound value without boxing it.
+	 * 
+	 * @param key
+	 * @param value
+	 * @throws KeyNotBoundException
+	 *             if there is no value bound to the key
+	 */
+	public void rebind(ContextKey.LongKey key, long value) {
+		bindBits(key, value, true);
+	}
+
+	/**
+	 * Rebinds a different {@code double} value to a key with an already bound value without boxing it.
+	 * 
+	 * @param key
+	 * @param value
+	 * @throws KeyNotBoundException
+	 *             if there is no value bound to the key
+	 */
+	public void rebind(ContextKey.DoubleKey key, double value) {
+		bindBits(key, Double.doubleToRawLongBits(value), true);
+	}
+
+	private void bindBits(ContextKey<?> key, long bits, boolean rebind) {
+		Check.notNull(key);
+		Bindings current;
+		do {
+			current = snapshot();
+			if (current.isBound(key) != rebind) {
+				throw rebind ? new KeyNotBoundException(key) : new KeyAlreadyBoundException(key);
+			}
+		} while (!compareAndSet(current, current.plusBits(key, bits)));
 	}
 
 	/**
@@ -99,7 +477,7 @@ public class Context {
 	 * @return if a value is bound to the key
 	 */
 	public boolean containsKey(Object key) {
-		return items.containsKey(Check.notNull(key));
+		return snapshot().containsKey(Check.notNull(key));
 	}
 
 	/**
@@ -110,8 +488,74 @@ public class Context {
 	 */
 	public Object get(Object key) {
 		Check.notNull(key);
-		checkMapContainsKey(items, key);
-		return items.get(key);
+		Object value = snapshot().get(key, NOT_BOUND);
+		if (value == NOT_BOUND) {
+			throw new KeyNotBoundException(key);
+		}
+		return DeferredValue.unwrap(value);
+	}
+
+	/**
+	 * Retrieves the value bound to the given typed key. The value is read by the slot of the key without hashing.
+	 * 
+	 * @param key
+	 * @return value bound to that key
+	 * @throws KeyNotBoundException
+	 *             if there is no value bound to that key
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(ContextKey<T> key) {
+		Bindings bindings = snapshot();
+		if (!bindings.isBound(Check.notNull(key))) {
+			throw new KeyNotBoundException(key);
+		}
+		// the type has been checked when binding the value
+		return key.isPrimitive() ? ((ContextKey.PrimitiveKey<T>) key).fromBits(bindings.bits(key))
+				: (T) DeferredValue.unwrap(bindings.value(key));
+	}
+
+	/**
+	 * Returns the {@code int} bound to the given key without boxing it.
+	 * 
+	 * @param key
+	 * @return value bound to the key
+	 * @throws KeyNotBoundException
+	 *             if there is no value bound to that key
+	 */
+	public int getInt(ContextKey.IntKey key) {
+		return (int) boundBits(key);
+	}
+
+	/**
+	 * Returns the {@code long} bound to the given key without boxing it.
+	 * 
+	 * @param key
+	 * @return value bound to the key
+	 * @throws KeyNotBoundException
+	 *             if there is no value bound to that key
+	 */
+	public long getLong(ContextKey.LongKey key) {
+		return boundBits(key);
+	}
+
+	/**
+	 * Returns the {@code double} bound to the given key without boxing it.
+	 * 
+	 * @param key
+	 * @return value bound to the key
+	 * @throws KeyNotBoundException
+	 *             if there is no value bound to that key
+	 */
+	public double getDouble(ContextKey.DoubleKey key) {
+		return Double.longBitsToDouble(boundBits(key));
+	}
+
+	private long boundBits(ContextKey<?> key) {
+		Bindings bindings = snapshot();
+		if (!bindings.isBound(Check.notNull(key))) {
+			throw new KeyNotBoundException(key);
+		}
+		return bindings.bits(key);
 	}
 
 	/**
@@ -199,20 +643,30 @@ public class Context {
 		return get(key, Iterable.class);
 	}
 
+	/**
+	 * @return unmodifiable view of the current bindings of this context
+	 */
+	Map<Object, Object> asMap() {
+		return Maps.transformValues(readableSnapshot().asMap(), UNWRAP);
+	}
+
+	/**
+	 * Compares the bound values without resolving them: lazy and spilled bindings are only equal to the very same
+	 * binding, as found in forks and copies of a context. Neither runs suppliers nor reloads values.
+	 */
 	@Override
 	public boolean equals(Object context) {
-		return context instanceof Context && items.equals(((Context) context).items);
+		if (!(context instanceof Context)) {
+			return false;
+		}
+		Bindings items = readableSnapshot();
+		Bindings otherItems = ((Context) context).readableSnapshot();
+		return items == otherItems || items.asMap().equals(otherItems.asMap());
 	}
 
 	@Override
 	public int hashCode() {
-		return items.hashCode();
-	}
-
-	private static void checkMapContainsKey(Map<Object, Object> map, Object key) {
-		if (!map.containsKey(key)) {
-			throw new KeyNotBoundException(key);
-		}
+		return readableSnapshot().asMap().hashCode();
 	}
 
 }
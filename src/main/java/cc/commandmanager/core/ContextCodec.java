@@ -0,0 +1,666 @@
+package cc.commandmanager.core;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import net.sf.qualitycheck.Check;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Binary format of the bindings of a {@linkplain Context}, e.g. to write checkpoints or journals or to hand a context
+ * over to another process. Values are written by {@linkplain ValueCodec}s which are registered for their type along
+ * with a tag identifying the codec in the stream. Codecs for strings, boxed primitives and primitive arrays are
+ * registered by default. Values of primitive {@linkplain ContextKey}s are written without boxing them.
+ * <p>
+ * Bindings are written as a stream of records, one per key, terminated by an end marker. So several contexts can be
+ * written to the same stream, and reading a context consumes exactly the bytes of its bindings. Keys that are no
+ * {@linkplain ContextKey}s are written by codecs just like values. {@linkplain ContextKey}s are written by their name
+ * and have to be registered, so that they can be resolved when the bindings are read. The {@linkplain OffHeapStore}
+ * of an execution is never written.
+ * <p>
+ * Both processes have to use codecs having the same registrations.
+ */
+@Immutable
+public final class ContextCodec {
+
+	/**
+	 * Tags lower than this one are reserved for codecs registered by default.
+	 */
+	public static final int FIRST_CUSTOM_TAG = 64;
+
+	private static final int MAGIC = 0x43545831;
+
+	private static final int END = 0;
+	private static final int OBJECT_KEY = 1;
+	private static final int TYPED_KEY = 2;
+	private static final int PRIMITIVE_KEY = 3;
+
+	private static final int NULL_TAG = 0;
+
+	/**
+	 * Size of the regions of a file that are mapped one after another.
+	 */
+	private static final int MAPPING_SIZE = 1 << 20;
+
+	/**
+	 * Size of the chunks in which primitive arrays are converted.
+	 */
+	private static final int CHUNK_SIZE = 8192;
+
+	private final Map<Integer, Registration<?>> registrationsByTag;
+	private final Map<Class<?>, Registration<?>> registrationsByType;
+	private final List<Registration<?>> registrations;
+	private final Map<String, ContextKey<?>> keys;
+
+	private ContextCodec(Map<Integer, Registration<?>> registrations, Map<String, ContextKey<?>> keys) {
+		registrationsByTag = ImmutableMap.copyOf(registrations);
+		Map<Class<?>, Registration<?>> byType = Maps.newHashMap();
+		for (Registration<?> registration : registrations.values()) {
+			if (!byType.containsKey(registration.type)) {
+				byType.put(registration.type, registration);
+			}
+		}
+		registrationsByType = ImmutableMap.copyOf(byType);
+		this.registrations = ImmutableList.copyOf(registrations.values());
+		this.keys = ImmutableMap.copyOf(keys);
+	}
+
+	/**
+	 * @return a new {@linkplain ContextCodecBuilder} having the default codecs registered
+	 */
+	public static ContextCodecBuilder builder() {
+		return new ContextCodecBuilder();
+	}
+
+	/**
+	 * Writes a snapshot of all bindings of the given context. Values that are computed lazily or have been spilled will
+	 * be obtained first.
+	 *
+	 * @param context
+	 *            whose bindings will be written
+	 * @param output
+	 *            to write to. It should be buffered.
+	 * @throws ContextCodecException
+	 *             if there is no codec for a key or value, or if a {@linkplain ContextKey} has not been registered
+	 */
+	public void write(Context context, DataOutput output) throws IOException {
+		Check.notNull(context, "context");
+		Check.notNull(output, "output");
+		Bindings bindings = context.readableSnapshot();
+		output.writeInt(MAGIC);
+		for (Map.Entry<Object, Object> entry : bindings.objectItems().entrySet()) {
+			output.writeByte(OBJECT_KEY);
+			writeValue(entry.getKey(), output);
+			writeValue(DeferredValue.unwrap(entry.getValue()), output);
+		}
+		for (ContextKey<?> key : bindings.contextKeys()) {
+			if (key == OffHeapStore.KEY) {
+				continue;
+			}
+			if (keys.get(key.getName()) != key) {
+				throw new ContextCodecException("ContextKey " + key + " has not been registered");
+			}
+			if (key.isPrimitive()) {
+				output.writeByte(PRIMITIVE_KEY);
+				output.writeUTF(key.getName());
+				output.writeLong(bindings.bits(key));
+			} else {
+				output.writeByte(TYPED_KEY);
+				output.writeUTF(key.getName());
+				writeValue(DeferredValue.unwrap(bindings.value(key)), output);
+			}
+		}
+		output.writeByte(END);
+	}
+
+	/**
+	 * Reads bindings written by {@linkplain #write(Context, DataOutput)} and binds them to the given context. Either
+	 * all or none of them will be bound.
+	 *
+	 * @param input
+	 *            to read from. It should be buffered.
+	 * @param context
+	 *            to bind the bindings to
+	 * @throws ContextCodecException
+	 *             if the input does not contain bindings, or if a codec or a {@linkplain ContextKey} is unknown
+	 * @throws KeyAlreadyBoundException
+	 *             if a key read is bound already
+	 */
+	public void read(DataInput input, Context context) throws IOException {
+		Check.notNull(input, "input");
+		Check.notNull(context, "context");
+		if (input.readInt() != MAGIC) {
+			throw new ContextCodecException("Input does not start with bindings of a context");
+		}
+		Bindings decoded = Bindings.empty();
+		for (int record = input.readByte(); record != END; record = input.readByte()) {
+			switch (record) {
+			case OBJECT_KEY:
+				Object key = readValue(input);
+				if (key == null) {
+					throw new ContextCodecException("Key must not be null");
+				}
+				decoded = decoded.plus(key, readValue(input));
+				break;
+			case TYPED_KEY:
+				decoded = decoded.plus(keyNamed(input.readUTF(), false), readValue(input));
+				break;
+			case PRIMITIVE_KEY:
+				decoded = decoded.plusBits(keyNamed(input.readUTF(), true), input.readLong());
+				break;
+			default:
+				throw new ContextCodecException("Unknown record " + record);
+			}
+		}
+		context.bindAllOf(decoded);
+	}
+
+	/**
+	 * Writes a snapshot of all bindings of the given context to the given file, which is mapped into memory region by
+	 * region while it is written. An existing file will be overwritten.
+	 *
+	 * @see #write(Context, DataOutput)
+	 */
+	public void write(Context context, File file) throws IOException {
+		Check.notNull(file, "file");
+		MappedFileOutputStream output = new MappedFileOutputStream(file);
+		try {
+			write(context, new DataOutputStream(output));
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Reads the bindings of the given file, which is mapped into memory region by region while it is read.
+	 *
+	 * @see #read(DataInput, Context)
+	 */
+	public void read(File file, Context context) throws IOException {
+		Check.notNull(file, "file");
+		MappedFileInputStream input = new MappedFileInputStream(file);
+		try {
+			read(new DataInputStream(input), context);
+		} finally {
+			input.close();
+		}
+	}
+
+	private ContextKey<?> keyNamed(String name, boolean primitive) {
+		ContextKey<?> key = keys.get(name);
+		if (key == null) {
+			throw new ContextCodecException("ContextKey " + name + " has not been registered");
+		}
+		if (key.isPrimitive() != primitive) {
+			throw new ContextCodecException("ContextKey " + name + " has been registered with a different type");
+		}
+		return key;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeValue(@Nullable Object value, DataOutput output) throws IOException {
+		if (value == null) {
+			output.writeShort(NULL_TAG);
+			return;
+		}
+		Registration<?> registration = registrationOf(value.getClass());
+		output.writeShort(registration.tag);
+		((ValueCodec<Object>) registration.codec).write(value, output);
+	}
+
+	@Nullable
+	private Object readValue(DataInput input) throws IOException {
+		int tag = input.readShort();
+		if (tag == NULL_TAG) {
+			return null;
+		}
+		Registration<?> registration = registrationsByTag.get(tag);
+		if (registration == null) {
+			throw new ContextCodecException("No codec registered for tag " + tag);
+		}
+		return registration.codec.read(input);
+	}
+
+	private Registration<?> registrationOf(Class<?> type) {
+		Registration<?> registration = registrationsByType.get(type);
+		if (registration != null) {
+			return registration;
+		}
+		for (Registration<?> candidate : registrations) {
+			if (candidate.type.isAssignableFrom(type)) {
+				return candidate;
+			}
+		}
+		throw new ContextCodecException("No codec registered for " + type.getName());
+	}
+
+	private static final class Registration<T> {
+
+		private final int tag;
+		private final Class<T> type;
+		private final ValueCodec<? super T> codec;
+
+		private Registration(int tag, Class<T> type, ValueCodec<? super T> codec) {
+			this.tag = tag;
+			this.type = type;
+			this.codec = codec;
+		}
+
+	}
+
+	/**
+	 * Builder for {@linkplain ContextCodec}s.
+	 */
+	public static class ContextCodecBuilder {
+
+		private final Map<Integer, Registration<?>> registrations = Maps.newLinkedHashMap();
+		private final Map<String, ContextKey<?>> keys = Maps.newHashMap();
+
+		private ContextCodecBuilder() {
+			add(1, String.class, STRING);
+			add(2, Integer.class, INTEGER);
+			add(3, Long.class, LONG);
+			add(4, Double.class, DOUBLE);
+			add(5, Float.class, FLOAT);
+			add(6, Boolean.class, BOOLEAN);
+			add(7, byte[].class, BYTE_ARRAY);
+			add(8, int[].class, INT_ARRAY);
+			add(9, long[].class, LONG_ARRAY);
+			add(10, double[].class, DOUBLE_ARRAY);
+		}
+
+		/**
+		 * Registers a codec for values of the given type. Values whose class is not registered are written by the
+		 * first codec registered for one of their supertypes.
+		 *
+		 * @param tag
+		 *            identifying the codec in the stream. Must be at least {@linkplain ContextCodec#FIRST_CUSTOM_TAG}
+		 *            and at most {@linkplain Short#MAX_VALUE}, and must not be registered already.
+		 * @param type
+		 *            of the values
+		 * @param codec
+		 *            writing and reading the values
+		 */
+		public <T> ContextCodecBuilder register(int tag, Class<T> type, ValueCodec<? super T> codec) {
+			Check.stateIsTrue(tag >= FIRST_CUSTOM_TAG && tag <= Short.MAX_VALUE, "tag must be between "
+					+ FIRST_CUSTOM_TAG + " and " + Short.MAX_VALUE);
+			Check.stateIsTrue(!registrations.containsKey(tag), "tag " + tag + " has been registered already");
+			return add(tag, Check.notNull(type, "type"), Check.notNull(codec, "codec"));
+		}
+
+		/**
+		 * Registers a {@linkplain ContextKey}, so that values bound to it can be written and read.
+		 *
+		 * @param key
+		 *            whose name must be unique among all registered keys
+		 */
+		public ContextCodecBuilder key(ContextKey<?> key) {
+			Check.notNull(key, "key");
+			Check.stateIsTrue(!keys.containsKey(key.getName()) || keys.get(key.getName()) == key, "a key named "
+					+ key.getName() + " has been registered already");
+			keys.put(key.getName(), key);
+			return this;
+		}
+
+		private <T> ContextCodecBuilder add(int tag, Class<T> type, ValueCodec<? super T> codec) {
+			registrations.put(tag, new Registration<T>(tag, type, codec));
+			return this;
+		}
+
+		/**
+		 * @return a new {@linkplain ContextCodec} having all registered codecs and keys
+		 */
+		public ContextCodec build() {
+			return new ContextCodec(registrations, keys);
+		}
+
+	}
+
+	private static final ValueCodec<String> STRING = new ValueCodec<String>() {
+
+		@Override
+		public void write(String value, DataOutput output) throws IOException {
+			byte[] bytes = value.getBytes(Charsets.UTF_8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+
+		@Override
+		public String read(DataInput input) throws IOException {
+			byte[] bytes = new byte[input.readInt()];
+			input.readFully(bytes);
+			return new String(bytes, Charsets.UTF_8);
+		}
+
+	};
+
+	private static final ValueCodec<Integer> INTEGER = new ValueCodec<Integer>() {
+
+		@Override
+		public void write(Integer value, DataOutput output) throws IOException {
+			output.writeInt(value);
+		}
+
+		@Override
+		public Integer read(DataInput input) throws IOException {
+			return input.readInt();
+		}
+
+	};
+
+	private static final ValueCodec<Long> LONG = new ValueCodec<Long>() {
+
+		@Override
+		public void write(Long value, DataOutput output) throws IOException {
+			output.writeLong(value);
+		}
+
+		@Override
+		public Long read(DataInput input) throws IOException {
+			return input.readLong();
+		}
+
+	};
+
+	private static final ValueCodec<Double> DOUBLE = new ValueCodec<Double>() {
+
+		@Override
+		public void write(Double value, DataOutput output) throws IOException {
+			output.writeDouble(value);
+		}
+
+		@Override
+		public Double read(DataInput input) throws IOException {
+			return input.readDouble();
+		}
+
+	};
+
+	private static final ValueCodec<Float> FLOAT = new ValueCodec<Float>() {
+
+		@Override
+		public void write(Float value, DataOutput output) throws IOException {
+			output.writeFloat(value);
+		}
+
+		@Override
+		public Float read(DataInput input) throws IOException {
+			return input.readFloat();
+		}
+
+	};
+
+	private static final ValueCodec<Boolean> BOOLEAN = new ValueCodec<Boolean>() {
+
+		@Override
+		public void write(Boolean value, DataOutput output) throws IOException {
+			output.writeBoolean(value);
+		}
+
+		@Override
+		public Boolean read(DataInput input) throws IOException {
+			return input.readBoolean();
+		}
+
+	};
+
+	private static final ValueCodec<byte[]> BYTE_ARRAY = new ValueCodec<byte[]>() {
+
+		@Override
+		public void write(byte[] value, DataOutput output) throws IOException {
+			output.writeInt(value.length);
+			output.write(value);
+		}
+
+		@Override
+		public byte[] read(DataInput input) throws IOException {
+			byte[] value = new byte[input.readInt()];
+			input.readFully(value);
+			return value;
+		}
+
+	};
+
+	/**
+	 * Primitive arrays are converted in chunks of bytes instead of writing every element on its own.
+	 */
+	private static final ValueCodec<int[]> INT_ARRAY = new ValueCodec<int[]>() {
+
+		@Override
+		public void write(int[] value, DataOutput output) throws IOException {
+			output.writeInt(value.length);
+			ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			for (int offset = 0; offset < value.length; offset += CHUNK_SIZE / 4) {
+				int length = Math.min(CHUNK_SIZE / 4, value.length - offset);
+				chunk.clear();
+				chunk.asIntBuffer().put(value, offset, length);
+				output.write(chunk.array(), 0, length * 4);
+			}
+		}
+
+		@Override
+		public int[] read(DataInput input) throws IOException {
+			int[] value = new int[input.readInt()];
+			ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			for (int offset = 0; offset < value.length; offset += CHUNK_SIZE / 4) {
+				int length = Math.min(CHUNK_SIZE / 4, value.length - offset);
+				input.readFully(chunk.array(), 0, length * 4);
+				chunk.clear();
+				chunk.asIntBuffer().get(value, offset, length);
+			}
+			return value;
+		}
+
+	};
+
+	private static final ValueCodec<long[]> LONG_ARRAY = new ValueCodec<long[]>() {
+
+		@Override
+		public void write(long[] value, DataOutput output) throws IOException {
+			output.writeInt(value.length);
+			ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			for (int offset = 0; offset < value.length; offset += CHUNK_SIZE / 8) {
+				int length = Math.min(CHUNK_SIZE / 8, value.length - offset);
+				chunk.clear();
+				chunk.asLongBuffer().put(value, offset, length);
+				output.write(chunk.array(), 0, length * 8);
+			}
+		}
+
+		@Override
+		public long[] read(DataInput input) throws IOException {
+			long[] value = new long[input.readInt()];
+			ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			for (int offset = 0; offset < value.length; offset += CHUNK_SIZE / 8) {
+				int length = Math.min(CHUNK_SIZE / 8, value.length - offset);
+				input.readFully(chunk.array(), 0, length * 8);
+				chunk.clear();
+				chunk.asLongBuffer().get(value, offset, length);
+			}
+			return value;
+		}
+
+	};
+
+	private static final ValueCodec<double[]> DOUBLE_ARRAY = new ValueCodec<double[]>() {
+
+		@Override
+		public void write(double[] value, DataOutput output) throws IOException {
+			output.writeInt(value.length);
+			ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			for (int offset = 0; offset < value.length; offset += CHUNK_SIZE / 8) {
+				int length = Math.min(CHUNK_SIZE / 8, value.length - offset);
+				chunk.clear();
+				chunk.asDoubleBuffer().put(value, offset, length);
+				output.write(chunk.array(), 0, length * 8);
+			}
+		}
+
+		@Override
+		public double[] read(DataInput input) throws IOException {
+			double[] value = new double[input.readInt()];
+			ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			for (int offset = 0; offset < value.length; offset += CHUNK_SIZE / 8) {
+				int length = Math.min(CHUNK_SIZE / 8, value.length - offset);
+				input.readFully(chunk.array(), 0, length * 8);
+				chunk.clear();
+				chunk.asDoubleBuffer().get(value, offset, length);
+			}
+			return value;
+		}
+
+	};
+
+	/**
+	 * Writes to a file by mapping one region after another into memory. The file is truncated to the bytes written when
+	 * the stream is closed.
+	 */
+	private static final class MappedFileOutputStream extends OutputStream {
+
+		private final RandomAccessFile file;
+		@Nullable
+		private MappedByteBuffer region;
+		private long regionStart;
+
+		private MappedFileOutputStream(File file) throws IOException {
+			this.file = new RandomAccessFile(file, "rw");
+			this.file.setLength(0);
+			map(0);
+		}
+
+		private void map(long start) throws IOException {
+			if (region != null) {
+				OffHeapRegion.free(region);
+			}
+			region = file.getChannel().map(FileChannel.MapMode.READ_WRITE, start, MAPPING_SIZE);
+			regionStart = start;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (!region.hasRemaining()) {
+				map(regionStart + MAPPING_SIZE);
+			}
+			region.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (!region.hasRemaining()) {
+					map(regionStart + MAPPING_SIZE);
+				}
+				int written = Math.min(length, region.remaining());
+				region.put(bytes, offset, written);
+				offset += written;
+				length -= written;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (region == null) {
+				return;
+			}
+			long length = regionStart + region.position();
+			OffHeapRegion.free(region);
+			region = null;
+			try {
+				file.setLength(length);
+			} finally {
+				file.close();
+			}
+		}
+
+	}
+
+	/**
+	 * Reads a file by mapping one region after another into memory.
+	 */
+	private static final class MappedFileInputStream extends InputStream {
+
+		private final RandomAccessFile file;
+		private final long size;
+		@Nullable
+		private MappedByteBuffer region;
+		private long regionStart;
+
+		private MappedFileInputStream(File file) throws IOException {
+			this.file = new RandomAccessFile(file, "r");
+			size = this.file.length();
+			map(0);
+		}
+
+		private void map(long start) throws IOException {
+			if (region != null) {
+				OffHeapRegion.free(region);
+			}
+			region = file.getChannel().map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAPPING_SIZE, size - start));
+			regionStart = start;
+		}
+
+		/**
+		 * @return {@code false} if the end of the file has been reached
+		 */
+		private boolean ensureRemaining() throws IOException {
+			if (region.hasRemaining()) {
+				return true;
+			}
+			long next = regionStart + region.capacity();
+			if (next >= size) {
+				return false;
+			}
+			map(next);
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return ensureRemaining() ? region.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (!ensureRemaining()) {
+				return -1;
+			}
+			int read = Math.min(length, region.remaining());
+			region.get(bytes, offset, read);
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (region == null) {
+				return;
+			}
+			OffHeapRegion.free(region);
+			region = null;
+			file.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,21 @@
+package cc.commandmanager.core;
+
+/**
+ * {@linkplain RuntimeException} indicating that bindings of a {@linkplain Context} cannot be encoded or decoded by a
+ * {@linkplain ContextCodec}, e.g. because no codec has been registered for the type of a value.
+ */
+public class ContextCodecException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new {@linkplain ContextCodecException} having the given message.
+	 * 
+	 * @param message
+	 *            describing why the bindings cannot be encoded or decoded
+	 */
+	public ContextCodecException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,203 @@
+package cc.commandmanager.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import net.sf.qualitycheck.Check;
+
+/**
+ * Typed key of a {@linkplain Context}. Each key is assigned a slot id when it is created, so that values bound to it
+ * are stored in and read from an array instead of being looked up by hash. Keys are meant to be created once, e.g. as
+ * {@code static final} constants of a {@linkplain Command}, which are initialized as soon as the command is loaded
+ * while building the {@linkplain CommandGraph}. Slots are assigned JVM-wide and never reused; the arrays grow in chunks
+ * of {@value Bindings#CHUNK_SLOTS} slots, so binding a key copies only the chunk of its slot.
+ * <p>
+ * Keys are compared by identity: two keys having the same name are different keys. {@linkplain IntKey},
+ * {@linkplain LongKey} and {@linkplain DoubleKey} bind primitive values without boxing them.
+ *
+ * @param <T>
+ *            type of the bound values
+ */
+@Immutable
+public class ContextKey<T> {
+
+	private static final AtomicInteger nextSlot = new AtomicInteger();
+
+	private final String name;
+	private final Class<T> type;
+	private final int slot;
+
+	private ContextKey(String name, Class<T> type) {
+		this.name = Check.notEmpty(name, "name");
+		this.type = Check.notNull(type, "type");
+		slot = nextSlot.getAndIncrement();
+	}
+
+	/**
+	 * Creates a new key for values of the given type.
+	 *
+	 * @param name
+	 *            used in messages only
+	 * @param type
+	 *            of the bound values
+	 * @return a new key different from all other keys
+	 */
+	public static <T> ContextKey<T> of(String name, Class<T> type) {
+		return new ContextKey<T>(name, type);
+	}
+
+	/**
+	 * @param name
+	 *            used in messages only
+	 * @return a new key for {@code int} values
+	 */
+	public static IntKey ofInt(String name) {
+		return new IntKey(name);
+	}
+
+	/**
+	 * @param name
+	 *            used in messages only
+	 * @return a new key for {@code long} values
+	 */
+	public static LongKey ofLong(String name) {
+		return new LongKey(name);
+	}
+
+	/**
+	 * @param name
+	 *            used in messages only
+	 * @return a new key for {@code double} values
+	 */
+	public static DoubleKey ofDouble(String name) {
+		return new DoubleKey(name);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	int getSlot() {
+		return slot;
+	}
+
+	/**
+	 * @return whether values of this key are stored as primitive {@code long} bits, i.e. whether this is a
+	 *         {@linkplain PrimitiveKey}
+	 */
+	boolean isPrimitive() {
+		return this instanceof PrimitiveKey;
+	}
+
+	/**
+	 * @return the given value if it can be bound to this key
+	 * @throws ResultTypeMismatchException
+	 *             if the value does not have the type of this key
+	 */
+	@Nullable
+	T checkType(@Nullable Object value) {
+		if (value != null && !type.isInstance(value)) {
+			throw new ResultTypeMismatchException(this, value.getClass(), type);
+		}
+		return type.cast(value);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * {@linkplain ContextKey} whose values are stored as primitive {@code long} bits.
+	 *
+	 * @param <T>
+	 *            boxed type of the bound values
+	 */
+	abstract static class PrimitiveKey<T> extends ContextKey<T> {
+
+		private PrimitiveKey(String name, Class<T> type) {
+			super(name, type);
+		}
+
+		/**
+		 * Converts a value bound by the untyped API into the primitive representation of this key.
+		 */
+		abstract long toBits(Object value);
+
+		/**
+		 * Converts the primitive representation of a value into its boxed type.
+		 */
+		abstract T fromBits(long bits);
+
+	}
+
+	/**
+	 * {@linkplain ContextKey} for {@code int} values.
+	 */
+	public static final class IntKey extends PrimitiveKey<Integer> {
+
+		private IntKey(String name) {
+			super(name, Integer.class);
+		}
+
+		@Override
+		long toBits(Object value) {
+			return Check.notNull(checkType(value), "value").intValue();
+		}
+
+		@Override
+		Integer fromBits(long bits) {
+			return (int) bits;
+		}
+
+	}
+
+	/**
+	 * {@linkplain ContextKey} for {@code long} values.
+	 */
+	public static final class LongKey extends PrimitiveKey<Long> {
+
+		private LongKey(String name) {
+			super(name, Long.class);
+		}
+
+		@Override
+		long toBits(Object value) {
+			return Check.notNull(checkType(value), "value").longValue();
+		}
+
+		@Override
+		Long fromBits(long bits) {
+			return bits;
+		}
+
+	}
+
+	/**
+	 * {@linkplain ContextKey} for {@code double} values.
+	 */
+	public static final class DoubleKey extends PrimitiveKey<Double> {
+
+		private DoubleKey(String name) {
+			super(name, Double.class);
+		}
+
+		@Override
+		long toBits(Object value) {
+			return Double.doubleToRawLongBits(Check.notNull(checkType(value), "value").doubleValue());
+		}
+
+		@Override
+		Double fromBits(long bits) {
+			return Double.longBitsToDouble(bits);
+		}
+
+	}
+
+}
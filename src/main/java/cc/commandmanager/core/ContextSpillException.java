@@ -0,0 +1,23 @@
+package cc.commandmanager.core;
+
+/**
+ * {@linkplain RuntimeException} indicating that a value of a {@linkplain SpillingContext} could not be written to or
+ * read from its spill file.
+ */
+public class ContextSpillException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new {@linkplain ContextSpillException} having the given message and cause.
+	 * 
+	 * @param message
+	 *            describing the failed operation
+	 * @param cause
+	 *            of the failure
+	 */
+	public ContextSpillException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
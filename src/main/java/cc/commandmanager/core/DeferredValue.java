@@ -0,0 +1,25 @@
+package cc.commandmanager.core;
+
+import javax.annotation.Nullable;
+
+/**
+ * Placeholder bound to a {@linkplain Context} instead of the actual value, which will be obtained when it is read.
+ * Contexts unwrap deferred values transparently, so commands never see them.
+ */
+abstract class DeferredValue {
+
+	/**
+	 * @return the actual value
+	 */
+	@Nullable
+	abstract Object get();
+
+	/**
+	 * @return the actual value if the given value is deferred, otherwise the given value
+	 */
+	@Nullable
+	static Object unwrap(@Nullable Object value) {
+		return value instanceof DeferredValue ? ((DeferredValue) value).get() : value;
+	}
+
+}
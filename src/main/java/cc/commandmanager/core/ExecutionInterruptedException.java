@@ -0,0 +1,22 @@
+package cc.commandmanager.core;
+
+/**
+ * {@linkplain RuntimeException} indicating that a thread waiting for the completion of concurrently executed
+ * {@linkplain Command}s or for the backoff before retrying a command has been interrupted. All commands that were
+ * still running have been cancelled.
+ */
+public class ExecutionInterruptedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new {@linkplain ExecutionInterruptedException} wrapping the given {@linkplain InterruptedException}.
+	 *
+	 * @param cause
+	 *            of the interruption
+	 */
+	public ExecutionInterruptedException(InterruptedException cause) {
+		super("Interrupted while waiting for commands to complete", cause);
+	}
+
+}
@@ -0,0 +1,118 @@
+package cc.commandmanager.core;
+
+import java.util.List;
+
+/**
+ * Receives events of executions of the {@linkplain CommandManager}. Events carry their data as typed arguments and a
+ * timestamp obtained from {@linkplain System#nanoTime()}, so no event objects are created. Timestamps can only be
+ * compared to each other.
+ * <p>
+ * Every attempt of a command emits {@linkplain #commandStarted} and afterwards either {@linkplain #commandRetried} or
+ * {@linkplain #commandCompleted}. If waiting for the next attempt is interrupted, {@linkplain #commandCompleted}
+ * follows {@linkplain #commandRetried} for the same attempt. If a parallel execution is aborted, running attempts are
+ * interrupted and their commands emit {@linkplain #commandCancelled} instead. If a command throws an exception, the
+ * execution is aborted without further events. If a {@linkplain CommandWatchdog} is set, an attempt running longer
+ * than expected emits {@linkplain #commandOverdue} once while it is still running.
+ * <p>
+ * Events are emitted synchronously, so listeners should return quickly. In parallel executions,
+ * {@linkplain #commandStarted} is emitted by the worker thread executing the command and all other events by the
+ * calling thread. {@linkplain #commandOverdue} is always emitted by the thread of the watchdog, so listeners must be
+ * thread-safe. Use {@linkplain ExecutionListenerAdapter} to implement only some of the methods.
+ */
+public interface ExecutionListener {
+
+	/**
+	 * @param commands
+	 *            to be executed, in a topological order
+	 * @param nanoTime
+	 *            at which the execution started
+	 */
+	void executionStarted(List<CommandClass> commands, long nanoTime);
+
+	/**
+	 * @param command
+	 *            whose attempt started
+	 * @param attempt
+	 *            number of the attempt, starting with {@code 1}
+	 * @param queuedNanoTime
+	 *            at which the attempt was ready to be started, i.e. all dependencies had completed or the backoff of
+	 *            the previous attempt had elapsed. The difference to {@code nanoTime} is the time the attempt waited
+	 *            for a free worker thread.
+	 * @param nanoTime
+	 *            at which the attempt started
+	 */
+	void commandStarted(CommandClass command, int attempt, long queuedNanoTime, long nanoTime);
+
+	/**
+	 * Emitted if an attempt of a command did not succeed and the command will be executed again after a backoff.
+	 * 
+	 * @param command
+	 *            whose attempt completed
+	 * @param attempt
+	 *            number of the attempt, starting with {@code 1}
+	 * @param resultState
+	 *            of the attempt
+	 * @param backoffMillis
+	 *            until the next attempt will be started
+	 * @param startNanoTime
+	 *            at which the attempt started
+	 * @param nanoTime
+	 *            at which the attempt completed
+	 */
+	void commandRetried(CommandClass command, int attempt, ResultState resultState, long backoffMillis,
+			long startNanoTime, long nanoTime);
+
+	/**
+	 * Emitted after the last attempt of a command.
+	 * 
+	 * @param command
+	 *            that completed
+	 * @param attempt
+	 *            number of the attempt, starting with {@code 1}
+	 * @param resultState
+	 *            of the command
+	 * @param startNanoTime
+	 *            at which the attempt started
+	 * @param nanoTime
+	 *            at which the attempt completed
+	 */
+	void commandCompleted(CommandClass command, int attempt, ResultState resultState, long startNanoTime,
+			long nanoTime);
+
+	/**
+	 * Emitted by a {@linkplain CommandWatchdog} if an attempt of a command is still running after the duration it is
+	 * expected to take at most.
+	 *
+	 * @param command
+	 *            whose attempt is overdue
+	 * @param attempt
+	 *            number of the attempt, starting with {@code 1}
+	 * @param thresholdNanos
+	 *            duration in nanoseconds the attempt has been expected to take at most
+	 * @param stackTrace
+	 *            of the thread executing the attempt, captured when the attempt has been detected as overdue
+	 * @param startNanoTime
+	 *            at which the attempt started
+	 * @param nanoTime
+	 *            at which the attempt has been detected as overdue
+	 */
+	void commandOverdue(CommandClass command, int attempt, long thresholdNanos, StackTraceElement[] stackTrace,
+			long startNanoTime, long nanoTime);
+
+	/**
+	 * @param command
+	 *            that will not be executed, because a mandatory dependency failed or the execution has been aborted
+	 * @param nanoTime
+	 *            at which the command has been cancelled
+	 */
+	void commandCancelled(CommandClass command, long nanoTime);
+
+	/**
+	 * @param result
+	 *            of the execution
+	 * @param nanoTime
+	 *            at which the execution finished
+	 */
+	void executionFinished(ComposedResultState result, long nanoTime);
+
+}
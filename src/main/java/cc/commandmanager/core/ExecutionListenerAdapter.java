@@ -0,0 +1,49 @@
+package cc.commandmanager.core;
+
+import java.util.List;
+
+/**
+ * {@linkplain ExecutionListener} ignoring all events. Subclasses override the methods of the events they are
+ * interested in.
+ */
+public abstract class ExecutionListenerAdapter implements ExecutionListener {
+
+	@Override
+	public void executionStarted(List<CommandClass> commands, long nanoTime) {
+		// ignored
+	}
+
+	@Override
+	public void commandStarted(CommandClass command, int attempt, long queuedNanoTime, long nanoTime) {
+		// ignored
+	}
+
+	@Override
+	public void commandRetried(CommandClass command, int attempt, ResultState resultState, long backoffMillis,
+			long startNanoTime, long nanoTime) {
+		// ignored
+	}
+
+	@Override
+	public void commandCompleted(CommandClass command, int attempt, ResultState resultState, long startNanoTime,
+			long nanoTime) {
+		// ignored
+	}
+
+	@Override
+	public void commandOverdue(CommandClass command, int attempt, long thresholdNanos, StackTraceElement[] stackTrace,
+			long startNanoTime, long nanoTime) {
+		// ignored
+	}
+
+	@Override
+	public void commandCancelled(CommandClass command, long nanoTime) {
+		// ignored
+	}
+
+	@Override
+	public void executionFinished(ComposedResultState result, long nanoTime) {
+		// ignored
+	}
+
+}
@@ -0,0 +1,581 @@
+package cc.commandmanager.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.sf.qualitycheck.Check;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Registry of metrics of the executions observed as {@linkplain ExecutionListener}. For every command, the duration
+ * of its attempts and the time its attempts waited for a free worker thread are recorded in
+ * {@linkplain LatencyHistogram}s, and its results, retries and cancellations are counted. For every execution, its
+ * duration and its result are recorded. Gauges report the number of currently running commands and its maximum.
+ * If {@linkplain CommandManager#setResourceAccounting(boolean) resource accounting} is enabled, the CPU time and the
+ * allocated bytes of every command are recorded as well, and the times it blocked or waited are summed up. If
+ * {@linkplain CommandManager#setGcAccounting(boolean) garbage collection accounting} is enabled, the garbage
+ * collection pauses of every execution and command are summed up.
+ * <p>
+ * Metrics are accumulated over all executions of all {@linkplain CommandManager}s the registry has been added to.
+ * Snapshots can be written in the <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus
+ * text format</a> and in JSON, with durations in seconds and nanoseconds, respectively.
+ */
+@ThreadSafe
+public final class ExecutionMetrics extends ExecutionListenerAdapter {
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final double MILLIS_PER_SECOND = 1e3;
+
+	private final ConcurrentMap<String, CommandMetrics> commandMetrics = Maps.newConcurrentMap();
+	private final LatencyHistogram runDuration = new LatencyHistogram();
+	private final AtomicLong runSuccesses = new AtomicLong();
+	private final AtomicLong runWarnings = new AtomicLong();
+	private final AtomicLong runFailures = new AtomicLong();
+	private final AtomicLong runGcPauseNanos = new AtomicLong();
+	private final AtomicInteger runningCommands = new AtomicInteger();
+	private final AtomicInteger maxRunningCommands = new AtomicInteger();
+	private final ThreadLocal<long[]> runStartTime = new ThreadLocal<long[]>() {
+
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+
+	};
+	private final ThreadLocal<RetriedAttempt> lastRetriedAttempt = new ThreadLocal<RetriedAttempt>() {
+
+		@Override
+		protected RetriedAttempt initialValue() {
+			return new RetriedAttempt();
+		}
+
+	};
+
+	/**
+	 * @return metrics of the command with the given name, which are empty if the command has not been executed yet
+	 */
+	public CommandMetrics getCommandMetrics(String commandName) {
+		CommandMetrics metrics = commandMetrics.get(Check.notNull(commandName, "commandName"));
+		if (metrics == null) {
+			CommandMetrics created = new CommandMetrics();
+			metrics = commandMetrics.putIfAbsent(commandName, created);
+			if (metrics == null) {
+				metrics = created;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return durations of executions in nanoseconds
+	 */
+	public LatencyHistogram getRunDuration() {
+		return runDuration;
+	}
+
+	/**
+	 * @return number of executions that succeeded
+	 */
+	public long getRunSuccesses() {
+		return runSuccesses.get();
+	}
+
+	/**
+	 * @return number of executions that completed with a warning
+	 */
+	public long getRunWarnings() {
+		return runWarnings.get();
+	}
+
+	/**
+	 * @return number of executions that failed
+	 */
+	public long getRunFailures() {
+		return runFailures.get();
+	}
+
+	/**
+	 * @return nanoseconds executions have been paused by garbage collections, if garbage collection accounting is
+	 *         enabled
+	 */
+	public long getRunGcPauseNanos() {
+		return runGcPauseNanos.get();
+	}
+
+	/**
+	 * @return number of commands being executed at the moment
+	 */
+	public int getRunningCommands() {
+		return runningCommands.get();
+	}
+
+	/**
+	 * @return maximum number of commands that have been executed at the same time
+	 */
+	public int getMaxRunningCommands() {
+		return maxRunningCommands.get();
+	}
+
+	@Override
+	public void executionStarted(List<CommandClass> commands, long nanoTime) {
+		runStartTime.get()[0] = nanoTime;
+	}
+
+	@Override
+	public void commandStarted(CommandClass command, int attempt, long queuedNanoTime, long nanoTime) {
+		CommandMetrics metrics = getCommandMetrics(command.getName());
+		metrics.queueWait.record(nanoTime - queuedNanoTime);
+		metrics.running.incrementAndGet();
+		int running = runningCommands.incrementAndGet();
+		int max;
+		while (running > (max = maxRunningCommands.get()) && !maxRunningCommands.compareAndSet(max, running)) {
+			// retry
+		}
+	}
+
+	@Override
+	public void commandRetried(CommandClass command, int attempt, ResultState resultState, long backoffMillis,
+			long startNanoTime, long nanoTime) {
+		CommandMetrics metrics = getCommandMetrics(command.getName());
+		metrics.running.decrementAndGet();
+		runningCommands.decrementAndGet();
+		metrics.latency.record(nanoTime - startNanoTime);
+		metrics.retries.incrementAndGet();
+		RetriedAttempt retried = lastRetriedAttempt.get();
+		retried.command = command;
+		retried.attempt = attempt;
+	}
+
+	@Override
+	public void commandCompleted(CommandClass command, int attempt, ResultState resultState, long startNanoTime,
+			long nanoTime) {
+		CommandMetrics metrics = getCommandMetrics(command.getName());
+		RetriedAttempt retried = lastRetriedAttempt.get();
+		if (retried.command == command && retried.attempt == attempt) {
+			// the backoff after the retried attempt has been interrupted, the attempt has been recorded already
+			retried.command = null;
+		} else {
+			metrics.running.decrementAndGet();
+			runningCommands.decrementAndGet();
+			metrics.latency.record(nanoTime - startNanoTime);
+		}
+		count(resultState, metrics.successes, metrics.warnings, metrics.failures);
+	}
+
+	@Override
+	public void commandCancelled(CommandClass command, long nanoTime) {
+		CommandMetrics metrics = getCommandMetrics(command.getName());
+		metrics.cancellations.incrementAndGet();
+		int running;
+		while ((running = metrics.running.get()) > 0) {
+			// the running attempt of an aborted execution has been interrupted
+			if (metrics.running.compareAndSet(running, running - 1)) {
+				runningCommands.decrementAndGet();
+				break;
+			}
+		}
+	}
+
+	@Override
+	public void executionFinished(ComposedResultState result, long nanoTime) {
+		runDuration.record(nanoTime - runStartTime.get()[0]);
+		count(result, runSuccesses, runWarnings, runFailures);
+		if (result.getGcPauseNanos() >= 0) {
+			runGcPauseNanos.addAndGet(result.getGcPauseNanos());
+		}
+		for (CommandClass command : result.getExecutedCommands()) {
+			ResourceUsage usage = result.getResourceUsage(command);
+			if (usage != null) {
+				getCommandMetrics(command.getName()).record(usage);
+			}
+			long gcPauseNanos = result.getGcPauseNanos(command);
+			if (gcPauseNanos >= 0) {
+				getCommandMetrics(command.getName()).gcPauseNanos.addAndGet(gcPauseNanos);
+			}
+		}
+	}
+
+	private static void count(ResultState resultState, AtomicLong successes, AtomicLong warnings,
+			AtomicLong failures) {
+		if (resultState.isSuccess()) {
+			successes.incrementAndGet();
+		} else if (resultState.isWarning()) {
+			warnings.incrementAndGet();
+		} else {
+			failures.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of all metrics in the Prometheus text format.
+	 */
+	public void writePrometheus(Writer writer) throws IOException {
+		Map<String, CommandMetrics> commands = ImmutableSortedMap.copyOf(commandMetrics);
+
+		writeType(writer, "commandmanager_command_duration_seconds", "Duration of command attempts.", "summary");
+		for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+			writeSummary(writer, "commandmanager_command_duration_seconds", label(entry.getKey()),
+					entry.getValue().latency, NANOS_PER_SECOND);
+		}
+		writeType(writer, "commandmanager_command_queue_wait_seconds",
+				"Time command attempts waited for a worker thread.", "summary");
+		for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+			writeSummary(writer, "commandmanager_command_queue_wait_seconds", label(entry.getKey()),
+					entry.getValue().queueWait, NANOS_PER_SECOND);
+		}
+		writeType(writer, "commandmanager_command_cpu_seconds", "CPU time of commands.", "summary");
+		for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+			writeSummary(writer, "commandmanager_command_cpu_seconds", label(entry.getKey()),
+					entry.getValue().cpuTime, NANOS_PER_SECOND);
+		}
+		writeType(writer, "commandmanager_command_allocated_bytes", "Bytes allocated by commands.", "summary");
+		for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+			writeSummary(writer, "commandmanager_command_allocated_bytes", label(entry.getKey()),
+					entry.getValue().allocatedBytes, 1);
+		}
+		writeType(writer, "commandmanager_command_blocked_total", "Times commands blocked on a monitor.", "counter");
+		for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+			writeSample(writer, "commandmanager_command_blocked_total", label(entry.getKey()),
+					entry.getValue().getBlockedCount());
+		}
+		writeType(writer, "commandmanager_command_blocked_seconds_total", "Time commands blocked on a monitor.",
+				"counter");
+		for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+			writeSample(writer, "commandmanager_command_blocked_seconds_total", label(entry.getKey()),
+					entry.getValue().getBlockedTimeMillis() / MILLIS_PER_SECOND);
+		}
+		writeType(writer, "commandmanager_command_waited_total", "Times commands waited for a notification.",
+				"counter");
+		for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+			writeSample(writer, "commandmanager_command_waited_total", label(entry.getKey()),
+					entry.getValue().getWaitedCount());
+		}
+		writeType(writer, "commandmanager_command_waited_seconds_total", "Time commands waited for a notification.",
+				"counter");
+		for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+			writeSample(writer, "commandmanager_command_waited_seconds_total", label(entry.getKey()),
+					entry.getValue().getWaitedTimeMillis() / MILLIS_PER_SECOND);
+		}
+		writeType(writer, "commandmanager_command_gc_pause_seconds_total",
+				"Garbage collection pauses overlapping commands.", "counter");
+		for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+			writeSample(writer, "commandmanager_command_gc_pause_seconds_total", label(entry.getKey()),
+					entry.getValue().getGcPauseNanos() / NANOS_PER_SECOND);
+		}
+		writeType(writer, "commandmanager_command_results_total", "Results of commands.", "counter");
+		for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+			String label = label(entry.getKey());
+			CommandMetrics metrics = entry.getValue();
+			writeSample(writer, "commandmanager_command_results_total", label + ",result=\"success\"",
+					metrics.getSuccesses());
+			writeSample(writer, "commandmanager_command_results_total", label + ",result=\"warning\"",
+					metrics.getWarnings());
+			writeSample(writer, "commandmanager_command_results_total", label + ",result=\"failure\"",
+					metrics.getFailures());
+		}
+		writeType(writer, "commandmanager_command_retries_total", "Retried command attempts.", "counter");
+		for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+			writeSample(writer, "commandmanager_command_retries_total", label(entry.getKey()),
+					entry.getValue().getRetries());
+		}
+		writeType(writer, "commandmanager_command_cancellations_total", "Cancelled commands.", "counter");
+		for (Map.Entry<String, CommandMetrics> entry : commands.entrySet()) {
+			writeSample(writer, "commandmanager_command_cancellations_total", label(entry.getKey()),
+					entry.getValue().getCancellations());
+		}
+
+		writeType(writer, "commandmanager_run_duration_seconds", "Duration of executions.", "summary");
+		writeSummary(writer, "commandmanager_run_duration_seconds", "", runDuration, NANOS_PER_SECOND);
+		writeType(writer, "commandmanager_run_results_total", "Results of executions.", "counter");
+		writeSample(writer, "commandmanager_run_results_total", "result=\"success\"", runSuccesses.get());
+		writeSample(writer, "commandmanager_run_results_total", "result=\"warning\"", runWarnings.get());
+		writeSample(writer, "commandmanager_run_results_total", "result=\"failure\"", runFailures.get());
+		writeType(writer, "commandmanager_run_gc_pause_seconds_total", "Garbage collection pauses during executions.",
+				"counter");
+		writeSample(writer, "commandmanager_run_gc_pause_seconds_total", "", runGcPauseNanos.get()
+				/ NANOS_PER_SECOND);
+		writeType(writer, "commandmanager_running_commands", "Commands being executed.", "gauge");
+		writeSample(writer, "commandmanager_running_commands", "", runningCommands.get());
+		writeType(writer, "commandmanager_running_commands_max", "Maximum of commands executed at the same time.",
+				"gauge");
+		writeSample(writer, "commandmanager_running_commands_max", "", maxRunningCommands.get());
+		writer.flush();
+	}
+
+	/**
+	 * Writes a snapshot of all metrics in JSON.
+	 */
+	public void writeJson(Writer writer) throws IOException {
+		writer.write("{\"runs\":{\"successes\":" + runSuccesses.get() + ",\"warnings\":" + runWarnings.get()
+				+ ",\"failures\":" + runFailures.get() + ",\"gcPauseNanos\":" + runGcPauseNanos.get()
+				+ ",\"durationNanos\":");
+		writeJson(writer, runDuration);
+		writer.write("},\"runningCommands\":" + runningCommands.get() + ",\"maxRunningCommands\":"
+				+ maxRunningCommands.get() + ",\"commands\":{");
+		boolean first = true;
+		for (Map.Entry<String, CommandMetrics> entry : ImmutableSortedMap.copyOf(commandMetrics).entrySet()) {
+			CommandMetrics metrics = entry.getValue();
+			if (!first) {
+				writer.write(',');
+			}
+			first = false;
+			writer.write(Json.quote(entry.getKey()) + ":{\"successes\":" + metrics.getSuccesses() + ",\"warnings\":"
+					+ metrics.getWarnings() + ",\"failures\":" + metrics.getFailures() + ",\"retries\":"
+					+ metrics.getRetries() + ",\"cancellations\":" + metrics.getCancellations()
+					+ ",\"durationNanos\":");
+			writeJson(writer, metrics.latency);
+			writer.write(",\"queueWaitNanos\":");
+			writeJson(writer, metrics.queueWait);
+			writer.write(",\"cpuTimeNanos\":");
+			writeJson(writer, metrics.cpuTime);
+			writer.write(",\"allocatedBytes\":");
+			writeJson(writer, metrics.allocatedBytes);
+			writer.write(",\"blockedCount\":" + metrics.getBlockedCount() + ",\"blockedTimeMillis\":"
+					+ metrics.getBlockedTimeMillis() + ",\"waitedCount\":" + metrics.getWaitedCount()
+					+ ",\"waitedTimeMillis\":" + metrics.getWaitedTimeMillis() + ",\"gcPauseNanos\":"
+					+ metrics.getGcPauseNanos() + "}");
+		}
+		writer.write("}}\n");
+		writer.flush();
+	}
+
+	/**
+	 * Writes a snapshot of all metrics in the Prometheus text format to the given file, replacing it.
+	 */
+	public void writePrometheus(File file) throws IOException {
+		File temporaryFile = temporaryFileFor(file);
+		Writer writer = Files.newWriter(temporaryFile, Charsets.UTF_8);
+		try {
+			writePrometheus(writer);
+		} finally {
+			writer.close();
+		}
+		Files.move(temporaryFile, file);
+	}
+
+	/**
+	 * Writes a snapshot of all metrics in JSON to the given file, replacing it.
+	 */
+	public void writeJson(File file) throws IOException {
+		File temporaryFile = temporaryFileFor(file);
+		Writer writer = Files.newWriter(temporaryFile, Charsets.UTF_8);
+		try {
+			writeJson(writer);
+		} finally {
+			writer.close();
+		}
+		Files.move(temporaryFile, file);
+	}
+
+	/**
+	 * Readers of the file, e.g. the node exporter of Prometheus, must never see a partially written file.
+	 */
+	private static File temporaryFileFor(File file) {
+		return new File(Check.notNull(file, "file").getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+	}
+
+	private static void writeType(Writer writer, String name, String help, String type) throws IOException {
+		writer.write("# HELP " + name + " " + help + "\n# TYPE " + name + " " + type + "\n");
+	}
+
+	private static void writeSummary(Writer writer, String name, String labels, LatencyHistogram histogram,
+			double divisor) throws IOException {
+		String separator = labels.isEmpty() ? "" : ",";
+		for (double quantile : QUANTILES) {
+			writer.write(name + "{" + labels + separator + "quantile=\"" + quantile + "\"} "
+					+ histogram.getValueAtPercentile(quantile * 100) / divisor + "\n");
+		}
+		writer.write(name + "_sum" + braces(labels) + " " + histogram.getSum() / divisor + "\n");
+		writer.write(name + "_count" + braces(labels) + " " + histogram.getCount() + "\n");
+	}
+
+	private static void writeSample(Writer writer, String name, String labels, long value) throws IOException {
+		writer.write(name + braces(labels) + " " + value + "\n");
+	}
+
+	private static void writeSample(Writer writer, String name, String labels, double value) throws IOException {
+		writer.write(name + braces(labels) + " " + value + "\n");
+	}
+
+	private static String braces(String labels) {
+		return labels.isEmpty() ? "" : "{" + labels + "}";
+	}
+
+	private static String label(String commandName) {
+		return "command=\"" + commandName.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+	}
+
+	private static void writeJson(Writer writer, LatencyHistogram histogram) throws IOException {
+		writer.write("{\"count\":" + histogram.getCount() + ",\"sum\":" + histogram.getSum() + ",\"min\":"
+				+ histogram.getMin() + ",\"max\":" + histogram.getMax() + ",\"mean\":" + histogram.getMean());
+		for (int i = 0; i < QUANTILES.length; i++) {
+			writer.write(",\"" + PERCENTILE_NAMES[i] + "\":" + histogram.getValueAtPercentile(QUANTILES[i] * 100));
+		}
+		writer.write('}');
+	}
+
+	/**
+	 * Last attempt retried by a thread. Retried and completed events of the same attempt are emitted by the same
+	 * thread.
+	 */
+	private static final class RetriedAttempt {
+
+		private CommandClass command;
+		private int attempt;
+
+	}
+
+	/**
+	 * Metrics of one command, accumulated over all of its executions.
+	 */
+	@ThreadSafe
+	public static final class CommandMetrics {
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LatencyHistogram queueWait = new LatencyHistogram();
+		private final AtomicLong successes = new AtomicLong();
+		private final AtomicLong warnings = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong retries = new AtomicLong();
+		private final AtomicLong cancellations = new AtomicLong();
+		private final AtomicInteger running = new AtomicInteger();
+		private final LatencyHistogram cpuTime = new LatencyHistogram();
+		private final LatencyHistogram allocatedBytes = new LatencyHistogram();
+		private final AtomicLong blockedCount = new AtomicLong();
+		private final AtomicLong blockedTimeMillis = new AtomicLong();
+		private final AtomicLong waitedCount = new AtomicLong();
+		private final AtomicLong waitedTimeMillis = new AtomicLong();
+		private final AtomicLong gcPauseNanos = new AtomicLong();
+
+		private CommandMetrics() {
+		}
+
+		private void record(ResourceUsage usage) {
+			if (usage.getCpuTimeNanos() >= 0) {
+				cpuTime.record(usage.getCpuTimeNanos());
+			}
+			if (usage.getAllocatedBytes() >= 0) {
+				allocatedBytes.record(usage.getAllocatedBytes());
+			}
+			blockedCount.addAndGet(usage.getBlockedCount());
+			waitedCount.addAndGet(usage.getWaitedCount());
+			blockedTimeMillis.addAndGet(Math.max(usage.getBlockedTimeMillis(), 0));
+			waitedTimeMillis.addAndGet(Math.max(usage.getWaitedTimeMillis(), 0));
+		}
+
+		/**
+		 * @return durations of all attempts in nanoseconds, including retried ones
+		 */
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		/**
+		 * @return times in nanoseconds that attempts waited for a free worker thread
+		 */
+		public LatencyHistogram getQueueWait() {
+			return queueWait;
+		}
+
+		/**
+		 * @return CPU time of executions in nanoseconds, if resource accounting is enabled
+		 */
+		public LatencyHistogram getCpuTime() {
+			return cpuTime;
+		}
+
+		/**
+		 * @return bytes allocated by executions, if resource accounting is enabled
+		 */
+		public LatencyHistogram getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * @return number of times executions blocked to enter a monitor, if resource accounting is enabled
+		 */
+		public long getBlockedCount() {
+			return blockedCount.get();
+		}
+
+		/**
+		 * @return milliseconds executions blocked to enter a monitor, if resource accounting is enabled
+		 */
+		public long getBlockedTimeMillis() {
+			return blockedTimeMillis.get();
+		}
+
+		/**
+		 * @return number of times executions waited for a notification, if resource accounting is enabled
+		 */
+		public long getWaitedCount() {
+			return waitedCount.get();
+		}
+
+		/**
+		 * @return milliseconds executions waited for a notification, if resource accounting is enabled
+		 */
+		public long getWaitedTimeMillis() {
+			return waitedTimeMillis.get();
+		}
+
+		/**
+		 * @return nanoseconds of garbage collection pauses overlapping executions, if garbage collection accounting is
+		 *         enabled
+		 */
+		public long getGcPauseNanos() {
+			return gcPauseNanos.get();
+		}
+
+		/**
+		 * @return number of executions that succeeded
+		 */
+		public long getSuccesses() {
+			return successes.get();
+		}
+
+		/**
+		 * @return number of executions that completed with a warning
+		 */
+		public long getWarnings() {
+			return warnings.get();
+		}
+
+		/**
+		 * @return number of executions that failed
+		 */
+		public long getFailures() {
+			return failures.get();
+		}
+
+		/**
+		 * @return number of attempts that have been retried
+		 */
+		public long getRetries() {
+			return retries.get();
+		}
+
+		/**
+		 * @return number of executions in which the command has been cancelled
+		 */
+		public long getCancellations() {
+			return cancellations.get();
+		}
+
+	}
+
+}
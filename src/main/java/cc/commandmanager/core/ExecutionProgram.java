@@ -0,0 +1,208 @@
+package cc.commandmanager.core;
+
+import java.lang.reflect.Constructor;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import net.sf.qualitycheck.Check;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Commands of a {@linkplain CommandGraph} compiled into arrays, so executing them does not query the graph anymore.
+ * Every command is identified by its index in a topological order. For every command the program holds the indices
+ * of its dependents, whether they depend on it mandatorily, and the number of its dependencies, i.e. its initial
+ * in-degree. Dependencies on commands that are not part of the program are ignored.
+ * <p>
+ * An execution copies the in-degrees into {@linkplain #newCounters() counters} and decrements the counters of the
+ * dependents of every completed command. A command is ready as soon as its counter reaches {@code 0}, so a readiness
+ * check takes constant time and allocates nothing. As the program itself is never modified, it can be shared by any
+ * number of executions running concurrently.
+ */
+@Immutable
+public final class ExecutionProgram {
+
+	private static final int[] NO_DEPENDENTS = new int[0];
+	private static final boolean[] NO_MANDATORY_DEPENDENTS = new boolean[0];
+
+	private final ImmutableList<CommandClass> commands;
+	private final int[][] dependents;
+	private final boolean[][] mandatoryDependents;
+	private final int[] inDegrees;
+	private final int dependencies;
+
+	/**
+	 * No-argument constructors of the command types, {@code null} if a type or its constructor cannot be resolved.
+	 * Instantiating such a command fails once it is executed, as it would without the program.
+	 */
+	private final Constructor<?>[] constructors;
+
+	private ExecutionProgram(List<CommandClass> commands, int[][] dependents, boolean[][] mandatoryDependents,
+			int[] inDegrees, int dependencies, Constructor<?>[] constructors) {
+		this.commands = ImmutableList.copyOf(commands);
+		this.dependents = dependents;
+		this.mandatoryDependents = mandatoryDependents;
+		this.inDegrees = inDegrees;
+		this.dependencies = dependencies;
+		this.constructors = constructors;
+	}
+
+	/**
+	 * @param graph
+	 *            containing the dependencies of the given commands
+	 * @param commands
+	 *            to be compiled, in a topological order
+	 * @return a new program executing the given commands
+	 */
+	static ExecutionProgram compile(CommandGraph graph, List<CommandClass> commands) {
+		Check.notNull(graph, "graph");
+		Check.noNullElements(commands, "commands");
+		Check.stateIsTrue(!commands.isEmpty(), "commands must contain at least one command");
+
+		Object event = FlightRecorderEvents.PLAN_COMPILATION.begin();
+		int size = commands.size();
+		Map<CommandClass, Integer> indices = Maps.newHashMap();
+		for (int i = 0; i < size; i++) {
+			indices.put(commands.get(i), i);
+		}
+
+		int[] outDegrees = new int[size];
+		int[] inDegrees = new int[size];
+		List<int[]> dependencyIndices = Lists.newArrayListWithCapacity(size);
+		List<boolean[]> mandatoryDependencies = Lists.newArrayListWithCapacity(size);
+		int dependencies = 0;
+		for (int i = 0; i < size; i++) {
+			String name = commands.get(i).getName();
+			Set<CommandClass> all = graph.getDependencies(name);
+			Set<CommandClass> mandatory = graph.getMandatoryDependencies(name);
+			int[] indicesOfCommand = new int[all.size()];
+			boolean[] mandatoryOfCommand = new boolean[all.size()];
+			for (CommandClass dependency : all) {
+				Integer dependencyIndex = indices.get(dependency);
+				if (dependencyIndex != null) {
+					indicesOfCommand[inDegrees[i]] = dependencyIndex;
+					mandatoryOfCommand[inDegrees[i]] = mandatory.contains(dependency);
+					inDegrees[i]++;
+					outDegrees[dependencyIndex]++;
+				}
+			}
+			dependencyIndices.add(indicesOfCommand);
+			mandatoryDependencies.add(mandatoryOfCommand);
+			dependencies += inDegrees[i];
+		}
+
+		int[][] dependents = new int[size][];
+		boolean[][] mandatoryDependents = new boolean[size][];
+		for (int i = 0; i < size; i++) {
+			dependents[i] = outDegrees[i] == 0 ? NO_DEPENDENTS : new int[outDegrees[i]];
+			mandatoryDependents[i] = outDegrees[i] == 0 ? NO_MANDATORY_DEPENDENTS : new boolean[outDegrees[i]];
+			outDegrees[i] = 0;
+		}
+		int roots = 0;
+		Constructor<?>[] constructors = new Constructor<?>[size];
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < inDegrees[i]; j++) {
+				int dependency = dependencyIndices.get(i)[j];
+				dependents[dependency][outDegrees[dependency]] = i;
+				mandatoryDependents[dependency][outDegrees[dependency]] = mandatoryDependencies.get(i)[j];
+				outDegrees[dependency]++;
+			}
+			if (inDegrees[i] == 0) {
+				roots++;
+			}
+			constructors[i] = resolve(commands.get(i));
+		}
+		if (event != null) {
+			FlightRecorderEvents.PLAN_COMPILATION.commit(event, size, dependencies, roots);
+		}
+		return new ExecutionProgram(commands, dependents, mandatoryDependents, inDegrees, dependencies, constructors);
+	}
+
+	@Nullable
+	private static Constructor<?> resolve(CommandClass command) {
+		try {
+			Class<?> type = Class.forName(command.getClassName(), false, ExecutionProgram.class.getClassLoader());
+			return Command.class.isAssignableFrom(type) ? type.getConstructor() : null;
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return commands of this program in a topological order. The index of a command in this list identifies it
+	 *         within the program.
+	 */
+	public List<CommandClass> getCommands() {
+		return commands;
+	}
+
+	/**
+	 * @return number of dependencies between the commands of this program
+	 */
+	public int getDependencyCount() {
+		return dependencies;
+	}
+
+	/**
+	 * @return number of commands of this program
+	 */
+	int size() {
+		return inDegrees.length;
+	}
+
+	/**
+	 * @return indices of the commands depending on the command at the given index. The array must not be modified.
+	 */
+	int[] dependentsOf(int index) {
+		return dependents[index];
+	}
+
+	/**
+	 * @return for every dependent of the command at the given index, whether it depends on the command mandatorily.
+	 *         The array must not be modified.
+	 */
+	boolean[] mandatoryDependentsOf(int index) {
+		return mandatoryDependents[index];
+	}
+
+	/**
+	 * @return number of dependencies of the command at the given index
+	 */
+	int inDegreeOf(int index) {
+		return inDegrees[index];
+	}
+
+	/**
+	 * @return counters for one execution, initialized to the number of dependencies of every command
+	 */
+	int[] newCounters() {
+		return inDegrees.clone();
+	}
+
+	/**
+	 * @return a new instance of the command at the given index
+	 * @throws CommandNotInstantiableException
+	 *             if the command cannot be instantiated
+	 */
+	Command newInstance(int index) {
+		if (constructors[index] == null) {
+			return commands.get(index).newInstance();
+		}
+		try {
+			return (Command) constructors[index].newInstance();
+		} catch (Exception e) {
+			throw new CommandNotInstantiableException(commands.get(index).getClassName(), e);
+		}
+	}
+
+}
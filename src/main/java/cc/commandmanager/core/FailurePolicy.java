@@ -0,0 +1,23 @@
+package cc.commandmanager.core;
+
+/**
+ * Specifies how the {@linkplain CommandManager} reacts to a {@linkplain Command} that returned a
+ * {@linkplain ResultState.Failure}. Commands that will not be executed because of a failure are reported by
+ * {@linkplain ComposedResultState#getCancelledCommands()}.
+ */
+public enum FailurePolicy {
+
+	/**
+	 * Abort the whole execution with the first failure. Commands still waiting for their execution will be cancelled.
+	 * In parallel execution, commands running concurrently to the failed one will be interrupted and cancelled as
+	 * well.
+	 */
+	FAIL_FAST,
+
+	/**
+	 * Cancel only those commands that mandatorily depend on a failed command, directly or transitively. All other
+	 * commands will still be executed.
+	 */
+	KEEP_GOING
+
+}
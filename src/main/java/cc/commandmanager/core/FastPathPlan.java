@@ -0,0 +1,146 @@
+package cc.commandmanager.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import net.sf.qualitycheck.Check;
+
+/**
+ * Precompiled sequential execution of fine-grained commands, for graphs of many commands that only take microseconds
+ * each. Compiling the plan instantiates every command of an {@linkplain ExecutionProgram} once. Every
+ * {@linkplain #execute(Context) execution} runs the same command instances in a topological order and writes their
+ * result states to a preallocated array, so the loop neither validates, logs, allocates nor notifies listeners and the
+ * overhead per command is a few nanoseconds.
+ * <p>
+ * In exchange, commands must be reusable, i.e. must not keep state of one execution for the next. Every command is
+ * executed exactly once per execution: {@linkplain RetryPolicy retry policies}, access checking, transactions,
+ * resource accounting, released values and listeners of the {@linkplain CommandManager} the plan has been compiled
+ * by do not apply, and the context is passed to the commands as is. The {@linkplain FailurePolicy} does apply. A
+ * command throwing an exception aborts the execution, as usual; it and all commands after it count as cancelled.
+ * <p>
+ * A plan can be executed any number of times, but not concurrently.
+ */
+@NotThreadSafe
+public final class FastPathPlan {
+
+	private final ExecutionProgram program;
+	private final Command[] instances;
+	private final boolean keepingGoing;
+
+	private final ResultState[] resultStates;
+	private final boolean[] unsatisfied;
+	private boolean failed;
+
+	/**
+	 * @param program
+	 *            of the commands to be executed
+	 * @param failurePolicy
+	 *            to be applied if a command fails
+	 */
+	FastPathPlan(ExecutionProgram program, FailurePolicy failurePolicy) {
+		this.program = Check.notNull(program, "program");
+		keepingGoing = Check.notNull(failurePolicy, "failurePolicy") == FailurePolicy.KEEP_GOING;
+		int size = program.size();
+		instances = new Command[size];
+		for (int i = 0; i < size; i++) {
+			instances[i] = program.newInstance(i);
+		}
+		resultStates = new ResultState[size];
+		unsatisfied = new boolean[size];
+	}
+
+	/**
+	 * Executes all commands of this plan with the given context. Result states of the previous execution are
+	 * overwritten.
+	 *
+	 * @return {@code false} if a command failed
+	 */
+	public boolean execute(Context context) {
+		Check.notNull(context, "context");
+		if (failed) {
+			Arrays.fill(unsatisfied, false);
+			failed = false;
+		}
+		Command[] commandInstances = instances;
+		ResultState[] results = resultStates;
+		int i = 0;
+		try {
+			for (; i < commandInstances.length; i++) {
+				if (failed) {
+					if (!keepingGoing) {
+						break;
+					}
+					if (unsatisfied[i]) {
+						results[i] = null;
+						markMandatoryDependents(i);
+						continue;
+					}
+				}
+				ResultState resultState = commandInstances[i].execute(context);
+				results[i] = resultState;
+				if (resultState.isFailure()) {
+					failed = true;
+					markMandatoryDependents(i);
+				}
+			}
+		} finally {
+			// commands that have not been executed, including one that threw, must not keep previous result states
+			Arrays.fill(results, i, results.length, null);
+		}
+		return !failed;
+	}
+
+	/**
+	 * Marks the mandatory dependents of the given command as unsatisfied. As commands are executed in a topological
+	 * order, a dependent is always marked before it is reached.
+	 */
+	private void markMandatoryDependents(int index) {
+		int[] dependents = program.dependentsOf(index);
+		boolean[] mandatoryDependents = program.mandatoryDependentsOf(index);
+		for (int j = 0; j < dependents.length; j++) {
+			if (mandatoryDependents[j]) {
+				unsatisfied[dependents[j]] = true;
+			}
+		}
+	}
+
+	/**
+	 * @return commands of this plan in the order they are executed
+	 */
+	public List<CommandClass> getCommands() {
+		return program.getCommands();
+	}
+
+	/**
+	 * @param index
+	 *            of the command in {@linkplain #getCommands()}
+	 * @return result state of the command in the last execution or {@code null} if it has been cancelled or the plan
+	 *         has not been executed yet
+	 */
+	@Nullable
+	public ResultState getResultState(int index) {
+		return resultStates[Check.positionIndex(index, resultStates.length)];
+	}
+
+	/**
+	 * Builds the result of the last execution. Building it allocates, so call it only if the details are needed.
+	 *
+	 * @return result of the last execution, with commands whose result state is {@code null} as cancelled commands
+	 */
+	public ComposedResultState getResult() {
+		Check.stateIsTrue(resultStates[0] != null, "plan must have been executed");
+		ComposedResultState.ComposedResultStateBuilder result = ComposedResultState.builder();
+		for (int i = 0; i < resultStates.length; i++) {
+			if (resultStates[i] == null) {
+				result.addCancelled(program.getCommands().get(i));
+			} else {
+				result.addResult(program.getCommands().get(i), resultStates[i]);
+			}
+		}
+		return result.build();
+	}
+
+}
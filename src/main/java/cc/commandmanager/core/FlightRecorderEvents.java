@@ -0,0 +1,222 @@
+package cc.commandmanager.core;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Custom events of the JDK Flight Recorder. The event types are defined at runtime via {@code jdk.jfr.EventFactory},
+ * so this library still runs on JVMs without the Flight Recorder, where no events are emitted. Events are emitted
+ * only if their type is enabled in a running recording; otherwise, {@linkplain EventType#begin()} returns
+ * {@code null} without allocating.
+ * <p>
+ * Events of command executions are committed by the thread executing the command, so CPU and allocation samples of
+ * a recording can be attributed to the command by thread and time.
+ */
+final class FlightRecorderEvents {
+
+	private static final Logger logger = Logger.getLogger(FlightRecorderEvents.class);
+
+	private static final String CATEGORY = "Command Manager";
+
+	/**
+	 * Fields: command name, command class, attempt, result state, number of context bindings.
+	 */
+	static final EventType COMMAND_EXECUTION = new EventType("cc.commandmanager.CommandExecution",
+			"Command Execution", "Execution of an attempt of a command", new String[] { "commandName",
+					"commandClass", "attempt", "resultState", "contextSize" }, new String[] { "Command Name",
+					"Command Class", "Attempt", "Result State", "Context Size" }, new Class<?>[] { String.class,
+					String.class, int.class, String.class, int.class });
+
+	/**
+	 * Fields: number of commands, number of dependencies, number of commands without dependencies.
+	 */
+	static final EventType PLAN_COMPILATION = new EventType("cc.commandmanager.PlanCompilation",
+			"Plan Compilation", "Compilation of the commands to be executed into an execution program",
+			new String[] { "commands", "dependencies", "roots" }, new String[] { "Commands", "Dependencies",
+					"Roots" }, new Class<?>[] { int.class, int.class, int.class });
+
+	/**
+	 * Fields: number of commands, number of dependencies.
+	 */
+	static final EventType GRAPH_BUILD = new EventType("cc.commandmanager.GraphBuild", "Graph Build",
+			"Build of a command graph including the resolution of access conflicts", new String[] { "commands",
+					"dependencies" }, new String[] { "Commands", "Dependencies" }, new Class<?>[] { int.class,
+					int.class });
+
+	/**
+	 * Fields: catalog file, number of commands or {@code -1} if the catalog could not be loaded.
+	 */
+	static final EventType CATALOG_LOAD = new EventType("cc.commandmanager.CatalogLoad", "Catalog Load",
+			"Load of a command graph from an XML catalog", new String[] { "catalog", "commands" }, new String[] {
+					"Catalog", "Commands" }, new Class<?>[] { String.class, int.class });
+
+	/**
+	 * Fields: value class, bytes written to or read from the spill file, heap bytes of the context afterwards.
+	 */
+	static final EventType CONTEXT_SPILL = new EventType("cc.commandmanager.ContextSpill", "Context Spill",
+			"Spill of a context value to the spill file", new String[] { "valueClass", "bytes", "heapBytes" },
+			new String[] { "Value Class", "Bytes", "Heap Bytes" }, new Class<?>[] { String.class, long.class,
+					long.class });
+
+	/**
+	 * Fields: value class, bytes written to or read from the spill file, heap bytes of the context afterwards.
+	 */
+	static final EventType CONTEXT_RELOAD = new EventType("cc.commandmanager.ContextReload", "Context Reload",
+			"Reload of a spilled context value from the spill file", new String[] { "valueClass", "bytes",
+					"heapBytes" }, new String[] { "Value Class", "Bytes", "Heap Bytes" }, new Class<?>[] {
+					String.class, long.class, long.class });
+
+	private FlightRecorderEvents() {
+	}
+
+	/**
+	 * @return name of the given result state for events
+	 */
+	static String nameOf(ResultState resultState) {
+		return resultState.isSuccess() ? "success" : resultState.isWarning() ? "warning" : "failure";
+	}
+
+	/**
+	 * Type of custom events. If the Flight Recorder is not available, events of this type are never enabled.
+	 */
+	@ThreadSafe
+	static final class EventType {
+
+		@Nullable
+		private final Object factory;
+		@Nullable
+		private final Object type;
+		private Method isEnabled;
+		private Method newEvent;
+		private Method begin;
+		private Method set;
+		private Method commit;
+		private volatile boolean failed;
+
+		private EventType(String name, String label, String description, String[] fieldNames,
+				String[] fieldLabels, Class<?>[] fieldTypes) {
+			Object createdFactory = null;
+			Object createdType = null;
+			try {
+				Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+				Class<?> eventClass = Class.forName("jdk.jfr.Event");
+				Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+				Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+				Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+				Constructor<?> annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+				Constructor<?> valueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class,
+						List.class);
+
+				List<Object> annotations = Lists.newArrayList();
+				annotations.add(annotationElement.newInstance(annotation("jdk.jfr.Name"), name));
+				annotations.add(annotationElement.newInstance(annotation("jdk.jfr.Label"), label));
+				annotations.add(annotationElement.newInstance(annotation("jdk.jfr.Description"), description));
+				annotations.add(annotationElement.newInstance(annotation("jdk.jfr.Category"),
+						new String[] { CATEGORY }));
+				annotations.add(annotationElement.newInstance(annotation("jdk.jfr.StackTrace"), false));
+				List<Object> fields = Lists.newArrayList();
+				for (int i = 0; i < fieldNames.length; i++) {
+					List<Object> fieldAnnotations = Lists.newArrayList();
+					fieldAnnotations.add(annotationElement.newInstance(annotation("jdk.jfr.Label"), fieldLabels[i]));
+					fields.add(valueDescriptor.newInstance(fieldTypes[i], fieldNames[i], fieldAnnotations));
+				}
+
+				createdFactory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations,
+						fields);
+				createdType = factoryClass.getMethod("getEventType").invoke(createdFactory);
+				isEnabled = eventTypeClass.getMethod("isEnabled");
+				newEvent = factoryClass.getMethod("newEvent");
+				begin = eventClass.getMethod("begin");
+				set = eventClass.getMethod("set", int.class, Object.class);
+				commit = eventClass.getMethod("commit");
+			} catch (ClassNotFoundException e) {
+				createdFactory = null;
+			} catch (Exception e) {
+				logger.debug("Cannot define Flight Recorder event " + name, e);
+				createdFactory = null;
+			}
+			factory = createdFactory;
+			type = createdFactory == null ? null : createdType;
+		}
+
+		@SuppressWarnings("unchecked")
+		private static Class<? extends Annotation> annotation(String className) throws ClassNotFoundException {
+			return (Class<? extends Annotation>) Class.forName(className);
+		}
+
+		/**
+		 * @return whether the Flight Recorder is available on this JVM
+		 */
+		boolean isAvailable() {
+			return type != null;
+		}
+
+		/**
+		 * @return whether events of this type are recorded at the moment
+		 */
+		boolean isEnabled() {
+			if (type == null || failed) {
+				return false;
+			}
+			try {
+				return (Boolean) isEnabled.invoke(type);
+			} catch (Exception e) {
+				disable(e);
+				return false;
+			}
+		}
+
+		/**
+		 * @return a new started event or {@code null} if events of this type are not recorded at the moment
+		 */
+		@Nullable
+		Object begin() {
+			if (!isEnabled()) {
+				return null;
+			}
+			try {
+				Object event = newEvent.invoke(factory);
+				begin.invoke(event);
+				return event;
+			} catch (Exception e) {
+				disable(e);
+				return null;
+			}
+		}
+
+		/**
+		 * Ends and commits the given event with the given field values.
+		 *
+		 * @param event
+		 *            returned by {@linkplain #begin()}, must not be {@code null}
+		 */
+		void commit(Object event, Object... values) {
+			try {
+				for (int i = 0; i < values.length; i++) {
+					set.invoke(event, i, values[i]);
+				}
+				commit.invoke(event);
+			} catch (Exception e) {
+				disable(e);
+			}
+		}
+
+		private void disable(Exception e) {
+			if (!failed) {
+				failed = true;
+				logger.warn("Cannot emit Flight Recorder events, disabling them", e);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,210 @@
+package cc.commandmanager.core;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Receives the notifications of all {@linkplain GarbageCollectorMXBean}s during one execution and attributes every
+ * garbage collection pause to the commands executing at the time, observed as {@linkplain ExecutionListener}. A
+ * command is attributed the part of a pause that overlaps one of its attempts, so a pause overlapping several
+ * commands running in parallel is attributed to each of them.
+ * <p>
+ * Notifications are parsed from their {@linkplain CompositeData}, so no {@code com.sun.management} classes are
+ * required. Collectors working concurrently to the application, whose names contain "Concurrent" or "Cycles", are
+ * ignored, as their durations are not pauses. Pause times have millisecond precision.
+ */
+@ThreadSafe
+final class GcMonitor extends ExecutionListenerAdapter implements NotificationListener {
+
+	private static final Logger logger = Logger.getLogger(GcMonitor.class);
+
+	static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+	private static final long NANOS_PER_MILLI = 1000000;
+	private static final long NOTIFICATION_TIMEOUT_MILLIS = 200;
+
+	private final List<NotificationEmitter> emitters = Lists.newArrayList();
+	private final long uptimeMillis;
+	private final long nanoTime;
+	private final long collections;
+
+	@GuardedBy("this")
+	private final List<long[]> pauses = Lists.newArrayList();
+
+	@GuardedBy("this")
+	private final List<Interval> attempts = Lists.newArrayList();
+
+	@GuardedBy("this")
+	private final Map<String, Long> startedAttempts = Maps.newHashMap();
+
+	@GuardedBy("this")
+	private int notifications;
+
+	@GuardedBy("this")
+	private long executionStart;
+
+	private GcMonitor() {
+		uptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+		nanoTime = System.nanoTime();
+		collections = countCollections();
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (collector instanceof NotificationEmitter) {
+				NotificationEmitter emitter = (NotificationEmitter) collector;
+				emitter.addNotificationListener(this, null, null);
+				emitters.add(emitter);
+			}
+		}
+	}
+
+	/**
+	 * @return a new monitor receiving notifications until {@linkplain #close()} is called
+	 */
+	static GcMonitor start() {
+		return new GcMonitor();
+	}
+
+	private static long countCollections() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(collector.getCollectionCount(), 0);
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized void handleNotification(Notification notification, Object handback) {
+		if (!GC_NOTIFICATION.equals(notification.getType())
+				|| !(notification.getUserData() instanceof CompositeData)) {
+			return;
+		}
+		notifications++;
+		CompositeData data = (CompositeData) notification.getUserData();
+		String collector = String.valueOf(data.get("gcName"));
+		if (collector.contains("Concurrent") || collector.contains("Cycles")) {
+			return;
+		}
+		CompositeData info = (CompositeData) data.get("gcInfo");
+		long start = nanoTime + (((Number) info.get("startTime")).longValue() - uptimeMillis) * NANOS_PER_MILLI;
+		long duration = ((Number) info.get("duration")).longValue() * NANOS_PER_MILLI;
+		pauses.add(new long[] { start, start + duration });
+	}
+
+	/**
+	 * Stops receiving notifications. Waits a short time for notifications of collections that have already happened,
+	 * as notifications are delivered asynchronously.
+	 */
+	void close() {
+		long deadline = System.currentTimeMillis() + NOTIFICATION_TIMEOUT_MILLIS;
+		long expected = countCollections() - collections;
+		synchronized (this) {
+			try {
+				while (notifications < expected && System.currentTimeMillis() < deadline) {
+					wait(1);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (NotificationEmitter emitter : emitters) {
+			try {
+				emitter.removeNotificationListener(this);
+			} catch (ListenerNotFoundException e) {
+				logger.debug("Garbage collection listener has been removed already", e);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void executionStarted(List<CommandClass> commands, long nanoTime) {
+		executionStart = nanoTime;
+	}
+
+	@Override
+	public synchronized void commandStarted(CommandClass command, int attempt, long queuedNanoTime, long nanoTime) {
+		startedAttempts.put(command.getName(), nanoTime);
+	}
+
+	@Override
+	public synchronized void commandRetried(CommandClass command, int attempt, ResultState resultState,
+			long backoffMillis, long startNanoTime, long nanoTime) {
+		addAttempt(command, nanoTime);
+	}
+
+	@Override
+	public synchronized void commandCompleted(CommandClass command, int attempt, ResultState resultState,
+			long startNanoTime, long nanoTime) {
+		addAttempt(command, nanoTime);
+	}
+
+	@Override
+	public synchronized void commandCancelled(CommandClass command, long nanoTime) {
+		addAttempt(command, nanoTime);
+	}
+
+	@GuardedBy("this")
+	private void addAttempt(CommandClass command, long end) {
+		// nothing to add if the attempt has been added already or the command has not been started
+		Long start = startedAttempts.remove(command.getName());
+		if (start != null) {
+			attempts.add(new Interval(command, start, end));
+		}
+	}
+
+	/**
+	 * @param end
+	 *            of the execution
+	 * @return the given result with the garbage collection pauses attributed to its commands
+	 */
+	synchronized ComposedResultState attribute(ComposedResultState result, long end) {
+		long executionPauses = 0;
+		for (long[] pause : pauses) {
+			executionPauses += overlap(pause, executionStart, end);
+		}
+		Map<CommandClass, Long> commandPauses = Maps.newHashMap();
+		for (CommandClass command : result.getExecutedCommands()) {
+			commandPauses.put(command, 0L);
+		}
+		for (Interval attempt : attempts) {
+			long attributed = 0;
+			for (long[] pause : pauses) {
+				attributed += overlap(pause, attempt.start, attempt.end);
+			}
+			Long previous = commandPauses.get(attempt.command);
+			commandPauses.put(attempt.command, previous == null ? attributed : previous + attributed);
+		}
+		return result.withGcPauses(executionPauses, commandPauses);
+	}
+
+	private static long overlap(long[] pause, long start, long end) {
+		return Math.max(0, Math.min(pause[1], end) - Math.max(pause[0], start));
+	}
+
+	private static final class Interval {
+
+		private final CommandClass command;
+		private final long start;
+		private final long end;
+
+		private Interval(CommandClass command, long start, long end) {
+			this.command = command;
+			this.start = start;
+			this.end = end;
+		}
+
+	}
+
+}
@@ -0,0 +1,29 @@
+package cc.commandmanager.core;
+
+/**
+ * Helpers for writing JSON without a JSON library.
+ */
+final class Json {
+
+	private Json() {
+	}
+
+	/**
+	 * @return the given string as JSON string literal
+	 */
+	static String quote(String string) {
+		StringBuilder builder = new StringBuilder(string.length() + 2).append('"');
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < ' ') {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.append('"').toString();
+	}
+
+}
@@ -0,0 +1,141 @@
+package cc.commandmanager.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.sf.qualitycheck.Check;
+
+/**
+ * Histogram of non-negative {@code long} values, e.g. durations in nanoseconds, using a fixed amount of memory for
+ * the whole range of {@code long}. Values are counted in buckets whose width grows with the magnitude of the values:
+ * every power of two is divided into {@value #SUB_BUCKETS} buckets of equal width, so a recorded value and the value
+ * reported for its bucket differ by less than 1/{@value #SUB_BUCKETS} of the value. Values below
+ * {@code 2 * }{@value #SUB_BUCKETS} are counted exactly.
+ * <p>
+ * Recording is lock-free and does not allocate. Reading while values are recorded returns values that may not include
+ * the latest recordings.
+ */
+@ThreadSafe
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Records the given value. Negative values are recorded as {@code 0}.
+	 */
+	public void record(long value) {
+		long recorded = Math.max(value, 0);
+		counts.incrementAndGet(indexOf(recorded));
+		count.incrementAndGet();
+		sum.addAndGet(recorded);
+		long current;
+		while (recorded < (current = min.get()) && !min.compareAndSet(current, recorded)) {
+			// retry
+		}
+		while (recorded > (current = max.get()) && !max.compareAndSet(current, recorded)) {
+			// retry
+		}
+	}
+
+	static int indexOf(long value) {
+		int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+		if (shift <= 0) {
+			return (int) value;
+		}
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	static long lowestValueOf(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		return (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+	}
+
+	static long highestValueOf(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		return lowestValueOf(index) + (1L << index / SUB_BUCKETS - 1) - 1;
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return sum of all recorded values, overflowing silently
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return smallest recorded value or {@code 0} if no values have been recorded
+	 */
+	public long getMin() {
+		long value = min.get();
+		return value == Long.MAX_VALUE ? 0 : value;
+	}
+
+	/**
+	 * @return largest recorded value or {@code 0} if no values have been recorded
+	 */
+	public long getMax() {
+		long value = max.get();
+		return value == Long.MIN_VALUE ? 0 : value;
+	}
+
+	/**
+	 * @return arithmetic mean of all recorded values or {@code 0} if no values have been recorded
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @param percentile
+	 *            between {@code 0} and {@code 100}
+	 * @return the highest value of the bucket containing the value which the given percentage of all recorded values
+	 *         are smaller than or equal to, but at most the largest recorded value. {@code 0} if no values have been
+	 *         recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		Check.stateIsTrue(percentile >= 0 && percentile <= 100, "percentile must be between 0 and 100, but is "
+				+ percentile);
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+}
@@ -0,0 +1,44 @@
+package cc.commandmanager.core;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Value of a lazy binding that will be computed by its {@linkplain Supplier} on first access. Concurrent first accesses
+ * wait for a single computation. If the supplier throws an exception, the next access will compute the value again.
+ */
+@ThreadSafe
+final class LazyValue extends DeferredValue {
+
+	@Nullable
+	private Supplier<?> supplier;
+	private volatile boolean computed;
+	@Nullable
+	private Object value;
+
+	LazyValue(Supplier<?> supplier) {
+		this.supplier = supplier;
+	}
+
+	@Override
+	Object get() {
+		if (!computed) {
+			synchronized (this) {
+				if (!computed) {
+					value = supplier.get();
+					computed = true;
+					// the supplier may reference large inputs which are not needed anymore
+					supplier = null;
+				}
+			}
+		}
+		return value;
+	}
+
+	boolean isComputed() {
+		return computed;
+	}
+
+}
@@ -0,0 +1,70 @@
+package cc.commandmanager.core;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Logs the start and the result of every command using log4j. Successful commands are logged at level INFO,
+ * warnings, retried and overdue attempts at level WARN and failures at level ERROR. Messages are only built if their
+ * level is enabled.
+ * <p>
+ * A {@linkplain CommandManager} has this listener registered by default.
+ */
+@ThreadSafe
+public class LoggingExecutionListener extends ExecutionListenerAdapter {
+
+	private static final Logger logger = Logger.getLogger(CommandManager.class);
+
+	@Override
+	public void commandStarted(CommandClass command, int attempt, long queuedNanoTime, long nanoTime) {
+		if (attempt == 1 && logger.isInfoEnabled()) {
+			logger.info("Execute current command: " + command.getClassName());
+		}
+	}
+
+	@Override
+	public void commandRetried(CommandClass command, int attempt, ResultState resultState, long backoffMillis,
+			long startNanoTime, long nanoTime) {
+		logger.warn("Attempt " + attempt + " of command " + command.getClassName() + " did not succeed: "
+				+ resultState + ". Retrying in " + backoffMillis + " ms");
+	}
+
+	@Override
+	public void commandCompleted(CommandClass command, int attempt, ResultState resultState, long startNanoTime,
+			long nanoTime) {
+		if (resultState.isSuccess()) {
+			if (logger.isInfoEnabled()) {
+				logger.info("Command " + command.getClassName() + " successfully executed in "
+						+ millis(startNanoTime, nanoTime) + " ms");
+			}
+		} else if (resultState.isWarning()) {
+			logger.warn("Command " + command.getClassName() + " executed with warning in "
+					+ millis(startNanoTime, nanoTime) + " ms: " + resultState.getMessage() + " "
+					+ resultState.getCause());
+		} else {
+			logger.error("Command " + command.getClassName() + " failed to execute (took "
+					+ millis(startNanoTime, nanoTime) + " ms): " + resultState.getMessage() + " "
+					+ resultState.getCause());
+		}
+	}
+
+	@Override
+	public void commandOverdue(CommandClass command, int attempt, long thresholdNanos, StackTraceElement[] stackTrace,
+			long startNanoTime, long nanoTime) {
+		StringBuilder message = new StringBuilder("Command ").append(command.getClassName()).append(" is running for ")
+				.append(millis(startNanoTime, nanoTime)).append(" ms, expected at most ")
+				.append(TimeUnit.NANOSECONDS.toMillis(thresholdNanos)).append(" ms. Stack trace:");
+		for (StackTraceElement element : stackTrace) {
+			message.append("\n\tat ").append(element);
+		}
+		logger.warn(message);
+	}
+
+	private static long millis(long startNanoTime, long nanoTime) {
+		return TimeUnit.NANOSECONDS.toMillis(nanoTime - startNanoTime);
+	}
+
+}
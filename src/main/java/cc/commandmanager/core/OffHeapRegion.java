@@ -0,0 +1,184 @@
+package cc.commandmanager.core;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Buffer allocated outside of the Java heap by an {@linkplain OffHeapStore}. A region can be bound to a
+ * {@linkplain Context} like any other value. The command creating the region writes its content to
+ * {@linkplain #buffer()}, consuming commands read it from their own {@linkplain #view() views}, which share the memory
+ * of the region without copying it.
+ * <p>
+ * A region is released when its store is closed. Afterwards, {@linkplain #buffer()} and {@linkplain #view()} throw a
+ * {@linkplain RegionReleasedException}. Buffers and views obtained before stay readable: the region drops its own
+ * reference to the memory, which is freed by the garbage collector once no buffer or view refers to it anymore.
+ * Hence releasing a region does not free its memory deterministically, as freeing it while views may still be read
+ * would crash the JVM.
+ */
+@ThreadSafe
+public final class OffHeapRegion {
+
+	private static final Logger logger = Logger.getLogger(OffHeapRegion.class);
+
+	private static final Releaser releaser = Releaser.create();
+
+	/**
+	 * Buffer of this region, {@code null} once the region has been released.
+	 */
+	@Nullable
+	private volatile ByteBuffer buffer;
+	private final int capacity;
+	private final boolean mapped;
+
+	/**
+	 * File created for this region only, which will be deleted on release.
+	 */
+	@Nullable
+	private final File temporaryFile;
+
+	OffHeapRegion(ByteBuffer buffer, boolean mapped, @Nullable File temporaryFile) {
+		this.buffer = buffer;
+		capacity = buffer.capacity();
+		this.mapped = mapped;
+		this.temporaryFile = temporaryFile;
+	}
+
+	/**
+	 * @return the writable buffer of this region. It is meant to be used by the command filling the region only.
+	 * @throws RegionReleasedException
+	 *             if the region has been released already
+	 */
+	public ByteBuffer buffer() {
+		return checkNotReleased();
+	}
+
+	/**
+	 * Creates a read-only view of the whole region. Every view has its own position and limit, so consumers can read
+	 * concurrently from their own views.
+	 *
+	 * @return a new read-only buffer sharing the memory of this region
+	 * @throws RegionReleasedException
+	 *             if the region has been released already
+	 */
+	public ByteBuffer view() {
+		ByteBuffer current = checkNotReleased();
+		ByteBuffer view = current.asReadOnlyBuffer();
+		view.clear();
+		return view.order(current.order());
+	}
+
+	/**
+	 * @return size of this region in bytes
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return whether this region is backed by a memory-mapped file
+	 */
+	public boolean isMapped() {
+		return mapped;
+	}
+
+	public boolean isReleased() {
+		return buffer == null;
+	}
+
+	private ByteBuffer checkNotReleased() {
+		ByteBuffer current = buffer;
+		if (current == null) {
+			throw new RegionReleasedException();
+		}
+		return current;
+	}
+
+	/**
+	 * Drops the reference of this region to its memory and deletes its temporary backing file, if any. Does nothing if
+	 * the region has been released already.
+	 * <p>
+	 * The memory is not freed immediately, as consumers may still hold views of it, which would point to freed memory
+	 * and crash the JVM once read. Mapped files can be deleted while mapped on POSIX systems; where they cannot, they
+	 * are deleted on exit.
+	 */
+	synchronized void release() {
+		if (buffer == null) {
+			return;
+		}
+		buffer = null;
+		if (temporaryFile != null && !temporaryFile.delete() && temporaryFile.exists()) {
+			logger.debug("Could not delete " + temporaryFile + " while it is mapped, deleting it on exit");
+			temporaryFile.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Frees the memory of the given direct or mapped buffer immediately. Only meant for buffers that have never been
+	 * handed out, as the buffer and all of its views must not be accessed afterwards.
+	 */
+	static void free(ByteBuffer buffer) {
+		try {
+			releaser.release(buffer);
+		} catch (Exception e) {
+			logger.warn("Could not release off-heap buffer, it will be released by the garbage collector", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "OffHeapRegion [capacity=" + capacity + ", mapped=" + mapped + "]";
+	}
+
+	/**
+	 * Frees direct and mapped buffers immediately instead of waiting for the garbage collector. The JDK offers no
+	 * public API for this, so it is done by reflection: using {@code sun.misc.Unsafe.invokeCleaner} on Java 9 and
+	 * later, and using the cleaner of the buffer before. If neither is available, buffers will be freed by the
+	 * garbage collector.
+	 */
+	private abstract static class Releaser {
+
+		abstract void release(ByteBuffer buffer) throws Exception;
+
+		static Releaser create() {
+			try {
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				final Object unsafe = theUnsafe.get(null);
+				return new Releaser() {
+
+					@Override
+					void release(ByteBuffer buffer) throws Exception {
+						invokeCleaner.invoke(unsafe, buffer);
+					}
+
+				};
+			} catch (Exception e) {
+				logger.debug("sun.misc.Unsafe.invokeCleaner is not available, using the cleaner of buffers", e);
+			}
+			return new Releaser() {
+
+				@Override
+				void release(ByteBuffer buffer) throws Exception {
+					Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+					cleanerMethod.setAccessible(true);
+					Object cleaner = cleanerMethod.invoke(buffer);
+					if (cleaner != null) {
+						cleaner.getClass().getMethod("clean").invoke(cleaner);
+					}
+				}
+
+			};
+		}
+
+	}
+
+}
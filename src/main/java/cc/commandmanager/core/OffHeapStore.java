@@ -0,0 +1,221 @@
+package cc.commandmanager.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.sf.qualitycheck.Check;
+import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Sets;
+
+/**
+ * Allocates {@linkplain OffHeapRegion}s for large values that would otherwise put pressure on the garbage collector,
+ * e.g. arrays or blobs of several gigabytes passed from one {@linkplain Command} to another. Regions are either direct
+ * buffers or memory-mapped files. A single region is limited to {@linkplain Integer#MAX_VALUE} bytes, larger values
+ * have to be split into several regions.
+ * <p>
+ * A store is scoped to an execution: if {@linkplain CommandManager#setOffHeapStorage(boolean) enabled}, the
+ * {@linkplain CommandManager} binds a store lazily to {@linkplain #KEY} before executing the first command. The store
+ * is created when a command requests it for the first time and {@linkplain #close() closed} after the last command
+ * completed, releasing all regions. If the context already contains a store, it will be used
+ * instead and its owner is responsible for closing it.
+ */
+@ThreadSafe
+public final class OffHeapStore implements Closeable {
+
+	/**
+	 * Key of the store of the current execution.
+	 */
+	public static final ContextKey<OffHeapStore> KEY = ContextKey.of("offHeapStore", OffHeapStore.class);
+
+	@Nullable
+	private final File directory;
+	private final Set<OffHeapRegion> regions = Sets.newLinkedHashSet();
+	private boolean closed;
+	private long allocatedBytes;
+
+	/**
+	 * Creates a new store that will create the files of mapped regions in the default temporary directory.
+	 */
+	public OffHeapStore() {
+		directory = null;
+	}
+
+	/**
+	 * @param directory
+	 *            in which the files of mapped regions will be created
+	 */
+	public OffHeapStore(File directory) {
+		this.directory = Check.notNull(directory, "directory");
+	}
+
+	/**
+	 * @param context
+	 *            of the current execution
+	 * @return the store bound to the given context
+	 * @throws KeyNotBoundException
+	 *             if the context is not used by an execution of a {@linkplain CommandManager} with off-heap storage
+	 *             enabled
+	 */
+	public static OffHeapStore of(Context context) {
+		return Check.notNull(context, "context").get(KEY);
+	}
+
+	/**
+	 * Allocates a region of direct memory.
+	 *
+	 * @param capacity
+	 *            in bytes
+	 * @return new writable region
+	 * @throws IllegalStateOfArgumentException
+	 *             if the store has been closed already
+	 */
+	public OffHeapRegion allocateDirect(int capacity) {
+		Check.notNegative(capacity, "capacity");
+		return register(new OffHeapRegion(ByteBuffer.allocateDirect(capacity), false, null));
+	}
+
+	/**
+	 * Allocates a region backed by a new temporary file that is mapped into memory. The operating system pages it to
+	 * disk if memory is short. The file will be deleted when the region is released.
+	 *
+	 * @param capacity
+	 *            in bytes
+	 * @return new writable region
+	 * @throws IOException
+	 *             if the file cannot be created or mapped
+	 * @throws IllegalStateOfArgumentException
+	 *             if the store has been closed already
+	 */
+	public OffHeapRegion allocateMapped(int capacity) throws IOException {
+		Check.notNegative(capacity, "capacity");
+		File file = File.createTempFile("region", ".bin", directory);
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.setLength(capacity);
+			MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			return register(new OffHeapRegion(buffer, true, file));
+		} catch (IOException e) {
+			file.delete();
+			throw e;
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Maps an existing file read-only into memory. The file will not be deleted when the region is released.
+	 *
+	 * @param file
+	 *            to be mapped. It must not be larger than {@linkplain Integer#MAX_VALUE} bytes.
+	 * @return new read-only region
+	 * @throws IOException
+	 *             if the file cannot be mapped
+	 * @throws IllegalStateOfArgumentException
+	 *             if the store has been closed already
+	 */
+	public OffHeapRegion map(File file) throws IOException {
+		Check.notNull(file, "file");
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			Check.stateIsTrue(channel.size() <= Integer.MAX_VALUE, "file must not be larger than 2 GB");
+			return register(new OffHeapRegion(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), true,
+					null));
+		} finally {
+			input.close();
+		}
+	}
+
+	private synchronized OffHeapRegion register(OffHeapRegion region) {
+		if (closed) {
+			region.release();
+			throw new IllegalStateOfArgumentException("store has been closed already");
+		}
+		regions.add(region);
+		allocatedBytes += region.capacity();
+		return region;
+	}
+
+	/**
+	 * Releases the given region before the store is closed. See {@linkplain OffHeapRegion} for the state of its buffer
+	 * and views afterwards.
+	 *
+	 * @param region
+	 *            allocated by this store
+	 * @return {@code false} if the region has not been allocated by this store or has been released already
+	 */
+	public synchronized boolean release(OffHeapRegion region) {
+		Check.notNull(region, "region");
+		if (!regions.remove(region)) {
+			return false;
+		}
+		allocatedBytes -= region.capacity();
+		region.release();
+		return true;
+	}
+
+	/**
+	 * @return number of bytes allocated by all regions that have not been released yet. The memory of released regions
+	 *         is not included, although it stays allocated until the garbage collector frees it.
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Releases all regions allocated by this store. Closing a store that has been closed already does nothing.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (OffHeapRegion region : regions) {
+			region.release();
+		}
+		regions.clear();
+		allocatedBytes = 0;
+	}
+
+	/**
+	 * Supplier of the store of an execution, which is called when the store is read from the context for the first
+	 * time. Closing it closes the store, if it has been created at all.
+	 */
+	@ThreadSafe
+	static final class LazyStore implements Supplier<OffHeapStore>, Closeable {
+
+		@Nullable
+		private volatile OffHeapStore store;
+
+		@Override
+		public OffHeapStore get() {
+			OffHeapStore created = new OffHeapStore();
+			store = created;
+			return created;
+		}
+
+		@Override
+		public void close() {
+			OffHeapStore created = store;
+			if (created != null) {
+				created.close();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,27 @@
+package cc.commandmanager.core;
+
+/**
+ * Specifies how an {@linkplain AsyncExecutionListener} handles events if its buffer is full because the listener it
+ * delivers to cannot keep up. Events that are not delivered are counted by
+ * {@linkplain AsyncExecutionListener#getDroppedEvents()}.
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Drop events as long as the buffer is full. Threads executing commands are never delayed.
+	 */
+	DROP,
+
+	/**
+	 * Once the buffer is half full, only every n-th event will be buffered and all others will be dropped. So a sample
+	 * of the events is still delivered under load, before the buffer fills up and all events are dropped.
+	 */
+	SAMPLE,
+
+	/**
+	 * Wait until the buffer has free space. No event will be dropped, but threads executing commands are delayed by
+	 * slow listeners.
+	 */
+	BLOCK
+
+}
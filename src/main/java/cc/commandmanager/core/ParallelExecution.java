@@ -0,0 +1,460 @@
+package cc.commandmanager.core;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+
+import net.sf.qualitycheck.Check;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Executes {@linkplain Command}s concurrently on a fixed number of worker threads. A command will be dispatched as
+ * soon as all of its dependencies that are part of the same execution have completed, i.e. once its counter of pending
+ * dependencies, initialized from the {@linkplain ExecutionProgram}, drops to {@code 0}. The calling thread coordinates
+ * the execution: it dispatches commands, collects their results and applies the {@linkplain FailurePolicy}. Worker
+ * threads only execute commands, so the backoff of a retried command is waited out by a scheduler without blocking a
+ * worker.
+ * <p>
+ * Attempts are recycled once the coordinator handled them. Staging contexts are still forked by the coordinator when
+ * a command is dispatched, as this defines which commits the command sees. Workers hand completed attempts over
+ * through a preallocated ring that holds one slot per command, as every command has at most one attempt in flight.
+ * Publishing a completion is a single atomic increment and a volatile write, and the coordinator is only unparked if
+ * it is waiting. Dispatching still goes through the queue of the worker pool.
+ * <p>
+ * Instances are meant to be used for a single execution only.
+ */
+final class ParallelExecution {
+
+	private static final Logger logger = Logger.getLogger(ParallelExecution.class);
+
+	private static final int PENDING = 0;
+	private static final int RUNNING = 1;
+	private static final int DONE = 2;
+	private static final int CANCELLED = 3;
+
+	private final ExecutionProgram program;
+	private final List<CommandClass> commands;
+	private final Context context;
+	private final int parallelism;
+	private final FailurePolicy failurePolicy;
+	@Nullable
+	private final ValueReleaser valueReleaser;
+	private final boolean accessChecking;
+	private final boolean transactional;
+	private final boolean resourceAccounting;
+	private final ExecutionListener listener;
+
+	/**
+	 * Pending dependencies and status of every command. Both are only accessed by the coordinating thread.
+	 */
+	private final int[] pendingDependencies;
+	private final int[] status;
+
+	/**
+	 * Completed attempts in the order of their completion. Slot {@code sequence & completedMask} holds the attempt
+	 * with the given completion sequence until the coordinator took it.
+	 */
+	private final AtomicReferenceArray<Attempt> completedAttempts;
+	private final int completedMask;
+	private final AtomicLong completedSequence = new AtomicLong();
+	private long takenSequence;
+	private Thread coordinator;
+	private volatile boolean coordinatorWaiting;
+
+	/**
+	 * Attempts that have been handled and can be reused by the coordinator.
+	 */
+	private final Deque<Attempt> idleAttempts = new ArrayDeque<Attempt>();
+
+	private final ComposedResultState.ComposedResultStateBuilder result = ComposedResultState.builder();
+	private ExecutorService workers;
+	private ScheduledExecutorService retryScheduler;
+	private int runningCommands;
+
+	/**
+	 * Set before running commands get interrupted. Attempts whose command returned afterwards count as interrupted.
+	 */
+	private volatile boolean aborted;
+
+	/**
+	 * @param program
+	 *            of the commands to be executed
+	 * @param context
+	 *            that will be shared by all commands. It should be able to cope with concurrent access.
+	 * @param parallelism
+	 *            number of worker threads
+	 * @param failurePolicy
+	 *            to be applied if a command fails
+	 * @param valueReleaser
+	 *            to be notified about every completed or cancelled command, {@code null} if no values are released
+	 * @param accessChecking
+	 *            whether {@linkplain AccessDeclaringCommand}s get a context checking their accesses
+	 * @param transactional
+	 *            whether every attempt gets a staging context that is committed after the command completed
+	 * @param listener
+	 *            to be notified about command events
+	 */
+	ParallelExecution(ExecutionProgram program, Context context, int parallelism, FailurePolicy failurePolicy,
+			@Nullable ValueReleaser valueReleaser, boolean accessChecking, boolean transactional,
+			boolean resourceAccounting, ExecutionListener listener) {
+		this.program = Check.notNull(program, "program");
+		this.context = Check.notNull(context, "context");
+		this.parallelism = parallelism;
+		this.failurePolicy = Check.notNull(failurePolicy, "failurePolicy");
+		this.valueReleaser = valueReleaser;
+		this.accessChecking = accessChecking;
+		this.transactional = transactional;
+		this.resourceAccounting = resourceAccounting;
+		this.listener = Check.notNull(listener, "listener");
+
+		commands = program.getCommands();
+		pendingDependencies = program.newCounters();
+		status = new int[commands.size()];
+		int capacity = Integer.highestOneBit(Math.max(1, commands.size() - 1)) << 1;
+		completedAttempts = new AtomicReferenceArray<Attempt>(capacity);
+		completedMask = capacity - 1;
+	}
+
+	/**
+	 * Executes all commands and blocks until every command either completed or has been cancelled.
+	 *
+	 * @return {@linkplain ComposedResultState} whose results are ordered by the completion of the commands.
+	 * @throws ExecutionInterruptedException
+	 *             if the calling thread has been interrupted while waiting for commands to complete.
+	 */
+	ComposedResultState execute() {
+		coordinator = Thread.currentThread();
+		workers = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+				.setNameFormat("command-worker-%d").setDaemon(true).build());
+		try {
+			for (int i = 0; i < commands.size(); i++) {
+				if (pendingDependencies[i] == 0) {
+					dispatch(i);
+				}
+			}
+			while (runningCommands > 0) {
+				if (!handle(takeCompletedAttempt())) {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ExecutionInterruptedException(e);
+		} finally {
+			shutdown();
+		}
+
+		drainCompletedAttempts();
+		for (int i = 0; i < commands.size(); i++) {
+			if (status[i] != DONE) {
+				result.addCancelled(commands.get(i));
+				if (status[i] != CANCELLED) {
+					listener.commandCancelled(commands.get(i), System.nanoTime());
+					releaseValues(i);
+				}
+			}
+		}
+		return result.build();
+	}
+
+	/**
+	 * Waits for the next completed attempt. Spurious wake-ups are harmless, as the slot is checked again.
+	 */
+	private Attempt takeCompletedAttempt() throws InterruptedException {
+		int slot = (int) takenSequence & completedMask;
+		Attempt attempt = completedAttempts.get(slot);
+		while (attempt == null) {
+			coordinatorWaiting = true;
+			attempt = completedAttempts.get(slot);
+			if (attempt == null) {
+				LockSupport.park(this);
+				attempt = completedAttempts.get(slot);
+			}
+			coordinatorWaiting = false;
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+		completedAttempts.set(slot, null);
+		takenSequence++;
+		return attempt;
+	}
+
+	/**
+	 * Called by a worker thread. The ring cannot overflow: a slot is only reused after as many later completions as
+	 * there are commands, and as no command has two attempts in flight, the coordinator has taken the slot by then.
+	 */
+	private void complete(Attempt attempt) {
+		long sequence = completedSequence.getAndIncrement();
+		completedAttempts.set((int) sequence & completedMask, attempt);
+		if (coordinatorWaiting) {
+			LockSupport.unpark(coordinator);
+		}
+	}
+
+	/**
+	 * @return {@code false} if the execution has to be aborted
+	 */
+	private boolean handle(Attempt attempt) {
+		int index = attempt.index;
+		CommandClass command = commands.get(index);
+		runningCommands--;
+		if (attempt.error != null) {
+			if (transactional) {
+				attempt.staging.discard();
+			}
+			logger.error("Command " + command + " threw an exception. Aborting execution of all commands.");
+			throw Throwables.propagate(attempt.error);
+		}
+
+		if (attempt.resourceUsage != null) {
+			result.addResourceUsage(command, attempt.resourceUsage);
+		}
+		ResultState resultState = attempt.resultState;
+		RetryPolicy retryPolicy = CommandManager.retryPolicyOf(attempt.commandInstance);
+		if (retryPolicy.shouldRetry(resultState, attempt.number)) {
+			if (transactional) {
+				attempt.staging.discard();
+			}
+			result.addRetriedAttempt(command, resultState);
+			scheduleRetry(attempt, retryPolicy.getBackoffMillis(attempt.number));
+			return true;
+		}
+
+		resultState = finish(attempt);
+		if (resultState.isFailure()) {
+			if (failurePolicy == FailurePolicy.FAIL_FAST) {
+				logger.error("Aborting execution of all commands.");
+				return false;
+			}
+			resolve(index, true);
+		} else {
+			resolve(index, false);
+		}
+		return true;
+	}
+
+	/**
+	 * Commits the result of the given attempt and records it as the result of its command.
+	 *
+	 * @return the committed result
+	 */
+	private ResultState finish(Attempt attempt) {
+		int index = attempt.index;
+		CommandClass command = commands.get(index);
+		ResultState resultState = CommandManager.commit(context, attempt.staging, attempt.commandInstance,
+				attempt.resultState);
+		status[index] = DONE;
+		result.addResult(command, resultState);
+		listener.commandCompleted(command, attempt.number, resultState, attempt.startTime, attempt.endTime);
+		attempt.clear();
+		idleAttempts.push(attempt);
+		releaseValues(index);
+		return resultState;
+	}
+
+	/**
+	 * Handles the attempts that have been completed but not taken before the execution has been aborted. Their results
+	 * are kept as final results, neither retries nor dependents are started anymore. Attempts that threw an exception
+	 * or have been interrupted remain cancelled.
+	 */
+	private void drainCompletedAttempts() {
+		long completed = completedSequence.get();
+		for (; takenSequence < completed; takenSequence++) {
+			int slot = (int) takenSequence & completedMask;
+			Attempt attempt = completedAttempts.getAndSet(slot, null);
+			if (attempt.error != null || attempt.interrupted) {
+				if (attempt.error != null) {
+					logger.error("Command " + commands.get(attempt.index) + " threw an exception after the "
+							+ "execution has been aborted.", attempt.error);
+				}
+				if (transactional) {
+					attempt.staging.discard();
+				}
+				continue;
+			}
+			if (attempt.resourceUsage != null) {
+				result.addResourceUsage(commands.get(attempt.index), attempt.resourceUsage);
+			}
+			finish(attempt);
+		}
+	}
+
+	/**
+	 * Decrements the number of pending dependencies of all dependents of the given command and dispatches those
+	 * without any pending dependencies. If the given command failed, all of its mandatory dependents will be cancelled
+	 * transitively.
+	 */
+	private void resolve(int index, boolean failed) {
+		if (!failed) {
+			resolveDependents(index, false, null);
+			return;
+		}
+		Deque<Integer> unsatisfiedCommands = new ArrayDeque<Integer>();
+		resolveDependents(index, true, unsatisfiedCommands);
+		while (!unsatisfiedCommands.isEmpty()) {
+			int cancelled = unsatisfiedCommands.pop();
+			logger.warn("Cancel command " + commands.get(cancelled) + " because a mandatory dependency failed.");
+			resolveDependents(cancelled, true, unsatisfiedCommands);
+		}
+	}
+
+	private void resolveDependents(int index, boolean unsatisfied, @Nullable Deque<Integer> unsatisfiedCommands) {
+		int[] dependents = program.dependentsOf(index);
+		boolean[] mandatoryDependents = program.mandatoryDependentsOf(index);
+		for (int i = 0; i < dependents.length; i++) {
+			int dependent = dependents[i];
+			int pending = --pendingDependencies[dependent];
+			if (status[dependent] != PENDING) {
+				continue;
+			}
+			if (unsatisfied && mandatoryDependents[i]) {
+				status[dependent] = CANCELLED;
+				listener.commandCancelled(commands.get(dependent), System.nanoTime());
+				releaseValues(dependent);
+				unsatisfiedCommands.push(dependent);
+			} else if (pending == 0) {
+				dispatch(dependent);
+			}
+		}
+	}
+
+	private void releaseValues(int index) {
+		if (valueReleaser != null) {
+			valueReleaser.completed(commands.get(index), context);
+		}
+	}
+
+	private void dispatch(int index) {
+		status[index] = RUNNING;
+		runningCommands++;
+		Attempt attempt = idleAttempts.isEmpty() ? new Attempt() : idleAttempts.pop();
+		attempt.index = index;
+		attempt.number = 1;
+		attempt.staging = transactional ? context.fork() : context;
+		attempt.queuedTime = System.nanoTime();
+		workers.execute(attempt);
+	}
+
+	private void scheduleRetry(Attempt attempt, long backoff) {
+		listener.commandRetried(commands.get(attempt.index), attempt.number, attempt.resultState, backoff,
+				attempt.startTime, attempt.endTime);
+		if (retryScheduler == null) {
+			retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+					.setNameFormat("command-retry-scheduler").setDaemon(true).build());
+		}
+		runningCommands++;
+		final Attempt retry = attempt;
+		Command commandInstance = attempt.commandInstance;
+		int number = attempt.number + 1;
+		retry.clear();
+		retry.commandInstance = commandInstance;
+		retry.number = number;
+		retry.staging = transactional ? context.fork() : context;
+		retryScheduler.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				retry.queuedTime = System.nanoTime();
+				workers.execute(retry);
+			}
+
+		}, backoff, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Interrupts running commands, drops dispatched commands that have not been started yet and waits for the worker
+	 * threads to terminate, so that no command accesses the context after the execution returned.
+	 */
+	private void shutdown() {
+		aborted = true;
+		if (retryScheduler != null) {
+			retryScheduler.shutdownNow();
+		}
+		workers.shutdownNow();
+		boolean interrupted = false;
+		while (!workers.isTerminated()) {
+			try {
+				workers.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A single execution of a command. It is prepared by the coordinating thread, executed by a worker thread and
+	 * afterwards handed over to the coordinating thread, which reuses it for the retry of the command or for another
+	 * command once it has been handled.
+	 */
+	private final class Attempt implements Runnable {
+
+		private int index;
+		private int number;
+		@Nullable
+		private Command commandInstance;
+		@Nullable
+		private Context staging;
+		@Nullable
+		private ResultState resultState;
+		@Nullable
+		private Throwable error;
+		@Nullable
+		private ResourceUsage resourceUsage;
+		private boolean interrupted;
+		private long queuedTime;
+		private long startTime;
+		private long endTime;
+
+		/**
+		 * Drops all references of the previous attempt, so it does not keep a command or its result alive.
+		 */
+		private void clear() {
+			commandInstance = null;
+			staging = null;
+			resultState = null;
+			error = null;
+			resourceUsage = null;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (commandInstance == null) {
+					commandInstance = program.newInstance(index);
+				}
+				startTime = System.nanoTime();
+				listener.commandStarted(commands.get(index), number, queuedTime, startTime);
+				ResourceUsage usage = resourceAccounting ? ResourceUsage.ofCurrentThread() : null;
+				resultState = CommandManager.execute(commands.get(index), commandInstance, number, staging,
+						accessChecking);
+				if (usage != null) {
+					resourceUsage = ResourceUsage.ofCurrentThread().since(usage);
+				}
+				interrupted = aborted;
+			} catch (Throwable t) {
+				error = t;
+			}
+			endTime = System.nanoTime();
+			complete(this);
+		}
+
+	}
+
+}
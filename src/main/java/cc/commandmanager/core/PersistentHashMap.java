@@ -0,0 +1,557 @@
+package cc.commandmanager.core;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Sets;
+
+/**
+ * Immutable hash array mapped trie. Every modification returns a new map that shares all unchanged nodes with the
+ * original one, so copying a map is free and a modification costs O(log n) time and memory.
+ * <p>
+ * Keys must not be {@code null}, values may be {@code null}.
+ */
+@Immutable
+final class PersistentHashMap {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	private static final PersistentHashMap EMPTY = new PersistentHashMap(BitmapNode.EMPTY, 0);
+
+	private final BitmapNode root;
+	private final int size;
+
+	static PersistentHashMap empty() {
+		return EMPTY;
+	}
+
+	private PersistentHashMap(BitmapNode root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean containsKey(Object key) {
+		return root.find(0, hash(key), key, Entry.ABSENT) != Entry.ABSENT;
+	}
+
+	/**
+	 * @return the value bound to the given key or {@code notFound} if there is no such key
+	 */
+	@Nullable
+	Object get(Object key, @Nullable Object notFound) {
+		return root.find(0, hash(key), key, notFound);
+	}
+
+	/**
+	 * @return a map binding the given value to the given key. If the key was bound already, the returned map will have
+	 *         the same size as this one.
+	 */
+	PersistentHashMap plus(Object key, @Nullable Object value) {
+		boolean[] addedLeaf = new boolean[1];
+		BitmapNode newRoot = (BitmapNode) root.assoc(0, hash(key), key, value, addedLeaf);
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentHashMap(newRoot, addedLeaf[0] ? size + 1 : size);
+	}
+
+	/**
+	 * @return a map without the given key, or this map if the key is not bound.
+	 */
+	PersistentHashMap minus(Object key) {
+		Node newRoot = root.without(0, hash(key), key);
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentHashMap(newRoot == null ? BitmapNode.EMPTY : (BitmapNode) newRoot, size - 1);
+	}
+
+	/**
+	 * Computes all keys that are bound in only one of both maps or that are bound to values which are not equal.
+	 * Subtrees shared by both maps will be skipped, so the effort depends on the number of modifications rather than on
+	 * the size of the maps.
+	 */
+	Set<Object> changedKeys(PersistentHashMap other) {
+		Set<Object> result = Sets.newHashSet();
+		diff(root, other.root, result);
+		return result;
+	}
+
+	/**
+	 * @return an unmodifiable {@linkplain Map} view of this map
+	 */
+	Map<Object, Object> asMap() {
+		return new MapView();
+	}
+
+	private static int hash(Object key) {
+		int hash = key.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+	private static int indexFor(int hash, int shift) {
+		return (hash >>> shift) & MASK;
+	}
+
+	private static int bitFor(int hash, int shift) {
+		return 1 << indexFor(hash, shift);
+	}
+
+	private static void diff(@Nullable Object left, @Nullable Object right, Set<Object> result) {
+		if (left == right) {
+			return;
+		}
+		if (left instanceof BitmapNode && right instanceof BitmapNode) {
+			BitmapNode leftNode = (BitmapNode) left;
+			BitmapNode rightNode = (BitmapNode) right;
+			int bits = leftNode.bitmap | rightNode.bitmap;
+			while (bits != 0) {
+				int bit = Integer.lowestOneBit(bits);
+				bits &= ~bit;
+				diff(leftNode.slot(bit), rightNode.slot(bit), result);
+			}
+		} else if (left instanceof Entry && right instanceof Entry && ((Entry) left).hasSameKeyAs((Entry) right)) {
+			if (!Objects.equal(((Entry) left).value, ((Entry) right).value)) {
+				result.add(((Entry) left).key);
+			}
+		} else {
+			PersistentHashMap leftMap = collect(left);
+			PersistentHashMap rightMap = collect(right);
+			for (Map.Entry<Object, Object> entry : leftMap.asMap().entrySet()) {
+				if (rightMap.get(entry.getKey(), Entry.ABSENT) == Entry.ABSENT
+						|| !Objects.equal(entry.getValue(), rightMap.get(entry.getKey(), null))) {
+					result.add(entry.getKey());
+				}
+			}
+			for (Object key : rightMap.asMap().keySet()) {
+				if (!leftMap.containsKey(key)) {
+					result.add(key);
+				}
+			}
+		}
+	}
+
+	private static PersistentHashMap collect(@Nullable Object slot) {
+		PersistentHashMap result = EMPTY;
+		if (slot != null) {
+			Iterator<Entry> entries = new EntryIterator(new Object[] { slot });
+			while (entries.hasNext()) {
+				Entry entry = entries.next();
+				result = result.plus(entry.key, entry.value);
+			}
+		}
+		return result;
+	}
+
+	private static abstract class Node {
+
+		abstract Object find(int shift, int hash, Object key, Object notFound);
+
+		abstract Node assoc(int shift, int hash, Object key, Object value, boolean[] addedLeaf);
+
+		/**
+		 * @return the node without the given key, {@code null} if the node would be empty afterwards.
+		 */
+		@Nullable
+		abstract Node without(int shift, int hash, Object key);
+
+		/**
+		 * @return the only entry of this node or {@code null} if this node has more than one slot.
+		 */
+		@Nullable
+		abstract Entry singleEntry();
+
+		abstract Object[] slots();
+
+	}
+
+	/**
+	 * Node whose slots contain either {@linkplain Entry}s or child {@linkplain Node}s. The bitmap has a bit set for
+	 * every occupied slot.
+	 */
+	private static final class BitmapNode extends Node {
+
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		final int bitmap;
+		final Object[] slots;
+
+		BitmapNode(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Nullable
+		Object slot(int bit) {
+			return (bitmap & bit) == 0 ? null : slots[index(bit)];
+		}
+
+		@Override
+		Object find(int shift, int hash, Object key, Object notFound) {
+			int bit = bitFor(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return notFound;
+			}
+			Object slot = slots[index(bit)];
+			if (slot instanceof Node) {
+				return ((Node) slot).find(shift + BITS, hash, key, notFound);
+			}
+			Entry entry = (Entry) slot;
+			return entry.matches(hash, key) ? entry.value : notFound;
+		}
+
+		@Override
+		Node assoc(int shift, int hash, Object key, Object value, boolean[] addedLeaf) {
+			int bit = bitFor(hash, shift);
+			int index = index(bit);
+			if ((bitmap & bit) == 0) {
+				addedLeaf[0] = true;
+				Object[] newSlots = new Object[slots.length + 1];
+				System.arraycopy(slots, 0, newSlots, 0, index);
+				newSlots[index] = new Entry(hash, key, value);
+				System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+				return new BitmapNode(bitmap | bit, newSlots);
+			}
+			Object slot = slots[index];
+			Object newSlot;
+			if (slot instanceof Node) {
+				newSlot = ((Node) slot).assoc(shift + BITS, hash, key, value, addedLeaf);
+			} else {
+				Entry entry = (Entry) slot;
+				if (entry.matches(hash, key)) {
+					if (entry.value == value) {
+						return this;
+					}
+					newSlot = new Entry(hash, entry.key, value);
+				} else {
+					addedLeaf[0] = true;
+					newSlot = createNode(shift + BITS, entry, new Entry(hash, key, value));
+				}
+			}
+			return newSlot == slot ? this : withSlot(index, newSlot);
+		}
+
+		@Override
+		@Nullable
+		Node without(int shift, int hash, Object key) {
+			int bit = bitFor(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int index = index(bit);
+			Object slot = slots[index];
+			if (slot instanceof Node) {
+				Node child = (Node) slot;
+				Node newChild = child.without(shift + BITS, hash, key);
+				if (newChild == child) {
+					return this;
+				}
+				if (newChild != null) {
+					Entry single = newChild.singleEntry();
+					return withSlot(index, single != null ? single : newChild);
+				}
+			} else if (!((Entry) slot).matches(hash, key)) {
+				return this;
+			}
+			if (slots.length == 1) {
+				return null;
+			}
+			Object[] newSlots = new Object[slots.length - 1];
+			System.arraycopy(slots, 0, newSlots, 0, index);
+			System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+			return new BitmapNode(bitmap & ~bit, newSlots);
+		}
+
+		private BitmapNode withSlot(int index, Object slot) {
+			Object[] newSlots = slots.clone();
+			newSlots[index] = slot;
+			return new BitmapNode(bitmap, newSlots);
+		}
+
+		@Override
+		@Nullable
+		Entry singleEntry() {
+			return slots.length == 1 && slots[0] instanceof Entry ? (Entry) slots[0] : null;
+		}
+
+		@Override
+		Object[] slots() {
+			return slots;
+		}
+
+		private static Node createNode(int shift, Entry first, Entry second) {
+			if (first.hash == second.hash) {
+				return new CollisionNode(first.hash, new Object[] { first, second });
+			}
+			int firstBit = bitFor(first.hash, shift);
+			int secondBit = bitFor(second.hash, shift);
+			if (firstBit == secondBit) {
+				return new BitmapNode(firstBit, new Object[] { createNode(shift + BITS, first, second) });
+			}
+			// compare unsigned positions, the bit of the highest position is negative
+			Object[] slots = indexFor(first.hash, shift) < indexFor(second.hash, shift) ? new Object[] { first, second }
+					: new Object[] { second, first };
+			return new BitmapNode(firstBit | secondBit, slots);
+		}
+
+	}
+
+	/**
+	 * Node containing entries whose keys have the same hash.
+	 */
+	private static final class CollisionNode extends Node {
+
+		final int hash;
+		final Object[] entries;
+
+		CollisionNode(int hash, Object[] entries) {
+			this.hash = hash;
+			this.entries = entries;
+		}
+
+		private int indexOf(Object key) {
+			for (int i = 0; i < entries.length; i++) {
+				if (((Entry) entries[i]).matches(hash, key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		Object find(int shift, int hash, Object key, Object notFound) {
+			if (hash != this.hash) {
+				return notFound;
+			}
+			int index = indexOf(key);
+			return index < 0 ? notFound : ((Entry) entries[index]).value;
+		}
+
+		@Override
+		Node assoc(int shift, int hash, Object key, Object value, boolean[] addedLeaf) {
+			if (hash != this.hash) {
+				return new BitmapNode(bitFor(this.hash, shift), new Object[] { this }).assoc(shift, hash, key, value,
+						addedLeaf);
+			}
+			int index = indexOf(key);
+			Object[] newEntries;
+			if (index < 0) {
+				addedLeaf[0] = true;
+				newEntries = new Object[entries.length + 1];
+				System.arraycopy(entries, 0, newEntries, 0, entries.length);
+				newEntries[entries.length] = new Entry(hash, key, value);
+			} else {
+				if (((Entry) entries[index]).value == value) {
+					return this;
+				}
+				newEntries = entries.clone();
+				newEntries[index] = new Entry(hash, ((Entry) entries[index]).key, value);
+			}
+			return new CollisionNode(hash, newEntries);
+		}
+
+		@Override
+		@Nullable
+		Node without(int shift, int hash, Object key) {
+			int index = hash == this.hash ? indexOf(key) : -1;
+			if (index < 0) {
+				return this;
+			}
+			if (entries.length == 1) {
+				return null;
+			}
+			Object[] newEntries = new Object[entries.length - 1];
+			System.arraycopy(entries, 0, newEntries, 0, index);
+			System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+			return new CollisionNode(hash, newEntries);
+		}
+
+		@Override
+		@Nullable
+		Entry singleEntry() {
+			return entries.length == 1 ? (Entry) entries[0] : null;
+		}
+
+		@Override
+		Object[] slots() {
+			return entries;
+		}
+
+	}
+
+	private static final class Entry implements Map.Entry<Object, Object> {
+
+		/**
+		 * Returned by lookups of keys that are not bound.
+		 */
+		static final Object ABSENT = new Object();
+
+		final int hash;
+		final Object key;
+		final Object value;
+
+		Entry(int hash, Object key, @Nullable Object value) {
+			this.hash = hash;
+			this.key = key;
+			this.value = value;
+		}
+
+		boolean matches(int hash, Object key) {
+			return this.hash == hash && (this.key == key || this.key.equals(key));
+		}
+
+		boolean hasSameKeyAs(Entry other) {
+			return matches(other.hash, other.key);
+		}
+
+		@Override
+		public Object getKey() {
+			return key;
+		}
+
+		@Override
+		@Nullable
+		public Object getValue() {
+			return value;
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int hashCode() {
+			return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+			return key.equals(other.getKey()) && Objects.equal(value, other.getValue());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + value;
+		}
+
+	}
+
+	/**
+	 * Depth-first iterator over all entries below the given slots.
+	 */
+	private static final class EntryIterator implements Iterator<Entry> {
+
+		private final Deque<Object[]> arrays = new ArrayDeque<Object[]>();
+		private final Deque<Integer> positions = new ArrayDeque<Integer>();
+		private Entry next;
+
+		EntryIterator(Object[] slots) {
+			arrays.push(slots);
+			positions.push(0);
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (next == null && !arrays.isEmpty()) {
+				Object[] slots = arrays.peek();
+				int position = positions.pop();
+				if (position == slots.length) {
+					arrays.pop();
+					continue;
+				}
+				positions.push(position + 1);
+				Object slot = slots[position];
+				if (slot instanceof Node) {
+					arrays.push(((Node) slot).slots());
+					positions.push(0);
+				} else {
+					next = (Entry) slot;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Entry next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Entry result = next;
+			advance();
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	private final class MapView extends AbstractMap<Object, Object> {
+
+		@Override
+		public Set<Map.Entry<Object, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<Object, Object>>() {
+
+				@SuppressWarnings({ "unchecked", "rawtypes" })
+				@Override
+				public Iterator<Map.Entry<Object, Object>> iterator() {
+					return (Iterator) new EntryIterator(root.slots);
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+
+			};
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key != null && PersistentHashMap.this.containsKey(key);
+		}
+
+		@Override
+		public Object get(Object key) {
+			return key == null ? null : PersistentHashMap.this.get(key, null);
+		}
+
+	}
+
+}
@@ -0,0 +1,18 @@
+package cc.commandmanager.core;
+
+/**
+ * {@linkplain RuntimeException} indicating that an {@linkplain OffHeapRegion} has been accessed after its memory has
+ * been released, i.e. after the execution it belongs to has completed.
+ */
+public class RegionReleasedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new {@linkplain RegionReleasedException} having a default message.
+	 */
+	public RegionReleasedException() {
+		super("The off-heap region has already been released");
+	}
+
+}
@@ -0,0 +1,197 @@
+package cc.commandmanager.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Objects;
+
+/**
+ * Resources a thread consumed while executing a {@linkplain Command}, measured with the {@linkplain ThreadMXBean}.
+ * Every measure is {@code -1} if the JVM does not support it: CPU time requires thread CPU time measurement,
+ * allocated bytes require the HotSpot extension {@code com.sun.management.ThreadMXBean} and blocked and waited times
+ * require thread contention monitoring, which is enabled when resource accounting is enabled.
+ */
+@Immutable
+public final class ResourceUsage {
+
+	private static final Logger logger = Logger.getLogger(ResourceUsage.class);
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final boolean cpuTimeSupported = threads.isCurrentThreadCpuTimeSupported();
+	private static final boolean allocatedBytesSupported = isAllocatedBytesSupported();
+
+	/**
+	 * No resources consumed.
+	 */
+	public static final ResourceUsage NONE = new ResourceUsage(0, 0, 0, 0, 0, 0);
+
+	private final long cpuTimeNanos;
+	private final long allocatedBytes;
+	private final long blockedCount;
+	private final long blockedTimeMillis;
+	private final long waitedCount;
+	private final long waitedTimeMillis;
+
+	/**
+	 * @param cpuTimeNanos
+	 *            CPU time in nanoseconds
+	 * @param allocatedBytes
+	 *            bytes allocated on the heap
+	 * @param blockedCount
+	 *            number of times the thread blocked to enter or reenter a monitor
+	 * @param blockedTimeMillis
+	 *            time in milliseconds the thread blocked to enter or reenter a monitor
+	 * @param waitedCount
+	 *            number of times the thread waited for a notification
+	 * @param waitedTimeMillis
+	 *            time in milliseconds the thread waited for a notification
+	 */
+	public ResourceUsage(long cpuTimeNanos, long allocatedBytes, long blockedCount, long blockedTimeMillis,
+			long waitedCount, long waitedTimeMillis) {
+		this.cpuTimeNanos = cpuTimeNanos;
+		this.allocatedBytes = allocatedBytes;
+		this.blockedCount = blockedCount;
+		this.blockedTimeMillis = blockedTimeMillis;
+		this.waitedCount = waitedCount;
+		this.waitedTimeMillis = waitedTimeMillis;
+	}
+
+	private static boolean isAllocatedBytesSupported() {
+		try {
+			return threads instanceof com.sun.management.ThreadMXBean
+					&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Enables thread contention monitoring, so blocked and waited times are measured.
+	 */
+	static void enableContentionMonitoring() {
+		if (threads.isThreadContentionMonitoringSupported() && !threads.isThreadContentionMonitoringEnabled()) {
+			try {
+				threads.setThreadContentionMonitoringEnabled(true);
+			} catch (SecurityException e) {
+				logger.warn("Cannot enable thread contention monitoring", e);
+			}
+		}
+	}
+
+	/**
+	 * @return resources the current thread consumed since it has been started
+	 */
+	static ResourceUsage ofCurrentThread() {
+		long id = Thread.currentThread().getId();
+		long cpuTime = cpuTimeSupported ? threads.getCurrentThreadCpuTime() : -1;
+		long allocated = allocatedBytesSupported ? ((com.sun.management.ThreadMXBean) threads)
+				.getThreadAllocatedBytes(id) : -1;
+		ThreadInfo info = threads.getThreadInfo(id, 0);
+		boolean contention = threads.isThreadContentionMonitoringEnabled();
+		return new ResourceUsage(cpuTime, allocated, info.getBlockedCount(), contention ? info.getBlockedTime() : -1,
+				info.getWaitedCount(), contention ? info.getWaitedTime() : -1);
+	}
+
+	/**
+	 * @return resources consumed since the given usage of the same thread has been measured
+	 */
+	ResourceUsage since(ResourceUsage earlier) {
+		return new ResourceUsage(difference(cpuTimeNanos, earlier.cpuTimeNanos), difference(allocatedBytes,
+				earlier.allocatedBytes), difference(blockedCount, earlier.blockedCount), difference(
+				blockedTimeMillis, earlier.blockedTimeMillis), difference(waitedCount, earlier.waitedCount),
+				difference(waitedTimeMillis, earlier.waitedTimeMillis));
+	}
+
+	/**
+	 * @return sum of this and the given usage
+	 */
+	public ResourceUsage plus(ResourceUsage other) {
+		return new ResourceUsage(sum(cpuTimeNanos, other.cpuTimeNanos), sum(allocatedBytes, other.allocatedBytes),
+				sum(blockedCount, other.blockedCount), sum(blockedTimeMillis, other.blockedTimeMillis), sum(
+						waitedCount, other.waitedCount), sum(waitedTimeMillis, other.waitedTimeMillis));
+	}
+
+	private static long difference(long value, long earlierValue) {
+		return value < 0 || earlierValue < 0 ? -1 : value - earlierValue;
+	}
+
+	private static long sum(long value, long otherValue) {
+		return value < 0 || otherValue < 0 ? -1 : value + otherValue;
+	}
+
+	/**
+	 * @return CPU time in nanoseconds or {@code -1} if not supported
+	 */
+	public long getCpuTimeNanos() {
+		return cpuTimeNanos;
+	}
+
+	/**
+	 * @return bytes allocated on the heap or {@code -1} if not supported
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * @return number of times the thread blocked to enter or reenter a monitor
+	 */
+	public long getBlockedCount() {
+		return blockedCount;
+	}
+
+	/**
+	 * @return time in milliseconds the thread blocked to enter or reenter a monitor or {@code -1} if not supported
+	 */
+	public long getBlockedTimeMillis() {
+		return blockedTimeMillis;
+	}
+
+	/**
+	 * @return number of times the thread waited for a notification, e.g. in {@linkplain Object#wait()},
+	 *         {@linkplain Thread#join()} or on a {@linkplain java.util.concurrent.locks.Lock}
+	 */
+	public long getWaitedCount() {
+		return waitedCount;
+	}
+
+	/**
+	 * @return time in milliseconds the thread waited for a notification or {@code -1} if not supported
+	 */
+	public long getWaitedTimeMillis() {
+		return waitedTimeMillis;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this).add("cpuTimeNanos", cpuTimeNanos).add("allocatedBytes", allocatedBytes)
+				.add("blockedCount", blockedCount).add("blockedTimeMillis", blockedTimeMillis)
+				.add("waitedCount", waitedCount).add("waitedTimeMillis", waitedTimeMillis).toString();
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(cpuTimeNanos, allocatedBytes, blockedCount, blockedTimeMillis, waitedCount,
+				waitedTimeMillis);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ResourceUsage)) {
+			return false;
+		}
+		ResourceUsage other = (ResourceUsage) obj;
+		return cpuTimeNanos == other.cpuTimeNanos && allocatedBytes == other.allocatedBytes
+				&& blockedCount == other.blockedCount && blockedTimeMillis == other.blockedTimeMillis
+				&& waitedCount == other.waitedCount && waitedTimeMillis == other.waitedTimeMillis;
+	}
+
+}
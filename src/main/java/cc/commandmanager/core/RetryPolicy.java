@@ -0,0 +1,248 @@
+package cc.commandmanager.core;
+
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.concurrent.Immutable;
+
+import net.sf.qualitycheck.Check;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Describes whether and how often a {@linkplain Command} will be executed again if it did not complete successfully.
+ * The delay between two attempts grows exponentially, starting with the initial backoff and being multiplied by the
+ * backoff multiplier after every attempt until the maximum backoff is reached. A jitter can be used to spread retries
+ * of concurrently failing commands.
+ * <p>
+ * By default only {@linkplain ResultState.Failure}s will be retried, regardless of their cause. Instances are built
+ * using {@linkplain #builder()}.
+ */
+@Immutable
+public final class RetryPolicy {
+
+	private static final RetryPolicy NO_RETRY = builder().maxAttempts(1).build();
+
+	/**
+	 * Source of jitter, one per thread so that workers computing backoffs concurrently do not contend on it.
+	 */
+	private static final ThreadLocal<Random> JITTER = new ThreadLocal<Random>() {
+
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+
+	};
+
+	private final int maxAttempts;
+	private final long initialBackoffMillis;
+	private final double backoffMultiplier;
+	private final long maxBackoffMillis;
+	private final double jitter;
+	private final boolean retryOnWarning;
+	private final boolean retryOnFailure;
+	private final ImmutableSet<Class<? extends Throwable>> retryableCauses;
+
+	/**
+	 * @return a builder to build a {@linkplain RetryPolicy}
+	 */
+	public static RetryPolicyBuilder builder() {
+		return new RetryPolicyBuilder();
+	}
+
+	/**
+	 * @return a {@linkplain RetryPolicy} that executes a {@linkplain Command} exactly once.
+	 */
+	public static RetryPolicy noRetry() {
+		return NO_RETRY;
+	}
+
+	private RetryPolicy(RetryPolicyBuilder builder) {
+		maxAttempts = builder.maxAttempts;
+		initialBackoffMillis = builder.initialBackoffMillis;
+		backoffMultiplier = builder.backoffMultiplier;
+		maxBackoffMillis = Math.max(builder.initialBackoffMillis, builder.maxBackoffMillis);
+		jitter = builder.jitter;
+		retryOnWarning = builder.retryOnWarning;
+		retryOnFailure = builder.retryOnFailure;
+		retryableCauses = ImmutableSet.copyOf(builder.retryableCauses);
+	}
+
+	/**
+	 * @return maximum number of executions of a {@linkplain Command}, including the first one.
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Decides whether a {@linkplain Command} will be executed again after the given attempt.
+	 *
+	 * @param resultState
+	 *            returned by the last attempt
+	 * @param attempt
+	 *            number of attempts executed so far, starting with 1.
+	 * @return {@code true} if the maximum number of attempts is not reached yet and the given result state is retryable
+	 *         according to this policy.
+	 */
+	public boolean shouldRetry(ResultState resultState, int attempt) {
+		Check.notNull(resultState, "resultState");
+		if (attempt >= maxAttempts || resultState.isSuccess()) {
+			return false;
+		}
+		if ((resultState.isWarning() && !retryOnWarning) || (resultState.isFailure() && !retryOnFailure)) {
+			return false;
+		}
+		return retryableCauses.isEmpty() || hasRetryableCause(resultState);
+	}
+
+	private boolean hasRetryableCause(ResultState resultState) {
+		if (!resultState.hasCause()) {
+			return false;
+		}
+		for (Throwable cause : Throwables.getCausalChain(resultState.getCause())) {
+			for (Class<? extends Throwable> retryableCause : retryableCauses) {
+				if (retryableCause.isInstance(cause)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Computes the delay before the next attempt. The exponentially grown backoff is reduced by a random fraction of at
+	 * most the configured jitter.
+	 *
+	 * @param attempt
+	 *            number of attempts executed so far, starting with 1.
+	 * @return delay in milliseconds, never negative
+	 */
+	public long getBackoffMillis(int attempt) {
+		Check.stateIsTrue(attempt >= 1, "attempt must be at least 1");
+		double backoff = initialBackoffMillis * Math.pow(backoffMultiplier, attempt - 1);
+		backoff = Math.min(backoff, maxBackoffMillis);
+		if (jitter > 0) {
+			backoff -= backoff * jitter * JITTER.get().nextDouble();
+		}
+		return (long) backoff;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this).add("maxAttempts", maxAttempts)
+				.add("initialBackoffMillis", initialBackoffMillis).add("backoffMultiplier", backoffMultiplier)
+				.add("maxBackoffMillis", maxBackoffMillis).add("jitter", jitter).add("retryOnWarning", retryOnWarning)
+				.add("retryOnFailure", retryOnFailure).add("retryableCauses", retryableCauses).toString();
+	}
+
+	/**
+	 * A builder for a {@linkplain RetryPolicy}. Without further configuration, a built policy executes a
+	 * {@linkplain Command} at most three times, waiting 100 ms before the second and 200 ms before the third attempt.
+	 */
+	public static class RetryPolicyBuilder {
+
+		private int maxAttempts = 3;
+		private long initialBackoffMillis = 100;
+		private double backoffMultiplier = 2;
+		private long maxBackoffMillis = 30000;
+		private double jitter = 0;
+		private boolean retryOnWarning = false;
+		private boolean retryOnFailure = true;
+		private final Set<Class<? extends Throwable>> retryableCauses = Sets.newLinkedHashSet();
+
+		/**
+		 * @return A new and immutable {@linkplain RetryPolicy} having the configured values.
+		 */
+		public RetryPolicy build() {
+			return new RetryPolicy(this);
+		}
+
+		/**
+		 * @param maxAttempts
+		 *            maximum number of executions, including the first one. Must be at least 1.
+		 */
+		public RetryPolicyBuilder maxAttempts(int maxAttempts) {
+			Check.stateIsTrue(maxAttempts >= 1, "maxAttempts must be at least 1");
+			this.maxAttempts = maxAttempts;
+			return this;
+		}
+
+		/**
+		 * @param initialBackoffMillis
+		 *            delay before the second attempt. Must not be negative.
+		 */
+		public RetryPolicyBuilder initialBackoffMillis(long initialBackoffMillis) {
+			Check.stateIsTrue(initialBackoffMillis >= 0, "initialBackoffMillis must not be negative");
+			this.initialBackoffMillis = initialBackoffMillis;
+			return this;
+		}
+
+		/**
+		 * @param backoffMultiplier
+		 *            factor by which the delay grows after every attempt. Must be at least 1.
+		 */
+		public RetryPolicyBuilder backoffMultiplier(double backoffMultiplier) {
+			Check.stateIsTrue(backoffMultiplier >= 1, "backoffMultiplier must be at least 1");
+			this.backoffMultiplier = backoffMultiplier;
+			return this;
+		}
+
+		/**
+		 * @param maxBackoffMillis
+		 *            upper bound of the delay between two attempts. Must not be negative.
+		 */
+		public RetryPolicyBuilder maxBackoffMillis(long maxBackoffMillis) {
+			Check.stateIsTrue(maxBackoffMillis >= 0, "maxBackoffMillis must not be negative");
+			this.maxBackoffMillis = maxBackoffMillis;
+			return this;
+		}
+
+		/**
+		 * @param jitter
+		 *            maximum fraction by which a delay will be randomly shortened. Must be between 0 and 1.
+		 */
+		public RetryPolicyBuilder jitter(double jitter) {
+			Check.stateIsTrue(jitter >= 0 && jitter <= 1, "jitter must be between 0 and 1");
+			this.jitter = jitter;
+			return this;
+		}
+
+		/**
+		 * @param retryOnWarning
+		 *            whether a {@linkplain ResultState.Warning} will be retried.
+		 */
+		public RetryPolicyBuilder retryOnWarning(boolean retryOnWarning) {
+			this.retryOnWarning = retryOnWarning;
+			return this;
+		}
+
+		/**
+		 * @param retryOnFailure
+		 *            whether a {@linkplain ResultState.Failure} will be retried.
+		 */
+		public RetryPolicyBuilder retryOnFailure(boolean retryOnFailure) {
+			this.retryOnFailure = retryOnFailure;
+			return this;
+		}
+
+		/**
+		 * Restricts retries to result states whose cause, or any cause of that cause, is an instance of one of the
+		 * types given to this method. Result states without a cause will not be retried then. Can be called several
+		 * times to allow several types of causes.
+		 *
+		 * @param causeType
+		 *            retryable type of causes
+		 */
+		public RetryPolicyBuilder retryOn(Class<? extends Throwable> causeType) {
+			retryableCauses.add(Check.notNull(causeType, "causeType"));
+			return this;
+		}
+
+	}
+
+}
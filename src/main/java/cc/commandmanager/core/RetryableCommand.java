@@ -0,0 +1,18 @@
+package cc.commandmanager.core;
+
+/**
+ * A {@linkplain Command} that declares how the {@linkplain CommandManager} should react if an execution did not
+ * complete successfully. Commands failing due to transient problems, e.g. I/O errors, can be executed again without
+ * rerunning all commands that have been executed before.
+ * <p>
+ * Mind that a retried command will be executed using the same {@linkplain Context} as the failed attempt. Values bound
+ * by the failed attempt are still bound when the next attempt starts.
+ */
+public interface RetryableCommand extends Command {
+
+	/**
+	 * @return the {@linkplain RetryPolicy} that applies to every execution of this command.
+	 */
+	RetryPolicy getRetryPolicy();
+
+}
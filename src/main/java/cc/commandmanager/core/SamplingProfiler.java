@@ -0,0 +1,240 @@
+package cc.commandmanager.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.sf.qualitycheck.Check;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Samples the stacks of all threads executing a {@linkplain Command} while an execution observed as
+ * {@linkplain ExecutionListener} is running. Only the frames of the command are kept, i.e. the frames above
+ * {@linkplain Command#execute(Context)}, and grouped by the name of the command. The samples of an execution are
+ * written in the folded stack format of <a href="https://github.com/brendangregg/FlameGraph">flame graphs</a>, one
+ * line per distinct stack: the command name followed by the frames from {@code execute} to the leaf, separated by
+ * semicolons, and the number of samples.
+ * <p>
+ * The sampler thread runs only during executions. Taking a stack trace pauses the sampled thread, so the interval
+ * should not be too small. Executions observed by one profiler must not overlap.
+ */
+@ThreadSafe
+public final class SamplingProfiler extends ExecutionListenerAdapter {
+
+	private static final Logger logger = Logger.getLogger(SamplingProfiler.class);
+
+	private final long intervalMillis;
+	@Nullable
+	private final File outputFile;
+
+	private final ConcurrentMap<String, Thread> runningCommands = Maps.newConcurrentMap();
+
+	@GuardedBy("this")
+	private final Map<String, long[]> samples = Maps.newHashMap();
+
+	@GuardedBy("this")
+	private ScheduledExecutorService sampler;
+
+	private SamplingProfiler(SamplingProfilerBuilder builder) {
+		intervalMillis = builder.intervalMillis;
+		outputFile = builder.outputFile;
+	}
+
+	/**
+	 * @return a new {@linkplain SamplingProfilerBuilder} having an interval of 20 milliseconds and no output file
+	 */
+	public static SamplingProfilerBuilder builder() {
+		return new SamplingProfilerBuilder();
+	}
+
+	@Override
+	public synchronized void executionStarted(List<CommandClass> commands, long nanoTime) {
+		samples.clear();
+		runningCommands.clear();
+		sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("command-sampler-%d").setDaemon(true).build());
+		sampler.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+				sample();
+			}
+
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void commandStarted(CommandClass command, int attempt, long queuedNanoTime, long nanoTime) {
+		runningCommands.put(command.getName(), Thread.currentThread());
+	}
+
+	@Override
+	public void commandRetried(CommandClass command, int attempt, ResultState resultState, long backoffMillis,
+			long startNanoTime, long nanoTime) {
+		runningCommands.remove(command.getName());
+	}
+
+	@Override
+	public void commandCompleted(CommandClass command, int attempt, ResultState resultState, long startNanoTime,
+			long nanoTime) {
+		runningCommands.remove(command.getName());
+	}
+
+	@Override
+	public void commandCancelled(CommandClass command, long nanoTime) {
+		runningCommands.remove(command.getName());
+	}
+
+	@Override
+	public void executionFinished(ComposedResultState result, long nanoTime) {
+		ScheduledExecutorService stopped;
+		synchronized (this) {
+			stopped = sampler;
+			sampler = null;
+		}
+		if (stopped != null) {
+			stopped.shutdownNow();
+			try {
+				stopped.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		runningCommands.clear();
+		if (outputFile != null) {
+			try {
+				writeFolded(outputFile);
+			} catch (IOException e) {
+				logger.warn("Cannot write stack samples to " + outputFile, e);
+			}
+		}
+	}
+
+	private void sample() {
+		for (Map.Entry<String, Thread> entry : runningCommands.entrySet()) {
+			String stack = fold(entry.getKey(), entry.getValue().getStackTrace());
+			if (stack != null) {
+				synchronized (this) {
+					long[] count = samples.get(stack);
+					if (count == null) {
+						samples.put(stack, new long[] { 1 });
+					} else {
+						count[0]++;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the frames of the command in folded format or {@code null} if the thread is not executing a command
+	 */
+	@Nullable
+	static String fold(String commandName, StackTraceElement[] stackTrace) {
+		int bottom = -1;
+		for (int i = 0; i < stackTrace.length; i++) {
+			if (stackTrace[i].getClassName().equals(CommandManager.class.getName())
+					&& stackTrace[i].getMethodName().equals("execute")) {
+				bottom = i;
+				break;
+			}
+		}
+		if (bottom <= 0) {
+			return null;
+		}
+		StringBuilder folded = new StringBuilder(commandName.replace(';', '_').replace(' ', '_'));
+		for (int i = bottom - 1; i >= 0; i--) {
+			folded.append(';').append(stackTrace[i].getClassName()).append('.')
+					.append(stackTrace[i].getMethodName());
+		}
+		return folded.toString();
+	}
+
+	/**
+	 * @return number of samples taken during the last or current execution
+	 */
+	public synchronized long getSampleCount() {
+		long count = 0;
+		for (long[] stackCount : samples.values()) {
+			count += stackCount[0];
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the samples of the last or current execution in the folded stack format, sorted by stack.
+	 */
+	public synchronized void writeFolded(Writer writer) throws IOException {
+		for (Map.Entry<String, long[]> entry : ImmutableSortedMap.copyOf(samples).entrySet()) {
+			writer.write(entry.getKey() + " " + entry.getValue()[0] + "\n");
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Writes the samples of the last or current execution in the folded stack format to the given file, replacing
+	 * it.
+	 */
+	public void writeFolded(File file) throws IOException {
+		Writer writer = Files.newWriter(Check.notNull(file, "file"), Charsets.UTF_8);
+		try {
+			writeFolded(writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Builder for {@linkplain SamplingProfiler}s.
+	 */
+	public static class SamplingProfilerBuilder {
+
+		private long intervalMillis = 20;
+		private File outputFile;
+
+		/**
+		 * @param intervalMillis
+		 *            between two samples. Default is 20 milliseconds.
+		 */
+		public SamplingProfilerBuilder intervalMillis(long intervalMillis) {
+			Check.stateIsTrue(intervalMillis > 0, "intervalMillis must be positive");
+			this.intervalMillis = intervalMillis;
+			return this;
+		}
+
+		/**
+		 * @param outputFile
+		 *            to which the samples are written at the end of every execution. Default is none.
+		 */
+		public SamplingProfilerBuilder outputFile(File outputFile) {
+			this.outputFile = Check.notNull(outputFile, "outputFile");
+			return this;
+		}
+
+		/**
+		 * @return a new {@linkplain SamplingProfiler}
+		 */
+		public SamplingProfiler build() {
+			return new SamplingProfiler(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,314 @@
+package cc.commandmanager.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Sets;
+
+/**
+ * Keeps the values of a {@linkplain SpillingContext} within a heap budget. Values are accounted by their estimated
+ * weight. If the budget is exceeded, the least recently used values will be serialized to a spill file and dropped
+ * from the heap until they are read again. The spill file is append-only: a value that has been spilled once will not
+ * be written again.
+ * <p>
+ * The store is shared by a context and all of its forks. Reading a value held in memory does not lock the store, it
+ * only stamps the entry with the time of its last use. Spilled values are read and deserialized while only the entry
+ * is locked, so reloading one value blocks neither readers of other values nor binding.
+ */
+@ThreadSafe
+final class SpillStore {
+
+	private static final Logger logger = Logger.getLogger(SpillStore.class);
+
+	private static final Comparator<Entry> LEAST_RECENTLY_USED = new Comparator<Entry>() {
+
+		@Override
+		public int compare(Entry first, Entry second) {
+			return first.lastUsed < second.lastUsed ? -1 : first.lastUsed == second.lastUsed ? 0 : 1;
+		}
+
+	};
+
+	private final long heapBudget;
+	private final Weigher<Object, Object> weigher;
+	private final boolean compress;
+	private final File directory;
+
+	/**
+	 * Registered entries whose values are held in memory.
+	 */
+	private final Set<Entry> entries = Sets.newHashSet();
+
+	/**
+	 * Logical time, incremented by every use of an entry.
+	 */
+	private final AtomicLong clock = new AtomicLong();
+	private long heapBytes;
+	private long spillCount;
+	private long spilledBytes;
+	private long reloadCount;
+	private long reloadedBytes;
+
+	@Nullable
+	private File file;
+	@Nullable
+	private RandomAccessFile output;
+	private volatile boolean closed;
+
+	SpillStore(long heapBudget, Weigher<Object, Object> weigher, boolean compress, File directory) {
+		this.heapBudget = heapBudget;
+		this.weigher = weigher;
+		this.compress = compress;
+		this.directory = directory;
+	}
+
+	/**
+	 * @return a new entry holding the given value or {@code null} if the value cannot be spilled
+	 */
+	@Nullable
+	Entry wrap(Object key, @Nullable Object value) {
+		if (!(value instanceof Serializable)) {
+			return null;
+		}
+		return new Entry(value, weigher.weigh(key, value));
+	}
+
+	/**
+	 * Starts accounting the given entry after it has been bound. Spills other entries if the budget is exceeded.
+	 */
+	synchronized void register(Entry entry) {
+		if (entry.store() != this || entry.state != Entry.NEW) {
+			return;
+		}
+		entry.state = Entry.REGISTERED;
+		if (entry.value != null) {
+			entry.lastUsed = clock.incrementAndGet();
+			entries.add(entry);
+			heapBytes += entry.weight;
+			spillLeastRecentlyUsed(null);
+		}
+	}
+
+	/**
+	 * Stops accounting the given entry after it has been unbound. Forks of the context may still read it.
+	 */
+	synchronized void forget(Entry entry) {
+		if (entry.store() != this || entry.state == Entry.FORGOTTEN) {
+			return;
+		}
+		if (entry.state == Entry.REGISTERED && entries.remove(entry)) {
+			heapBytes -= entry.weight;
+		}
+		entry.state = Entry.FORGOTTEN;
+	}
+
+	private Object load(Entry entry) {
+		Object value = entry.value;
+		if (value != null) {
+			entry.lastUsed = clock.incrementAndGet();
+			return value;
+		}
+		synchronized (entry) {
+			value = entry.value;
+			if (value != null) {
+				entry.lastUsed = clock.incrementAndGet();
+				return value;
+			}
+			Object event = FlightRecorderEvents.CONTEXT_RELOAD.begin();
+			value = read(entry);
+			synchronized (this) {
+				reloadCount++;
+				reloadedBytes += entry.length;
+				entry.lastUsed = clock.incrementAndGet();
+				entry.value = value;
+				if (entry.state == Entry.REGISTERED) {
+					entries.add(entry);
+					heapBytes += entry.weight;
+					spillLeastRecentlyUsed(entry);
+				}
+				if (event != null) {
+					FlightRecorderEvents.CONTEXT_RELOAD.commit(event, value.getClass().getName(),
+							(long) entry.length, heapBytes);
+				}
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Reads and deserializes the spilled value of the given entry without locking the store. The spill file is opened
+	 * for every read, so concurrent reads do not share a file position.
+	 */
+	private Object read(Entry entry) {
+		if (closed) {
+			throw new ContextSpillException("Cannot read a spilled value after the context has been closed", null);
+		}
+		try {
+			byte[] bytes = new byte[entry.length];
+			RandomAccessFile input = new RandomAccessFile(file, "r");
+			try {
+				input.seek(entry.offset);
+				input.readFully(bytes);
+			} finally {
+				input.close();
+			}
+			InputStream stream = new ByteArrayInputStream(bytes);
+			ObjectInputStream objectInput = new ObjectInputStream(compress ? new InflaterInputStream(stream) : stream);
+			Object value = objectInput.readObject();
+			objectInput.close();
+			return value;
+		} catch (IOException e) {
+			throw new ContextSpillException("Cannot read spilled value from " + file, e);
+		} catch (ClassNotFoundException e) {
+			throw new ContextSpillException("Cannot read spilled value from " + file, e);
+		}
+	}
+
+	/**
+	 * Spills the least recently used entries until the heap budget is met or only the given entry is left.
+	 */
+	private void spillLeastRecentlyUsed(@Nullable Entry keep) {
+		if (heapBytes <= heapBudget) {
+			return;
+		}
+		Entry[] candidates = entries.toArray(new Entry[entries.size()]);
+		Arrays.sort(candidates, LEAST_RECENTLY_USED);
+		for (int i = 0; heapBytes > heapBudget && i < candidates.length; i++) {
+			Entry entry = candidates[i];
+			if (entry == keep) {
+				continue;
+			}
+			spill(entry);
+			entries.remove(entry);
+			heapBytes -= entry.weight;
+		}
+	}
+
+	private void spill(Entry entry) {
+		Object event = FlightRecorderEvents.CONTEXT_SPILL.begin();
+		String valueClass = event == null ? null : entry.value.getClass().getName();
+		if (entry.offset < 0) {
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				OutputStream stream = compress ? new DeflaterOutputStream(bytes) : bytes;
+				ObjectOutputStream objectOutput = new ObjectOutputStream(stream);
+				objectOutput.writeObject(entry.value);
+				objectOutput.close();
+				if (output == null) {
+					file = File.createTempFile("context", ".spill", directory);
+					output = new RandomAccessFile(file, "rw");
+				}
+				long offset = output.length();
+				output.seek(offset);
+				output.write(bytes.toByteArray());
+				entry.offset = offset;
+				entry.length = bytes.size();
+			} catch (IOException e) {
+				throw new ContextSpillException("Cannot spill value to " + (file == null ? directory : file), e);
+			}
+			spilledBytes += entry.length;
+		}
+		spillCount++;
+		// the offset has been written before, so loaders seeing null will read it
+		entry.value = null;
+		if (event != null) {
+			FlightRecorderEvents.CONTEXT_SPILL.commit(event, valueClass, (long) entry.length, heapBytes
+					- entry.weight);
+		}
+	}
+
+	synchronized long getHeapBytes() {
+		return heapBytes;
+	}
+
+	synchronized long getSpillCount() {
+		return spillCount;
+	}
+
+	synchronized long getSpilledBytes() {
+		return spilledBytes;
+	}
+
+	synchronized long getReloadCount() {
+		return reloadCount;
+	}
+
+	synchronized long getReloadedBytes() {
+		return reloadedBytes;
+	}
+
+	/**
+	 * Deletes the spill file. Values that have been spilled cannot be read anymore.
+	 */
+	synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (output != null) {
+			try {
+				output.close();
+			} catch (IOException e) {
+				logger.warn("Cannot close spill file " + file, e);
+			}
+			if (!file.delete()) {
+				logger.warn("Cannot delete spill file " + file);
+			}
+		}
+	}
+
+	/**
+	 * Value bound to a {@linkplain SpillingContext}. It is either held in memory or has been spilled to the file of
+	 * its store.
+	 */
+	final class Entry extends DeferredValue {
+
+		private static final int NEW = 0;
+		private static final int REGISTERED = 1;
+		private static final int FORGOTTEN = 2;
+
+		private final int weight;
+		@Nullable
+		private volatile Object value;
+		private volatile long lastUsed;
+		private int state = NEW;
+		private long offset = -1;
+		private int length;
+
+		private Entry(Object value, int weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+
+		private SpillStore store() {
+			return SpillStore.this;
+		}
+
+		@Override
+		Object get() {
+			return load(this);
+		}
+
+	}
+
+}
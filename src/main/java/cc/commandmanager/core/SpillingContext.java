@@ -0,0 +1,228 @@
+package cc.commandmanager.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.lang.reflect.Array;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.sf.qualitycheck.Check;
+
+import com.google.common.cache.Weigher;
+
+/**
+ * {@linkplain ConcurrentContext} that keeps its values within a heap budget. If the estimated size of all values
+ * exceeds the budget, the least recently used values will be serialized, optionally compressed, to a spill file and
+ * dropped from the heap. Reading a spilled value loads it back transparently, possibly spilling other values.
+ * <p>
+ * Only {@linkplain java.io.Serializable} values can be spilled, all other values are held on the heap without being
+ * accounted. Values of primitive {@linkplain ContextKey}s are never spilled. Spilled values must not be modified after
+ * they have been bound, as modifications would be lost when the value is spilled.
+ * <p>
+ * Forks share the spill file of this context, which will be deleted by {@linkplain #close()}. Spilled values cannot be
+ * read afterwards.
+ */
+@ThreadSafe
+public class SpillingContext extends ConcurrentContext implements Closeable {
+
+	private final SpillStore store;
+
+	private SpillingContext(SpillStore store, Bindings items) {
+		super(items);
+		this.store = store;
+	}
+
+	/**
+	 * @return a new {@linkplain SpillingContextBuilder} having a heap budget of a quarter of the maximum heap size.
+	 */
+	public static SpillingContextBuilder builder() {
+		return new SpillingContextBuilder();
+	}
+
+	@Override
+	@Nullable
+	Object wrap(Object key, @Nullable Object value) {
+		if (value instanceof DeferredValue) {
+			return value;
+		}
+		if (key instanceof ContextKey) {
+			ContextKey<?> contextKey = (ContextKey<?>) key;
+			if (contextKey.isPrimitive()) {
+				return value;
+			}
+			contextKey.checkType(value);
+		}
+		SpillStore.Entry entry = store.wrap(key, value);
+		return entry == null ? value : entry;
+	}
+
+	@Override
+	boolean compareAndSet(Bindings expected, Bindings update) {
+		if (!super.compareAndSet(expected, update)) {
+			return false;
+		}
+		for (Object key : expected.changedKeys(update)) {
+			Object previous = expected.get(key, null);
+			if (previous instanceof SpillStore.Entry) {
+				store.forget((SpillStore.Entry) previous);
+			}
+			Object current = update.get(key, null);
+			if (current instanceof SpillStore.Entry) {
+				store.register((SpillStore.Entry) current);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	void discard() {
+		Bindings base = getForkBase();
+		Bindings current = snapshot();
+		for (Object key : base.changedKeys(current)) {
+			Object value = current.get(key, null);
+			if (value instanceof SpillStore.Entry && value != base.get(key, null)) {
+				store.forget((SpillStore.Entry) value);
+			}
+		}
+	}
+
+	/**
+	 * @return a new context sharing the heap budget and the spill file of this context
+	 */
+	@Override
+	public SpillingContext fork() {
+		return new SpillingContext(store, snapshot());
+	}
+
+	/**
+	 * @return estimated size of all values held on the heap
+	 */
+	public long getHeapBytes() {
+		return store.getHeapBytes();
+	}
+
+	/**
+	 * @return number of times a value has been dropped from the heap
+	 */
+	public long getSpillCount() {
+		return store.getSpillCount();
+	}
+
+	/**
+	 * @return number of bytes written to the spill file
+	 */
+	public long getSpilledBytes() {
+		return store.getSpilledBytes();
+	}
+
+	/**
+	 * @return number of times a spilled value has been loaded back
+	 */
+	public long getReloadCount() {
+		return store.getReloadCount();
+	}
+
+	/**
+	 * @return number of bytes read from the spill file
+	 */
+	public long getReloadedBytes() {
+		return store.getReloadedBytes();
+	}
+
+	/**
+	 * Deletes the spill file of this context and all of its forks. Closing a context that has been closed already does
+	 * nothing.
+	 */
+	@Override
+	public void close() {
+		store.close();
+	}
+
+	/**
+	 * Estimates the heap size of arrays and character sequences by their length. All other values are estimated to
+	 * have a size of 16 bytes, so a custom {@linkplain Weigher} should be used for large values of other types.
+	 */
+	private static final class DefaultWeigher implements Weigher<Object, Object> {
+
+		private static final int HEADER = 16;
+
+		@Override
+		public int weigh(Object key, Object value) {
+			long size;
+			if (value instanceof byte[] || value instanceof boolean[]) {
+				size = Array.getLength(value);
+			} else if (value instanceof char[] || value instanceof short[]) {
+				size = 2L * Array.getLength(value);
+			} else if (value instanceof int[] || value instanceof float[] || value instanceof Object[]) {
+				size = 4L * Array.getLength(value);
+			} else if (value instanceof long[] || value instanceof double[]) {
+				size = 8L * Array.getLength(value);
+			} else if (value instanceof CharSequence) {
+				size = 2L * ((CharSequence) value).length();
+			} else {
+				size = 0;
+			}
+			return (int) Math.min(Integer.MAX_VALUE, HEADER + size);
+		}
+
+	}
+
+	/**
+	 * Builder for {@linkplain SpillingContext}s.
+	 */
+	public static class SpillingContextBuilder {
+
+		private long heapBudgetBytes = Runtime.getRuntime().maxMemory() / 4;
+		private File directory = new File(System.getProperty("java.io.tmpdir"));
+		private boolean compress = false;
+		private Weigher<Object, Object> weigher = new DefaultWeigher();
+
+		/**
+		 * @param heapBudgetBytes
+		 *            estimated size of all values that may be held on the heap. Must not be negative.
+		 */
+		public SpillingContextBuilder heapBudgetBytes(long heapBudgetBytes) {
+			Check.stateIsTrue(heapBudgetBytes >= 0, "heapBudgetBytes must not be negative");
+			this.heapBudgetBytes = heapBudgetBytes;
+			return this;
+		}
+
+		/**
+		 * @param directory
+		 *            in which the spill file will be created. Default is the temporary directory.
+		 */
+		public SpillingContextBuilder directory(File directory) {
+			this.directory = Check.notNull(directory, "directory");
+			return this;
+		}
+
+		/**
+		 * @param compress
+		 *            whether spilled values will be compressed. Default is {@code false}.
+		 */
+		public SpillingContextBuilder compress(boolean compress) {
+			this.compress = compress;
+			return this;
+		}
+
+		/**
+		 * @param weigher
+		 *            estimating the heap size of values. The default one only estimates arrays and character
+		 *            sequences.
+		 */
+		public SpillingContextBuilder weigher(Weigher<Object, Object> weigher) {
+			this.weigher = Check.notNull(weigher, "weigher");
+			return this;
+		}
+
+		/**
+		 * @return a new empty {@linkplain SpillingContext}
+		 */
+		public SpillingContext build() {
+			return new SpillingContext(new SpillStore(heapBudgetBytes, weigher, compress, directory), Bindings.empty());
+		}
+
+	}
+
+}
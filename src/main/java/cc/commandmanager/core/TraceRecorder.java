@@ -0,0 +1,319 @@
+package cc.commandmanager.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.sf.qualitycheck.Check;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Records the executions it observes as {@linkplain ExecutionListener} and writes them in the
+ * <a href="https://docs.google.com/document/d/1CvAClvFfyA5R-PhYUmn5OOQtYMH4h6I0nSsKchNAySU">trace event format</a>,
+ * which can be opened as timeline in Perfetto or {@code chrome://tracing}.
+ * <p>
+ * Every execution is shown as process, every thread that executed commands as thread of that process. Every attempt
+ * of a command is a slice on the thread that executed it, preceded by an asynchronous slice showing the time it
+ * waited for a free worker thread. Cancelled commands are instant events. If the recorder has been created for a
+ * {@linkplain CommandGraph}, flow arrows connect every executed command with the executed commands it depends on.
+ * <p>
+ * Executions observed by one recorder must not overlap. Recorded events are kept in memory until
+ * {@linkplain #clear()} is called.
+ */
+@ThreadSafe
+public final class TraceRecorder extends ExecutionListenerAdapter {
+
+	@Nullable
+	private final CommandGraph graph;
+
+	@GuardedBy("this")
+	private final List<Span> spans = Lists.newArrayList();
+
+	@GuardedBy("this")
+	private final Map<Integer, Map<Long, String>> threadNames = Maps.newTreeMap();
+
+	@GuardedBy("this")
+	private final Map<String, Started> startedAttempts = Maps.newHashMap();
+
+	@GuardedBy("this")
+	private int runs;
+
+	@GuardedBy("this")
+	private long baseNanoTime;
+
+	@GuardedBy("this")
+	private long executionThreadId;
+
+	@GuardedBy("this")
+	private long executionStartNanoTime;
+
+	/**
+	 * Creates a recorder without dependency edges.
+	 */
+	public TraceRecorder() {
+		graph = null;
+	}
+
+	/**
+	 * Creates a recorder that connects commands with their dependencies in the given graph.
+	 */
+	public TraceRecorder(CommandGraph graph) {
+		this.graph = Check.notNull(graph, "graph");
+	}
+
+	/**
+	 * Forgets all recorded executions.
+	 */
+	public synchronized void clear() {
+		spans.clear();
+		threadNames.clear();
+		startedAttempts.clear();
+		runs = 0;
+	}
+
+	@Override
+	public synchronized void executionStarted(List<CommandClass> commands, long nanoTime) {
+		if (runs == 0) {
+			baseNanoTime = nanoTime;
+		}
+		runs++;
+		startedAttempts.clear();
+		executionThreadId = threadOf(Thread.currentThread());
+		executionStartNanoTime = nanoTime;
+	}
+
+	@Override
+	public synchronized void commandStarted(CommandClass command, int attempt, long queuedNanoTime, long nanoTime) {
+		startedAttempts.put(command.getName(), new Started(threadOf(Thread.currentThread()), attempt, queuedNanoTime,
+				nanoTime));
+	}
+
+	@Override
+	public synchronized void commandRetried(CommandClass command, int attempt, ResultState resultState,
+			long backoffMillis, long startNanoTime, long nanoTime) {
+		addAttempt(command, attempt, resultState, startNanoTime, nanoTime, ",\"backoffMillis\":" + backoffMillis);
+	}
+
+	@Override
+	public synchronized void commandCompleted(CommandClass command, int attempt, ResultState resultState,
+			long startNanoTime, long nanoTime) {
+		addAttempt(command, attempt, resultState, startNanoTime, nanoTime, "");
+	}
+
+	@Override
+	public synchronized void commandCancelled(CommandClass command, long nanoTime) {
+		Started started = startedAttempts.remove(command.getName());
+		if (started != null) {
+			// the running attempt of an aborted execution has been interrupted
+			spans.add(new Span(runs, command.getName(), "queue", started.threadId, started.queuedNanoTime,
+					started.startNanoTime, "{}"));
+			spans.add(new Span(runs, command.getName(), "command", started.threadId, started.startNanoTime,
+					nanoTime, "{\"className\":" + Json.quote(command.getClassName()) + ",\"attempt\":"
+							+ started.attempt + ",\"result\":\"cancelled\"}"));
+		} else {
+			spans.add(new Span(runs, command.getName(), "cancelled", threadOf(Thread.currentThread()), nanoTime,
+					nanoTime, "{}"));
+		}
+	}
+
+	@Override
+	public synchronized void executionFinished(ComposedResultState result, long nanoTime) {
+		spans.add(new Span(runs, "Execution", "execution", executionThreadId, executionStartNanoTime, nanoTime,
+				"{\"commands\":" + (result.getExecutedCommands().size() + result.getCancelledCommands().size())
+						+ ",\"result\":" + resultOf(result) + "}"));
+	}
+
+	private void addAttempt(CommandClass command, int attempt, ResultState resultState, long startNanoTime,
+			long nanoTime, String moreArgs) {
+		Started started = startedAttempts.remove(command.getName());
+		if (started == null) {
+			// the backoff after the retried attempt has been interrupted, the attempt has been recorded already
+			return;
+		}
+		spans.add(new Span(runs, command.getName(), "queue", started.threadId, started.queuedNanoTime,
+				startNanoTime, "{}"));
+		spans.add(new Span(runs, command.getName(), "command", started.threadId, startNanoTime, nanoTime,
+				"{\"className\":" + Json.quote(command.getClassName()) + ",\"attempt\":" + attempt + ",\"result\":"
+						+ resultOf(resultState) + moreArgs + "}"));
+	}
+
+	private static String resultOf(ResultState resultState) {
+		return resultState.isSuccess() ? "\"success\"" : resultState.isWarning() ? "\"warning\"" : "\"failure\"";
+	}
+
+	@GuardedBy("this")
+	private long threadOf(Thread thread) {
+		Map<Long, String> names = threadNames.get(runs);
+		if (names == null) {
+			names = Maps.newTreeMap();
+			threadNames.put(runs, names);
+		}
+		names.put(thread.getId(), thread.getName());
+		return thread.getId();
+	}
+
+	/**
+	 * Writes all recorded executions as JSON object in the trace event format.
+	 */
+	public synchronized void write(Writer writer) throws IOException {
+		writer.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+		boolean first = true;
+		for (Map.Entry<Integer, Map<Long, String>> run : threadNames.entrySet()) {
+			first = writeEvent(writer, first, "{\"ph\":\"M\",\"name\":\"process_name\",\"pid\":" + run.getKey()
+					+ ",\"args\":{\"name\":\"Execution " + run.getKey() + "\"}}");
+			for (Map.Entry<Long, String> thread : run.getValue().entrySet()) {
+				first = writeEvent(writer, first, "{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":" + run.getKey()
+						+ ",\"tid\":" + thread.getKey() + ",\"args\":{\"name\":" + Json.quote(thread.getValue())
+						+ "}}");
+			}
+		}
+
+		Map<String, Span> firstAttempts = Maps.newHashMap();
+		Map<String, Span> lastAttempts = Maps.newHashMap();
+		int run = 0;
+		int asyncId = 0;
+		for (Span span : spans) {
+			if (span.run != run) {
+				first = writeFlows(writer, first, firstAttempts, lastAttempts);
+				firstAttempts.clear();
+				lastAttempts.clear();
+				run = span.run;
+			}
+			String common = "\"name\":" + Json.quote(span.name) + ",\"cat\":\"" + span.category + "\",\"pid\":"
+					+ span.run + ",\"ts\":" + micros(span.startNanoTime - baseNanoTime);
+			if ("queue".equals(span.category)) {
+				asyncId++;
+				first = writeEvent(writer, first, "{\"ph\":\"b\"," + common + ",\"tid\":" + span.threadId
+						+ ",\"id\":" + asyncId + "}");
+				first = writeEvent(writer, first, "{\"ph\":\"e\",\"name\":" + Json.quote(span.name)
+						+ ",\"cat\":\"queue\",\"pid\":" + span.run + ",\"tid\":" + span.threadId + ",\"ts\":"
+						+ micros(span.endNanoTime - baseNanoTime) + ",\"id\":" + asyncId + "}");
+			} else if ("cancelled".equals(span.category)) {
+				first = writeEvent(writer, first, "{\"ph\":\"i\"," + common + ",\"tid\":" + span.threadId
+						+ ",\"s\":\"t\"}");
+			} else {
+				first = writeEvent(writer, first, "{\"ph\":\"X\"," + common + ",\"tid\":" + span.threadId
+						+ ",\"dur\":" + micros(span.endNanoTime - span.startNanoTime) + ",\"args\":"
+						+ span.args + "}");
+				if ("command".equals(span.category)) {
+					if (!firstAttempts.containsKey(span.name)) {
+						firstAttempts.put(span.name, span);
+					}
+					lastAttempts.put(span.name, span);
+				}
+			}
+		}
+		writeFlows(writer, first, firstAttempts, lastAttempts);
+		writer.write("]}\n");
+		writer.flush();
+	}
+
+	/**
+	 * Writes all recorded executions as JSON object in the trace event format to the given file, replacing it.
+	 */
+	public void write(File file) throws IOException {
+		File temporaryFile = new File(Check.notNull(file, "file").getAbsoluteFile().getParentFile(), file.getName()
+				+ ".tmp");
+		Writer writer = Files.newWriter(temporaryFile, Charsets.UTF_8);
+		try {
+			write(writer);
+		} finally {
+			writer.close();
+		}
+		Files.move(temporaryFile, file);
+	}
+
+	@GuardedBy("this")
+	private boolean writeFlows(Writer writer, boolean first, Map<String, Span> firstAttempts,
+			Map<String, Span> lastAttempts) throws IOException {
+		if (graph == null) {
+			return first;
+		}
+		boolean firstEvent = first;
+		for (Span dependent : firstAttempts.values()) {
+			if (!graph.containsCommand(dependent.name)) {
+				continue;
+			}
+			for (CommandClass dependency : graph.getDependencies(dependent.name)) {
+				Span source = lastAttempts.get(dependency.getName());
+				if (source == null) {
+					continue;
+				}
+				String id = Json.quote(source.name + "->" + dependent.name + "@" + dependent.run);
+				firstEvent = writeEvent(writer, firstEvent, "{\"ph\":\"s\",\"name\":\"dependency\",\"cat\":"
+						+ "\"dependency\",\"pid\":" + source.run + ",\"tid\":" + source.threadId + ",\"ts\":"
+						+ micros(source.startNanoTime - baseNanoTime) + ",\"id\":" + id + "}");
+				firstEvent = writeEvent(writer, firstEvent, "{\"ph\":\"f\",\"bp\":\"e\",\"name\":\"dependency\","
+						+ "\"cat\":\"dependency\",\"pid\":" + dependent.run + ",\"tid\":" + dependent.threadId
+						+ ",\"ts\":" + micros(dependent.startNanoTime - baseNanoTime) + ",\"id\":" + id + "}");
+			}
+		}
+		return firstEvent;
+	}
+
+	private static boolean writeEvent(Writer writer, boolean first, String event) throws IOException {
+		if (!first) {
+			writer.write(",\n");
+		}
+		writer.write(event);
+		return false;
+	}
+
+	/**
+	 * @return the given nanoseconds as microseconds with nanosecond precision
+	 */
+	private static String micros(long nanos) {
+		String fraction = Long.toString(1000 + nanos % 1000).substring(1);
+		return nanos / 1000 + "." + fraction;
+	}
+
+	private static final class Started {
+
+		private final long threadId;
+		private final int attempt;
+		private final long queuedNanoTime;
+		private final long startNanoTime;
+
+		private Started(long threadId, int attempt, long queuedNanoTime, long startNanoTime) {
+			this.threadId = threadId;
+			this.attempt = attempt;
+			this.queuedNanoTime = queuedNanoTime;
+			this.startNanoTime = startNanoTime;
+		}
+
+	}
+
+	private static final class Span {
+
+		private final int run;
+		private final String name;
+		private final String category;
+		private final long threadId;
+		private final long startNanoTime;
+		private final long endNanoTime;
+		private final String args;
+
+		private Span(int run, String name, String category, long threadId, long startNanoTime, long endNanoTime,
+				String args) {
+			this.run = run;
+			this.name = name;
+			this.category = category;
+			this.threadId = threadId;
+			this.startNanoTime = startNanoTime;
+			this.endNanoTime = endNanoTime;
+			this.args = args;
+		}
+
+	}
+
+}
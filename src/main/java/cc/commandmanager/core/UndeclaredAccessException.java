@@ -0,0 +1,27 @@
+package cc.commandmanager.core;
+
+/**
+ * {@linkplain RuntimeException} indicating that an {@linkplain AccessDeclaringCommand} accessed a {@linkplain Context}
+ * key it did not declare. It is only thrown if the {@linkplain CommandManager} checks accesses, see
+ * {@linkplain CommandManager#setAccessChecking(boolean)}.
+ */
+public class UndeclaredAccessException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new {@linkplain UndeclaredAccessException} having a custom message containing the command, the key and
+	 * the kind of access.
+	 * 
+	 * @param command
+	 *            that accessed the key
+	 * @param key
+	 *            that has been accessed
+	 * @param write
+	 *            whether the key has been written or read
+	 */
+	public UndeclaredAccessException(Command command, Object key, boolean write) {
+		super("Command " + command.getClass().getName() + " " + (write ? "wrote" : "read") + " undeclared key " + key);
+	}
+
+}
@@ -0,0 +1,34 @@
+package cc.commandmanager.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes values of a certain type to a binary stream and reads them back. Codecs are registered at a
+ * {@linkplain ContextCodec} for the types of values that are bound to a {@linkplain Context}.
+ * <p>
+ * Implementations must read exactly the bytes they have written, as values are not delimited. They are not responsible
+ * for {@code null} values.
+ * 
+ * @param <T>
+ *            type of the values
+ */
+public interface ValueCodec<T> {
+
+	/**
+	 * @param value
+	 *            to be written, never {@code null}
+	 * @param output
+	 *            to write to
+	 */
+	void write(T value, DataOutput output) throws IOException;
+
+	/**
+	 * @param input
+	 *            positioned at a value written by {@linkplain #write(Object, DataOutput)}
+	 * @return the value read
+	 */
+	T read(DataInput input) throws IOException;
+
+}
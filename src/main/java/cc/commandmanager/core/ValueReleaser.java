@@ -0,0 +1,116 @@
+package cc.commandmanager.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Unbinds values from a {@linkplain Context} as soon as all commands of an execution that read or write them have
+ * completed or have been cancelled. Only values of keys written by a command of the same execution will be released,
+ * so values bound before the execution and results nobody reads remain bound. Released {@linkplain OffHeapRegion}s of
+ * the execution's {@linkplain OffHeapStore} are released immediately.
+ * <p>
+ * Values can only be released safely if every command of the execution declares its accesses, as any command might
+ * read any key otherwise. Writers are counted like readers, because in parallel execution nothing orders a reader
+ * after a writer it does not depend on, and a value bound after its readers completed would never be released. As
+ * unordered commands may complete in any order, the number of pending readers and writers of each key is counted
+ * down. Instances are not thread-safe and meant to be used by the coordinating thread of a single execution.
+ */
+final class ValueReleaser {
+
+	private static final Logger logger = Logger.getLogger(ValueReleaser.class);
+
+	private final ImmutableSetMultimap<CommandClass, Object> accessedKeys;
+	private final Map<Object, Integer> pendingConsumers = Maps.newHashMap();
+
+	private ValueReleaser(Map<CommandClass, AccessDeclaringCommand> declarations) {
+		Set<Object> readKeys = Sets.newHashSet();
+		Set<Object> writtenKeys = Sets.newHashSet();
+		for (AccessDeclaringCommand declaration : declarations.values()) {
+			readKeys.addAll(declaration.getReadKeys());
+			writtenKeys.addAll(declaration.getWrittenKeys());
+		}
+		Set<Object> releasedKeys = Sets.intersection(readKeys, writtenKeys);
+		ImmutableSetMultimap.Builder<CommandClass, Object> accesses = ImmutableSetMultimap.builder();
+		for (Map.Entry<CommandClass, AccessDeclaringCommand> declaration : declarations.entrySet()) {
+			AccessDeclaringCommand command = declaration.getValue();
+			for (Object key : Sets.union(command.getReadKeys(), command.getWrittenKeys())) {
+				if (releasedKeys.contains(key)) {
+					accesses.put(declaration.getKey(), key);
+					Integer pending = pendingConsumers.get(key);
+					pendingConsumers.put(key, pending == null ? 1 : pending + 1);
+				}
+			}
+		}
+		accessedKeys = accesses.build();
+	}
+
+	/**
+	 * @param commands
+	 *            of the execution. Every command will be instantiated once to obtain its declarations.
+	 * @return a new releaser or {@code null} if a command is not an {@linkplain AccessDeclaringCommand}, so no value
+	 *         can be released safely
+	 */
+	@Nullable
+	static ValueReleaser forCommands(List<CommandClass> commands) {
+		Map<CommandClass, AccessDeclaringCommand> declarations = Maps.newLinkedHashMap();
+		for (CommandClass command : commands) {
+			Command instance = command.newInstance();
+			if (!(instance instanceof AccessDeclaringCommand)) {
+				logger.warn("Consumed values will not be released, as " + command + " does not declare its accesses");
+				return null;
+			}
+			declarations.put(command, (AccessDeclaringCommand) instance);
+		}
+		return new ValueReleaser(declarations);
+	}
+
+	/**
+	 * @return number of commands that have to complete before the value of the given key will be released. Keys that
+	 *         will never be released are not contained.
+	 */
+	Map<Object, Integer> getPendingConsumers() {
+		return ImmutableMap.copyOf(pendingConsumers);
+	}
+
+	/**
+	 * Releases all values whose last reader or writer is the given command. Must be called exactly once for every
+	 * command of the execution, no matter whether it succeeded, failed or has been cancelled.
+	 */
+	void completed(CommandClass command, Context context) {
+		for (Object key : accessedKeys.get(command)) {
+			Integer pending = pendingConsumers.get(key);
+			if (pending == null) {
+				continue;
+			}
+			if (pending > 1) {
+				pendingConsumers.put(key, pending - 1);
+			} else {
+				pendingConsumers.remove(key);
+				release(key, context);
+			}
+		}
+	}
+
+	private static void release(Object key, Context context) {
+		if (!context.containsKey(key)) {
+			return;
+		}
+		Object value = context.snapshot().get(key, null);
+		context.unbind(key);
+		logger.debug("Released value of " + key + " after its last reader or writer completed");
+		if (value instanceof OffHeapRegion && context.containsKey(OffHeapStore.KEY)) {
+			OffHeapStore.of(context).release((OffHeapRegion) value);
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.MapAssert.entry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.commandmanager.core.CommandManagerTest.DeclaringCommand;
+
+import com.google.common.collect.ImmutableSet;
+
+public class AccessCheckingContextTest {
+
+	private Context context;
+	private Context checkingContext;
+
+	@Before
+	public void setUp() {
+		context = new ConcurrentContext();
+		context.bind("read", "read");
+		context.bind("secret", "secret");
+		checkingContext = AccessCheckingContext.of(context, new CheckedCommand());
+	}
+
+	@Test(expected = UndeclaredAccessException.class)
+	public void testGet_undeclaredKey() {
+		checkingContext.get("secret");
+	}
+
+	@Test
+	public void testFork_onlyReadableKeys() {
+		Context fork = checkingContext.fork();
+		assertThat(fork.get("read")).isEqualTo("read");
+		assertThat(fork.containsKey("secret")).isFalse();
+		assertThat(new Context(checkingContext).containsKey("secret")).isFalse();
+		assertThat(new ConcurrentContext(checkingContext).containsKey("secret")).isFalse();
+	}
+
+	@Test
+	public void testFork_mergeDeclaredWrite() {
+		Context fork = checkingContext.fork();
+		fork.bind("written", "written");
+
+		assertThat(checkingContext.merge(fork)).isEmpty();
+		assertThat(context.get("written")).isEqualTo("written");
+		assertThat(context.get("secret")).isEqualTo("secret");
+	}
+
+	@Test(expected = UndeclaredAccessException.class)
+	public void testFork_mergeUndeclaredWrite() {
+		Context fork = checkingContext.fork();
+		fork.bind("other", "other");
+		checkingContext.merge(fork);
+	}
+
+	@Test
+	public void testMerge_intoOtherContext() {
+		context.bind("concurrentSecret", "secret");
+		Context other = new Context();
+
+		assertThat(other.merge(checkingContext)).isEmpty();
+		assertThat(other.containsKey("concurrentSecret")).isFalse();
+	}
+
+	@Test
+	public void testAsMap_onlyReadableKeys() {
+		assertThat(checkingContext.asMap()).hasSize(1).includes(entry("read", "read"));
+	}
+
+	@Test
+	public void testEquals_onlyReadableKeys() {
+		Context readable = new Context();
+		readable.bind("read", "read");
+
+		assertThat(checkingContext.equals(context)).isFalse();
+		assertThat(checkingContext.equals(readable)).isTrue();
+		assertThat(readable.equals(checkingContext)).isTrue();
+		assertThat(checkingContext.hashCode()).isEqualTo(readable.hashCode());
+	}
+
+	@Test
+	public void testWrite_onlyReadableKeys() throws IOException {
+		ContextCodec codec = ContextCodec.builder().build();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		codec.write(checkingContext, new DataOutputStream(bytes));
+
+		Context read = new Context();
+		codec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), read);
+		assertThat(read.get("read")).isEqualTo("read");
+		assertThat(read.containsKey("secret")).isFalse();
+	}
+
+	static class CheckedCommand extends DeclaringCommand {
+
+		CheckedCommand() {
+			super(ImmutableSet.<Object> of("read"), ImmutableSet.<Object> of("written"));
+		}
+
+		@Override
+		public ResultState execute(Context context) {
+			return ResultState.success();
+		}
+
+	}
+
+}
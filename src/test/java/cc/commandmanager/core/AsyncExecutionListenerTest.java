@@ -0,0 +1,244 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.Flushable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import cc.commandmanager.core.CommandGraph.CommandGraphBuilder;
+
+import com.google.common.collect.Lists;
+
+public class AsyncExecutionListenerTest {
+
+	private static final CommandClass COMMAND = new CommandClass("Command",
+			CommandManagerTest.SuccessfulCommand.class.getName());
+
+	private AsyncExecutionListener asyncListener;
+
+	@After
+	public void tearDown() {
+		if (asyncListener != null) {
+			asyncListener.close();
+		}
+	}
+
+	@Test
+	public void testDelivery() {
+		RecordingListener listener = new RecordingListener();
+		asyncListener = AsyncExecutionListener.builder(listener).build();
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Success", CommandManagerTest.SuccessfulCommand.class.getName());
+		builder.addCommand("Failure", CommandManagerTest.FailingCommand.class.getName());
+		builder.addCommand("Dependent", CommandManagerTest.SuccessfulCommand.class.getName());
+		builder.addMandatoryDependency("Failure", "Success");
+		builder.addMandatoryDependency("Dependent", "Failure");
+		CommandManager manager = new CommandManager(builder.build());
+		manager.addExecutionListener(asyncListener);
+
+		manager.executeAllCommands();
+		asyncListener.close();
+
+		assertThat(listener.events).containsExactly("executionStarted", "commandStarted Success",
+				"commandCompleted Success", "commandStarted Failure", "commandCompleted Failure",
+				"commandCancelled Dependent", "executionFinished");
+		assertThat(asyncListener.getDeliveredEvents()).isEqualTo(7);
+		assertThat(asyncListener.getDroppedEvents()).isEqualTo(0);
+		assertThat(listener.flushes).isGreaterThan(0);
+	}
+
+	@Test
+	public void testDelivery_concurrentProducers() throws InterruptedException {
+		RecordingListener listener = new RecordingListener();
+		asyncListener = AsyncExecutionListener.builder(listener).capacity(16).overflowPolicy(OverflowPolicy.BLOCK)
+				.batchSize(4).build();
+		List<Thread> producers = Lists.newArrayList();
+		for (int i = 0; i < 4; i++) {
+			producers.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						asyncListener.commandStarted(COMMAND, j, 0, System.nanoTime());
+					}
+				}
+
+			}));
+		}
+		for (Thread producer : producers) {
+			producer.start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		asyncListener.close();
+
+		assertThat(listener.events).hasSize(4000);
+		assertThat(asyncListener.getDeliveredEvents()).isEqualTo(4000);
+		assertThat(asyncListener.getDroppedEvents()).isEqualTo(0);
+	}
+
+	@Test
+	public void testOverflow_drop() throws InterruptedException {
+		BlockingListener listener = new BlockingListener();
+		asyncListener = AsyncExecutionListener.builder(listener).capacity(4).build();
+
+		asyncListener.commandCancelled(COMMAND, 0);
+		assertThat(listener.started.await(10, TimeUnit.SECONDS)).isTrue();
+		for (int i = 0; i < 10; i++) {
+			asyncListener.commandCancelled(COMMAND, 0);
+		}
+		listener.release.countDown();
+		asyncListener.close();
+
+		assertThat(asyncListener.getDroppedEvents()).isEqualTo(7);
+		assertThat(asyncListener.getDeliveredEvents()).isEqualTo(4);
+	}
+
+	@Test
+	public void testOverflow_sample() throws InterruptedException {
+		BlockingListener listener = new BlockingListener();
+		asyncListener = AsyncExecutionListener.builder(listener).capacity(8).overflowPolicy(OverflowPolicy.SAMPLE)
+				.sampleInterval(2).build();
+
+		asyncListener.commandCancelled(COMMAND, 0);
+		assertThat(listener.started.await(10, TimeUnit.SECONDS)).isTrue();
+		for (int i = 0; i < 8; i++) {
+			asyncListener.commandCancelled(COMMAND, 0);
+		}
+		listener.release.countDown();
+		asyncListener.close();
+
+		assertThat(asyncListener.getDeliveredEvents()).isEqualTo(6);
+		assertThat(asyncListener.getDroppedEvents()).isEqualTo(3);
+	}
+
+	@Test
+	public void testClose_dropsLaterEvents() {
+		asyncListener = AsyncExecutionListener.builder(new RecordingListener()).build();
+		asyncListener.close();
+		asyncListener.commandCancelled(COMMAND, 0);
+		asyncListener.close();
+		assertThat(asyncListener.getDroppedEvents()).isEqualTo(1);
+	}
+
+	@Test
+	public void testClose_concurrentProducers() throws InterruptedException {
+		RecordingListener listener = new RecordingListener();
+		asyncListener = AsyncExecutionListener.builder(listener).capacity(16).overflowPolicy(OverflowPolicy.BLOCK)
+				.build();
+		final CountDownLatch started = new CountDownLatch(4);
+		List<Thread> producers = Lists.newArrayList();
+		for (int i = 0; i < 4; i++) {
+			producers.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					started.countDown();
+					for (int j = 0; j < 10000; j++) {
+						asyncListener.commandCancelled(COMMAND, j);
+					}
+				}
+
+			}));
+		}
+		for (Thread producer : producers) {
+			producer.start();
+		}
+		started.await();
+		asyncListener.close();
+		for (Thread producer : producers) {
+			producer.join();
+		}
+
+		assertThat(listener.events).hasSize((int) asyncListener.getDeliveredEvents());
+		assertThat(asyncListener.getDeliveredEvents() + asyncListener.getDroppedEvents()).isEqualTo(40000);
+	}
+
+	@Test
+	public void testFailingListener() {
+		asyncListener = AsyncExecutionListener.builder(new ExecutionListenerAdapter() {
+
+			@Override
+			public void commandCancelled(CommandClass command, long nanoTime) {
+				throw new IllegalStateException("Failing listener");
+			}
+
+		}).build();
+		asyncListener.commandCancelled(COMMAND, 0);
+		asyncListener.commandCancelled(COMMAND, 0);
+		asyncListener.close();
+		assertThat(asyncListener.getDeliveredEvents()).isEqualTo(2);
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testCapacity_notPowerOfTwo() {
+		AsyncExecutionListener.builder(new RecordingListener()).capacity(1000);
+	}
+
+	private static class RecordingListener extends ExecutionListenerAdapter implements Flushable {
+
+		private final List<String> events = Lists.newArrayList();
+		private int flushes;
+
+		@Override
+		public void executionStarted(List<CommandClass> commands, long nanoTime) {
+			events.add("executionStarted");
+		}
+
+		@Override
+		public void commandStarted(CommandClass command, int attempt, long queuedNanoTime, long nanoTime) {
+			events.add("commandStarted " + command.getName());
+		}
+
+		@Override
+		public void commandCompleted(CommandClass command, int attempt, ResultState resultState,
+				long startNanoTime, long nanoTime) {
+			events.add("commandCompleted " + command.getName());
+		}
+
+		@Override
+		public void commandCancelled(CommandClass command, long nanoTime) {
+			events.add("commandCancelled " + command.getName());
+		}
+
+		@Override
+		public void executionFinished(ComposedResultState result, long nanoTime) {
+			events.add("executionFinished");
+		}
+
+		@Override
+		public void flush() {
+			flushes++;
+		}
+
+	}
+
+	/**
+	 * Blocks delivering the first event until it is released.
+	 */
+	private static class BlockingListener extends ExecutionListenerAdapter {
+
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public void commandCancelled(CommandClass command, long nanoTime) {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+	}
+
+}
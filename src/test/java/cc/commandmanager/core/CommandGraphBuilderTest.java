@@ -205,4 +205,66 @@ public class CommandGraphBuilderTest {
 
 	}
 
+	@Test
+	public void testAccessConflictPolicy_reject() {
+		addConflictingCommands();
+		builder.setAccessConflictPolicy(AccessConflictPolicy.REJECT);
+		try {
+			builder.build();
+		} catch (AccessConflictException e) {
+			CommandClass producer = new CommandClass("Producer", CommandManagerTest.ProducerCommand.class.getName());
+			CommandClass consumer = new CommandClass("Consumer",
+					CommandManagerTest.FirstConsumerCommand.class.getName());
+			assertThat(e.getConflicts()).containsOnly(new AccessConflict(producer, consumer, "data"));
+			return;
+		}
+		throw new AssertionError("AccessConflictException expected");
+	}
+
+	@Test
+	public void testAccessConflictPolicy_addDependencies() {
+		addConflictingCommands();
+		builder.setAccessConflictPolicy(AccessConflictPolicy.ADD_DEPENDENCIES);
+		CommandGraph graph = builder.build();
+		assertThat(graph.getOptionalDependencies("Consumer")).containsOnly(graph.getCommandClass("Producer"));
+		assertThat(graph.getDependencies("Producer")).isEmpty();
+	}
+
+	@Test
+	public void testAccessConflictPolicy_addDependenciesTransitively() {
+		builder.addCommand("First", CommandManagerTest.ProducerCommand.class.getName());
+		builder.addCommand("Second", CommandManagerTest.ProducerCommand.class.getName());
+		builder.addCommand("Third", CommandManagerTest.ProducerCommand.class.getName());
+		builder.addCommand("Reader", CommandManagerTest.LastConsumerCommand.class.getName());
+		builder.addMandatoryDependency("Second", "Reader");
+		builder.setAccessConflictPolicy(AccessConflictPolicy.ADD_DEPENDENCIES);
+		CommandGraph graph = builder.build();
+
+		assertThat(graph.getDependencies("Third")).containsOnly(graph.getCommandClass("First"));
+		assertThat(graph.getDependencies("Reader")).containsOnly(graph.getCommandClass("First"),
+				graph.getCommandClass("Third"));
+		assertThat(graph.getDependencies("Second")).containsOnly(graph.getCommandClass("Reader"));
+	}
+
+	@Test
+	public void testAccessConflictPolicy_orderedCommands() {
+		addConflictingCommands();
+		builder.addMandatoryDependency("Consumer", "Producer");
+		builder.setAccessConflictPolicy(AccessConflictPolicy.REJECT);
+		assertThat(builder.build().getMandatoryDependencies("Consumer")).hasSize(1);
+	}
+
+	@Test
+	public void testAccessConflictPolicy_ignoredByDefault() {
+		addConflictingCommands();
+		assertThat(builder.build().getDependencies("Consumer")).isEmpty();
+	}
+
+	private void addConflictingCommands() {
+		builder.addCommand("Producer", CommandManagerTest.ProducerCommand.class.getName());
+		builder.addCommand("Consumer", CommandManagerTest.FirstConsumerCommand.class.getName());
+		builder.addCommand("OtherConsumer", CommandManagerTest.LastConsumerCommand.class.getName());
+		builder.addMandatoryDependency("OtherConsumer", "Producer");
+	}
+
 }
@@ -3,6 +3,14 @@ package cc.commandmanager.core;
 import static cc.commandmanager.testutils.Assertions.assertThatExecution;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.fest.assertions.Fail.fail;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
 
 import org.junit.Before;
@@ -11,7 +19,9 @@ import org.junit.Test;
 import cc.commandmanager.core.CommandGraph.CommandGraphBuilder;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 public class CommandManagerTest {
 
@@ -93,6 +103,26 @@ public class CommandManagerTest {
 				.isCompletedSuccessfully();
 	}
 
+	@Test(timeout = 10000)
+	public void testExecuteCommandsGracefully_manyPaths() {
+		// 40 layers of 2 commands, every command depends on both commands of the previous layer, so there are 2^40
+		// paths from the last command to the first layer
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		for (int i = 79; i >= 0; i--) {
+			builder.addCommand("c" + i, SuccessfulCommand.class.getName());
+		}
+		for (int i = 2; i < 80; i++) {
+			builder.addMandatoryDependency("c" + i, "c" + (i / 2 * 2 - 2));
+			builder.addMandatoryDependency("c" + i, "c" + (i / 2 * 2 - 1));
+		}
+
+		ComposedResultState result = new CommandManager(builder.build()).executeCommandsGracefully("c79");
+
+		assertThat(result.getExecutedCommands()).hasSize(79);
+		assertThat(result.getExecutedCommands()).excludes(
+				new CommandClass("c78", SuccessfulCommand.class.getName()));
+	}
+
 	public static class GracefulDependency extends SimpleCommand {
 
 		@Override
@@ -169,6 +199,730 @@ public class CommandManagerTest {
 		CommandManager.executeCommands(new CommandGraphBuilder().build());
 	}
 
+	@Test
+	public void testRetryUntilSuccess() {
+		FlakyCommand.remainingFailures = 2;
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Flaky", FlakyCommand.class.getName());
+		CommandClass flaky = new CommandClass("Flaky", FlakyCommand.class.getName());
+
+		ComposedResultState result = new CommandManager(builder.build()).executeAllCommands();
+
+		assertThatExecution(result).isCompletedSuccessfully();
+		assertThat(result.getResultStates()).containsExactly(ResultState.success());
+		assertThat(result.getAttempts(flaky)).containsExactly(ResultState.failure("Flaky!"),
+				ResultState.failure("Flaky!"), ResultState.success());
+	}
+
+	@Test
+	public void testRetryExhausted() {
+		FlakyCommand.remainingFailures = 5;
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Flaky", FlakyCommand.class.getName());
+		builder.addCommand("Dependent", SuccessfulCommand.class.getName());
+		builder.addMandatoryDependency("Dependent", "Flaky");
+
+		ComposedResultState result = new CommandManager(builder.build()).executeAllCommands();
+
+		assertThat(result.isFailure()).isTrue();
+		assertThat(result.getExecutedCommands()).containsExactly(
+				new CommandClass("Flaky", FlakyCommand.class.getName()));
+		assertThat(result.getAttempts(new CommandClass("Flaky", FlakyCommand.class.getName()))).hasSize(3);
+		assertThat(FlakyCommand.remainingFailures).isEqualTo(2);
+	}
+
+	@Test
+	public void testRetryInterruptedDuringBackoff() {
+		FlakyCommand.remainingFailures = 5;
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Flaky", FlakyCommand.class.getName());
+		CommandManager manager = new CommandManager(builder.build());
+		manager.addExecutionListener(new ExecutionListenerAdapter() {
+
+			@Override
+			public void commandRetried(CommandClass command, int attempt, ResultState resultState,
+					long backoffMillis, long startNanoTime, long nanoTime) {
+				Thread.currentThread().interrupt();
+			}
+
+		});
+
+		try {
+			manager.executeAllCommands();
+			fail("Expected an ExecutionInterruptedException");
+		} catch (ExecutionInterruptedException expected) {
+			assertThat(Thread.interrupted()).isTrue();
+		}
+		assertThat(FlakyCommand.remainingFailures).isEqualTo(4);
+	}
+
+	@Test
+	public void testNoRetryForPlainCommands() {
+		ComposedResultState result = commandManager.executeAllCommands();
+		assertThat(result.getAttempts(new CommandClass("Failure", FailingCommand.class.getName()))).containsExactly(
+				ResultState.failure("Fail!"));
+	}
+
+	@Test
+	public void testKeepGoingCancelsOnlyDependents() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Failure", FailingCommand.class.getName());
+		builder.addCommand("Dependent", SuccessfulCommand.class.getName());
+		builder.addCommand("Transitive", SuccessfulCommand.class.getName());
+		builder.addCommand("Independent", SuccessfulCommand.class.getName());
+		builder.addMandatoryDependency("Dependent", "Failure");
+		builder.addMandatoryDependency("Transitive", "Dependent");
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setFailurePolicy(FailurePolicy.KEEP_GOING);
+
+		for (int parallelism : new int[] { 1, 3 }) {
+			manager.setParallelism(parallelism);
+			ComposedResultState result = manager.executeAllCommands(new Context());
+
+			assertThat(result.isFailure()).isTrue();
+			assertThat(result.getExecutedCommands()).containsOnly(
+					new CommandClass("Failure", FailingCommand.class.getName()),
+					new CommandClass("Independent", SuccessfulCommand.class.getName()));
+			assertThat(result.getCancelledCommands()).containsOnly(
+					new CommandClass("Dependent", SuccessfulCommand.class.getName()),
+					new CommandClass("Transitive", SuccessfulCommand.class.getName()));
+		}
+	}
+
+	@Test
+	public void testFailFastReportsCancelledCommands() {
+		ComposedResultState result = commandManager.executeAllCommands();
+		assertThat(result.getCancelledCommands()).isEmpty();
+
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Failure", FailingCommand.class.getName());
+		builder.addCommand("Dependent", SuccessfulCommand.class.getName());
+		builder.addMandatoryDependency("Dependent", "Failure");
+		result = new CommandManager(builder.build()).executeAllCommands();
+		assertThat(result.getCancelledCommands()).containsExactly(
+				new CommandClass("Dependent", SuccessfulCommand.class.getName()));
+	}
+
+	@Test
+	public void testParallelExecutionRespectsDependencies() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		for (int i = 0; i < 8; i++) {
+			builder.addCommand("Command" + i, RecordingCommand.class.getName());
+			if (i > 1) {
+				builder.addMandatoryDependency("Command" + i, "Command" + (i / 2));
+			}
+		}
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setParallelism(4);
+		Context context = new ConcurrentContext();
+		context.bind(RecordingCommand.EXECUTIONS, new ConcurrentLinkedQueue<Object>());
+
+		ComposedResultState result = manager.executeAllCommands(context);
+
+		assertThatExecution(result).isCompletedSuccessfully();
+		assertThat(result.getExecutedCommands()).hasSize(8);
+		List<CommandClass> executionOrder = result.getExecutedCommands();
+		for (int i = 2; i < 8; i++) {
+			assertThat(executionOrder.indexOf(new CommandClass("Command" + i, RecordingCommand.class.getName())))
+					.isGreaterThan(
+							executionOrder.indexOf(new CommandClass("Command" + (i / 2), RecordingCommand.class
+									.getName())));
+		}
+		assertThat(context.get(RecordingCommand.EXECUTIONS, Collection.class)).hasSize(8);
+	}
+
+	@Test(timeout = 10000)
+	public void testParallelFailFastInterruptsRunningCommands() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Slow", SlowCommand.class.getName());
+		builder.addCommand("Failure", FailingCommand.class.getName());
+		builder.addCommand("Dependent", SuccessfulCommand.class.getName());
+		builder.addMandatoryDependency("Dependent", "Failure");
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setParallelism(2);
+
+		ComposedResultState result = manager.executeAllCommands();
+
+		assertThat(result.getExecutedCommands()).containsExactly(
+				new CommandClass("Failure", FailingCommand.class.getName()));
+		assertThat(result.getCancelledCommands()).containsOnly(
+				new CommandClass("Slow", SlowCommand.class.getName()),
+				new CommandClass("Dependent", SuccessfulCommand.class.getName()));
+	}
+
+	@Test(timeout = 10000)
+	public void testParallelFailFastKeepsCompletedCommands() {
+		AwaitingCommand.failureHandled = new CountDownLatch(1);
+		AwaitingCommand.returned = new CountDownLatch(1);
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Failure", FailingCommand.class.getName());
+		builder.addCommand("Awaiting", AwaitingCommand.class.getName());
+		builder.addCommand("Dependent", SuccessfulCommand.class.getName());
+		builder.addMandatoryDependency("Dependent", "Failure");
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setParallelism(2);
+		manager.addExecutionListener(new ExecutionListenerAdapter() {
+
+			@Override
+			public void commandCompleted(CommandClass command, int attempt, ResultState resultState,
+					long startNanoTime, long nanoTime) {
+				if (command.getName().equals("Failure")) {
+					// let the other command complete before the execution is aborted
+					AwaitingCommand.failureHandled.countDown();
+					Uninterruptibles.awaitUninterruptibly(AwaitingCommand.returned);
+					Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+				}
+			}
+
+		});
+
+		ComposedResultState result = manager.executeAllCommands();
+
+		assertThat(result.getExecutedCommands()).containsOnly(
+				new CommandClass("Failure", FailingCommand.class.getName()),
+				new CommandClass("Awaiting", AwaitingCommand.class.getName()));
+		assertThat(result.getCancelledCommands()).containsOnly(
+				new CommandClass("Dependent", SuccessfulCommand.class.getName()));
+	}
+
+	@Test
+	public void testParallelRetry() {
+		FlakyCommand.remainingFailures = 2;
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Flaky", FlakyCommand.class.getName());
+		builder.addCommand("Other", SuccessfulCommand.class.getName());
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setParallelism(2);
+
+		ComposedResultState result = manager.executeAllCommands();
+
+		assertThatExecution(result).isCompletedSuccessfully();
+		assertThat(result.getAttempts(new CommandClass("Flaky", FlakyCommand.class.getName()))).hasSize(3);
+	}
+
+	@Test
+	public void testReleaseConsumedValues() {
+		Context context = new Context();
+		context.bind("input", "input");
+		CommandManager manager = new CommandManager(declaringConsumerGraphBuilder().build());
+		manager.setReleaseConsumedValues(true);
+
+		assertThatExecution(manager.executeAllCommands(context)).isCompletedSuccessfully();
+		assertThat(context.getBoolean("dataBoundBeforeLastConsumer")).isTrue();
+		assertThat(context.containsKey("data")).isFalse();
+		assertThat(context.containsKey("input")).isTrue();
+	}
+
+	@Test
+	public void testReleaseConsumedValues_parallel() {
+		Context context = new ConcurrentContext();
+		context.bind("input", "input");
+		CommandManager manager = new CommandManager(declaringConsumerGraphBuilder().build());
+		manager.setReleaseConsumedValues(true);
+		manager.setParallelism(2);
+
+		assertThatExecution(manager.executeAllCommands(context)).isCompletedSuccessfully();
+		assertThat(context.containsKey("data")).isFalse();
+		assertThat(context.containsKey("input")).isTrue();
+	}
+
+	@Test
+	public void testReleaseConsumedValues_undeclaredCommand() {
+		Context context = new Context();
+		context.bind("input", "input");
+		CommandManager manager = new CommandManager(consumerGraph());
+		manager.setReleaseConsumedValues(true);
+
+		assertThatExecution(manager.executeAllCommands(context)).isCompletedSuccessfully();
+		assertThat(context.getBoolean("dataBoundAfterLastConsumer")).isTrue();
+		assertThat(context.containsKey("data")).isTrue();
+	}
+
+	@Test
+	public void testReleaseConsumedValues_disabledByDefault() {
+		Context context = new Context();
+		context.bind("input", "input");
+		new CommandManager(consumerGraph()).executeAllCommands(context);
+		assertThat(context.getBoolean("dataBoundAfterLastConsumer")).isTrue();
+	}
+
+	@Test
+	public void testAccessChecking() {
+		Context context = new Context();
+		context.bind("input", "input");
+		CommandManager manager = new CommandManager(consumerGraph());
+		manager.setAccessChecking(true);
+		assertThatExecution(manager.executeAllCommands(context)).isCompletedSuccessfully();
+	}
+
+	@Test(expected = UndeclaredAccessException.class)
+	public void testAccessChecking_undeclaredWrite() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Undeclared", UndeclaredWriteCommand.class.getName());
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setAccessChecking(true);
+		manager.executeAllCommands();
+	}
+
+	@Test
+	public void testAccessChecking_disabledByDefault() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Undeclared", UndeclaredWriteCommand.class.getName());
+		assertThatExecution(new CommandManager(builder.build()).executeAllCommands()).isCompletedSuccessfully();
+	}
+
+	@Test
+	public void testTransactional() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Partial", PartiallyFailingCommand.class.getName());
+		builder.addCommand("Warning", BindingWarningCommand.class.getName());
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setFailurePolicy(FailurePolicy.KEEP_GOING);
+		manager.setTransactional(true);
+
+		for (int parallelism : new int[] { 1, 2 }) {
+			manager.setParallelism(parallelism);
+			Context context = new ConcurrentContext();
+
+			assertThat(manager.executeAllCommands(context).isFailure()).isTrue();
+			assertThat(context.containsKey("partial")).isFalse();
+			assertThat(context.getString("warning")).isEqualTo("warning");
+		}
+	}
+
+	@Test
+	public void testTransactional_disabledByDefault() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Partial", PartiallyFailingCommand.class.getName());
+		Context context = new Context();
+		new CommandManager(builder.build()).executeAllCommands(context);
+		assertThat(context.getString("partial")).isEqualTo("partial");
+	}
+
+	@Test
+	public void testTransactional_retryDiscardsFailedAttempts() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Flaky", FlakyBindingCommand.class.getName());
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setTransactional(true);
+
+		for (int parallelism : new int[] { 1, 2 }) {
+			FlakyBindingCommand.remainingFailures = 2;
+			manager.setParallelism(parallelism);
+			Context context = new ConcurrentContext();
+
+			assertThatExecution(manager.executeAllCommands(context)).isCompletedSuccessfully();
+			assertThat(context.getInteger("attempt")).isEqualTo(3);
+		}
+	}
+
+	@Test
+	public void testTransactional_conflictingCommit() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("First", BindingWarningCommand.class.getName());
+		builder.addCommand("Second", OverwritingCommand.class.getName());
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setFailurePolicy(FailurePolicy.KEEP_GOING);
+		manager.setTransactional(true);
+		manager.setParallelism(2);
+		Context context = new ConcurrentContext();
+
+		ComposedResultState result = manager.executeAllCommands(context);
+
+		assertThat(result.isFailure()).isTrue();
+		assertThat(result.getResultStates()).hasSize(2);
+		assertThat(context.getString("warning")).isIn("warning", "overwritten");
+	}
+
+	@Test
+	public void testExecutionListener() {
+		FlakyCommand.remainingFailures = 1;
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Flaky", FlakyCommand.class.getName());
+		builder.addCommand("Failure", FailingCommand.class.getName());
+		builder.addCommand("Dependent", SuccessfulCommand.class.getName());
+		builder.addMandatoryDependency("Failure", "Flaky");
+		builder.addMandatoryDependency("Dependent", "Failure");
+		CommandManager manager = new CommandManager(builder.build());
+		RecordingListener listener = new RecordingListener();
+		manager.addExecutionListener(listener);
+
+		for (int parallelism : new int[] { 1, 2 }) {
+			FlakyCommand.remainingFailures = 1;
+			listener.events.clear();
+			manager.setParallelism(parallelism);
+			manager.executeAllCommands(new ConcurrentContext());
+
+			assertThat(listener.events).containsExactly("executionStarted 3", "commandStarted Flaky 1",
+					"commandRetried Flaky 1 Flaky!", "commandStarted Flaky 2", "commandCompleted Flaky 2 true",
+					"commandStarted Failure 1", "commandCompleted Failure 1 false", "commandCancelled Dependent",
+					"executionFinished true");
+		}
+	}
+
+	@Test
+	public void testExecutionListener_registration() {
+		assertThat(commandManager.getExecutionListeners()).hasSize(1);
+		ExecutionListener logging = commandManager.getExecutionListeners().get(0);
+		assertThat(logging).isInstanceOf(LoggingExecutionListener.class);
+		RecordingListener listener = new RecordingListener();
+		commandManager.addExecutionListener(listener);
+		assertThat(commandManager.getExecutionListeners()).containsExactly(logging, listener);
+
+		assertThat(commandManager.removeExecutionListener(logging)).isTrue();
+		assertThat(commandManager.removeExecutionListener(logging)).isFalse();
+		assertThat(commandManager.getExecutionListeners()).containsExactly(listener);
+	}
+
+	private static CommandGraph consumerGraph() {
+		CommandGraphBuilder builder = declaringConsumerGraphBuilder();
+		builder.addCommand("Checker", CheckerCommand.class.getName());
+		builder.addMandatoryDependency("Checker", "LastConsumer");
+		return builder.build();
+	}
+
+	/**
+	 * @return builder of a graph whose commands all declare their accesses
+	 */
+	private static CommandGraphBuilder declaringConsumerGraphBuilder() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Producer", ProducerCommand.class.getName());
+		builder.addCommand("FirstConsumer", FirstConsumerCommand.class.getName());
+		builder.addCommand("LastConsumer", LastConsumerCommand.class.getName());
+		builder.addMandatoryDependency("FirstConsumer", "Producer");
+		builder.addMandatoryDependency("LastConsumer", "FirstConsumer");
+		return builder;
+	}
+
+	@Test
+	public void testResourceAccounting() {
+		FlakyCommand.remainingFailures = 1;
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Allocating", AllocatingCommand.class.getName());
+		builder.addCommand("Flaky", FlakyCommand.class.getName());
+		CommandClass allocating = new CommandClass("Allocating", AllocatingCommand.class.getName());
+		CommandClass flaky = new CommandClass("Flaky", FlakyCommand.class.getName());
+
+		for (int parallelism = 1; parallelism <= 2; parallelism++) {
+			FlakyCommand.remainingFailures = 1;
+			CommandManager manager = new CommandManager(builder.build());
+			manager.setParallelism(parallelism);
+			manager.setResourceAccounting(true);
+			ComposedResultState result = manager.executeAllCommands();
+
+			ResourceUsage usage = result.getResourceUsage(allocating);
+			assertThat(usage).isNotNull();
+			assertThat(usage.getCpuTimeNanos()).isGreaterThanOrEqualTo(-1);
+			if (usage.getAllocatedBytes() >= 0) {
+				assertThat(usage.getAllocatedBytes()).isGreaterThanOrEqualTo(AllocatingCommand.BYTES);
+			}
+			assertThat(usage.getWaitedCount()).isGreaterThanOrEqualTo(0);
+			assertThat(result.getResourceUsage(flaky)).isNotNull();
+		}
+	}
+
+	@Test
+	public void testResourceAccounting_disabled() {
+		ComposedResultState result = commandManager.executeAllCommands();
+		assertThat(result.getResourceUsage(result.getExecutedCommands().get(0))).isNull();
+	}
+
+	@Test
+	public void testGcAccounting() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Collecting", CollectingCommand.class.getName());
+		builder.addCommand("Allocating", AllocatingCommand.class.getName());
+		CommandClass collecting = new CommandClass("Collecting", CollectingCommand.class.getName());
+
+		for (int parallelism = 1; parallelism <= 2; parallelism++) {
+			CommandManager manager = new CommandManager(builder.build());
+			manager.setParallelism(parallelism);
+			manager.setGcAccounting(true);
+			ComposedResultState result = manager.executeAllCommands();
+
+			assertThat(result.getGcPauseNanos()).isGreaterThanOrEqualTo(0);
+			assertThat(result.getGcPauseNanos(collecting)).isGreaterThanOrEqualTo(0);
+			assertThat(result.getGcPauseNanos(collecting)).isLessThanOrEqualTo(result.getGcPauseNanos());
+		}
+	}
+
+	@Test
+	public void testGcAccounting_disabled() {
+		ComposedResultState result = commandManager.executeAllCommands();
+		assertThat(result.getGcPauseNanos()).isEqualTo(-1);
+		assertThat(result.getGcPauseNanos(result.getExecutedCommands().get(0))).isEqualTo(-1);
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testSetParallelism_lowerThanOne() {
+		commandManager.setParallelism(0);
+	}
+
+	private static class RecordingListener extends ExecutionListenerAdapter {
+
+		private final List<String> events = Lists.newArrayList();
+
+		@Override
+		public synchronized void executionStarted(List<CommandClass> commands, long nanoTime) {
+			events.add("executionStarted " + commands.size());
+		}
+
+		@Override
+		public synchronized void commandStarted(CommandClass command, int attempt, long queuedNanoTime,
+				long nanoTime) {
+			assertThat(nanoTime).isGreaterThanOrEqualTo(queuedNanoTime);
+			events.add("commandStarted " + command.getName() + " " + attempt);
+		}
+
+		@Override
+		public synchronized void commandRetried(CommandClass command, int attempt, ResultState resultState,
+				long backoffMillis, long startNanoTime, long nanoTime) {
+			assertThat(nanoTime).isGreaterThanOrEqualTo(startNanoTime);
+			events.add("commandRetried " + command.getName() + " " + attempt + " " + resultState.getMessage());
+		}
+
+		@Override
+		public synchronized void commandCompleted(CommandClass command, int attempt, ResultState resultState,
+				long startNanoTime, long nanoTime) {
+			assertThat(nanoTime).isGreaterThanOrEqualTo(startNanoTime);
+			events.add("commandCompleted " + command.getName() + " " + attempt + " " + resultState.isSuccess());
+		}
+
+		@Override
+		public synchronized void commandCancelled(CommandClass command, long nanoTime) {
+			events.add("commandCancelled " + command.getName());
+		}
+
+		@Override
+		public synchronized void executionFinished(ComposedResultState result, long nanoTime) {
+			events.add("executionFinished " + result.isFailure());
+		}
+
+	}
+
+	public static class RecordingCommand extends SimpleCommand {
+
+		static final String EXECUTIONS = "executions";
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public ResultState execute(Context context) {
+			context.get(EXECUTIONS, Collection.class).add(this);
+			return ResultState.success();
+		}
+
+	}
+
+	public static class AllocatingCommand extends SimpleCommand {
+
+		static final int BYTES = 1 << 20;
+
+		@Override
+		public ResultState execute(Context context) {
+			context.bind("bytes", new byte[BYTES]);
+			return ResultState.success();
+		}
+
+	}
+
+	public static class CollectingCommand extends SimpleCommand {
+
+		@Override
+		public ResultState execute(Context context) {
+			System.gc();
+			return ResultState.success();
+		}
+
+	}
+
+	public static class SlowCommand extends SimpleCommand {
+
+		@Override
+		public ResultState execute(Context context) {
+			try {
+				Thread.sleep(60000);
+			} catch (InterruptedException e) {
+				return ResultState.failure("Interrupted!", e);
+			}
+			return ResultState.success();
+		}
+
+	}
+
+	public static class AwaitingCommand extends SimpleCommand {
+
+		static CountDownLatch failureHandled;
+		static CountDownLatch returned;
+
+		@Override
+		public ResultState execute(Context context) {
+			Uninterruptibles.awaitUninterruptibly(failureHandled);
+			returned.countDown();
+			return ResultState.success();
+		}
+
+	}
+
+	public static class FlakyCommand extends SimpleCommand implements RetryableCommand {
+
+		static int remainingFailures;
+
+		@Override
+		public ResultState execute(Context context) {
+			if (remainingFailures > 0) {
+				remainingFailures--;
+				return ResultState.failure("Flaky!");
+			}
+			return ResultState.success();
+		}
+
+		@Override
+		public RetryPolicy getRetryPolicy() {
+			return RetryPolicy.builder().maxAttempts(3).initialBackoffMillis(1).build();
+		}
+
+	}
+
+	public abstract static class DeclaringCommand extends SimpleCommand implements AccessDeclaringCommand {
+
+		private final Set<Object> readKeys;
+		private final Set<Object> writtenKeys;
+
+		DeclaringCommand(Set<Object> readKeys, Set<Object> writtenKeys) {
+			this.readKeys = readKeys;
+			this.writtenKeys = writtenKeys;
+		}
+
+		@Override
+		public Set<Object> getReadKeys() {
+			return readKeys;
+		}
+
+		@Override
+		public Set<Object> getWrittenKeys() {
+			return writtenKeys;
+		}
+
+	}
+
+	public static class ProducerCommand extends DeclaringCommand {
+
+		public ProducerCommand() {
+			super(ImmutableSet.<Object> of(), ImmutableSet.<Object> of("data"));
+		}
+
+		@Override
+		public ResultState execute(Context context) {
+			context.bind("data", "data");
+			return ResultState.success();
+		}
+
+	}
+
+	public static class FirstConsumerCommand extends DeclaringCommand {
+
+		public FirstConsumerCommand() {
+			super(ImmutableSet.<Object> of("data", "input"), ImmutableSet.<Object> of());
+		}
+
+		@Override
+		public ResultState execute(Context context) {
+			context.getString("input");
+			context.getString("data");
+			return ResultState.success();
+		}
+
+	}
+
+	public static class LastConsumerCommand extends DeclaringCommand {
+
+		public LastConsumerCommand() {
+			super(ImmutableSet.<Object> of("data"), ImmutableSet.<Object> of("dataBoundBeforeLastConsumer"));
+		}
+
+		@Override
+		public ResultState execute(Context context) {
+			context.bind("dataBoundBeforeLastConsumer", context.containsKey("data"));
+			return ResultState.success();
+		}
+
+	}
+
+	public static class UndeclaredWriteCommand extends DeclaringCommand {
+
+		public UndeclaredWriteCommand() {
+			super(ImmutableSet.<Object> of(), ImmutableSet.<Object> of());
+		}
+
+		@Override
+		public ResultState execute(Context context) {
+			context.bind("undeclared", "value");
+			return ResultState.success();
+		}
+
+	}
+
+	public static class CheckerCommand extends SimpleCommand {
+
+		@Override
+		public ResultState execute(Context context) {
+			context.bind("dataBoundAfterLastConsumer", context.containsKey("data"));
+			return ResultState.success();
+		}
+
+	}
+
+	public static class PartiallyFailingCommand extends SimpleCommand {
+
+		@Override
+		public ResultState execute(Context context) {
+			context.bind("partial", "partial");
+			return ResultState.failure("Fail!");
+		}
+
+	}
+
+	public static class BindingWarningCommand extends SimpleCommand {
+
+		@Override
+		public ResultState execute(Context context) {
+			context.bind("warning", "warning");
+			return ResultState.warning("Warning!");
+		}
+
+	}
+
+	public static class OverwritingCommand extends SimpleCommand {
+
+		@Override
+		public ResultState execute(Context context) {
+			context.bind("warning", "overwritten");
+			return ResultState.success();
+		}
+
+	}
+
+	public static class FlakyBindingCommand extends SimpleCommand implements RetryableCommand {
+
+		static volatile int remainingFailures;
+
+		@Override
+		public ResultState execute(Context context) {
+			context.bind("attempt", 3 - remainingFailures);
+			if (remainingFailures > 0) {
+				remainingFailures--;
+				return ResultState.failure("Flaky!");
+			}
+			return ResultState.success();
+		}
+
+		@Override
+		public RetryPolicy getRetryPolicy() {
+			return RetryPolicy.builder().maxAttempts(3).initialBackoffMillis(1).build();
+		}
+
+	}
+
 	public static class SuccessfulCommand extends SimpleCommand {
 
 		@Override
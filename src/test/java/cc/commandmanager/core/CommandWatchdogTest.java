@@ -0,0 +1,121 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.List;
+
+import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.commandmanager.core.CommandGraph.CommandGraphBuilder;
+
+import com.google.common.collect.Lists;
+
+public class CommandWatchdogTest {
+
+	private static final long MILLI = 1000000;
+
+	private ExecutionMetrics metrics;
+	private CommandClass slow;
+	private CommandGraph graph;
+
+	@Before
+	public void setUp() {
+		metrics = new ExecutionMetrics();
+		slow = new CommandClass("Slow", CommandManagerTest.SlowCommand.class.getName());
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand(slow.getName(), slow.getClassName());
+		graph = builder.build();
+	}
+
+	private void recordAttempts(int attempts, long durationNanos) {
+		for (int i = 0; i < attempts; i++) {
+			metrics.commandCompleted(slow, 1, ResultState.success(), 0, durationNanos);
+		}
+	}
+
+	@Test
+	public void testGetThresholdNanos() {
+		CommandWatchdog watchdog = CommandWatchdog.builder(metrics).minimumAttempts(10).factor(3).build();
+		recordAttempts(9, MILLI);
+		assertThat(watchdog.getThresholdNanos(slow.getName())).isEqualTo(-1);
+
+		recordAttempts(1, MILLI);
+		long threshold = watchdog.getThresholdNanos(slow.getName());
+		assertThat(threshold).isGreaterThanOrEqualTo(3 * MILLI);
+		assertThat(threshold).isLessThan(4 * MILLI);
+	}
+
+	@Test
+	public void testOverdue() {
+		// long enough for the command to be sleeping when its stack is sampled, even on a loaded machine
+		recordAttempts(20, 20 * MILLI);
+		for (int parallelism = 1; parallelism <= 2; parallelism++) {
+			OverdueListener listener = new OverdueListener();
+			CommandManager manager = new CommandManager(graph);
+			manager.setParallelism(parallelism);
+			manager.addExecutionListener(listener);
+			manager.setWatchdog(CommandWatchdog.builder(metrics).intervalMillis(5).interrupting(true).build());
+
+			ComposedResultState result = manager.executeAllCommands();
+
+			assertThat(result.isFailure()).isTrue();
+			assertThat(result.getResultStates().get(0).getMessage()).isEqualTo("Interrupted!");
+			assertThat(listener.overdueCommands).containsExactly(slow);
+			assertThat(listener.thresholdNanos).isGreaterThanOrEqualTo(2 * 20 * MILLI);
+			assertThat(containsFrame(listener.stackTrace, CommandManagerTest.SlowCommand.class.getName())).isTrue();
+		}
+	}
+
+	@Test
+	public void testNotEnoughAttempts() {
+		OverdueListener listener = new OverdueListener();
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Busy", SamplingProfilerTest.BusyCommand.class.getName());
+		CommandManager manager = new CommandManager(builder.build());
+		manager.addExecutionListener(listener);
+		manager.setWatchdog(CommandWatchdog.builder(metrics).intervalMillis(1).interrupting(true).build());
+
+		assertThat(manager.executeAllCommands().isSuccess()).isTrue();
+		assertThat(listener.overdueCommands).isEmpty();
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testBuilder_invalidPercentile() {
+		CommandWatchdog.builder(metrics).percentile(100.5);
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testBuilder_invalidFactor() {
+		CommandWatchdog.builder(metrics).factor(0.5);
+	}
+
+	private static boolean containsFrame(StackTraceElement[] stackTrace, String className) {
+		for (StackTraceElement element : stackTrace) {
+			if (element.getClassName().equals(className)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static class OverdueListener extends ExecutionListenerAdapter {
+
+		private final List<CommandClass> overdueCommands = Lists.newArrayList();
+		private long thresholdNanos;
+		private StackTraceElement[] stackTrace;
+
+		@Override
+		public synchronized void commandOverdue(CommandClass command, int attempt, long thresholdNanos,
+				StackTraceElement[] stackTrace, long startNanoTime, long nanoTime) {
+			assertThat(nanoTime - startNanoTime).isGreaterThan(thresholdNanos);
+			overdueCommands.add(command);
+			this.thresholdNanos = thresholdNanos;
+			this.stackTrace = stackTrace;
+		}
+
+	}
+
+}
@@ -3,6 +3,7 @@ package cc.commandmanager.core;
 import static org.fest.assertions.Assertions.assertThat;
 
 import java.util.Collections;
+import java.util.Map;
 
 import net.sf.qualitycheck.exception.IllegalEmptyArgumentException;
 import net.sf.qualitycheck.exception.IllegalNotEqualException;
@@ -10,6 +11,7 @@ import net.sf.qualitycheck.exception.IllegalNotEqualException;
 import org.junit.Test;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 
 public class ComposedResultStateTest {
 
@@ -174,6 +176,19 @@ public class ComposedResultStateTest {
 		assertThat(state1.equals(state2)).isFalse();
 	}
 
+	@Test
+	public void testEquals_differentRetriesAndCancellations() {
+		ComposedResultState state = ComposedResultState.builder().addResult(command, success).build();
+		ComposedResultState retried = ComposedResultState.builder().addRetriedAttempt(command, failure)
+				.addResult(command, success).build();
+		ComposedResultState cancelled = ComposedResultState.builder().addResult(command, success)
+				.addCancelled(new CommandClass("cancelled", "class")).build();
+
+		assertThat(state.equals(ComposedResultState.builder().addResult(command, success).build())).isTrue();
+		assertThat(state.equals(retried)).isFalse();
+		assertThat(state.equals(cancelled)).isFalse();
+	}
+
 	@Test
 	public void testHashCode_equal() {
 		ComposedResultState state1 = new ComposedResultState(ImmutableList.<ResultState> of(ResultState
@@ -201,6 +216,60 @@ public class ComposedResultStateTest {
 		assertThat(state1.hashCode()).isNotEqualTo(state2.hashCode());
 	}
 
+	@Test
+	public void testBuilder() {
+		CommandClass other = new CommandClass("other", "other.class");
+		ComposedResultState result = ComposedResultState.builder().addRetriedAttempt(command, failure)
+				.addResult(command, success).addResult(other, warning).build();
+
+		assertThat(result.getExecutedCommands()).containsExactly(command, other);
+		assertThat(result.getResultStates()).containsExactly(success, warning);
+		assertWarning(result);
+	}
+
+	@Test
+	public void testGetAttempts() {
+		CommandClass other = new CommandClass("other", "other.class");
+		ComposedResultState result = ComposedResultState.builder().addRetriedAttempt(command, failure)
+				.addRetriedAttempt(command, warning).addResult(command, success).build();
+
+		assertThat(result.getAttempts(command)).containsExactly(failure, warning, success);
+		assertThat(result.getAttempts(other)).isEmpty();
+	}
+
+	@Test
+	public void testGetResourceUsage() {
+		CommandClass other = new CommandClass("other", "other.class");
+		ComposedResultState result = ComposedResultState.builder()
+				.addResourceUsage(command, new ResourceUsage(10, 100, 1, 2, 3, 4))
+				.addResourceUsage(command, new ResourceUsage(5, 50, 0, 0, 1, -1)).addResult(command, success).build();
+
+		assertThat(result.getResourceUsage(command)).isEqualTo(new ResourceUsage(15, 150, 1, 2, 4, -1));
+		assertThat(result.getResourceUsage(other)).isNull();
+		assertThat(result).isEqualTo(ComposedResultState.builder().addResult(command, success).build());
+	}
+
+	@Test
+	public void testGetGcPauseNanos() {
+		CommandClass other = new CommandClass("other", "other.class");
+		ComposedResultState result = ComposedResultState.builder().addResult(command, success).build();
+		assertThat(result.getGcPauseNanos()).isEqualTo(-1);
+		assertThat(result.getGcPauseNanos(command)).isEqualTo(-1);
+
+		Map<CommandClass, Long> commandPauses = Maps.newHashMap();
+		commandPauses.put(command, 5L);
+		ComposedResultState measured = result.withGcPauses(7, commandPauses);
+		assertThat(measured.getGcPauseNanos()).isEqualTo(7);
+		assertThat(measured.getGcPauseNanos(command)).isEqualTo(5);
+		assertThat(measured.getGcPauseNanos(other)).isEqualTo(-1);
+		assertThat(measured).isEqualTo(result);
+	}
+
+	@Test(expected = IllegalEmptyArgumentException.class)
+	public void testBuilder_noResults() {
+		ComposedResultState.builder().build();
+	}
+
 	private static void assertSuccess(ComposedResultState result) {
 		assertThat(result.isSuccess()).isTrue();
 		assertThat(result.isWarning()).isFalse();
@@ -0,0 +1,119 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class ConcurrentContextTest extends ContextTest {
+
+	private static final int THREADS = 8;
+
+	@Override
+	protected Context newContext() {
+		return new ConcurrentContext();
+	}
+
+	@Test
+	public void testCopyConstructor_nullValue() {
+		Context plainContext = new Context();
+		plainContext.bind("key", null);
+		Context copy = new ConcurrentContext(plainContext);
+		assertThat(copy.get("key")).isNull();
+		assertThat(copy).isEqualTo(plainContext);
+	}
+
+	@Test
+	public void testBind_onlyOneWriterSucceeds() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger successfulBindings = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<Object>> futures = Lists.newArrayList();
+		for (int i = 0; i < THREADS; i++) {
+			final int value = i;
+			futures.add(executor.submit(new Callable<Object>() {
+
+				@Override
+				public Object call() throws Exception {
+					start.await();
+					for (int key = 0; key < 1000; key++) {
+						try {
+							context.bind(key, value);
+							successfulBindings.incrementAndGet();
+						} catch (KeyAlreadyBoundException e) {
+							// another thread won
+						}
+					}
+					return null;
+				}
+
+			}));
+		}
+		start.countDown();
+		for (Future<Object> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+
+		assertThat(successfulBindings.get()).isEqualTo(1000);
+	}
+
+	@Test
+	public void testRebind_neverUnbound() throws Exception {
+		context.bind("key", 0);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Object> writer = executor.submit(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				for (int i = 1; i <= 10000; i++) {
+					context.rebind("key", i);
+				}
+				return null;
+			}
+
+		});
+		while (!writer.isDone()) {
+			assertThat(context.get("key")).isNotNull();
+		}
+		writer.get();
+		executor.shutdown();
+		assertThat(context.getInteger("key")).isEqualTo(10000);
+	}
+
+	@Test
+	public void testBindLazy_computedOnce() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		CountingSupplier supplier = new CountingSupplier();
+		context.bindLazy("lazy", supplier);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<Object>> futures = Lists.newArrayList();
+		for (int i = 0; i < THREADS; i++) {
+			futures.add(executor.submit(new Callable<Object>() {
+
+				@Override
+				public Object call() throws Exception {
+					start.await();
+					return context.get("lazy");
+				}
+
+			}));
+		}
+		start.countDown();
+		for (Future<Object> future : futures) {
+			assertThat(future.get()).isEqualTo(1);
+		}
+		executor.shutdown();
+		assertThat(supplier.calls.get()).isEqualTo(1);
+	}
+
+}
@@ -0,0 +1,282 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+import static org.fest.assertions.MapAssert.entry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Supplier;
+
+public class ContextCodecTest {
+
+	private static final ContextKey<String> NAME = ContextKey.of("name", String.class);
+	private static final ContextKey.IntKey COUNT = ContextKey.ofInt("count");
+	private static final ContextKey.DoubleKey RATIO = ContextKey.ofDouble("ratio");
+	private static final ContextKey<Point> POINT = ContextKey.of("point", Point.class);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ContextCodec codec;
+	private Context context;
+
+	@Before
+	public void setUp() {
+		codec = ContextCodec.builder().register(ContextCodec.FIRST_CUSTOM_TAG, Point.class, new PointCodec())
+				.key(NAME).key(COUNT).key(RATIO).key(POINT).build();
+		context = new Context();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		context.bind("string", "\u00e4\u00f6\u00fc");
+		context.bind("integer", 1);
+		context.bind("long", 2L);
+		context.bind("double", 0.5);
+		context.bind("float", 0.25f);
+		context.bind("boolean", true);
+		context.bind("null", null);
+		context.bind(3, "integer key");
+		context.bind("bytes", new byte[] { 1, 2, 3 });
+		context.bind("ints", new int[] { 4, 5 });
+		context.bind("longs", new long[] { 6L });
+		context.bind("doubles", new double[] { 7.5 });
+		context.bind("point", new Point(1, 2));
+
+		Context read = roundTrip(context);
+
+		assertThat(read.getString("string")).isEqualTo("\u00e4\u00f6\u00fc");
+		assertThat(read.getInteger("integer")).isEqualTo(1);
+		assertThat(read.get("long")).isEqualTo(2L);
+		assertThat(read.getDouble("double")).isEqualTo(0.5);
+		assertThat(read.get("float")).isEqualTo(0.25f);
+		assertThat(read.getBoolean("boolean")).isTrue();
+		assertThat(read.containsKey("null")).isTrue();
+		assertThat(read.get("null")).isNull();
+		assertThat(read.getString(3)).isEqualTo("integer key");
+		assertThat(read.get("bytes", byte[].class)).isEqualTo(new byte[] { 1, 2, 3 });
+		assertThat(read.get("ints", int[].class)).isEqualTo(new int[] { 4, 5 });
+		assertThat(read.get("longs", long[].class)).isEqualTo(new long[] { 6L });
+		assertThat(read.get("doubles", double[].class)).isEqualTo(new double[] { 7.5 });
+		assertThat(read.get("point")).isEqualTo(new Point(1, 2));
+	}
+
+	@Test
+	public void testRoundTrip_typedKeys() throws IOException {
+		context.bind(NAME, "name");
+		context.bind(COUNT, 42);
+		context.bind(RATIO, 0.75);
+		context.bind(POINT, new Point(3, 4));
+
+		Context read = roundTrip(context);
+
+		assertThat(read.get(NAME)).isEqualTo("name");
+		assertThat(read.getInt(COUNT)).isEqualTo(42);
+		assertThat(read.getDouble(RATIO)).isEqualTo(0.75);
+		assertThat(read.get(POINT)).isEqualTo(new Point(3, 4));
+	}
+
+	@Test
+	public void testRoundTrip_largeArrays() throws IOException {
+		int[] ints = new int[10000];
+		double[] doubles = new double[10000];
+		for (int i = 0; i < ints.length; i++) {
+			ints[i] = i * 31;
+			doubles[i] = i / 3.0;
+		}
+		context.bind("ints", ints);
+		context.bind("doubles", doubles);
+
+		Context read = roundTrip(context);
+
+		assertThat(Arrays.equals(read.get("ints", int[].class), ints)).isTrue();
+		assertThat(Arrays.equals(read.get("doubles", double[].class), doubles)).isTrue();
+	}
+
+	@Test
+	public void testWrite_lazyValue() throws IOException {
+		context.bindLazy("lazy", new Supplier<String>() {
+
+			@Override
+			public String get() {
+				return "computed";
+			}
+
+		});
+		assertThat(roundTrip(context).getString("lazy")).isEqualTo("computed");
+	}
+
+	@Test
+	public void testWrite_offHeapStoreSkipped() throws IOException {
+		OffHeapStore store = new OffHeapStore();
+		context.bind(OffHeapStore.KEY, store);
+		context.bind("key", "value");
+		Context read = roundTrip(context);
+		store.close();
+
+		assertThat(read.containsKey(OffHeapStore.KEY)).isFalse();
+		assertThat(read.getString("key")).isEqualTo("value");
+	}
+
+	@Test
+	public void testStreaming_severalContexts() throws IOException {
+		Context other = new Context();
+		context.bind("first", 1);
+		other.bind("second", 2);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		codec.write(context, output);
+		codec.write(other, output);
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Context first = new Context();
+		Context second = new Context();
+		codec.read(input, first);
+		codec.read(input, second);
+
+		assertThat(first.snapshot().asMap()).hasSize(1).includes(entry("first", 1));
+		assertThat(second.snapshot().asMap()).hasSize(1).includes(entry("second", 2));
+		assertThat(input.read()).isEqualTo(-1);
+	}
+
+	@Test
+	public void testMappedFile() throws IOException {
+		byte[] large = new byte[3 * 1024 * 1024 + 17];
+		for (int i = 0; i < large.length; i++) {
+			large[i] = (byte) i;
+		}
+		context.bind("large", large);
+		context.bind(COUNT, 7);
+		File file = new File(folder.getRoot(), "context.bin");
+
+		codec.write(context, file);
+		Context read = new Context();
+		codec.read(file, read);
+
+		assertThat(file.length()).isLessThan(large.length + 100L);
+		assertThat(Arrays.equals(read.get("large", byte[].class), large)).isTrue();
+		assertThat(read.getInt(COUNT)).isEqualTo(7);
+	}
+
+	@Test
+	public void testMappedFile_empty() throws IOException {
+		File file = new File(folder.getRoot(), "empty.bin");
+		codec.write(context, file);
+		Context read = new Context();
+		codec.read(file, read);
+		assertThat(read.snapshot().size()).isEqualTo(0);
+	}
+
+	@Test(expected = ContextCodecException.class)
+	public void testWrite_unregisteredType() throws IOException {
+		context.bind("key", new Object());
+		roundTrip(context);
+	}
+
+	@Test(expected = ContextCodecException.class)
+	public void testWrite_unregisteredKey() throws IOException {
+		context.bind(ContextKey.of("unregistered", String.class), "value");
+		roundTrip(context);
+	}
+
+	@Test(expected = ContextCodecException.class)
+	public void testRead_noBindings() throws IOException {
+		codec.read(new DataInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4 })), context);
+	}
+
+	@Test
+	public void testRead_alreadyBound() throws IOException {
+		context.bind("first", 1);
+		context.bind("second", 2);
+		Context target = new Context();
+		target.bind("second", 0);
+		try {
+			codec.read(new DataInputStream(new ByteArrayInputStream(write(context))), target);
+			fail("Expected KeyAlreadyBoundException");
+		} catch (KeyAlreadyBoundException e) {
+			assertThat(target.containsKey("first")).isFalse();
+		}
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testRegister_reservedTag() {
+		ContextCodec.builder().register(1, Point.class, new PointCodec());
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testRegister_tagTwice() {
+		ContextCodec.builder().register(100, Point.class, new PointCodec()).register(100, Point.class,
+				new PointCodec());
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testKey_nameTwice() {
+		ContextCodec.builder().key(NAME).key(ContextKey.of("name", String.class));
+	}
+
+	private Context roundTrip(Context context) throws IOException {
+		Context read = new Context();
+		codec.read(new DataInputStream(new ByteArrayInputStream(write(context))), read);
+		return read;
+	}
+
+	private byte[] write(Context context) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		codec.write(context, new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	private static final class Point {
+
+		private final int x;
+		private final int y;
+
+		private Point(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Point && ((Point) obj).x == x && ((Point) obj).y == y;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * x + y;
+		}
+
+	}
+
+	private static final class PointCodec implements ValueCodec<Point> {
+
+		@Override
+		public void write(Point value, DataOutput output) throws IOException {
+			output.writeInt(value.x);
+			output.writeInt(value.y);
+		}
+
+		@Override
+		public Point read(DataInput input) throws IOException {
+			return new Point(input.readInt(), input.readInt());
+		}
+
+	}
+
+}
@@ -2,32 +2,135 @@ package cc.commandmanager.core;
 
 import static org.fest.assertions.Assertions.assertThat;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.sf.qualitycheck.exception.IllegalNullArgumentException;
+import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class ContextTest {
 
-	private Context context;
+	protected Context context;
 
 	@Before
 	public void setUp() {
-		context = new Context();
+		context = newContext();
+	}
+
+	protected Context newContext() {
+		return new Context();
 	}
 
 	@Test
 	public void testCopyConstructor() {
 		context.bind("key", "value");
 		assertThat(new Context(context)).isEqualTo(context);
+		assertThat(new ConcurrentContext(context)).isEqualTo(context);
 		assertThat(new Context(context)).isNotSameAs(context);
 	}
 
+	@Test
+	public void testFork() {
+		context.bind("key", "value");
+		Context fork = context.fork();
+		assertThat(fork.getClass()).isEqualTo(context.getClass());
+		assertThat(fork).isEqualTo(context);
+
+		fork.bind("forked", 1);
+		context.rebind("key", "newValue");
+		assertThat(context.containsKey("forked")).isFalse();
+		assertThat(fork.get("key")).isEqualTo("value");
+	}
+
+	@Test
+	public void testMerge() {
+		context.bind("unchanged", 0);
+		context.bind("rebound", 1);
+		context.bind("unbound", 2);
+		Context fork = context.fork();
+		fork.rebind("rebound", 10);
+		fork.unbind("unbound");
+		fork.bind("bound", 3);
+		context.bind("independent", 4);
+
+		assertThat(context.merge(fork)).isEmpty();
+		assertThat(context.getInteger("unchanged")).isEqualTo(0);
+		assertThat(context.getInteger("rebound")).isEqualTo(10);
+		assertThat(context.containsKey("unbound")).isFalse();
+		assertThat(context.getInteger("bound")).isEqualTo(3);
+		assertThat(context.getInteger("independent")).isEqualTo(4);
+	}
+
+	@Test
+	public void testMerge_conflicts() {
+		context.bind("key", "value");
+		Context fork = context.fork();
+		fork.rebind("key", "forked");
+		fork.bind("same", "same");
+		context.rebind("key", "changed");
+		context.bind("same", "same");
+
+		assertThat(context.merge(fork)).containsOnly("key");
+		assertThat(context.get("key")).isEqualTo("changed");
+	}
+
+	@Test
+	public void testMerge_twice() {
+		Context fork = context.fork();
+		fork.bind("key", "value");
+		assertThat(context.merge(fork)).isEmpty();
+		assertThat(context.merge(fork)).isEmpty();
+		assertThat(context.get("key")).isEqualTo("value");
+	}
+
+	@Test
+	public void testCommit() {
+		context.bind("rebound", 1);
+		Context fork = context.fork();
+		fork.rebind("rebound", 10);
+		fork.bind("bound", 2);
+
+		assertThat(context.commit(fork)).isEmpty();
+		assertThat(context.getInteger("rebound")).isEqualTo(10);
+		assertThat(context.getInteger("bound")).isEqualTo(2);
+	}
+
+	@Test
+	public void testCommit_conflicts() {
+		context.bind("key", "value");
+		Context fork = context.fork();
+		fork.rebind("key", "forked");
+		fork.bind("other", "other");
+		context.rebind("key", "changed");
+
+		assertThat(context.commit(fork)).containsOnly("key");
+		assertThat(context.get("key")).isEqualTo("changed");
+		assertThat(context.containsKey("other")).isFalse();
+	}
+
+	@Test
+	public void testBindAll_atomic() {
+		context.bind("two", 0);
+		Map<String, Object> numbers = Maps.newLinkedHashMap();
+		numbers.put("one", 1);
+		numbers.put("two", 2);
+		try {
+			context.bindAll(numbers);
+		} catch (KeyAlreadyBoundException e) {
+			assertThat(context.containsKey("one")).isFalse();
+			return;
+		}
+		throw new AssertionError("KeyAlreadyBoundException expected");
+	}
+
 	@Test
 	public void testBind() {
 		context.bind("key", "value");
@@ -217,6 +320,152 @@ public class ContextTest {
 		context.bindAll(null);
 	}
 
+	@Test
+	public void testTypedKey() {
+		ContextKey<String> key = ContextKey.of("key", String.class);
+		context.bind(key, "value");
+		assertThat(context.get(key)).isEqualTo("value");
+		assertThat(context.get((Object) key)).isEqualTo("value");
+		assertThat(context.containsKey(key)).isTrue();
+
+		context.rebind(key, "newValue");
+		assertThat(context.getString(key)).isEqualTo("newValue");
+		context.unbind(key);
+		assertThat(context.containsKey(key)).isFalse();
+	}
+
+	@Test
+	public void testTypedKey_sameNameDifferentKeys() {
+		ContextKey<String> key = ContextKey.of("key", String.class);
+		context.bind(key, "typed");
+		context.bind("key", "untyped");
+		context.bind(ContextKey.of("key", String.class), "other");
+		assertThat(context.get(key)).isEqualTo("typed");
+		assertThat(context.get("key")).isEqualTo("untyped");
+	}
+
+	@Test(expected = ResultTypeMismatchException.class)
+	public void testTypedKey_typeMismatch() {
+		context.bind((Object) ContextKey.of("key", String.class), 1);
+	}
+
+	@Test(expected = KeyNotBoundException.class)
+	public void testTypedKey_nothingBound() {
+		context.get(ContextKey.of("key", String.class));
+	}
+
+	@Test
+	public void testPrimitiveKeys() {
+		ContextKey.IntKey intKey = ContextKey.ofInt("int");
+		ContextKey.LongKey longKey = ContextKey.ofLong("long");
+		ContextKey.DoubleKey doubleKey = ContextKey.ofDouble("double");
+		context.bind(intKey, 1);
+		context.bind(longKey, Long.MAX_VALUE);
+		context.bind(doubleKey, 0.5);
+		assertThat(context.getInt(intKey)).isEqualTo(1);
+		assertThat(context.getLong(longKey)).isEqualTo(Long.MAX_VALUE);
+		assertThat(context.getDouble(doubleKey)).isEqualTo(0.5);
+
+		context.rebind(intKey, -1);
+		assertThat(context.getInt(intKey)).isEqualTo(-1);
+		assertThat(context.get(intKey)).isEqualTo(-1);
+		assertThat(context.getInteger(intKey)).isEqualTo(-1);
+		assertThat(context.get((Object) doubleKey, Double.class)).isEqualTo(0.5);
+	}
+
+	@Test(expected = KeyAlreadyBoundException.class)
+	public void testPrimitiveKeys_alreadyBound() {
+		ContextKey.IntKey key = ContextKey.ofInt("int");
+		context.bind(key, 1);
+		context.bind(key, 2);
+	}
+
+	@Test(expected = KeyNotBoundException.class)
+	public void testPrimitiveKeys_nothingBound() {
+		context.getLong(ContextKey.ofLong("long"));
+	}
+
+	@Test
+	public void testTypedKey_forkAndMerge() {
+		ContextKey.IntKey counter = ContextKey.ofInt("counter");
+		ContextKey<String> name = ContextKey.of("name", String.class);
+		context.bind(counter, 1);
+		Context fork = context.fork();
+		fork.rebind(counter, 2);
+		fork.bind(name, "forked");
+		assertThat(context.getInt(counter)).isEqualTo(1);
+
+		assertThat(context.merge(fork)).isEmpty();
+		assertThat(context.getInt(counter)).isEqualTo(2);
+		assertThat(context.get(name)).isEqualTo("forked");
+		assertThat(context).isEqualTo(fork);
+	}
+
+	@Test
+	public void testTypedKey_highSlots() {
+		List<ContextKey.LongKey> keys = Lists.newArrayList();
+		for (int i = 0; i <= 4 * Bindings.CHUNK_SLOTS; i++) {
+			keys.add(ContextKey.ofLong("key" + i));
+		}
+		ContextKey.LongKey high = keys.get(keys.size() - 1);
+		ContextKey<String> name = ContextKey.of("name", String.class);
+		assertThat(high.getSlot()).isGreaterThanOrEqualTo(4 * Bindings.CHUNK_SLOTS);
+
+		context.bind(high, 1L);
+		context.bind(name, "name");
+		Context fork = context.fork();
+		fork.rebind(high, 2L);
+		assertThat(context.getLong(high)).isEqualTo(1);
+		assertThat(context.snapshot().size()).isEqualTo(2);
+
+		assertThat(context.merge(fork)).isEmpty();
+		assertThat(context.getLong(high)).isEqualTo(2);
+		assertThat(context.get(high)).isEqualTo(2L);
+		assertThat(context.asMap()).hasSize(2);
+		context.unbind(high);
+		assertThat(context.containsKey(high)).isFalse();
+		assertThat(context.snapshot().plus(high, 3L).changedKeys(context.snapshot())).containsOnly(high);
+	}
+
+	@Test
+	public void testBindLazy() {
+		CountingSupplier supplier = new CountingSupplier();
+		context.bindLazy("lazy", supplier);
+		assertThat(context.containsKey("lazy")).isTrue();
+		assertThat(supplier.calls.get()).isEqualTo(0);
+
+		assertThat(context.getInteger("lazy")).isEqualTo(1);
+		assertThat(context.getInteger("lazy")).isEqualTo(1);
+		assertThat(context.fork().getInteger("lazy")).isEqualTo(1);
+		assertThat(supplier.calls.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void testBindLazy_neverRead() {
+		CountingSupplier supplier = new CountingSupplier();
+		context.bindLazy("lazy", supplier);
+		context.unbind("lazy");
+		assertThat(supplier.calls.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void testBindLazy_typedKey() {
+		ContextKey<Integer> key = ContextKey.of("lazy", Integer.class);
+		context.bindLazy(key, new CountingSupplier());
+		assertThat(context.get(key)).isEqualTo(1);
+	}
+
+	@Test(expected = KeyAlreadyBoundException.class)
+	public void testBindLazy_alreadyBound() {
+		context.bind("key", "value");
+		context.bindLazy("key", new CountingSupplier());
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testBindLazy_primitiveKey() {
+		context.bindLazy(ContextKey.ofInt("int"), new CountingSupplier());
+	}
+
 	@Test
 	public void testEquals() {
 		assertThat(context.equals(42)).isFalse();
@@ -229,6 +478,18 @@ public class ContextTest {
 		assertThat(context.equals(equalContext)).isTrue();
 	}
 
+	@Test
+	public void testEquals_lazyBindingNotComputed() {
+		CountingSupplier supplier = new CountingSupplier();
+		context.bindLazy("lazy", supplier);
+		Context fork = context.fork();
+
+		assertThat(context.equals(fork)).isTrue();
+		assertThat(context.hashCode()).isEqualTo(fork.hashCode());
+		assertThat(context.equals(new Context())).isFalse();
+		assertThat(supplier.calls.get()).isEqualTo(0);
+	}
+
 	@Test
 	public void testHashCode_equalHashCode() {
 		Context equalContext = new Context();
@@ -237,6 +498,17 @@ public class ContextTest {
 		assertThat(context.hashCode()).isEqualTo(equalContext.hashCode());
 	}
 
+	static class CountingSupplier implements Supplier<Integer> {
+
+		final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		public Integer get() {
+			return calls.incrementAndGet();
+		}
+
+	}
+
 	@Test
 	public void testHashCode_differingHashCode() {
 		Context otherContext = new Context();
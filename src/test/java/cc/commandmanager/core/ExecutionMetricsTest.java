@@ -0,0 +1,149 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cc.commandmanager.core.CommandGraph.CommandGraphBuilder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class ExecutionMetricsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ExecutionMetrics metrics;
+	private CommandManager manager;
+
+	@Before
+	public void setUp() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Success", CommandManagerTest.SuccessfulCommand.class.getName());
+		builder.addCommand("Warning", CommandManagerTest.WarningCommand.class.getName());
+		builder.addCommand("Flaky", CommandManagerTest.FlakyCommand.class.getName());
+		builder.addCommand("Failure", CommandManagerTest.FailingCommand.class.getName());
+		builder.addCommand("Dependent", CommandManagerTest.SuccessfulCommand.class.getName());
+		builder.addMandatoryDependency("Dependent", "Failure");
+		manager = new CommandManager(builder.build());
+		manager.setFailurePolicy(FailurePolicy.KEEP_GOING);
+		metrics = new ExecutionMetrics();
+		manager.addExecutionListener(metrics);
+	}
+
+	@Test
+	public void testCounters() {
+		CommandManagerTest.FlakyCommand.remainingFailures = 1;
+		manager.executeAllCommands();
+		CommandManagerTest.FlakyCommand.remainingFailures = 1;
+		manager.executeAllCommands();
+
+		assertThat(metrics.getCommandMetrics("Success").getSuccesses()).isEqualTo(2);
+		assertThat(metrics.getCommandMetrics("Success").getLatency().getCount()).isEqualTo(2);
+		assertThat(metrics.getCommandMetrics("Warning").getWarnings()).isEqualTo(2);
+		assertThat(metrics.getCommandMetrics("Flaky").getSuccesses()).isEqualTo(2);
+		assertThat(metrics.getCommandMetrics("Flaky").getRetries()).isEqualTo(2);
+		assertThat(metrics.getCommandMetrics("Flaky").getLatency().getCount()).isEqualTo(4);
+		assertThat(metrics.getCommandMetrics("Flaky").getQueueWait().getCount()).isEqualTo(4);
+		assertThat(metrics.getCommandMetrics("Failure").getFailures()).isEqualTo(2);
+		assertThat(metrics.getCommandMetrics("Dependent").getCancellations()).isEqualTo(2);
+		assertThat(metrics.getCommandMetrics("Dependent").getLatency().getCount()).isEqualTo(0);
+		assertThat(metrics.getRunFailures()).isEqualTo(2);
+		assertThat(metrics.getRunDuration().getCount()).isEqualTo(2);
+		assertThat(metrics.getRunningCommands()).isEqualTo(0);
+		assertThat(metrics.getMaxRunningCommands()).isEqualTo(1);
+	}
+
+	@Test
+	public void testParallelGauges() {
+		CommandManagerTest.FlakyCommand.remainingFailures = 1;
+		manager.setParallelism(4);
+		manager.executeAllCommands();
+
+		assertThat(metrics.getRunningCommands()).isEqualTo(0);
+		assertThat(metrics.getMaxRunningCommands()).isGreaterThanOrEqualTo(1).isLessThanOrEqualTo(4);
+		assertThat(metrics.getCommandMetrics("Flaky").getLatency().getCount()).isEqualTo(2);
+		assertThat(metrics.getCommandMetrics("Flaky").getQueueWait().getCount()).isEqualTo(2);
+	}
+
+	@Test
+	public void testParallelGauges_abortedExecution() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Slow", CommandManagerTest.SlowCommand.class.getName());
+		builder.addCommand("Failure", CommandManagerTest.FailingCommand.class.getName());
+		CommandManager aborted = new CommandManager(builder.build());
+		aborted.setParallelism(2);
+		aborted.addExecutionListener(metrics);
+
+		aborted.executeAllCommands();
+
+		assertThat(metrics.getRunningCommands()).isEqualTo(0);
+		assertThat(metrics.getRunFailures()).isEqualTo(1);
+	}
+
+	@Test
+	public void testResourceUsage() throws IOException {
+		CommandManagerTest.FlakyCommand.remainingFailures = 0;
+		manager.setResourceAccounting(true);
+		manager.executeAllCommands();
+
+		assertThat(metrics.getCommandMetrics("Success").getCpuTime().getCount()).isEqualTo(1);
+		assertThat(metrics.getCommandMetrics("Dependent").getCpuTime().getCount()).isEqualTo(0);
+		StringWriter writer = new StringWriter();
+		metrics.writePrometheus(writer);
+		assertThat(writer.toString()).contains("commandmanager_command_cpu_seconds_count{command=\"Success\"} 1\n");
+		assertThat(writer.toString()).contains("commandmanager_command_blocked_seconds_total{command=\"Success\"} ");
+	}
+
+	@Test
+	public void testWritePrometheus() throws IOException {
+		CommandManagerTest.FlakyCommand.remainingFailures = 0;
+		manager.executeAllCommands();
+		StringWriter writer = new StringWriter();
+		metrics.writePrometheus(writer);
+		String text = writer.toString();
+
+		assertThat(text).contains("# TYPE commandmanager_command_duration_seconds summary\n");
+		assertThat(text).contains("commandmanager_command_duration_seconds{command=\"Success\",quantile=\"0.99\"} ");
+		assertThat(text).contains("commandmanager_command_duration_seconds_count{command=\"Success\"} 1\n");
+		assertThat(text).contains("commandmanager_command_results_total{command=\"Warning\",result=\"warning\"} 1\n");
+		assertThat(text).contains("commandmanager_command_cancellations_total{command=\"Dependent\"} 1\n");
+		assertThat(text).contains("commandmanager_run_results_total{result=\"failure\"} 1\n");
+		assertThat(text).contains("commandmanager_run_duration_seconds_count 1\n");
+		assertThat(text).contains("commandmanager_running_commands 0\n");
+	}
+
+	@Test
+	public void testWriteJson() throws IOException {
+		CommandManagerTest.FlakyCommand.remainingFailures = 0;
+		manager.executeAllCommands();
+		File file = new File(folder.getRoot(), "metrics.json");
+		metrics.writeJson(file);
+		String json = Files.toString(file, Charsets.UTF_8);
+
+		assertThat(json).startsWith("{\"runs\":{\"successes\":0,\"warnings\":0,\"failures\":1,\"gcPauseNanos\":0,"
+				+ "\"durationNanos\":{");
+		assertThat(json).contains("\"Success\":{\"successes\":1,\"warnings\":0,\"failures\":0,\"retries\":0,"
+				+ "\"cancellations\":0,\"durationNanos\":{\"count\":1,");
+		assertThat(json).contains("\"p999\":");
+		assertThat(json).endsWith("}}\n");
+		assertThat(new File(folder.getRoot(), "metrics.json.tmp").exists()).isFalse();
+	}
+
+	@Test
+	public void testWritePrometheus_escapesLabels() throws IOException {
+		metrics.getCommandMetrics("Quote\"Back\\slash");
+		StringWriter writer = new StringWriter();
+		metrics.writePrometheus(writer);
+		assertThat(writer.toString()).contains("{command=\"Quote\\\"Back\\\\slash\"}");
+	}
+
+}
@@ -0,0 +1,127 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.commandmanager.core.CommandGraph.CommandGraphBuilder;
+import cc.commandmanager.core.CommandManagerTest.SuccessfulCommand;
+
+import com.google.common.collect.Lists;
+
+public class ExecutionProgramTest {
+
+	private CommandGraph graph;
+
+	@Before
+	public void setUp() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("A", SuccessfulCommand.class.getName());
+		builder.addCommand("B", SuccessfulCommand.class.getName());
+		builder.addCommand("C", SuccessfulCommand.class.getName());
+		builder.addMandatoryDependency("B", "A");
+		builder.addMandatoryDependency("C", "A");
+		builder.addOptionalDependency("C", "B");
+		graph = builder.build();
+	}
+
+	@Test
+	public void testCompile() {
+		ExecutionProgram program = graph.getExecutionProgram();
+
+		assertThat(program.getCommands()).isEqualTo(graph.topologicalOrderOfAllCommands());
+		assertThat(program.getDependencyCount()).isEqualTo(3);
+		int a = indexOf(program, "A");
+		int b = indexOf(program, "B");
+		int c = indexOf(program, "C");
+		assertThat(program.inDegreeOf(a)).isEqualTo(0);
+		assertThat(program.inDegreeOf(b)).isEqualTo(1);
+		assertThat(program.inDegreeOf(c)).isEqualTo(2);
+		assertThat(program.dependentsOf(a)).containsOnly(b, c);
+		assertThat(program.dependentsOf(b)).containsOnly(c);
+		assertThat(program.mandatoryDependentsOf(b)).containsOnly(false);
+		assertThat(program.dependentsOf(c)).isEmpty();
+	}
+
+	@Test
+	public void testCompile_subset() {
+		ExecutionProgram program = ExecutionProgram.compile(graph, graph.topologicalOrderOfNames("B", "C"));
+
+		assertThat(program.getDependencyCount()).isEqualTo(1);
+		assertThat(program.inDegreeOf(indexOf(program, "B"))).isEqualTo(0);
+		assertThat(program.inDegreeOf(indexOf(program, "C"))).isEqualTo(1);
+	}
+
+	@Test
+	public void testNewCounters() {
+		ExecutionProgram program = graph.getExecutionProgram();
+		int[] counters = program.newCounters();
+		counters[indexOf(program, "C")]--;
+
+		assertThat(program.newCounters()[indexOf(program, "C")]).isEqualTo(2);
+		assertThat(program.inDegreeOf(indexOf(program, "C"))).isEqualTo(2);
+	}
+
+	@Test
+	public void testGetExecutionProgram_compiledOnce() {
+		assertThat(graph.getExecutionProgram()).isSameAs(graph.getExecutionProgram());
+	}
+
+	@Test(expected = CommandNotInstantiableException.class)
+	public void testNewInstance_unknownClass() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Unknown", "cc.commandmanager.core.UnknownCommand");
+		builder.build().getExecutionProgram().newInstance(0);
+	}
+
+	@Test
+	public void testConcurrentExecutions() throws Exception {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		for (int i = 0; i < 50; i++) {
+			builder.addCommand("Command" + i, SuccessfulCommand.class.getName());
+			if (i > 1) {
+				builder.addMandatoryDependency("Command" + i, "Command" + (i / 2));
+			}
+		}
+		final CommandGraph shared = builder.build();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<ComposedResultState>> results = Lists.newArrayList();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<ComposedResultState>() {
+
+					@Override
+					public ComposedResultState call() {
+						CommandManager manager = new CommandManager(shared);
+						manager.setParallelism(3);
+						return manager.executeAllCommands(new ConcurrentContext());
+					}
+
+				}));
+			}
+			for (Future<ComposedResultState> result : results) {
+				assertThat(result.get().isSuccess()).isTrue();
+				assertThat(result.get().getExecutedCommands()).hasSize(50);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static int indexOf(ExecutionProgram program, String commandName) {
+		for (int i = 0; i < program.size(); i++) {
+			if (program.getCommands().get(i).getName().equals(commandName)) {
+				return i;
+			}
+		}
+		throw new CommandNotFoundException(commandName);
+	}
+
+}
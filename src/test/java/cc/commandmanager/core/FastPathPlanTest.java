@@ -0,0 +1,161 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+import java.util.List;
+
+import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.commandmanager.core.CommandGraph.CommandGraphBuilder;
+import cc.commandmanager.core.CommandManagerTest.FailingCommand;
+import cc.commandmanager.core.CommandManagerTest.RecordingCommand;
+import cc.commandmanager.core.CommandManagerTest.SuccessfulCommand;
+import cc.commandmanager.core.CommandManagerTest.WarningCommand;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class FastPathPlanTest {
+
+	private CommandManager manager;
+
+	@Before
+	public void setUp() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Failure", FailingCommand.class.getName());
+		builder.addCommand("Dependent", SuccessfulCommand.class.getName());
+		builder.addCommand("Transitive", WarningCommand.class.getName());
+		builder.addCommand("Independent", SuccessfulCommand.class.getName());
+		builder.addMandatoryDependency("Dependent", "Failure");
+		builder.addMandatoryDependency("Transitive", "Dependent");
+		manager = new CommandManager(builder.build());
+	}
+
+	@Test
+	public void testExecute_failFast() {
+		FastPathPlan plan = manager.compileFastPath();
+
+		assertThat(plan.execute(new Context())).isFalse();
+		assertResultEquals(plan.getResult(), manager.executeAllCommands(new Context()));
+	}
+
+	@Test
+	public void testExecute_keepGoing() {
+		manager.setFailurePolicy(FailurePolicy.KEEP_GOING);
+		FastPathPlan plan = manager.compileFastPath();
+
+		assertThat(plan.execute(new Context())).isFalse();
+		ComposedResultState result = plan.getResult();
+		assertResultEquals(result, manager.executeAllCommands(new Context()));
+		assertThat(result.getExecutedCommands()).containsOnly(
+				new CommandClass("Failure", FailingCommand.class.getName()),
+				new CommandClass("Independent", SuccessfulCommand.class.getName()));
+		assertThat(result.getCancelledCommands()).containsOnly(
+				new CommandClass("Dependent", SuccessfulCommand.class.getName()),
+				new CommandClass("Transitive", WarningCommand.class.getName()));
+	}
+
+	@Test
+	public void testExecute_subset() {
+		FastPathPlan plan = manager.compileFastPath(ImmutableList.of("Independent"));
+
+		assertThat(plan.getCommands()).containsExactly(
+				new CommandClass("Independent", SuccessfulCommand.class.getName()));
+		assertThat(plan.execute(new Context())).isTrue();
+		assertThat(plan.getResultState(0)).isEqualTo(ResultState.success());
+		assertThat(plan.getResult().isSuccess()).isTrue();
+	}
+
+	@Test
+	public void testExecute_reusesInstances() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		for (int i = 0; i < 4; i++) {
+			builder.addCommand("Command" + i, RecordingCommand.class.getName());
+			if (i > 0) {
+				builder.addMandatoryDependency("Command" + i, "Command" + (i - 1));
+			}
+		}
+		FastPathPlan plan = new CommandManager(builder.build()).compileFastPath();
+
+		List<Command> first = Lists.newArrayList();
+		List<Command> second = Lists.newArrayList();
+		Context context = new Context();
+		context.bind(RecordingCommand.EXECUTIONS, first);
+		assertThat(plan.execute(context)).isTrue();
+		context.rebind(RecordingCommand.EXECUTIONS, second);
+		assertThat(plan.execute(context)).isTrue();
+
+		assertThat(first).hasSize(4);
+		assertThat(second).isEqualTo(first);
+		assertThat(plan.getResult().getExecutedCommands()).isEqualTo(plan.getCommands());
+	}
+
+	@Test
+	public void testExecute_repeatedAfterFailure() {
+		manager.setFailurePolicy(FailurePolicy.KEEP_GOING);
+		FastPathPlan plan = manager.compileFastPath();
+
+		assertThat(plan.execute(new Context())).isFalse();
+		assertThat(plan.execute(new Context())).isFalse();
+		assertResultEquals(plan.getResult(), manager.executeAllCommands(new Context()));
+	}
+
+	@Test
+	public void testExecute_commandThrows() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("First", SuccessfulCommand.class.getName());
+		builder.addCommand("Throwing", ThrowingCommand.class.getName());
+		builder.addCommand("Last", SuccessfulCommand.class.getName());
+		builder.addMandatoryDependency("Throwing", "First");
+		builder.addMandatoryDependency("Last", "Throwing");
+		FastPathPlan plan = new CommandManager(builder.build()).compileFastPath();
+		ThrowingCommand.throwing = false;
+		assertThat(plan.execute(new Context())).isTrue();
+
+		ThrowingCommand.throwing = true;
+		try {
+			plan.execute(new Context());
+			fail("Expected an exception");
+		} catch (IllegalStateException expected) {
+			// the result states of the previous execution must not survive
+		}
+
+		assertThat(plan.getResultState(0)).isEqualTo(ResultState.success());
+		assertThat(plan.getResultState(1)).isNull();
+		assertThat(plan.getResultState(2)).isNull();
+		assertThat(plan.getResult().getCancelledCommands()).containsExactly(
+				new CommandClass("Throwing", ThrowingCommand.class.getName()),
+				new CommandClass("Last", SuccessfulCommand.class.getName()));
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testGetResult_notExecuted() {
+		manager.compileFastPath().getResult();
+	}
+
+	private static void assertResultEquals(ComposedResultState actual, ComposedResultState expected) {
+		assertThat(actual.isFailure()).isEqualTo(expected.isFailure());
+		assertThat(actual.getExecutedCommands()).isEqualTo(expected.getExecutedCommands());
+		assertThat(actual.getCancelledCommands()).isEqualTo(expected.getCancelledCommands());
+		assertThat(actual.getResultStates()).isEqualTo(expected.getResultStates());
+	}
+
+	public static class ThrowingCommand extends SimpleCommand {
+
+		static boolean throwing;
+
+		@Override
+		public ResultState execute(Context context) {
+			if (throwing) {
+				throw new IllegalStateException("Thrown!");
+			}
+			return ResultState.success();
+		}
+
+	}
+
+}
@@ -0,0 +1,86 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cc.commandmanager.core.CommandGraph.CommandGraphBuilder;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Uses the Flight Recorder API via reflection, as it is not available on all supported JVMs.
+ */
+public class FlightRecorderEventsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setUp() {
+		Assume.assumeTrue(FlightRecorderEvents.COMMAND_EXECUTION.isAvailable());
+	}
+
+	@Test
+	public void testDisabledWithoutRecording() {
+		assertThat(FlightRecorderEvents.COMMAND_EXECUTION.isEnabled()).isFalse();
+		assertThat(FlightRecorderEvents.COMMAND_EXECUTION.begin()).isNull();
+	}
+
+	@Test
+	public void testRecordedEvents() throws Exception {
+		Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+		Object recording = recordingClass.newInstance();
+		for (String name : new String[] { "CommandExecution", "PlanCompilation", "GraphBuild" }) {
+			recordingClass.getMethod("enable", String.class).invoke(recording, "cc.commandmanager." + name);
+		}
+		recordingClass.getMethod("start").invoke(recording);
+
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Success", CommandManagerTest.SuccessfulCommand.class.getName());
+		builder.addCommand("Failure", CommandManagerTest.FailingCommand.class.getName());
+		builder.addMandatoryDependency("Failure", "Success");
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setParallelism(2);
+		manager.executeAllCommands();
+
+		recordingClass.getMethod("stop").invoke(recording);
+		File file = new File(folder.getRoot(), "recording.jfr");
+		recordingClass.getMethod("dump", Class.forName("java.nio.file.Path")).invoke(recording,
+				File.class.getMethod("toPath").invoke(file));
+		recordingClass.getMethod("close").invoke(recording);
+
+		List<String> events = Lists.newArrayList();
+		Class<?> recordedEventClass = Class.forName("jdk.jfr.consumer.RecordedEvent");
+		Method getEventType = recordedEventClass.getMethod("getEventType");
+		Method getName = Class.forName("jdk.jfr.EventType").getMethod("getName");
+		Method getValue = recordedEventClass.getMethod("getValue", String.class);
+		for (Object event : (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+				.getMethod("readAllEvents", Class.forName("java.nio.file.Path"))
+				.invoke(null, File.class.getMethod("toPath").invoke(file))) {
+			String name = (String) getName.invoke(getEventType.invoke(event));
+			if (name.equals("cc.commandmanager.CommandExecution")) {
+				events.add(name + " " + getValue.invoke(event, "commandName") + " "
+						+ getValue.invoke(event, "resultState") + " " + getValue.invoke(event, "attempt"));
+			} else if (name.equals("cc.commandmanager.PlanCompilation")) {
+				events.add(name + " " + getValue.invoke(event, "commands") + " "
+						+ getValue.invoke(event, "dependencies"));
+			} else {
+				events.add(name + " " + getValue.invoke(event, "commands"));
+			}
+		}
+
+		assertThat(events).containsOnly("cc.commandmanager.GraphBuild 2", "cc.commandmanager.PlanCompilation 2 1",
+				"cc.commandmanager.CommandExecution Success success 1",
+				"cc.commandmanager.CommandExecution Failure failure 1");
+	}
+
+}
@@ -0,0 +1,80 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.Random;
+
+import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	@Test
+	public void testEmpty() {
+		assertThat(histogram.getCount()).isEqualTo(0);
+		assertThat(histogram.getMin()).isEqualTo(0);
+		assertThat(histogram.getMax()).isEqualTo(0);
+		assertThat(histogram.getMean()).isEqualTo(0.0);
+		assertThat(histogram.getValueAtPercentile(99)).isEqualTo(0);
+	}
+
+	@Test
+	public void testSmallValuesExact() {
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		assertThat(histogram.getCount()).isEqualTo(100);
+		assertThat(histogram.getSum()).isEqualTo(5050);
+		assertThat(histogram.getMin()).isEqualTo(1);
+		assertThat(histogram.getMax()).isEqualTo(100);
+		assertThat(histogram.getMean()).isEqualTo(50.5);
+		assertThat(histogram.getValueAtPercentile(0)).isEqualTo(1);
+		assertThat(histogram.getValueAtPercentile(50)).isEqualTo(50);
+		assertThat(histogram.getValueAtPercentile(99)).isEqualTo(99);
+		assertThat(histogram.getValueAtPercentile(100)).isEqualTo(100);
+	}
+
+	@Test
+	public void testRelativeError() {
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			long value = (long) Math.exp(random.nextDouble() * 40);
+			histogram.record(value);
+			LatencyHistogram single = new LatencyHistogram();
+			single.record(value);
+			single.record(Long.MAX_VALUE);
+			long reported = single.getValueAtPercentile(50);
+			assertThat(reported).isGreaterThanOrEqualTo(value);
+			assertThat(reported - value).isLessThanOrEqualTo(value / LatencyHistogram.SUB_BUCKETS);
+		}
+		assertThat(histogram.getCount()).isEqualTo(10000);
+	}
+
+	@Test
+	public void testBucketBoundaries() {
+		for (int index = 0; index < LatencyHistogram.indexOf(Long.MAX_VALUE); index++) {
+			assertThat(LatencyHistogram.indexOf(LatencyHistogram.lowestValueOf(index))).isEqualTo(index);
+			assertThat(LatencyHistogram.indexOf(LatencyHistogram.highestValueOf(index))).isEqualTo(index);
+			assertThat(LatencyHistogram.lowestValueOf(index + 1)).isEqualTo(
+					LatencyHistogram.highestValueOf(index) + 1);
+		}
+		assertThat(LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(Long.MAX_VALUE))).isEqualTo(
+				Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testNegativeValue() {
+		histogram.record(-5);
+		assertThat(histogram.getMin()).isEqualTo(0);
+		assertThat(histogram.getValueAtPercentile(50)).isEqualTo(0);
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testPercentileOutOfRange() {
+		histogram.getValueAtPercentile(101);
+	}
+
+}
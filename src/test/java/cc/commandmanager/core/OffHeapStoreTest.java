@@ -0,0 +1,233 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OffHeapStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private OffHeapStore store;
+
+	@Before
+	public void setUp() {
+		store = new OffHeapStore(folder.getRoot());
+	}
+
+	@After
+	public void tearDown() {
+		store.close();
+	}
+
+	@Test
+	public void testAllocateDirect() {
+		OffHeapRegion region = store.allocateDirect(16);
+		region.buffer().putLong(42L).putLong(43L);
+
+		ByteBuffer view = region.view();
+		assertThat(view.isDirect()).isTrue();
+		assertThat(view.remaining()).isEqualTo(16);
+		assertThat(view.getLong()).isEqualTo(42L);
+		assertThat(region.view().getLong()).isEqualTo(42L);
+		assertThat(view.getLong()).isEqualTo(43L);
+		assertThat(store.getAllocatedBytes()).isEqualTo(16);
+	}
+
+	@Test(expected = ReadOnlyBufferException.class)
+	public void testView_readOnly() {
+		store.allocateDirect(4).view().putInt(1);
+	}
+
+	@Test
+	public void testAllocateMapped() throws IOException {
+		OffHeapRegion region = store.allocateMapped(8);
+		region.buffer().putDouble(0.5);
+		assertThat(region.isMapped()).isTrue();
+		assertThat(region.view().getDouble()).isEqualTo(0.5);
+		assertThat(folder.getRoot().list()).hasSize(1);
+
+		store.close();
+		assertThat(folder.getRoot().list()).isEmpty();
+	}
+
+	@Test
+	public void testMap() throws IOException {
+		File file = folder.newFile("data.bin");
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(new byte[] { 1, 2, 3 });
+		} finally {
+			output.close();
+		}
+
+		OffHeapRegion region = store.map(file);
+		assertThat(region.capacity()).isEqualTo(3);
+		assertThat(region.view().get(2)).isEqualTo((byte) 3);
+
+		store.close();
+		assertThat(file.exists()).isTrue();
+	}
+
+	@Test
+	public void testClose_releasesRegions() {
+		OffHeapRegion region = store.allocateDirect(8);
+		store.close();
+		assertThat(region.isReleased()).isTrue();
+		assertThat(store.getAllocatedBytes()).isEqualTo(0);
+		store.close();
+	}
+
+	@Test
+	public void testRelease() {
+		OffHeapRegion region = store.allocateDirect(8);
+		assertThat(store.release(region)).isTrue();
+		assertThat(region.isReleased()).isTrue();
+		assertThat(store.getAllocatedBytes()).isEqualTo(0);
+		assertThat(store.release(region)).isFalse();
+	}
+
+	@Test(expected = RegionReleasedException.class)
+	public void testView_released() {
+		OffHeapRegion region = store.allocateDirect(8);
+		store.close();
+		region.view();
+	}
+
+	@Test
+	public void testView_readAfterRelease() {
+		OffHeapRegion region = store.allocateDirect(8);
+		region.buffer().putLong(0, 42L);
+		ByteBuffer view = region.view();
+		store.release(region);
+		System.gc();
+
+		assertThat(view.getLong(0)).isEqualTo(42L);
+		try {
+			region.view();
+			fail("view of a released region must not be created");
+		} catch (RegionReleasedException e) {
+			assertThat(region.isReleased()).isTrue();
+		}
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testAllocate_closed() {
+		store.close();
+		store.allocateDirect(8);
+	}
+
+	@Test
+	public void testExecution_scopesStore() {
+		CommandGraph.CommandGraphBuilder builder = new CommandGraph.CommandGraphBuilder();
+		builder.addCommand("Producer", ProducingCommand.class.getName());
+		Context context = new Context();
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setOffHeapStorage(true);
+
+		assertThat(manager.executeAllCommands(context).isSuccess()).isTrue();
+
+		assertThat(context.containsKey(OffHeapStore.KEY)).isFalse();
+		assertThat(context.get(ProducingCommand.REGION).isReleased()).isTrue();
+	}
+
+	@Test(expected = KeyNotBoundException.class)
+	public void testExecution_disabled() {
+		CommandGraph.CommandGraphBuilder builder = new CommandGraph.CommandGraphBuilder();
+		builder.addCommand("Producer", ProducingCommand.class.getName());
+
+		CommandManager.executeCommands(builder.build(), new Context());
+	}
+
+	@Test
+	public void testExecution_storeNotRequested() {
+		CommandGraph.CommandGraphBuilder builder = new CommandGraph.CommandGraphBuilder();
+		builder.addCommand("Command", CommandManagerTest.SuccessfulCommand.class.getName());
+		final Context context = new Context();
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setOffHeapStorage(true);
+		final AtomicBoolean bound = new AtomicBoolean();
+		manager.addExecutionListener(new ExecutionListenerAdapter() {
+
+			@Override
+			public void commandStarted(CommandClass command, int attempt, long queuedNanoTime, long nanoTime) {
+				bound.set(context.containsKey(OffHeapStore.KEY));
+			}
+
+		});
+
+		assertThat(manager.executeAllCommands(context).isSuccess()).isTrue();
+
+		assertThat(bound.get()).isTrue();
+		assertThat(context.containsKey(OffHeapStore.KEY)).isFalse();
+	}
+
+	@Test
+	public void testExecution_keepsGivenStore() {
+		CommandGraph.CommandGraphBuilder builder = new CommandGraph.CommandGraphBuilder();
+		builder.addCommand("Producer", ProducingCommand.class.getName());
+		Context context = new Context();
+		context.bind(OffHeapStore.KEY, store);
+
+		CommandManager.executeCommands(builder.build(), context);
+
+		assertThat(context.get(OffHeapStore.KEY)).isSameAs(store);
+		assertThat(context.get(ProducingCommand.REGION).view().getInt()).isEqualTo(7);
+	}
+
+	@Test
+	public void testExecution_storeUnboundByCommand() {
+		CommandGraph.CommandGraphBuilder builder = new CommandGraph.CommandGraphBuilder();
+		builder.addCommand("Producer", ProducingCommand.class.getName());
+		builder.addCommand("Unbinding", UnbindingCommand.class.getName());
+		builder.addMandatoryDependency("Unbinding", "Producer");
+		Context context = new Context();
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setOffHeapStorage(true);
+
+		assertThat(manager.executeAllCommands(context).isSuccess()).isTrue();
+
+		assertThat(context.containsKey(OffHeapStore.KEY)).isFalse();
+		assertThat(context.get(ProducingCommand.REGION).isReleased()).isTrue();
+	}
+
+	public static class UnbindingCommand extends SimpleCommand {
+
+		@Override
+		public ResultState execute(Context context) {
+			context.unbind(OffHeapStore.KEY);
+			return ResultState.success();
+		}
+
+	}
+
+	public static class ProducingCommand extends SimpleCommand {
+
+		static final ContextKey<OffHeapRegion> REGION = ContextKey.of("region", OffHeapRegion.class);
+
+		@Override
+		public ResultState execute(Context context) {
+			OffHeapRegion region = OffHeapStore.of(context).allocateDirect(4);
+			region.buffer().putInt(7);
+			context.bind(REGION, region);
+			return ResultState.success();
+		}
+
+	}
+
+}
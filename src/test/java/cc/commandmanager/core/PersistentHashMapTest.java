@@ -0,0 +1,107 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+public class PersistentHashMapTest {
+
+	@Test
+	public void testPlusAndMinus_behaveLikeHashMap() {
+		Random random = new Random(42);
+		Map<Object, Object> expected = Maps.newHashMap();
+		PersistentHashMap map = PersistentHashMap.empty();
+		for (int i = 0; i < 20000; i++) {
+			Integer key = random.nextInt(2000);
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.minus(key);
+			} else {
+				Object value = random.nextBoolean() ? null : i;
+				expected.put(key, value);
+				map = map.plus(key, value);
+			}
+			assertThat(map.size()).isEqualTo(expected.size());
+		}
+		assertThat(map.asMap()).isEqualTo(expected);
+		for (Object key : expected.keySet()) {
+			assertThat(map.containsKey(key)).isTrue();
+			assertThat(map.get(key, "absent")).isEqualTo(expected.get(key));
+		}
+	}
+
+	@Test
+	public void testHashCollisions() {
+		PersistentHashMap map = PersistentHashMap.empty();
+		for (int i = 0; i < 10; i++) {
+			map = map.plus(new CollidingKey(i), i);
+		}
+		assertThat(map.size()).isEqualTo(10);
+		assertThat(map.get(new CollidingKey(7), null)).isEqualTo(7);
+		map = map.plus("other", "value").minus(new CollidingKey(7));
+		assertThat(map.size()).isEqualTo(10);
+		assertThat(map.containsKey(new CollidingKey(7))).isFalse();
+		assertThat(map.get("other", null)).isEqualTo("value");
+	}
+
+	@Test
+	public void testModificationsDoNotAffectOriginal() {
+		PersistentHashMap original = PersistentHashMap.empty().plus("a", 1).plus("b", 2);
+		PersistentHashMap modified = original.plus("c", 3).minus("a");
+		assertThat(original.asMap()).isEqualTo(map("a", 1, "b", 2));
+		assertThat(modified.asMap()).isEqualTo(map("b", 2, "c", 3));
+	}
+
+	@Test
+	public void testUnchangedMapIsReturned() {
+		PersistentHashMap map = PersistentHashMap.empty().plus("a", 1);
+		assertThat(map.minus("b")).isSameAs(map);
+		assertThat(map.plus("a", map.get("a", null))).isSameAs(map);
+	}
+
+	@Test
+	public void testChangedKeys() {
+		PersistentHashMap base = PersistentHashMap.empty();
+		for (int i = 0; i < 1000; i++) {
+			base = base.plus(i, i);
+		}
+		PersistentHashMap modified = base.plus(1, "changed").minus(2).plus(1000, 1000).plus(3, 3);
+		assertThat(base.changedKeys(modified)).containsOnly(1, 2, 1000);
+		assertThat(modified.changedKeys(base)).containsOnly(1, 2, 1000);
+		assertThat(base.changedKeys(base)).isEmpty();
+	}
+
+	private static Map<Object, Object> map(Object... keysAndValues) {
+		Map<Object, Object> result = Maps.newHashMap();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			result.put(keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return result;
+	}
+
+	private static final class CollidingKey {
+
+		private final int id;
+
+		CollidingKey(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public int hashCode() {
+			return 42;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof CollidingKey && ((CollidingKey) obj).id == id;
+		}
+
+	}
+
+}
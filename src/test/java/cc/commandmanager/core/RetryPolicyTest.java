@@ -0,0 +1,76 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+
+import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+	private ResultState success = ResultState.success();
+	private ResultState warning = ResultState.warning("Warning!");
+	private ResultState failure = ResultState.failure("Failure!");
+	private ResultState ioFailure = ResultState.failure(new RuntimeException(new IOException("Disk not ready")));
+
+	@Test
+	public void testShouldRetry_defaults() {
+		RetryPolicy policy = RetryPolicy.builder().build();
+		assertThat(policy.shouldRetry(success, 1)).isFalse();
+		assertThat(policy.shouldRetry(warning, 1)).isFalse();
+		assertThat(policy.shouldRetry(failure, 1)).isTrue();
+		assertThat(policy.shouldRetry(failure, 2)).isTrue();
+		assertThat(policy.shouldRetry(failure, 3)).isFalse();
+	}
+
+	@Test
+	public void testShouldRetry_noRetry() {
+		assertThat(RetryPolicy.noRetry().shouldRetry(failure, 1)).isFalse();
+	}
+
+	@Test
+	public void testShouldRetry_warningsOnly() {
+		RetryPolicy policy = RetryPolicy.builder().retryOnWarning(true).retryOnFailure(false).build();
+		assertThat(policy.shouldRetry(warning, 1)).isTrue();
+		assertThat(policy.shouldRetry(failure, 1)).isFalse();
+	}
+
+	@Test
+	public void testShouldRetry_causeFilter() {
+		RetryPolicy policy = RetryPolicy.builder().retryOn(IOException.class).build();
+		assertThat(policy.shouldRetry(ioFailure, 1)).isTrue();
+		assertThat(policy.shouldRetry(failure, 1)).isFalse();
+		assertThat(policy.shouldRetry(ResultState.failure(new IllegalStateException("Broken")), 1)).isFalse();
+	}
+
+	@Test
+	public void testGetBackoffMillis_growsExponentially() {
+		RetryPolicy policy = RetryPolicy.builder().initialBackoffMillis(10).backoffMultiplier(3).maxBackoffMillis(100)
+				.build();
+		assertThat(policy.getBackoffMillis(1)).isEqualTo(10);
+		assertThat(policy.getBackoffMillis(2)).isEqualTo(30);
+		assertThat(policy.getBackoffMillis(3)).isEqualTo(90);
+		assertThat(policy.getBackoffMillis(4)).isEqualTo(100);
+	}
+
+	@Test
+	public void testGetBackoffMillis_jitter() {
+		RetryPolicy policy = RetryPolicy.builder().initialBackoffMillis(1000).jitter(0.5).build();
+		for (int i = 0; i < 100; i++) {
+			assertThat(policy.getBackoffMillis(1)).isGreaterThanOrEqualTo(500).isLessThanOrEqualTo(1000);
+		}
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testMaxAttempts_atLeastOne() {
+		RetryPolicy.builder().maxAttempts(0);
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testJitter_outOfRange() {
+		RetryPolicy.builder().jitter(1.5);
+	}
+
+}
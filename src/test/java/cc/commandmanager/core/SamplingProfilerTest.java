@@ -0,0 +1,103 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import net.sf.qualitycheck.exception.IllegalStateOfArgumentException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cc.commandmanager.core.CommandGraph.CommandGraphBuilder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class SamplingProfilerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSampling() throws IOException {
+		File file = new File(folder.getRoot(), "samples.folded");
+		SamplingProfiler profiler = SamplingProfiler.builder().intervalMillis(2).outputFile(file).build();
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Busy", BusyCommand.class.getName());
+		builder.addCommand("Other", BusyCommand.class.getName());
+		CommandManager manager = new CommandManager(builder.build());
+		manager.setParallelism(2);
+		manager.addExecutionListener(profiler);
+
+		manager.executeAllCommands();
+
+		assertThat(profiler.getSampleCount()).isGreaterThan(0);
+		String folded = Files.toString(file, Charsets.UTF_8);
+		assertThat(folded).contains(";" + BusyCommand.class.getName() + ".execute;" + BusyCommand.class.getName()
+				+ ".spin");
+		for (String line : folded.split("\n")) {
+			assertThat(line).matches("(Busy|Other);" + BusyCommand.class.getName().replace("$", "\\$")
+					+ "\\.execute(;[^; ]+)* [0-9]+");
+		}
+	}
+
+	@Test
+	public void testNoSamplesBetweenExecutions() throws IOException, InterruptedException {
+		SamplingProfiler profiler = SamplingProfiler.builder().intervalMillis(1).build();
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("Success", CommandManagerTest.SuccessfulCommand.class.getName());
+		CommandManager manager = new CommandManager(builder.build());
+		manager.addExecutionListener(profiler);
+		manager.executeAllCommands();
+		long samples = profiler.getSampleCount();
+
+		Thread.sleep(20);
+
+		assertThat(profiler.getSampleCount()).isEqualTo(samples);
+		StringWriter writer = new StringWriter();
+		profiler.writeFolded(writer);
+		assertThat(writer.toString().isEmpty()).isEqualTo(samples == 0);
+	}
+
+	@Test
+	public void testFold() {
+		StackTraceElement[] stack = { new StackTraceElement("Leaf", "leaf", null, 1),
+				new StackTraceElement("MyCommand", "execute", null, 2),
+				new StackTraceElement(CommandManager.class.getName(), "execute", null, 3),
+				new StackTraceElement("Caller", "call", null, 4) };
+		assertThat(SamplingProfiler.fold("My command", stack)).isEqualTo("My_command;MyCommand.execute;Leaf.leaf");
+		assertThat(SamplingProfiler.fold("Idle", new StackTraceElement[] { stack[3] })).isNull();
+	}
+
+	@Test(expected = IllegalStateOfArgumentException.class)
+	public void testIntervalMillis_notPositive() {
+		SamplingProfiler.builder().intervalMillis(0);
+	}
+
+	public static class BusyCommand extends SimpleCommand {
+
+		@Override
+		public ResultState execute(Context context) {
+			long end = System.nanoTime() + 200000000L;
+			long value = 0;
+			while (System.nanoTime() < end) {
+				value += spin();
+			}
+			return value != 0 ? ResultState.success() : ResultState.warning("No work");
+		}
+
+		private static long spin() {
+			long value = 0;
+			for (int i = 0; i < 10000; i++) {
+				value += i * 31L ^ value;
+			}
+			return value | 1;
+		}
+
+	}
+
+}
@@ -0,0 +1,160 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+public class SpillingContextTest extends ContextTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SpillingContext spillingContext;
+
+	@Override
+	protected Context newContext() {
+		File directory = new File(System.getProperty("java.io.tmpdir"));
+		spillingContext = SpillingContext.builder().heapBudgetBytes(0).directory(directory).build();
+		return spillingContext;
+	}
+
+	@After
+	public void tearDown() {
+		spillingContext.close();
+	}
+
+	@Test
+	public void testSpillLeastRecentlyUsed() throws Exception {
+		SpillingContext context = SpillingContext.builder().heapBudgetBytes(2 * 1016).directory(folder.getRoot())
+				.build();
+		context.bind("first", new byte[1000]);
+		context.bind("second", new byte[1000]);
+		assertThat(context.getSpillCount()).isEqualTo(0);
+		assertThat(context.getHeapBytes()).isEqualTo(2 * 1016);
+
+		context.get("first");
+		context.bind("third", new byte[1000]);
+		assertThat(context.getSpillCount()).isEqualTo(1);
+		assertThat(context.getSpilledBytes()).isGreaterThan(1000);
+		assertThat(context.getReloadCount()).isEqualTo(0);
+
+		assertThat((byte[]) context.get("second")).hasSize(1000);
+		assertThat(context.getReloadCount()).isEqualTo(1);
+		assertThat(context.getReloadedBytes()).isGreaterThan(1000);
+		assertThat(context.getSpillCount()).isEqualTo(2);
+		assertThat(context.getHeapBytes()).isEqualTo(2 * 1016);
+
+		context.close();
+		assertThat(folder.getRoot().list()).isEmpty();
+	}
+
+	@Test
+	public void testGet_concurrentReloads() throws Exception {
+		final SpillingContext context = SpillingContext.builder().heapBudgetBytes(1016)
+				.directory(folder.getRoot()).build();
+		for (int i = 0; i < 8; i++) {
+			context.bind("value" + i, new byte[1000 + i]);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = Lists.newArrayList();
+			for (int thread = 0; thread < 4; thread++) {
+				results.add(executor.submit(new Callable<Boolean>() {
+
+					@Override
+					public Boolean call() {
+						for (int round = 0; round < 50; round++) {
+							for (int i = 0; i < 8; i++) {
+								if (((byte[]) context.get("value" + i)).length != 1000 + i) {
+									return false;
+								}
+							}
+						}
+						return true;
+					}
+
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertThat(result.get()).isTrue();
+			}
+		} finally {
+			executor.shutdownNow();
+			context.close();
+		}
+		assertThat(context.getHeapBytes()).isLessThanOrEqualTo(1016 + 8);
+	}
+
+	@Override
+	@Test
+	public void testEquals() {
+		assertThat(context.equals(42)).isFalse();
+		assertThat(context.equals(null)).isFalse();
+		assertThat(context.equals(context)).isTrue();
+
+		Context equalContext = new Context();
+		context.bind("one", 1);
+		equalContext.bind("one", 1);
+		// spilled values are compared without being reloaded
+		assertThat(context.equals(equalContext)).isFalse();
+		assertThat(context.equals(context.fork())).isTrue();
+		assertThat(spillingContext.getReloadCount()).isEqualTo(0);
+	}
+
+	@Override
+	@Test
+	public void testHashCode_equalHashCode() {
+		context.bind("one", 1);
+		assertThat(context.hashCode()).isEqualTo(context.fork().hashCode());
+		assertThat(spillingContext.getReloadCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void testUnbind_releasesBudget() {
+		SpillingContext context = SpillingContext.builder().heapBudgetBytes(1016).directory(folder.getRoot()).build();
+		context.bind("first", new byte[1000]);
+		context.unbind("first");
+		context.bind("second", new byte[1000]);
+		assertThat(context.getSpillCount()).isEqualTo(0);
+		assertThat(context.getHeapBytes()).isEqualTo(1016);
+		context.close();
+	}
+
+	@Test
+	public void testCompress() {
+		SpillingContext context = SpillingContext.builder().heapBudgetBytes(0).compress(true)
+				.directory(folder.getRoot()).build();
+		context.bind("zeros", new byte[100000]);
+		assertThat(context.getSpilledBytes()).isLessThan(10000);
+		assertThat((byte[]) context.get("zeros")).hasSize(100000);
+		context.close();
+	}
+
+	@Test
+	public void testNotSerializable_neverSpilled() {
+		Object value = new Object();
+		spillingContext.bind("key", value);
+		assertThat(spillingContext.get("key")).isSameAs(value);
+		assertThat(spillingContext.getSpillCount()).isEqualTo(0);
+	}
+
+	@Test(expected = ContextSpillException.class)
+	public void testGet_closed() {
+		spillingContext.bind("key", "value");
+		spillingContext.close();
+		spillingContext.get("key");
+	}
+
+}
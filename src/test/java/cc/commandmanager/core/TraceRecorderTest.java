@@ -0,0 +1,103 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cc.commandmanager.core.CommandGraph.CommandGraphBuilder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class TraceRecorderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CommandManager manager;
+	private TraceRecorder recorder;
+
+	@Before
+	public void setUp() {
+		CommandGraphBuilder builder = new CommandGraphBuilder();
+		builder.addCommand("First", CommandManagerTest.SuccessfulCommand.class.getName());
+		builder.addCommand("Second", CommandManagerTest.SuccessfulCommand.class.getName());
+		builder.addCommand("Failure", CommandManagerTest.FailingCommand.class.getName());
+		builder.addCommand("Dependent", CommandManagerTest.SuccessfulCommand.class.getName());
+		builder.addMandatoryDependency("Second", "First");
+		builder.addMandatoryDependency("Dependent", "Failure");
+		CommandGraph graph = builder.build();
+		manager = new CommandManager(graph);
+		manager.setFailurePolicy(FailurePolicy.KEEP_GOING);
+		recorder = new TraceRecorder(graph);
+		manager.addExecutionListener(recorder);
+	}
+
+	@Test
+	public void testWrite() throws IOException {
+		manager.setParallelism(2);
+		manager.executeAllCommands();
+		String trace = write();
+
+		assertThat(trace).startsWith("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+		assertThat(trace).endsWith("]}\n");
+		assertThat(trace).contains("{\"ph\":\"M\",\"name\":\"process_name\",\"pid\":1,\"args\":{\"name\":"
+				+ "\"Execution 1\"}}");
+		assertThat(trace).contains("\"name\":\"thread_name\"");
+		assertThat(trace).contains("{\"ph\":\"X\",\"name\":\"First\",\"cat\":\"command\",\"pid\":1,\"ts\":");
+		assertThat(trace).contains("\"args\":{\"className\":\"" + CommandManagerTest.FailingCommand.class.getName()
+				+ "\",\"attempt\":1,\"result\":\"failure\"}");
+		assertThat(trace).contains("{\"ph\":\"b\",\"name\":\"Second\",\"cat\":\"queue\"");
+		assertThat(trace).contains("{\"ph\":\"i\",\"name\":\"Dependent\",\"cat\":\"cancelled\"");
+		assertThat(trace).contains("\"name\":\"Execution\",\"cat\":\"execution\"");
+		assertThat(trace).contains("\"id\":\"First->Second@1\"");
+		assertThat(trace).excludes("Failure->Dependent");
+	}
+
+	@Test
+	public void testWrite_severalExecutions() throws IOException {
+		manager.executeAllCommands();
+		manager.executeAllCommands();
+		String trace = write();
+
+		assertThat(trace).contains("\"args\":{\"name\":\"Execution 2\"}");
+		assertThat(trace).contains("\"id\":\"First->Second@2\"");
+		assertThat(trace).contains("{\"ph\":\"X\",\"name\":\"Second\",\"cat\":\"command\",\"pid\":2,\"ts\":");
+		assertThat(trace).contains("\"tid\":" + Thread.currentThread().getId() + ",");
+
+		recorder.clear();
+		assertThat(write()).isEqualTo("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[]}\n");
+	}
+
+	@Test
+	public void testWrite_file() throws IOException {
+		manager.executeAllCommands();
+		File file = new File(folder.getRoot(), "trace.json");
+		recorder.write(file);
+		assertThat(Files.toString(file, Charsets.UTF_8)).isEqualTo(write());
+	}
+
+	@Test
+	public void testWrite_withoutGraph() throws IOException {
+		TraceRecorder withoutGraph = new TraceRecorder();
+		manager.addExecutionListener(withoutGraph);
+		manager.executeAllCommands();
+		StringWriter writer = new StringWriter();
+		withoutGraph.write(writer);
+		assertThat(writer.toString()).contains("\"cat\":\"command\"").excludes("\"ph\":\"s\"");
+	}
+
+	private String write() throws IOException {
+		StringWriter writer = new StringWriter();
+		recorder.write(writer);
+		return writer.toString();
+	}
+
+}
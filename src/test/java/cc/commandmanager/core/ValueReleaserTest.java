@@ -0,0 +1,49 @@
+package cc.commandmanager.core;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import cc.commandmanager.core.CommandManagerTest.FirstConsumerCommand;
+import cc.commandmanager.core.CommandManagerTest.ProducerCommand;
+import cc.commandmanager.core.CommandManagerTest.SuccessfulCommand;
+
+import com.google.common.collect.ImmutableList;
+
+public class ValueReleaserTest {
+
+	private static final CommandClass PRODUCER = new CommandClass("Producer", ProducerCommand.class.getName());
+	private static final CommandClass CONSUMER = new CommandClass("Consumer", FirstConsumerCommand.class.getName());
+
+	@Test
+	public void testCompleted_writerCompletesAfterReader() {
+		ValueReleaser releaser = ValueReleaser.forCommands(ImmutableList.of(CONSUMER, PRODUCER));
+		Context context = new Context();
+
+		releaser.completed(CONSUMER, context);
+		context.bind("data", "data");
+		assertThat(context.containsKey("data")).isTrue();
+
+		releaser.completed(PRODUCER, context);
+		assertThat(context.containsKey("data")).isFalse();
+	}
+
+	@Test
+	public void testPendingConsumers() {
+		ValueReleaser releaser = ValueReleaser.forCommands(ImmutableList.of(PRODUCER, CONSUMER));
+
+		assertThat(releaser.getPendingConsumers()).hasSize(1);
+		assertThat(releaser.getPendingConsumers().get("data")).isEqualTo(2);
+	}
+
+	@Test
+	public void testForCommands_undeclaredCommand() {
+		List<CommandClass> commands = ImmutableList.of(PRODUCER, CONSUMER,
+				new CommandClass("Undeclared", SuccessfulCommand.class.getName()));
+
+		assertThat(ValueReleaser.forCommands(commands)).isNull();
+	}
+
+}